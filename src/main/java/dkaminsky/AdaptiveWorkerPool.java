@@ -0,0 +1,241 @@
+package dkaminsky;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pool of {@link WebsiteSearcherWorker}s whose size follows what the network will bear. Every interval it measures
+ * the pages finished per second, how many workers are busy and the latency percentiles of recent pages, and grows
+ * or shrinks the pool within its bounds, climbing towards the size with the most throughput: a change that raised
+ * throughput is repeated, one that lowered it is reversed. Slow hosts call for more workers waiting on them at once;
+ * a saturated uplink calls for fewer, since more only stretches every page. Each resize is logged with the reason
+ * for it.
+ */
+class AdaptiveWorkerPool implements Closeable {
+    static final String GROWS = "workers.grows";
+    static final String SHRINKS = "workers.shrinks";
+
+    /** Changes in throughput within this fraction of the last interval's count as no change. */
+    static final double TOLERANCE = 0.1;
+    /** A rise in 90th percentile latency beyond this fraction, with no gain in throughput, means too many workers. */
+    static final double LATENCY_RISE = 0.25;
+
+    private static final int LATENCY_SAMPLES = 1000;
+
+    /**
+     * Creates the workers of a pool.
+     */
+    interface WorkerFactory {
+        /**
+         * @param pageLatency The tracker the new worker records the latency of every page it finishes in
+         * @return a new worker, not yet started
+         */
+        WebsiteSearcherWorker newWorker(LatencyTracker pageLatency);
+    }
+
+    enum Direction { GROW, SHRINK, HOLD }
+
+    /**
+     * A size the pool should have, and why.
+     */
+    static final class Decision {
+        final int target;
+        final Direction direction;
+        final String reason;
+
+        Decision(final int target, final Direction direction, final String reason) {
+            this.target = target;
+            this.direction = direction;
+            this.reason = reason;
+        }
+    }
+
+    private final WorkerFactory factory;
+    private final int minWorkers;
+    private final int maxWorkers;
+    private final SearchStatistics statistics;
+    private final LatencyTracker pageLatency = new LatencyTracker(LATENCY_SAMPLES, 50, 1);
+    private final List<WebsiteSearcherWorker> workers = new ArrayList<>();
+    private final ScheduledExecutorService controller;
+
+    // only touched by the controller thread, or by tests driving decide() directly
+    private long lastAdjusted = System.nanoTime();
+    private long lastRecorded;
+    private double lastThroughput = -1;
+    private long lastP90 = -1L;
+    private Direction lastDirection = Direction.HOLD;
+
+    /**
+     * Starts the initial workers and the controller that resizes the pool.
+     *
+     * @param factory Creates the workers
+     * @param initialWorkers The number of workers to start with
+     * @param minWorkers The fewest workers the pool shrinks to
+     * @param maxWorkers The most workers the pool grows to
+     * @param intervalMillis How often the pool is measured and resized
+     * @param statistics Where resizes are counted
+     */
+    AdaptiveWorkerPool(final WorkerFactory factory, final int initialWorkers, final int minWorkers,
+                       final int maxWorkers, final long intervalMillis, final SearchStatistics statistics) {
+        if (factory == null) {
+            throw new IllegalArgumentException("Null worker factory passed to pool");
+        }
+        if (minWorkers < 1 || maxWorkers < minWorkers) {
+            throw new IllegalArgumentException("Pool bounds must satisfy 1 <= min <= max");
+        }
+        if (initialWorkers < minWorkers || initialWorkers > maxWorkers) {
+            throw new IllegalArgumentException("Initial workers must be within the pool bounds");
+        }
+        if (intervalMillis < 1) {
+            throw new IllegalArgumentException("Resize interval must be positive");
+        }
+        if (statistics == null) {
+            throw new IllegalArgumentException("Null statistics passed to pool");
+        }
+
+        this.factory = factory;
+        this.minWorkers = minWorkers;
+        this.maxWorkers = maxWorkers;
+        this.statistics = statistics;
+        resize(initialWorkers);
+        this.controller = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "WorkerPoolController");
+            thread.setDaemon(true);
+            return thread;
+        });
+        controller.scheduleWithFixedDelay(this::adjust, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return the number of workers in the pool, not counting retired workers finishing their last page
+     */
+    synchronized int getSize() {
+        return workers.size();
+    }
+
+    /**
+     * @return the number of workers in the pool fetching or searching a page
+     */
+    synchronized int getBusy() {
+        int busy = 0;
+        for (WebsiteSearcherWorker worker : workers) {
+            if (worker.isBusy()) {
+                busy++;
+            }
+        }
+        return busy;
+    }
+
+    /**
+     * Measures the interval since the last call and resizes the pool if that looks like it would help. Called by
+     * the controller every interval.
+     */
+    void adjust() {
+        final long now = System.nanoTime();
+        final double seconds = Math.max(1L, now - lastAdjusted) / 1e9;
+        lastAdjusted = now;
+        // every page a worker finishes is a latency sample
+        final long recorded = pageLatency.getRecorded();
+        final double throughput = (recorded - lastRecorded) / seconds;
+        lastRecorded = recorded;
+        final int size = getSize();
+        final int busy = getBusy();
+        final long p50 = pageLatency.getPercentile(50);
+        final long p90 = pageLatency.getPercentile(90);
+
+        final Decision decision = decide(size, busy, throughput, p90);
+        if (decision.target != size) {
+            System.err.println(String.format("Workers %d -> %d: %s (%.1f pages/s, %d busy, p50 %d ms, p90 %d ms)",
+                    size, decision.target, decision.reason, throughput, busy, p50, p90));
+            statistics.increment(decision.target > size ? GROWS : SHRINKS);
+            resize(decision.target);
+        }
+    }
+
+    /**
+     * Decides the size of the pool for the next interval from the measurements of the one just ended, and
+     * remembers them to compare the next interval's against.
+     *
+     * @param size The number of workers during the interval
+     * @param busy The number of those workers busy at its end
+     * @param throughput The pages finished per second during the interval
+     * @param p90 The 90th percentile latency of recent pages in milliseconds, or -1 if there are none yet
+     * @return the size the pool should have, and why
+     */
+    Decision decide(final int size, final int busy, final double throughput, final long p90) {
+        Direction direction;
+        String reason;
+        if (busy * 2 < size) {
+            // workers are waiting on input, not on hosts; more would only wait too
+            direction = Direction.SHRINK;
+            reason = "most workers idle";
+        } else if (lastThroughput < 0) {
+            direction = Direction.GROW;
+            reason = "probing";
+        } else if (throughput > lastThroughput * (1 + TOLERANCE)) {
+            direction = lastDirection == Direction.SHRINK ? Direction.SHRINK : Direction.GROW;
+            reason = "throughput rose";
+        } else if (throughput < lastThroughput * (1 - TOLERANCE)) {
+            direction = lastDirection == Direction.GROW ? Direction.SHRINK : Direction.GROW;
+            reason = "throughput fell";
+        } else if (lastP90 > 0 && p90 > lastP90 * (1 + LATENCY_RISE)) {
+            // the same pages per second, each taking longer: the workers are queueing on a shared bottleneck
+            direction = Direction.SHRINK;
+            reason = "latency rose with no gain";
+        } else if (lastDirection == Direction.GROW) {
+            direction = Direction.SHRINK;
+            reason = "no gain from growing";
+        } else if (lastDirection == Direction.SHRINK) {
+            direction = Direction.SHRINK;
+            reason = "no loss from shrinking";
+        } else {
+            direction = Direction.GROW;
+            reason = "probing";
+        }
+
+        int target = size;
+        if (direction == Direction.GROW) {
+            target = Math.min(maxWorkers, size + Math.max(1, size / 4));
+        } else if (direction == Direction.SHRINK) {
+            target = Math.max(minWorkers, size - Math.max(1, size / 5));
+        }
+        if (target == size) {
+            direction = Direction.HOLD;
+            reason = "at bound";
+        }
+
+        lastThroughput = throughput;
+        lastP90 = p90;
+        lastDirection = direction;
+        return new Decision(target, direction, reason);
+    }
+
+    /**
+     * Starts or retires workers until the pool has the given number. Retired workers finish the page they are on.
+     *
+     * @param target The number of workers wanted
+     */
+    synchronized void resize(final int target) {
+        while (workers.size() < target) {
+            final WebsiteSearcherWorker worker = factory.newWorker(pageLatency);
+            worker.start();
+            workers.add(worker);
+        }
+        while (workers.size() > target) {
+            workers.remove(workers.size() - 1).shutdown();
+        }
+    }
+
+    /**
+     * Stops the controller and retires every worker.
+     */
+    @Override
+    public void close() {
+        controller.shutdownNow();
+        resize(0);
+    }
+}
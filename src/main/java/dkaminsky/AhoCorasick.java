@@ -0,0 +1,207 @@
+package dkaminsky;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Finds any number of literals in one pass over a text, in time linear in the text whatever the number of
+ * literals. The automaton is built once and is then immutable, so it can be shared between threads.
+ *
+ * ASCII letters are folded to lower case, so the automaton reports case-insensitive hits; callers that need a
+ * case-sensitive match confirm the hit against the text.
+ *
+ * When the literals start with only a few distinct bytes, a scan of bytes that is back at the root skips through
+ * the content with a {@link ByteSearch} to the next byte a literal can start with, rather than taking the content
+ * byte by byte.
+ */
+class AhoCorasick {
+    /**
+     * Receives the hits of a scan.
+     */
+    interface HitListener {
+        /**
+         * @param literal The index of the literal found
+         * @param end The index in the text just after the hit
+         * @return true to stop the scan
+         */
+        boolean onHit(int literal, int end);
+    }
+
+    /** The class of characters that appear in no literal; they send every state back to the root. */
+    private static final char OTHER = 0;
+    private static final int[] NO_HITS = new int[0];
+
+    private final char[] classOf = new char[Character.MAX_VALUE + 1];
+    private final char[] byteClassOf = new char[256];
+    private final int columns;
+    private final int[] transitions;
+    private final int[][] hits;
+    private final ByteSearch firstBytes;
+
+    /**
+     * @param literals The literals to find, none of them empty
+     */
+    AhoCorasick(final List<String> literals) {
+        if (literals == null || literals.isEmpty()) {
+            throw new IllegalArgumentException("No literals passed to automaton");
+        }
+
+        // number the distinct characters so that each state needs a row only as wide as the alphabet
+        char classes = 0;
+        for (String literal : literals) {
+            if (literal == null || literal.isEmpty()) {
+                throw new IllegalArgumentException("Empty literal passed to automaton");
+            }
+            for (int i = 0; i < literal.length(); i++) {
+                final char c = fold(literal.charAt(i));
+                if (classOf[c] == OTHER) {
+                    classOf[c] = ++classes;
+                }
+            }
+        }
+        columns = classes + 1;
+        for (int b = 0; b < byteClassOf.length; b++) {
+            byteClassOf[b] = classOf[fold((char) b)];
+        }
+
+        // the trie of the literals
+        final List<int[]> rows = new ArrayList<>();
+        final List<int[]> outputs = new ArrayList<>();
+        rows.add(newRow());
+        outputs.add(NO_HITS);
+        for (int index = 0; index < literals.size(); index++) {
+            final String literal = literals.get(index);
+            int state = 0;
+            for (int i = 0; i < literal.length(); i++) {
+                final int column = classOf[fold(literal.charAt(i))];
+                if (rows.get(state)[column] < 0) {
+                    rows.get(state)[column] = rows.size();
+                    rows.add(newRow());
+                    outputs.add(NO_HITS);
+                }
+                state = rows.get(state)[column];
+            }
+            outputs.set(state, append(outputs.get(state), index));
+        }
+
+        // breadth first, so that a state's failure state is complete before the state itself: follow failure
+        // links for missing transitions, and inherit the hits of the failure state
+        final int[] failure = new int[rows.size()];
+        final Deque<Integer> queue = new ArrayDeque<>();
+        final int[] root = rows.get(0);
+        for (int column = 0; column < columns; column++) {
+            if (root[column] < 0) {
+                root[column] = 0;
+            } else {
+                queue.add(root[column]);
+            }
+        }
+        while (!queue.isEmpty()) {
+            final int state = queue.poll();
+            final int[] row = rows.get(state);
+            row[OTHER] = 0;
+            for (int column = 1; column < columns; column++) {
+                final int next = row[column];
+                if (next < 0) {
+                    row[column] = rows.get(failure[state])[column];
+                } else {
+                    failure[next] = rows.get(failure[state])[column];
+                    for (int inherited : outputs.get(failure[next])) {
+                        outputs.set(next, append(outputs.get(next), inherited));
+                    }
+                    queue.add(next);
+                }
+            }
+        }
+
+        transitions = new int[rows.size() * columns];
+        for (int state = 0; state < rows.size(); state++) {
+            System.arraycopy(rows.get(state), 0, transitions, state * columns, columns);
+        }
+        hits = outputs.toArray(new int[0][]);
+
+        // the bytes that leave the root are those a literal can start with
+        final byte[] starts = new byte[256];
+        int startCount = 0;
+        for (int b = 0; b < 256; b++) {
+            if (transitions[byteClassOf[b]] != 0) {
+                starts[startCount++] = (byte) b;
+            }
+        }
+        firstBytes = ByteSearch.of(Arrays.copyOf(starts, startCount));
+    }
+
+    /**
+     * Scans a text, reporting every hit in order of where it ends.
+     * @param text The text
+     * @param listener Receives the hits
+     * @return true if the listener stopped the scan
+     */
+    boolean scan(final CharSequence text, final HitListener listener) {
+        int state = 0;
+        for (int i = 0; i < text.length(); i++) {
+            state = transitions[state * columns + classOf[fold(text.charAt(i))]];
+            for (int literal : hits[state]) {
+                if (listener.onHit(literal, i + 1)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Scans bytes, each taken as the character of the same value, so that ASCII literals are found in content
+     * without decoding it. Content may arrive in pieces: each scan continues from the state the last one left off.
+     * @param data The bytes, between the buffer's position and limit. The position is advanced past the bytes
+     *             scanned, which is all of them unless the listener stops the scan.
+     * @param state The state to start from, 0 at the start of the content
+     * @param listener Receives the hits, each with its end as an index into the buffer
+     * @return the state to continue from
+     */
+    int scan(final ByteBuffer data, final int state, final HitListener listener) {
+        int current = state;
+        int position = data.position();
+        final int limit = data.limit();
+        while (position < limit) {
+            if (current == 0 && firstBytes != null) {
+                position = firstBytes.next(data, position, limit);
+                if (position == limit) {
+                    break;
+                }
+            }
+            current = transitions[current * columns + byteClassOf[data.get(position++) & 0xFF]];
+            for (int literal : hits[current]) {
+                if (listener.onHit(literal, position)) {
+                    data.position(position);
+                    return current;
+                }
+            }
+        }
+        data.position(position);
+        return current;
+    }
+
+    /**
+     * Folds ASCII upper case letters to lower case.
+     */
+    static char fold(final char c) {
+        return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+    }
+
+    private int[] newRow() {
+        final int[] row = new int[columns];
+        Arrays.fill(row, -1);
+        return row;
+    }
+
+    private static int[] append(final int[] values, final int value) {
+        final int[] appended = Arrays.copyOf(values, values.length + 1);
+        appended[values.length] = value;
+        return appended;
+    }
+}
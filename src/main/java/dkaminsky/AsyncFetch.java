@@ -0,0 +1,12 @@
+package dkaminsky;
+
+/**
+ * Handle on a fetch started by an {@link AsyncURLStreamStrategy}.
+ */
+public interface AsyncFetch {
+    /**
+     * Aborts the fetch and releases its connection. No further callbacks are made to its listener once this
+     * returns, other than one that is already in progress.
+     */
+    void cancel();
+}
@@ -0,0 +1,38 @@
+package dkaminsky;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Callback interface through which an {@link AsyncURLStreamStrategy} reports the progress of a fetch. Unless the
+ * fetch is cancelled, exactly one of {@link #onComplete()} or {@link #onFailure(IOException)} is called last.
+ * Callbacks for a single fetch are never invoked concurrently, but may arrive on an I/O thread, so they should
+ * not block.
+ */
+public interface AsyncFetchListener {
+    /**
+     * Called once the response head has been received, before any content.
+     * @param head The status and headers of the response
+     */
+    void onResponse(HttpResponseHead head);
+
+    /**
+     * Called with each piece of content as it arrives from the network.
+     * @param data The content bytes, between the buffer's position and limit. Only valid for the duration of the
+     *             call.
+     * @return true to keep reading, false if no more content is wanted, in which case the fetch is aborted and
+     *         {@link #onComplete()} follows
+     */
+    boolean onData(ByteBuffer data);
+
+    /**
+     * Called when all wanted content has been delivered.
+     */
+    void onComplete();
+
+    /**
+     * Called if the fetch could not be completed.
+     * @param e The cause of the failure
+     */
+    void onFailure(IOException e);
+}
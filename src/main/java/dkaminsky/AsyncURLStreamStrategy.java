@@ -0,0 +1,20 @@
+package dkaminsky;
+
+import java.net.URL;
+
+/**
+ * Asynchronous counterpart of {@link URLStreamStrategy}. Rather than handing back a stream that the calling
+ * thread blocks on, the content of the URL is pushed to a listener as it arrives, so a small number of threads
+ * can keep many fetches in flight at once.
+ */
+public interface AsyncURLStreamStrategy {
+    /**
+     * Starts fetching the provided URL. Returns immediately; the outcome is reported to the listener from
+     * another thread.
+     *
+     * @param url The URL to fetch
+     * @param listener Receives the response and its content as it arrives
+     * @return A handle which can be used to cancel the fetch
+     */
+    AsyncFetch fetch(URL url, AsyncFetchListener listener);
+}
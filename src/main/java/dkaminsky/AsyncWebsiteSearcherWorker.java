@@ -0,0 +1,242 @@
+package dkaminsky;
+
+import java.io.IOException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Pattern;
+
+/**
+ * Asynchronous counterpart of {@link WebsiteSearcherWorker}. A single thread consumes {@link WebsiteSearcherInput}s
+ * and starts a fetch for each through an {@link AsyncURLStreamStrategy}, without waiting for it to finish. The
+ * content of each page is matched line by line against all of the job's patterns as it arrives, and the fetch is
+ * stopped as soon as every pattern has matched. The URL is then sent to the output queue along with the patterns
+ * that matched.
+ *
+ * Each page is decoded, if the patterns need it, in the charset the {@link CharsetDetector} picks from the
+ * response and the start of the content, which is held back until there is enough of it to tell.
+ *
+ * The number of fetches in flight is bounded so that a long input list cannot open an unbounded number of
+ * connections. A fetch is stopped once its page's byte budget is spent, or once a regular expression has spent
+ * longer on the page than the match options allow, which matters the more here since matching holds up the I/O
+ * thread. A failed fetch is offered to the retry handler. The listener is told how each search ended.
+ */
+class AsyncWebsiteSearcherWorker extends Thread {
+    private final BlockingQueue<WebsiteSearcherInput> inputQueue;
+    private final BlockingQueue<SearchResult> outputQueue;
+    private final AsyncURLStreamStrategy urlStreamStrategy;
+    private final WebsiteSearcherListener listener;
+    private final PageBudget budget;
+    private final RetryHandler retryHandler;
+    private final CharsetDetector charsets;
+    private final Semaphore inFlight;
+    private final AtomicBoolean running = new AtomicBoolean(true);
+
+    AsyncWebsiteSearcherWorker(final BlockingQueue<WebsiteSearcherInput> inputQueue,
+                               final BlockingQueue<SearchResult> outputQueue,
+                               final AsyncURLStreamStrategy urlStreamStrategy,
+                               final int maxInFlight,
+                               final WebsiteSearcherListener listener,
+                               final PageBudget budget,
+                               final RetryHandler retryHandler,
+                               final CharsetDetector charsets) {
+        super("AsyncWebSearcherWorker");
+        if (inputQueue == null) {
+            throw new IllegalArgumentException("Null input queue passed to worker");
+        }
+        if (outputQueue == null) {
+            throw new IllegalArgumentException("Null output queue passed to worker");
+        }
+        if (urlStreamStrategy == null) {
+            throw new IllegalArgumentException("Null URL stream strategy passed to worker");
+        }
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("Worker must allow at least one fetch in flight");
+        }
+        if (listener == null) {
+            throw new IllegalArgumentException("Null listener passed to worker");
+        }
+        if (budget == null) {
+            throw new IllegalArgumentException("Null page budget passed to worker");
+        }
+        if (retryHandler == null) {
+            throw new IllegalArgumentException("Null retry handler passed to worker");
+        }
+        if (charsets == null) {
+            throw new IllegalArgumentException("Null charset detector passed to worker");
+        }
+
+        this.inputQueue = inputQueue;
+        this.outputQueue = outputQueue;
+        this.urlStreamStrategy = urlStreamStrategy;
+        this.listener = listener;
+        this.budget = budget;
+        this.retryHandler = retryHandler;
+        this.charsets = charsets;
+        this.inFlight = new Semaphore(maxInFlight);
+    }
+
+    /**
+     * Indicates if the main processing loop of this thread will continue after the current iteration.
+     *
+     * @return Whether this thread will continue.
+     */
+    public boolean isRunning() {
+        return this.running.get();
+    }
+
+    /**
+     * Sets an internal flag telling the worker thread to stop dispatching new fetches.
+     */
+    void shutdown() {
+        this.running.set(false);
+    }
+
+    /**
+     * The dispatch loop of the worker thread. Takes inputs off the input queue and starts a fetch for each,
+     * blocking only while the maximum number of fetches is already in flight.
+     */
+    @Override
+    public void run() {
+        while (running.get()) {
+            try {
+                final WebsiteSearcherInput input = inputQueue.take();
+                inFlight.acquire();
+                urlStreamStrategy.fetch(input.getUrl(), new PageListener(input));
+            } catch (InterruptedException e) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Matches the content of a single page as it arrives.
+     */
+    private final class PageListener implements AsyncFetchListener {
+        private final WebsiteSearcherInput input;
+        private final URL url;
+        private final ByteBuffer head = ByteBuffer.allocate(CharsetDetector.SNIFF_BYTES);
+        private String contentType;
+        private ContentMatcher matcher;
+        private long remaining = Long.MAX_VALUE;
+        private boolean overBudget;
+        private PatternTimeoutException timedOut;
+
+        PageListener(final WebsiteSearcherInput input) {
+            this.input = input;
+            this.url = input.getUrl();
+        }
+
+        @Override
+        public void onResponse(final HttpResponseHead head) {
+            contentType = head.getHeader("Content-Type");
+            remaining = budget.getLimit(contentType);
+        }
+
+        @Override
+        public boolean onData(final ByteBuffer data) {
+            if (remaining == 0) {
+                overBudget = true;
+                return false;
+            }
+            final ByteBuffer allowed = data.duplicate();
+            if (allowed.remaining() > remaining) {
+                allowed.limit(allowed.position() + (int) remaining);
+            }
+            remaining -= allowed.remaining();
+            final boolean allFound;
+            try {
+                allFound = feed(allowed);
+            } catch (PatternTimeoutException e) {
+                timedOut = e;
+                return false; // the rest won't be searched
+            }
+            data.position(allowed.position());
+            if (allFound) {
+                return false; // nothing left to look for
+            }
+            if (data.hasRemaining()) {
+                overBudget = true; // stopping here aborts the fetch
+                return false;
+            }
+            return true;
+        }
+
+        /**
+         * Holds content back until there is enough to sniff the charset from, then matches it and all that
+         * follows.
+         */
+        private boolean feed(final ByteBuffer content) {
+            if (matcher == null) {
+                final int count = Math.min(head.remaining(), content.remaining());
+                final int limit = content.limit();
+                content.limit(content.position() + count);
+                head.put(content);
+                content.limit(limit);
+                if (head.hasRemaining()) {
+                    return false;
+                }
+                if (startMatching()) {
+                    return true;
+                }
+            }
+            return matcher.feed(content);
+        }
+
+        private boolean startMatching() {
+            head.flip();
+            matcher = input.getPatterns().newMatcher(charsets.detect(contentType, head),
+                    HtmlTextMatcher.isMarkup(contentType));
+            return matcher.feed(head);
+        }
+
+        @Override
+        public void onComplete() {
+            if (timedOut == null) {
+                try {
+                    if (matcher == null) {
+                        startMatching();
+                    }
+                    matcher.finish();
+                } catch (PatternTimeoutException e) {
+                    timedOut = e;
+                }
+            }
+            final List<Pattern> matchedPatterns = matcher.getMatched();
+            final boolean matched = !matchedPatterns.isEmpty();
+            if (matched) {
+                outputQueue.offer(new SearchResult(url, matchedPatterns));
+            }
+            inFlight.release();
+            final SearchOutcome outcome;
+            if (timedOut != null) {
+                System.err.println("Pattern timed out on URL: " + url.toString() + " (" + timedOut.getPattern() + ")");
+                outcome = SearchOutcome.PATTERN_TIMEOUT;
+            } else if (matched) {
+                outcome = SearchOutcome.MATCHED;
+            } else if (overBudget) {
+                outcome = SearchOutcome.NO_MATCH_WITHIN_BUDGET;
+            } else {
+                outcome = SearchOutcome.NOT_MATCHED;
+            }
+            listener.onFinished(input, outcome);
+        }
+
+        @Override
+        public void onFailure(final IOException e) {
+            inFlight.release();
+            if (retryHandler.retry(input, e)) {
+                System.err.println("Will retry URL: " + url.toString() + " (" + e + ")");
+                listener.onFinished(input, SearchOutcome.RETRYING);
+                return;
+            }
+            // nothing to do but print and continue
+            System.err.println("I/O exception reading data from URL: " + url.toString());
+            e.printStackTrace(System.err);
+            listener.onFinished(input, SearchOutcome.FAILED);
+        }
+    }
+}
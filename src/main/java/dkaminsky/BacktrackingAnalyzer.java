@@ -0,0 +1,107 @@
+package dkaminsky;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.regex.Pattern;
+
+/**
+ * Looks for the shape of regular expression that makes {@link Pattern} backtrack catastrophically: an unbounded
+ * quantifier on a group that itself holds one, as in {@code (a+)+} or {@code (\w+\s?)*}. On text that almost
+ * matches, such a pattern tries every way of sharing the text between the inner and outer repetitions, which
+ * takes time exponential in the length of the text.
+ *
+ * A quick check of the pattern's text, run once when the job starts, not a proof: it misses other exponential
+ * shapes, such as repeated alternatives that overlap, and flags some nested quantifiers that are harmless because
+ * the inner repetition can only match one way.
+ */
+final class BacktrackingAnalyzer {
+    private BacktrackingAnalyzer() {
+    }
+
+    /**
+     * The first group in the pattern that has an unbounded quantifier and holds another.
+     * @param pattern The pattern
+     * @return the group with its quantifier, such as {@code (a+)+}, or null if there is none
+     */
+    static String nestedQuantifier(final Pattern pattern) {
+        if ((pattern.flags() & Pattern.LITERAL) != 0) {
+            return null;
+        }
+        final String regex = pattern.pattern();
+        // for each open group, where it starts and whether it holds an unbounded quantifier so far
+        final Deque<int[]> groups = new ArrayDeque<>();
+        groups.push(new int[] {0, 0});
+        int closedStart = -1;
+        boolean closedUnbounded = false;
+        int i = 0;
+        while (i < regex.length()) {
+            final char c = regex.charAt(i);
+            final int groupStart = closedStart;
+            closedStart = -1;
+            if (c == '\\') {
+                if (i + 1 < regex.length() && regex.charAt(i + 1) == 'Q') {
+                    final int end = regex.indexOf("\\E", i + 2);
+                    i = end < 0 ? regex.length() : end + 2;
+                } else {
+                    i += 2;
+                }
+            } else if (c == '[') {
+                i = endOfClass(regex, i);
+            } else if (c == '(') {
+                groups.push(new int[] {i, 0});
+                i++;
+            } else if (c == ')' && groups.size() > 1) {
+                final int[] group = groups.pop();
+                closedStart = group[0];
+                closedUnbounded = group[1] != 0;
+                if (closedUnbounded) {
+                    groups.peek()[1] = 1;
+                }
+                i++;
+            } else if (c == '*' || c == '+' || c == '{') {
+                final int end = c == '{' ? regex.indexOf('}', i) : i;
+                if (end < 0) {
+                    return null;
+                }
+                if (c != '{' || regex.substring(i, end).endsWith(",")) {
+                    if (groupStart >= 0 && closedUnbounded) {
+                        return regex.substring(groupStart, end + 1);
+                    }
+                    groups.peek()[1] = 1;
+                }
+                i = end + 1;
+            } else {
+                i++;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The index just past the character class that starts at the given index, which may nest other classes.
+     */
+    private static int endOfClass(final String regex, final int start) {
+        int depth = 0;
+        int i = start;
+        while (i < regex.length()) {
+            final char c = regex.charAt(i);
+            if (c == '\\') {
+                i += 2;
+                continue;
+            }
+            if (c == '[') {
+                depth++;
+                if (i + 1 < regex.length() && regex.charAt(i + 1) == '^') {
+                    i++;
+                }
+                if (i + 1 < regex.length() && regex.charAt(i + 1) == ']') {
+                    i++; // a leading ] is literal
+                }
+            } else if (c == ']' && --depth == 0) {
+                return i + 1;
+            }
+            i++;
+        }
+        return i;
+    }
+}
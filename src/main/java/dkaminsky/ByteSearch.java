@@ -0,0 +1,77 @@
+package dkaminsky;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Finds the next of a few byte values in a buffer, eight bytes at a time: each value is compared against a whole
+ * {@code long} of content at once, with the bytes that equal it found by carry-free arithmetic, and only the last
+ * few bytes of a range are looked at one by one. Used to skip through content to where a literal may start.
+ *
+ * Immutable, so it can be shared between threads.
+ */
+final class ByteSearch {
+    /** The most values searched for at once; beyond a few, most content holds one of them every few bytes. */
+    static final int MAX_VALUES = 4;
+
+    private static final long LOW_SEVEN_BITS = 0x7F7F7F7F7F7F7F7FL;
+    private static final long EVERY_BYTE = 0x0101010101010101L;
+
+    private final long[] broadcasts;
+    private final boolean[] wanted = new boolean[256];
+
+    private ByteSearch(final byte[] values) {
+        this.broadcasts = new long[values.length];
+        for (int i = 0; i < values.length; i++) {
+            broadcasts[i] = (values[i] & 0xFFL) * EVERY_BYTE;
+            wanted[values[i] & 0xFF] = true;
+        }
+    }
+
+    /**
+     * A search for the given values, if there are few enough of them for the search to pay.
+     * @param values The distinct values
+     * @return the search, or null if there are none or more than {@link #MAX_VALUES}
+     */
+    static ByteSearch of(final byte[] values) {
+        return values.length == 0 || values.length > MAX_VALUES ? null : new ByteSearch(values);
+    }
+
+    /**
+     * The index of the first of the values between the given indexes of a buffer.
+     * @param data The buffer, read by absolute index so that its position is left alone
+     * @param from The first index to look at
+     * @param to The index just after the last to look at
+     * @return the index of the first byte that is one of the values, or {@code to} if none is
+     */
+    int next(final ByteBuffer data, final int from, final int to) {
+        final boolean bigEndian = data.order() == ByteOrder.BIG_ENDIAN;
+        int i = from;
+        for (; i + Long.BYTES <= to; i += Long.BYTES) {
+            final long word = data.getLong(i);
+            long found = 0;
+            for (long broadcast : broadcasts) {
+                found |= zeroBytes(word ^ broadcast);
+            }
+            if (found != 0) {
+                // the first byte in the buffer is the most significant of a big endian long
+                return i + ((bigEndian ? Long.numberOfLeadingZeros(found) : Long.numberOfTrailingZeros(found)) >>> 3);
+            }
+        }
+        for (; i < to; i++) {
+            if (wanted[data.get(i) & 0xFF]) {
+                return i;
+            }
+        }
+        return to;
+    }
+
+    /**
+     * The high bit of each byte of the word that is zero, and no other bit. Unlike the shorter
+     * {@code (x - 0x01..) & ~x & 0x80..}, no borrow can flag a byte beside a zero one.
+     */
+    private static long zeroBytes(final long word) {
+        final long low = (word & LOW_SEVEN_BITS) + LOW_SEVEN_BITS;
+        return ~(low | word | LOW_SEVEN_BITS);
+    }
+}
@@ -0,0 +1,257 @@
+package dkaminsky;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Strategy decorator that makes repeated runs cheap by revalidating content instead of fetching it again. The
+ * content read for each URL is stored in a {@link ResponseCache} along with its validators. The next fetch of
+ * the URL sends them as If-None-Match and If-Modified-Since, and if the server answers 304 Not Modified the
+ * stored content is served from disk.
+ *
+ * Workers usually stop reading once they find a match, so often only a prefix of the content is stored. That is
+ * enough as long as the search stops within the prefix again. If a reader goes past the end of the stored prefix,
+ * the URL is fetched again unconditionally and the rest of its content follows on seamlessly.
+ *
+ * Records {@link #HITS}, {@link #MISSES}, {@link #CHANGED} and {@link #REFETCHES} in the given
+ * {@link SearchStatistics}.
+ */
+class CachingURLStreamStrategy implements URLStreamStrategy {
+    static final String HITS = "cache.notModified";
+    static final String MISSES = "cache.misses";
+    static final String CHANGED = "cache.modified";
+    static final String REFETCHES = "cache.refetches";
+
+    private final URLStreamStrategy delegate;
+    private final ResponseCache cache;
+    private final SearchStatistics statistics;
+
+    /**
+     * @param delegate The strategy that fetches from the network
+     * @param cache Where content and validators are stored
+     * @param statistics Where cache counts are recorded
+     */
+    CachingURLStreamStrategy(final URLStreamStrategy delegate, final ResponseCache cache,
+                             final SearchStatistics statistics) {
+        if (delegate == null) {
+            throw new IllegalArgumentException("Null delegate passed to caching strategy");
+        }
+        if (cache == null) {
+            throw new IllegalArgumentException("Null response cache passed to caching strategy");
+        }
+        if (statistics == null) {
+            throw new IllegalArgumentException("Null statistics passed to caching strategy");
+        }
+
+        this.delegate = delegate;
+        this.cache = cache;
+        this.statistics = statistics;
+    }
+
+    @Override
+    public InputStream openStream(final URL url) throws IOException {
+        return fetch(url).getContent();
+    }
+
+    @Override
+    public FetchResponse fetch(final URL url) throws IOException {
+        final ResponseCache.Entry entry = cache.get(url);
+        if (entry == null) {
+            statistics.increment(MISSES);
+            return record(url, delegate.fetch(url));
+        }
+
+        final Map<String, String> validators = new HashMap<>();
+        if (entry.getEtag() != null) {
+            validators.put("If-None-Match", entry.getEtag());
+        }
+        if (entry.getLastModified() != null) {
+            validators.put("If-Modified-Since", entry.getLastModified());
+        }
+        final FetchResponse response = delegate.fetch(url, validators);
+        if (response.getStatusCode() != 304) {
+            statistics.increment(CHANGED);
+            return record(url, response);
+        }
+
+        response.close();
+        final InputStream stored;
+        try {
+            stored = entry.openBody();
+        } catch (IOException e) {
+            // the entry went away underneath us
+            cache.remove(url);
+            statistics.increment(MISSES);
+            return record(url, delegate.fetch(url));
+        }
+        statistics.increment(HITS);
+        if (entry.isComplete()) {
+            return new FetchResponse(stored, entry.getContentType());
+        }
+        final ContinuedInputStream content = new ContinuedInputStream(url, stored, entry.getLength());
+        return new FetchResponse(content, entry.getContentType(), content::abort);
+    }
+
+    @Override
+    public FetchResponse fetch(final URL url, final Map<String, String> headers) throws IOException {
+        // the caller's own conditions have nothing to do with what is cached
+        return headers.isEmpty() ? fetch(url) : delegate.fetch(url, headers);
+    }
+
+    /**
+     * Stores the content of a response as it is read, if it can be revalidated later.
+     */
+    private FetchResponse record(final URL url, final FetchResponse response) throws IOException {
+        final String etag = response.getHeader("ETag");
+        final String lastModified = response.getHeader("Last-Modified");
+        if (response.getStatusCode() != 200 || (etag == null && lastModified == null)) {
+            cache.remove(url);
+            return response;
+        }
+
+        final ResponseCache.Recording recording;
+        try {
+            recording = cache.record(url, etag, lastModified, response.getContentType());
+        } catch (IOException e) {
+            return response; // fetching matters more than caching
+        }
+        return new FetchResponse(new RecordingInputStream(response.getContent(), recording),
+                response.getContentType(), response::abort);
+    }
+
+    /**
+     * Passes content through while recording it, and stores what was read when closed.
+     */
+    private static final class RecordingInputStream extends FilterInputStream {
+        private final ResponseCache.Recording recording;
+        private boolean reachedEnd;
+        private boolean failed;
+
+        RecordingInputStream(final InputStream in, final ResponseCache.Recording recording) {
+            super(in);
+            this.recording = recording;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            final int count;
+            try {
+                count = in.read(b, off, len);
+            } catch (IOException e) {
+                failed = true;
+                throw e;
+            }
+            if (count < 0) {
+                reachedEnd = true;
+            } else {
+                try {
+                    recording.write(b, off, count);
+                } catch (IOException e) {
+                    failed = true; // keep reading, just stop caching
+                    recording.discard();
+                }
+            }
+            return count;
+        }
+
+        @Override
+        public long skip(final long n) throws IOException {
+            // skipped content would leave a hole in the recording
+            final byte[] discard = new byte[(int) Math.min(n, 4096)];
+            final int count = read(discard, 0, discard.length);
+            return Math.max(0, count);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                if (failed) {
+                    recording.discard();
+                } else {
+                    try {
+                        recording.commit(reachedEnd);
+                    } catch (IOException e) {
+                        // the next run simply fetches again
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Serves a stored prefix, then fetches the URL again and carries on from where the prefix ended.
+     */
+    private final class ContinuedInputStream extends InputStream {
+        private final URL url;
+        private final long prefixLength;
+        private InputStream current;
+        private FetchResponse continuation;
+
+        ContinuedInputStream(final URL url, final InputStream prefix, final long prefixLength) {
+            this.url = url;
+            this.current = prefix;
+            this.prefixLength = prefixLength;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            final int count = current.read(b, off, len);
+            if (count >= 0 || continuation != null) {
+                return count;
+            }
+            continueFromNetwork();
+            return current.read(b, off, len);
+        }
+
+        private void continueFromNetwork() throws IOException {
+            statistics.increment(REFETCHES);
+            current.close();
+            continuation = record(url, delegate.fetch(url, Collections.emptyMap()));
+            current = continuation.getContent();
+            long remaining = prefixLength;
+            final byte[] discard = new byte[8192];
+            while (remaining > 0) {
+                final int count = current.read(discard, 0, (int) Math.min(discard.length, remaining));
+                if (count < 0) {
+                    break; // the content got shorter after all; there is nothing more to read
+                }
+                remaining -= count;
+            }
+        }
+
+        void abort() {
+            if (continuation != null) {
+                continuation.abort();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            current.close();
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package dkaminsky;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.StandardCharsets;
+import java.nio.charset.UnsupportedCharsetException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Decides the charset of a page the way a browser would, in order of precedence: a byte order mark, the charset
+ * parameter of the Content-Type header, a {@code <meta>} tag within the first {@link #SNIFF_BYTES} bytes of the
+ * content, and failing those a fallback. Labels that browsers read as windows-1252, such as ISO-8859-1 and
+ * US-ASCII, are read as windows-1252 too, since pages so labelled routinely use its extra characters.
+ *
+ * Counts each page under the charset chosen and under where the choice came from. Thread safe.
+ */
+class CharsetDetector {
+    /** How much of the start of the content is searched for a {@code <meta>} tag naming the charset. */
+    static final int SNIFF_BYTES = 1024;
+
+    static final String FROM_BYTE_ORDER_MARK = "charset.source.byteOrderMark";
+    static final String FROM_HEADER = "charset.source.header";
+    static final String FROM_META = "charset.source.meta";
+    static final String FROM_FALLBACK = "charset.source.fallback";
+    /** Prefix of the counter of pages decoded in each charset, followed by the charset's canonical name. */
+    static final String CHARSET_PREFIX = "charset.";
+
+    private static final Charset WINDOWS_1252 = forName("windows-1252");
+    private static final Map<Charset, String> COUNTER_NAMES = new ConcurrentHashMap<>();
+
+    private final Charset fallback;
+    private final SearchStatistics statistics;
+
+    /**
+     * @param fallback The charset of pages that name none
+     * @param statistics Where the counts of pages by charset are recorded
+     */
+    CharsetDetector(final Charset fallback, final SearchStatistics statistics) {
+        if (fallback == null) {
+            throw new IllegalArgumentException("Null fallback charset passed to charset detector");
+        }
+        if (statistics == null) {
+            throw new IllegalArgumentException("Null statistics passed to charset detector");
+        }
+
+        this.fallback = fallback;
+        this.statistics = statistics;
+    }
+
+    /**
+     * The charset of a page.
+     * @param contentType The Content-Type header of the response, or null
+     * @param head The start of the content, between the buffer's position and limit, which are left alone
+     * @return the charset to decode the page in
+     */
+    Charset detect(final String contentType, final ByteBuffer head) {
+        Charset charset = fromByteOrderMark(head);
+        String source = FROM_BYTE_ORDER_MARK;
+        if (charset == null) {
+            charset = fromContentType(contentType);
+            source = FROM_HEADER;
+        }
+        if (charset == null) {
+            charset = fromMeta(head);
+            source = FROM_META;
+        }
+        if (charset == null) {
+            charset = fallback;
+            source = FROM_FALLBACK;
+        }
+        statistics.increment(source);
+        statistics.increment(COUNTER_NAMES.computeIfAbsent(charset, c -> CHARSET_PREFIX + c.name()));
+        return charset;
+    }
+
+    /**
+     * The charset a byte order mark at the start of the content stands for.
+     * @param head The start of the content, between the buffer's position and limit
+     * @return the charset, or null if the content starts with no byte order mark
+     */
+    static Charset fromByteOrderMark(final ByteBuffer head) {
+        final int start = head.position();
+        final int length = head.remaining();
+        if (length >= 3 && (head.get(start) & 0xFF) == 0xEF && (head.get(start + 1) & 0xFF) == 0xBB
+                && (head.get(start + 2) & 0xFF) == 0xBF) {
+            return StandardCharsets.UTF_8;
+        }
+        if (length >= 2) {
+            final int first = head.get(start) & 0xFF;
+            final int second = head.get(start + 1) & 0xFF;
+            if ((first == 0xFE && second == 0xFF) || (first == 0xFF && second == 0xFE)) {
+                // which reads the mark to tell the byte order
+                return StandardCharsets.UTF_16;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The charset named by the charset parameter of a Content-Type header, such as
+     * {@code text/html; charset="Shift_JIS"}.
+     * @param contentType The header, or null
+     * @return the charset, or null if the header names none, or none this JVM supports
+     */
+    static Charset fromContentType(final String contentType) {
+        if (contentType == null) {
+            return null;
+        }
+        for (String parameter : contentType.split(";")) {
+            final int equals = parameter.indexOf('=');
+            if (equals > 0 && parameter.substring(0, equals).trim().equalsIgnoreCase("charset")) {
+                String value = parameter.substring(equals + 1).trim();
+                if (value.length() >= 2 && value.startsWith("\"") && value.endsWith("\"")) {
+                    value = value.substring(1, value.length() - 1);
+                }
+                return forLabel(value);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The charset named by a {@code <meta charset>} tag, or by the Content-Type in a {@code <meta http-equiv>}
+     * tag, within the first {@link #SNIFF_BYTES} bytes of the content.
+     * @param head The start of the content, between the buffer's position and limit
+     * @return the charset, or null if no tag names one this JVM supports
+     */
+    static Charset fromMeta(final ByteBuffer head) {
+        final int length = Math.min(head.remaining(), SNIFF_BYTES);
+        final char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            // the tag is ASCII whatever the charset, provided it is ASCII compatible
+            chars[i] = AhoCorasick.fold((char) (head.get(head.position() + i) & 0xFF));
+        }
+        final String text = new String(chars);
+        int tag = text.indexOf("<meta");
+        while (tag >= 0) {
+            final int end = text.indexOf('>', tag);
+            if (end < 0) {
+                return null; // cut off, so we can't tell
+            }
+            final Charset charset = fromMetaTag(text, tag + "<meta".length(), end);
+            if (charset != null) {
+                return charset;
+            }
+            tag = text.indexOf("<meta", end);
+        }
+        return null;
+    }
+
+    private static Charset fromMetaTag(final String text, final int start, final int end) {
+        if (start >= end || !(Character.isWhitespace(text.charAt(start)) || text.charAt(start) == '/')) {
+            return null; // another tag whose name starts with meta
+        }
+        int charsetAt = text.indexOf("charset", start);
+        while (charsetAt >= 0 && charsetAt < end) {
+            int i = charsetAt + "charset".length();
+            while (i < end && Character.isWhitespace(text.charAt(i))) {
+                i++;
+            }
+            if (i < end && text.charAt(i) == '=') {
+                i++;
+                while (i < end && Character.isWhitespace(text.charAt(i))) {
+                    i++;
+                }
+                if (i < end && (text.charAt(i) == '"' || text.charAt(i) == '\'')) {
+                    i++;
+                }
+                final int valueStart = i;
+                while (i < end && "\"' ;/\t\r\n".indexOf(text.charAt(i)) < 0) {
+                    i++;
+                }
+                final Charset charset = forLabel(text.substring(valueStart, i));
+                // a page that names a UTF-16 charset in ASCII is not in UTF-16
+                return charset == null || !charset.name().startsWith("UTF-16") ? charset : StandardCharsets.UTF_8;
+            }
+            charsetAt = text.indexOf("charset", charsetAt + 1);
+        }
+        return null;
+    }
+
+    private static Charset forLabel(final String label) {
+        final Charset charset = forName(label.trim());
+        if (charset != null && WINDOWS_1252 != null
+                && (charset.equals(StandardCharsets.ISO_8859_1) || charset.equals(StandardCharsets.US_ASCII))) {
+            return WINDOWS_1252;
+        }
+        return charset;
+    }
+
+    private static Charset forName(final String name) {
+        if (name.isEmpty()) {
+            return null;
+        }
+        try {
+            return Charset.forName(name);
+        } catch (IllegalCharsetNameException | UnsupportedCharsetException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,283 @@
+package dkaminsky;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Pool of keep-alive connections, keyed by scheme, host and port. Limits the number of connections open to any
+ * one host, hands out the most recently used idle connection first, and closes connections that have sat idle
+ * longer than the idle timeout. The type of connection is left to the caller so that any
+ * {@link URLStreamStrategy} implementation can pool whatever it connects with.
+ *
+ * Records {@link #HITS}, {@link #MISSES} and {@link #EVICTIONS} in the given {@link SearchStatistics}.
+ *
+ * @param <C> The type of pooled connection
+ */
+class ConnectionPool<C extends Closeable> implements Closeable {
+    static final String HITS = "pool.hits";
+    static final String MISSES = "pool.misses";
+    static final String EVICTIONS = "pool.evictions";
+
+    /**
+     * Opens new connections when the pool has no idle connection to a host.
+     * @param <C> The type of connection
+     */
+    interface ConnectionFactory<C> {
+        C connect(URL url) throws IOException;
+    }
+
+    private final int maxPerHost;
+    private final long idleTimeoutNanos;
+    private final ConnectionFactory<C> factory;
+    private final SearchStatistics statistics;
+    private final Map<String, Host<C>> hosts = new HashMap<>();
+    private final ScheduledExecutorService evictor;
+    // a lock rather than a monitor, so that a virtual thread waiting for a connection doesn't pin its carrier
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition released = lock.newCondition();
+    private boolean closed;
+
+    /**
+     * Creates a pool and starts a background thread that evicts idle connections.
+     *
+     * @param maxPerHost The maximum number of connections, leased or idle, open to one host at once
+     * @param idleTimeoutMillis How long a connection may sit idle before it is closed
+     * @param factory Opens new connections
+     * @param statistics Where hit, miss and eviction counts are recorded
+     */
+    ConnectionPool(final int maxPerHost, final long idleTimeoutMillis, final ConnectionFactory<C> factory,
+                   final SearchStatistics statistics) {
+        if (maxPerHost < 1) {
+            throw new IllegalArgumentException("Pool must allow at least one connection per host");
+        }
+        if (idleTimeoutMillis < 1) {
+            throw new IllegalArgumentException("Idle timeout must be positive");
+        }
+        if (factory == null) {
+            throw new IllegalArgumentException("Null connection factory passed to pool");
+        }
+        if (statistics == null) {
+            throw new IllegalArgumentException("Null statistics passed to pool");
+        }
+
+        this.maxPerHost = maxPerHost;
+        this.idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis);
+        this.factory = factory;
+        this.statistics = statistics;
+        this.evictor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "ConnectionPoolEvictor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        final long period = Math.max(1L, idleTimeoutMillis / 2);
+        evictor.scheduleWithFixedDelay(this::evictIdle, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Leases a connection to the host of the URL, reusing an idle one if there is one and otherwise opening a new
+     * one. Blocks while the host is at its connection limit. Every leased connection must be given back through
+     * {@link #release(URL, Closeable, boolean)}.
+     *
+     * @param url The URL to be fetched over the connection
+     * @return a connection to the URL's host
+     * @throws IOException If a new connection cannot be opened, or the wait is interrupted
+     */
+    C acquire(final URL url) throws IOException {
+        final String key = key(url);
+        lock.lock();
+        try {
+            if (closed) {
+                throw new IOException("Connection pool is closed");
+            }
+            final Host<C> host = hosts.computeIfAbsent(key, k -> new Host<>());
+            while (true) {
+                final Idle<C> idle = host.idle.pollFirst();
+                if (idle != null) {
+                    if (System.nanoTime() - idle.since < idleTimeoutNanos) {
+                        host.leased++;
+                        statistics.increment(HITS);
+                        return idle.connection;
+                    }
+                    evict(idle.connection);
+                    continue;
+                }
+                if (host.leased < maxPerHost) {
+                    host.leased++; // reserve the slot while connecting outside the lock
+                    break;
+                }
+                try {
+                    released.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted waiting for a connection to " + key);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        statistics.increment(MISSES);
+        try {
+            return factory.connect(url);
+        } catch (IOException | RuntimeException e) {
+            releaseSlot(key);
+            throw e;
+        }
+    }
+
+    /**
+     * Gives back a connection leased from this pool.
+     *
+     * @param url The URL the connection was leased for
+     * @param connection The connection
+     * @param reusable Whether the connection is positioned at the start of a new response and may be reused;
+     *                 if not, it is closed
+     */
+    void release(final URL url, final C connection, final boolean reusable) {
+        final String key = key(url);
+        boolean keep = false;
+        lock.lock();
+        try {
+            final Host<C> host = hosts.get(key);
+            if (host != null) {
+                host.leased--;
+                if (reusable && !closed) {
+                    host.idle.addFirst(new Idle<>(connection, System.nanoTime()));
+                    keep = true;
+                } else if (host.leased == 0 && host.idle.isEmpty()) {
+                    hosts.remove(key);
+                }
+                released.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (!keep) {
+            closeQuietly(connection);
+        }
+    }
+
+    /**
+     * Closes every idle connection that has been idle longer than the idle timeout. Runs periodically in the
+     * background; exposed for testing.
+     */
+    void evictIdle() {
+        final long now = System.nanoTime();
+        lock.lock();
+        try {
+            final Iterator<Host<C>> it = hosts.values().iterator();
+            while (it.hasNext()) {
+                final Host<C> host = it.next();
+                // idle connections are ordered most recently used first
+                while (!host.idle.isEmpty() && now - host.idle.peekLast().since >= idleTimeoutNanos) {
+                    evict(host.idle.pollLast().connection);
+                }
+                if (host.leased == 0 && host.idle.isEmpty()) {
+                    it.remove();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The number of idle connections held by the pool. Exposed for testing.
+     * @return the idle connection count
+     */
+    int getIdleCount() {
+        lock.lock();
+        try {
+            int count = 0;
+            for (Host<C> host : hosts.values()) {
+                count += host.idle.size();
+            }
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Closes all idle connections and stops evicting. Connections still leased are closed when released.
+     */
+    @Override
+    public void close() {
+        evictor.shutdownNow();
+        lock.lock();
+        try {
+            closed = true;
+            for (Host<C> host : hosts.values()) {
+                for (Idle<C> idle : host.idle) {
+                    closeQuietly(idle.connection);
+                }
+                host.idle.clear();
+            }
+            released.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The pool key of a URL. The scheme is part of the key so a plain connection is never handed out for https.
+     */
+    static String key(final URL url) {
+        final int port = url.getPort() == -1 ? url.getDefaultPort() : url.getPort();
+        return url.getProtocol().toLowerCase(Locale.ROOT) + "://" + url.getHost().toLowerCase(Locale.ROOT) + ":" + port;
+    }
+
+    private void releaseSlot(final String key) {
+        lock.lock();
+        try {
+            final Host<C> host = hosts.get(key);
+            if (host != null) {
+                host.leased--;
+                released.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void evict(final C connection) {
+        statistics.increment(EVICTIONS);
+        closeQuietly(connection);
+    }
+
+    private static void closeQuietly(final Closeable connection) {
+        try {
+            connection.close();
+        } catch (IOException e) {
+            // nothing to do
+        }
+    }
+
+    private static final class Host<C> {
+        private final Deque<Idle<C>> idle = new ArrayDeque<>();
+        private int leased;
+    }
+
+    private static final class Idle<C> {
+        private final C connection;
+        private final long since;
+
+        Idle(final C connection, final long since) {
+            this.connection = connection;
+            this.since = since;
+        }
+    }
+}
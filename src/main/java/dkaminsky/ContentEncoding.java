@@ -0,0 +1,108 @@
+package dkaminsky;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Negotiation and decoding of compressed HTTP content. The fetch strategies advertise {@link #ACCEPT_ENCODING}
+ * and decode whatever comes back as it is read, so compressed pages are matched without ever being inflated in
+ * full.
+ *
+ * Records {@link #COMPRESSED_BYTES} and {@link #DECOMPRESSED_BYTES} for compressed responses, and
+ * {@link #IDENTITY_BYTES} for responses that were sent as they are.
+ */
+final class ContentEncoding {
+    static final String ACCEPT_ENCODING = "gzip, deflate";
+    static final String COMPRESSED_BYTES = "content.compressedBytes";
+    static final String DECOMPRESSED_BYTES = "content.decompressedBytes";
+    static final String IDENTITY_BYTES = "content.identityBytes";
+
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * The content codings this class can decode.
+     */
+    enum Coding {
+        IDENTITY, GZIP, DEFLATE
+    }
+
+    private ContentEncoding() {
+    }
+
+    /**
+     * Interprets a Content-Encoding header value. Anything unrecognized, which a server should not send since it
+     * was not advertised, is treated as identity.
+     *
+     * @param contentEncoding The header value, possibly null
+     * @return the coding
+     */
+    static Coding parse(final String contentEncoding) {
+        if (contentEncoding == null) {
+            return Coding.IDENTITY;
+        }
+        final String coding = contentEncoding.trim().toLowerCase(Locale.ROOT);
+        if (coding.equals("gzip") || coding.equals("x-gzip")) {
+            return Coding.GZIP;
+        }
+        if (coding.equals("deflate")) {
+            return Coding.DEFLATE;
+        }
+        return Coding.IDENTITY;
+    }
+
+    /**
+     * Indicates whether two bytes form a zlib header. Servers are split on whether "deflate" means zlib-wrapped
+     * data, as the specification says, or a raw deflate stream, so the first bytes decide.
+     */
+    static boolean isZlibHeader(final int cmf, final int flg) {
+        return (cmf & 0x0f) == 8 && (cmf >> 4) <= 7 && ((cmf << 8) | flg) % 31 == 0;
+    }
+
+    /**
+     * Wraps a response body so that reading it yields the decoded content.
+     *
+     * @param body The body as received
+     * @param contentEncoding The Content-Encoding header of the response, possibly null
+     * @param statistics Where byte counts are recorded
+     * @return a stream of the decoded content
+     * @throws IOException If the compressed stream's header cannot be read
+     */
+    static InputStream decode(final InputStream body, final String contentEncoding,
+                              final SearchStatistics statistics) throws IOException {
+        switch (parse(contentEncoding)) {
+            case GZIP:
+                return new CountingInputStream(
+                        new GZIPInputStream(new CountingInputStream(body, statistics, COMPRESSED_BYTES), BUFFER_SIZE),
+                        statistics, DECOMPRESSED_BYTES);
+            case DEFLATE:
+                final PushbackInputStream in =
+                        new PushbackInputStream(new CountingInputStream(body, statistics, COMPRESSED_BYTES), 2);
+                final int cmf = in.read();
+                final int flg = in.read();
+                if (flg >= 0) {
+                    in.unread(flg);
+                }
+                if (cmf >= 0) {
+                    in.unread(cmf);
+                }
+                final Inflater inflater = new Inflater(!isZlibHeader(cmf, flg));
+                return new CountingInputStream(new InflaterInputStream(in, inflater, BUFFER_SIZE) {
+                    @Override
+                    public void close() throws IOException {
+                        try {
+                            super.close();
+                        } finally {
+                            inflater.end(); // not done for us when the inflater is our own
+                        }
+                    }
+                }, statistics, DECOMPRESSED_BYTES);
+            default:
+                return new CountingInputStream(body, statistics, IDENTITY_BYTES);
+        }
+    }
+}
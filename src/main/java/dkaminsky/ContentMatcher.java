@@ -0,0 +1,41 @@
+package dkaminsky;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Searches the content of a single page for a job's patterns as it arrives, in arbitrarily sized pieces. Obtained
+ * from {@link PatternSet#newMatcher(java.nio.charset.Charset)}. Not thread safe; one instance is used for one page
+ * at a time, and may be {@link #reset()} for the next.
+ */
+interface ContentMatcher {
+    /**
+     * Consumes the given content.
+     *
+     * @param data The content, between the buffer's position and limit. Fully consumed unless every pattern has
+     *             matched.
+     * @return true once every pattern has matched, so that the rest of the content need not be read
+     */
+    boolean feed(ByteBuffer data);
+
+    /**
+     * Signals the end of the content, or that no more of it will be read.
+     *
+     * @return true if every pattern has matched
+     */
+    boolean finish();
+
+    /**
+     * The patterns that have matched so far.
+     *
+     * @return the patterns, in the order of the pattern set; empty if none has matched
+     */
+    List<Pattern> getMatched();
+
+    /**
+     * Readies the matcher for the content of another page, keeping the buffers it has grown, so that a worker
+     * searching page after page allocates nothing once its buffers have reached the size of its pages.
+     */
+    void reset();
+}
@@ -0,0 +1,58 @@
+package dkaminsky;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Stream decorator that adds the number of bytes read through it to a {@link SearchStatistics} counter.
+ */
+class CountingInputStream extends FilterInputStream {
+    private final SearchStatistics statistics;
+    private final String counter;
+
+    CountingInputStream(final InputStream in, final SearchStatistics statistics, final String counter) {
+        super(in);
+        if (in == null) {
+            throw new IllegalArgumentException("Null stream passed to counting stream");
+        }
+        if (statistics == null) {
+            throw new IllegalArgumentException("Null statistics passed to counting stream");
+        }
+
+        this.statistics = statistics;
+        this.counter = counter;
+    }
+
+    @Override
+    public int read() throws IOException {
+        final int b = in.read();
+        if (b >= 0) {
+            statistics.increment(counter);
+        }
+        return b;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+        final int count = in.read(b, off, len);
+        if (count > 0) {
+            statistics.add(counter, count);
+        }
+        return count;
+    }
+
+    @Override
+    public long skip(final long n) throws IOException {
+        final long skipped = in.skip(n);
+        if (skipped > 0) {
+            statistics.add(counter, skipped);
+        }
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false; // a reset would count bytes twice
+    }
+}
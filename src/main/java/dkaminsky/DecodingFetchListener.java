@@ -0,0 +1,330 @@
+package dkaminsky;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Listener decorator that decodes gzip or deflate content as it arrives and passes the decoded bytes on, for
+ * the asynchronous fetch strategies which cannot stack an {@link java.util.zip.InflaterInputStream} on top of the
+ * network. Content in the identity coding is passed through untouched.
+ *
+ * Records the same byte counts as {@link ContentEncoding#decode}.
+ */
+class DecodingFetchListener implements AsyncFetchListener {
+    private static final int OUTPUT_BUFFER_SIZE = 16 * 1024;
+    private static final int GZIP_TRAILER_LENGTH = 8;
+
+    private static final int FHCRC = 2;
+    private static final int FEXTRA = 4;
+    private static final int FNAME = 8;
+    private static final int FCOMMENT = 16;
+
+    private enum Stage {
+        IDENTITY, SNIFF_DEFLATE, GZIP_HEADER, INFLATE, GZIP_TRAILER, DONE
+    }
+
+    private final AsyncFetchListener delegate;
+    private final SearchStatistics statistics;
+    private Stage stage = Stage.IDENTITY;
+    private boolean gzip;
+    private Inflater inflater;
+    private byte[] output;
+    private boolean stopped;
+    private IOException failure;
+
+    // gzip header parsing state
+    private int headerField;
+    private int headerFlags;
+    private int headerCount;
+    private int fieldRemaining;
+
+    // deflate sniffing and gzip trailer skipping
+    private final byte[] sniff = new byte[2];
+    private int sniffed;
+    private int trailerRemaining;
+
+    DecodingFetchListener(final AsyncFetchListener delegate, final SearchStatistics statistics) {
+        if (delegate == null) {
+            throw new IllegalArgumentException("Null delegate passed to decoding listener");
+        }
+        if (statistics == null) {
+            throw new IllegalArgumentException("Null statistics passed to decoding listener");
+        }
+
+        this.delegate = delegate;
+        this.statistics = statistics;
+    }
+
+    @Override
+    public void onResponse(final HttpResponseHead head) {
+        switch (ContentEncoding.parse(head.getHeader("Content-Encoding"))) {
+            case GZIP:
+                stage = Stage.GZIP_HEADER;
+                gzip = true;
+                inflater = new Inflater(true);
+                break;
+            case DEFLATE:
+                stage = Stage.SNIFF_DEFLATE;
+                break;
+            default:
+                stage = Stage.IDENTITY;
+                break;
+        }
+        delegate.onResponse(head);
+    }
+
+    @Override
+    public boolean onData(final ByteBuffer data) {
+        if (stage == Stage.IDENTITY) {
+            statistics.add(ContentEncoding.IDENTITY_BYTES, data.remaining());
+            stopped = !delegate.onData(data);
+            return !stopped;
+        }
+
+        statistics.add(ContentEncoding.COMPRESSED_BYTES, data.remaining());
+        final byte[] in;
+        final int off;
+        final int len = data.remaining();
+        if (data.hasArray()) {
+            in = data.array();
+            off = data.arrayOffset() + data.position();
+        } else {
+            in = new byte[len];
+            data.duplicate().get(in);
+            off = 0;
+        }
+        data.position(data.limit());
+
+        try {
+            return decode(in, off, off + len);
+        } catch (IOException e) {
+            failure = e;
+            return false; // the fetch stops and completes, at which point the failure is reported instead
+        }
+    }
+
+    @Override
+    public void onComplete() {
+        end();
+        if (failure == null && !stopped && !isAtEnd()) {
+            failure = new ZipException("Unexpected end of compressed content");
+        }
+        if (failure == null) {
+            delegate.onComplete();
+        } else {
+            delegate.onFailure(failure);
+        }
+    }
+
+    @Override
+    public void onFailure(final IOException e) {
+        end();
+        delegate.onFailure(e);
+    }
+
+    /**
+     * Runs the bytes in[off, end) through the decoding stages.
+     * @return false if the delegate wants no more content
+     */
+    private boolean decode(final byte[] in, int off, final int end) throws IOException {
+        while (true) {
+            switch (stage) {
+                case SNIFF_DEFLATE:
+                    while (sniffed < 2 && off < end) {
+                        sniff[sniffed++] = in[off++];
+                    }
+                    if (sniffed < 2) {
+                        return true;
+                    }
+                    inflater = new Inflater(!ContentEncoding.isZlibHeader(sniff[0] & 0xff, sniff[1] & 0xff));
+                    stage = Stage.INFLATE;
+                    inflater.setInput(sniff, 0, 2);
+                    if (!inflateAvailable()) {
+                        return false;
+                    }
+                    break;
+                case GZIP_HEADER:
+                    off = parseGzipHeader(in, off, end);
+                    if (stage == Stage.GZIP_HEADER) {
+                        return true;
+                    }
+                    break;
+                case INFLATE:
+                    if (off == end && inflater.needsInput()) {
+                        return true;
+                    }
+                    if (inflater.needsInput()) {
+                        inflater.setInput(in, off, end - off);
+                        off = end;
+                    }
+                    if (!inflateAvailable()) {
+                        return false;
+                    }
+                    if (inflater.finished()) {
+                        off = end - inflater.getRemaining();
+                    }
+                    break;
+                case GZIP_TRAILER:
+                    final int skipped = Math.min(trailerRemaining, end - off);
+                    off += skipped;
+                    trailerRemaining -= skipped;
+                    if (trailerRemaining > 0) {
+                        return true;
+                    }
+                    // another member may follow
+                    inflater.reset();
+                    headerField = 0;
+                    headerCount = 0;
+                    stage = Stage.GZIP_HEADER;
+                    break;
+                default:
+                    return true; // anything after a deflate stream is ignored, as InflaterInputStream does
+            }
+        }
+    }
+
+    /**
+     * Inflates everything the inflater has been given, passing output to the delegate.
+     * @return false if the delegate wants no more content
+     */
+    private boolean inflateAvailable() throws IOException {
+        if (output == null) {
+            output = new byte[OUTPUT_BUFFER_SIZE];
+        }
+        try {
+            while (!inflater.finished()) {
+                final int count = inflater.inflate(output);
+                if (count > 0) {
+                    statistics.add(ContentEncoding.DECOMPRESSED_BYTES, count);
+                    if (!delegate.onData(ByteBuffer.wrap(output, 0, count))) {
+                        stopped = true;
+                        return false;
+                    }
+                } else if (inflater.needsInput()) {
+                    return true;
+                } else if (inflater.needsDictionary()) {
+                    throw new ZipException("Compressed content requires a preset dictionary");
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new ZipException("Invalid compressed content: " + e.getMessage());
+        }
+        if (gzip) {
+            stage = Stage.GZIP_TRAILER;
+            trailerRemaining = GZIP_TRAILER_LENGTH;
+        } else {
+            stage = Stage.DONE;
+        }
+        return true;
+    }
+
+    /**
+     * Consumes as much of a gzip member header as is available, moving to the inflate stage once it is complete.
+     * @return the offset of the first unconsumed byte
+     */
+    private int parseGzipHeader(final byte[] in, int off, final int end) throws IOException {
+        while (off < end && stage == Stage.GZIP_HEADER) {
+            final int b = in[off++] & 0xff;
+            headerCount++;
+            switch (headerField) {
+                case 0: // the fixed ten bytes
+                    if ((headerCount == 1 && b != 0x1f) || (headerCount == 2 && b != 0x8b)) {
+                        throw new ZipException("Not in GZIP format");
+                    }
+                    if (headerCount == 3 && b != 8) {
+                        throw new ZipException("Unsupported compression method");
+                    }
+                    if (headerCount == 4) {
+                        headerFlags = b;
+                    }
+                    if (headerCount == 10) {
+                        nextHeaderField(1);
+                    }
+                    break;
+                case 1: // length of the extra field, little endian
+                    fieldRemaining = fieldRemaining == -1 ? b : fieldRemaining | (b << 8);
+                    if (headerCount == 12) {
+                        headerField = 2;
+                        if (fieldRemaining == 0) {
+                            nextHeaderField(3);
+                        }
+                    }
+                    break;
+                case 2: // the extra field
+                    if (--fieldRemaining == 0) {
+                        nextHeaderField(3);
+                    }
+                    break;
+                case 3: // zero-terminated file name
+                    if (b == 0) {
+                        nextHeaderField(4);
+                    }
+                    break;
+                case 4: // zero-terminated comment
+                    if (b == 0) {
+                        nextHeaderField(5);
+                    }
+                    break;
+                default: // two byte header checksum
+                    if (--fieldRemaining == 0) {
+                        nextHeaderField(6);
+                    }
+                    break;
+            }
+        }
+        return off;
+    }
+
+    /**
+     * Moves to the first header field at or after the given one that the flags say is present.
+     */
+    private void nextHeaderField(final int field) {
+        headerField = field;
+        if (headerField == 1 && (headerFlags & FEXTRA) == 0) {
+            headerField = 3;
+        }
+        if (headerField == 3 && (headerFlags & FNAME) == 0) {
+            headerField = 4;
+        }
+        if (headerField == 4 && (headerFlags & FCOMMENT) == 0) {
+            headerField = 5;
+        }
+        if (headerField == 5 && (headerFlags & FHCRC) == 0) {
+            headerField = 6;
+        }
+        if (headerField == 1) {
+            fieldRemaining = -1;
+        } else if (headerField == 5) {
+            fieldRemaining = 2;
+        } else if (headerField == 6) {
+            stage = Stage.INFLATE;
+        }
+    }
+
+    /**
+     * Indicates whether the content seen so far forms a whole, e.g. no gzip member was cut short.
+     */
+    private boolean isAtEnd() {
+        switch (stage) {
+            case GZIP_HEADER:
+                return headerCount == 0;
+            case SNIFF_DEFLATE:
+                return sniffed == 0;
+            case INFLATE:
+            case GZIP_TRAILER:
+                return false;
+            default:
+                return true;
+        }
+    }
+
+    private void end() {
+        if (inflater != null) {
+            inflater.end();
+            inflater = null;
+        }
+    }
+}
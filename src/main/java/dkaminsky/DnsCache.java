@@ -0,0 +1,165 @@
+package dkaminsky;
+
+import java.io.Closeable;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Asynchronous, caching {@link HostResolver} shared by the searcher and every worker. Lookups run on a small pool
+ * of resolver threads, and concurrent lookups of the same host share one resolution. Results are kept for the
+ * time to live, failures for the shorter negative time to live, and the least recently used hosts are dropped
+ * once the cache is full.
+ *
+ * The JDK does not expose the TTLs of DNS records, so the times to live are configured; by default they match
+ * the JVM's own address cache. Records {@link #HITS}, {@link #MISSES} and {@link #FAILURES} in the given
+ * {@link SearchStatistics}.
+ */
+class DnsCache implements HostResolver, Closeable {
+    static final String HITS = "dns.hits";
+    static final String MISSES = "dns.misses";
+    static final String FAILURES = "dns.failures";
+
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final long negativeTtlNanos;
+    private final SearchStatistics statistics;
+    private final ExecutorService executor;
+    private final Map<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * Creates the cache and its resolver threads.
+     *
+     * @param maxEntries The maximum number of hosts cached
+     * @param ttlMillis How long resolved addresses are kept
+     * @param negativeTtlMillis How long a failed resolution is kept
+     * @param resolverThreads The number of lookups run at once
+     * @param statistics Where hit, miss and failure counts are recorded
+     */
+    DnsCache(final int maxEntries, final long ttlMillis, final long negativeTtlMillis, final int resolverThreads,
+             final SearchStatistics statistics) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("Cache must hold at least one host");
+        }
+        if (ttlMillis < 0 || negativeTtlMillis < 0) {
+            throw new IllegalArgumentException("Time to live must not be negative");
+        }
+        if (resolverThreads < 1) {
+            throw new IllegalArgumentException("At least one resolver thread is required");
+        }
+        if (statistics == null) {
+            throw new IllegalArgumentException("Null statistics passed to DNS cache");
+        }
+
+        this.maxEntries = maxEntries;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        this.negativeTtlNanos = TimeUnit.MILLISECONDS.toNanos(negativeTtlMillis);
+        this.statistics = statistics;
+        final AtomicInteger threadCount = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(resolverThreads, runnable -> {
+            final Thread thread = new Thread(runnable, "DnsResolver-" + threadCount.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public void prefetch(final String host) {
+        resolve(host);
+    }
+
+    @Override
+    public CompletableFuture<InetAddress[]> resolve(final String host) {
+        if (host == null) {
+            throw new IllegalArgumentException("Null host passed to DNS cache");
+        }
+
+        final String key = host.toLowerCase(Locale.ROOT);
+        final long now = System.nanoTime();
+        final Entry entry;
+        synchronized (entries) {
+            final Entry cached = entries.get(key);
+            if (cached != null && !cached.isExpired(now)) {
+                statistics.increment(HITS);
+                return cached.addresses;
+            }
+            statistics.increment(MISSES);
+            entry = new Entry();
+            entries.put(key, entry);
+            evict(now);
+        }
+
+        try {
+            CompletableFuture.runAsync(() -> lookUp(host, entry), executor);
+        } catch (RejectedExecutionException e) {
+            // closed; resolve on the caller's thread rather than fail the fetch
+            lookUp(host, entry);
+        }
+        return entry.addresses;
+    }
+
+    /**
+     * The number of hosts cached, including lookups in progress.
+     * @return the number of hosts
+     */
+    int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * Stops the resolver threads.
+     */
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    private void lookUp(final String host, final Entry entry) {
+        try {
+            final InetAddress[] addresses = InetAddress.getAllByName(host);
+            entry.expiresAt = System.nanoTime() + ttlNanos;
+            entry.addresses.complete(addresses);
+        } catch (UnknownHostException | RuntimeException e) {
+            statistics.increment(FAILURES);
+            entry.expiresAt = System.nanoTime() + negativeTtlNanos;
+            entry.addresses.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Drops expired entries that are least recently used, then as many more as it takes to fit. Must hold the
+     * lock on the entries.
+     */
+    private void evict(final long now) {
+        final Iterator<Entry> it = entries.values().iterator();
+        while (it.hasNext()) {
+            final Entry next = it.next();
+            if (entries.size() > maxEntries || next.isExpired(now)) {
+                it.remove();
+            } else {
+                break;
+            }
+        }
+    }
+
+    private static final class Entry {
+        private final CompletableFuture<InetAddress[]> addresses = new CompletableFuture<>();
+        // written before the future completes, so any thread that sees it complete sees the expiry too
+        private volatile long expiresAt;
+
+        boolean isExpired(final long now) {
+            return addresses.isDone() && expiresAt - now <= 0;
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package dkaminsky;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Enforces the overall deadline of a blocking fetch. Socket timeouts only bound a single connect or read, so a
+ * server that trickles out a page a byte at a time could otherwise hold a worker indefinitely. When the deadline
+ * passes, the fetch's abort action is run from a shared timer thread, which fails whatever read the worker is
+ * blocked in; the failure is then reported as a {@link SocketTimeoutException}.
+ */
+final class FetchDeadline {
+    private static final ScheduledThreadPoolExecutor TIMER = createTimer();
+
+    private final AtomicBoolean expired = new AtomicBoolean();
+    private final ScheduledFuture<?> timeout;
+
+    private FetchDeadline(final long deadline, final Runnable abortAction) {
+        this.timeout = TIMER.schedule(() -> {
+            expired.set(true);
+            abortAction.run();
+        }, deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Starts watching a fetch.
+     * @param deadline The {@link System#nanoTime()} by which the fetch must be over
+     * @param abortAction Tears down the fetch's connection
+     * @return the watch, which must be cancelled once the fetch is over
+     */
+    static FetchDeadline start(final long deadline, final Runnable abortAction) {
+        if (abortAction == null) {
+            throw new IllegalArgumentException("Null abort action passed to deadline");
+        }
+        return new FetchDeadline(deadline, abortAction);
+    }
+
+    /**
+     * Stops watching, because the fetch is over.
+     */
+    void cancel() {
+        timeout.cancel(false);
+    }
+
+    /**
+     * Indicates whether the deadline passed and the fetch was aborted.
+     * @return whether the deadline passed
+     */
+    boolean isExpired() {
+        return expired.get();
+    }
+
+    /**
+     * Reports a failure caused by the abort as a timeout, and any other failure as it is.
+     * @param e The failure of the fetch
+     * @return the failure to report
+     */
+    IOException translate(final IOException e) {
+        if (!isExpired() || e instanceof SocketTimeoutException) {
+            return e;
+        }
+        final SocketTimeoutException timedOut = new SocketTimeoutException("Fetch deadline exceeded");
+        timedOut.initCause(e);
+        return timedOut;
+    }
+
+    /**
+     * Wraps the content of the fetch so that failures are translated and the watch ends when it is closed.
+     * @param in The content
+     * @return the guarded content
+     */
+    InputStream guard(final InputStream in) {
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                try {
+                    return super.read();
+                } catch (IOException e) {
+                    throw translate(e);
+                }
+            }
+
+            @Override
+            public int read(final byte[] b, final int off, final int len) throws IOException {
+                try {
+                    return super.read(b, off, len);
+                } catch (IOException e) {
+                    throw translate(e);
+                }
+            }
+
+            @Override
+            public void close() throws IOException {
+                cancel();
+                super.close();
+            }
+        };
+    }
+
+    private static ScheduledThreadPoolExecutor createTimer() {
+        final ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, runnable -> {
+            final Thread thread = new Thread(runnable, "FetchDeadlineTimer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer.setRemoveOnCancelPolicy(true); // most fetches finish in time; don't keep their timeouts around
+        return timer;
+    }
+}
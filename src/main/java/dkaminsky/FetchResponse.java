@@ -0,0 +1,109 @@
+package dkaminsky;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * The result of a blocking fetch: the decoded content of the URL along with what the reader needs to know about
+ * it, and a way to abandon the transfer before the end of the content. The response head is available when the
+ * strategy speaks HTTP; otherwise the response is taken to be a plain 200.
+ */
+public class FetchResponse implements Closeable {
+    private final InputStream content;
+    private final HttpResponseHead head;
+    private final String contentType;
+    private final Runnable abortAction;
+
+    /**
+     * @param content The content of the URL
+     * @param contentType The Content-Type of the content, or null if unknown
+     */
+    public FetchResponse(final InputStream content, final String contentType) {
+        this(content, contentType, () -> { });
+    }
+
+    /**
+     * @param content The content of the URL
+     * @param contentType The Content-Type of the content, or null if unknown
+     * @param abortAction Tears down the transfer so that no more of the content is received
+     */
+    public FetchResponse(final InputStream content, final String contentType, final Runnable abortAction) {
+        this(content, null, contentType, abortAction);
+    }
+
+    /**
+     * @param content The content of the URL
+     * @param head The status line and headers of the response
+     * @param abortAction Tears down the transfer so that no more of the content is received
+     */
+    FetchResponse(final InputStream content, final HttpResponseHead head, final Runnable abortAction) {
+        this(content, head, head == null ? null : head.getHeader("Content-Type"), abortAction);
+    }
+
+    private FetchResponse(final InputStream content, final HttpResponseHead head, final String contentType,
+                          final Runnable abortAction) {
+        if (content == null) {
+            throw new IllegalArgumentException("Null content passed to response");
+        }
+        if (abortAction == null) {
+            throw new IllegalArgumentException("Null abort action passed to response");
+        }
+
+        this.content = content;
+        this.head = head;
+        this.contentType = contentType;
+        this.abortAction = abortAction;
+    }
+
+    /**
+     * The content of the URL, decoded from any content encoding.
+     * @return the content stream
+     */
+    public InputStream getContent() {
+        return content;
+    }
+
+    /**
+     * The Content-Type of the response, including any parameters.
+     * @return the content type, or null if unknown
+     */
+    public String getContentType() {
+        return contentType;
+    }
+
+    /**
+     * The status code of the response, e.g. 304 for a conditional request whose content has not changed.
+     * @return the status code
+     */
+    public int getStatusCode() {
+        return head == null ? 200 : head.getStatusCode();
+    }
+
+    /**
+     * Returns the first value of the named response header.
+     * @param name The header name, in any case
+     * @return the first value of the header, or null if it is absent or unknown
+     */
+    public String getHeader(final String name) {
+        return head == null ? null : head.getHeader(name);
+    }
+
+    /**
+     * Abandons the rest of the content. Unlike {@link #close()}, which may leave the transport to read out what
+     * remains so the connection can be reused, the transfer is cut off.
+     */
+    public void abort() {
+        abortAction.run();
+        try {
+            content.close();
+        } catch (IOException e) {
+            // nothing to do
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        content.close();
+    }
+}
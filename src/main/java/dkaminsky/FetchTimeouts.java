@@ -0,0 +1,78 @@
+package dkaminsky;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * How long a single fetch may take, phase by phase: connecting, waiting for the first byte of the response once
+ * the request is sent, and the whole transfer including redirects. The total is further capped by the deadline
+ * of the job as a whole, if it has one, so no fetch outlives the run.
+ */
+class FetchTimeouts {
+    static final int DEFAULT_CONNECT_MILLIS = 10000;
+    static final int DEFAULT_FIRST_BYTE_MILLIS = 30000;
+    static final long DEFAULT_TOTAL_MILLIS = 120000L;
+
+    /**
+     * Timeouts suitable when nothing else is configured, without a job deadline.
+     */
+    static final FetchTimeouts DEFAULT = new FetchTimeouts(DEFAULT_CONNECT_MILLIS, DEFAULT_FIRST_BYTE_MILLIS,
+            DEFAULT_TOTAL_MILLIS, Long.MAX_VALUE);
+
+    private final int connectMillis;
+    private final int firstByteMillis;
+    private final long totalNanos;
+    private final long jobDeadline;
+
+    /**
+     * @param connectMillis How long establishing a connection may take
+     * @param firstByteMillis How long the server may take to start responding, which also bounds any silence
+     *                        once the response has started
+     * @param totalMillis How long a fetch may take from start to finish
+     * @param jobDeadline The {@link System#nanoTime()} by which every fetch must be over, or
+     *                    {@link Long#MAX_VALUE} if the job has no deadline
+     */
+    FetchTimeouts(final int connectMillis, final int firstByteMillis, final long totalMillis,
+                  final long jobDeadline) {
+        if (connectMillis < 1) {
+            throw new IllegalArgumentException("Connect timeout must be positive");
+        }
+        if (firstByteMillis < 1) {
+            throw new IllegalArgumentException("First byte timeout must be positive");
+        }
+        if (totalMillis < 1) {
+            throw new IllegalArgumentException("Total timeout must be positive");
+        }
+
+        this.connectMillis = connectMillis;
+        this.firstByteMillis = firstByteMillis;
+        this.totalNanos = TimeUnit.MILLISECONDS.toNanos(totalMillis);
+        this.jobDeadline = jobDeadline;
+    }
+
+    /**
+     * How long establishing a connection may take.
+     * @return the connect timeout in milliseconds
+     */
+    int getConnectMillis() {
+        return connectMillis;
+    }
+
+    /**
+     * How long the server may take to start responding once the request is sent.
+     * @return the first byte timeout in milliseconds
+     */
+    int getFirstByteMillis() {
+        return firstByteMillis;
+    }
+
+    /**
+     * The time by which a fetch started at the given time must be over.
+     * @param started The {@link System#nanoTime()} at which the fetch started
+     * @return the deadline, in {@link System#nanoTime()} terms
+     */
+    long getDeadline(final long started) {
+        final long deadline = started + totalNanos;
+        // compare by difference, as nanoTime may overflow
+        return jobDeadline != Long.MAX_VALUE && jobDeadline - deadline < 0 ? jobDeadline : deadline;
+    }
+}
@@ -0,0 +1,64 @@
+package dkaminsky;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A page read in full, or up to its byte budget, waiting to be searched: the input it was fetched for, its content
+ * type and its content, in the buffers it was read into.
+ */
+class FetchedPage {
+    private final WebsiteSearcherInput input;
+    private final String contentType;
+    private final List<ByteBuffer> content = new ArrayList<>();
+    private boolean limitReached;
+
+    /**
+     * @param input The input the page was fetched for
+     * @param contentType The Content-Type header of the response, or null
+     */
+    FetchedPage(final WebsiteSearcherInput input, final String contentType) {
+        if (input == null) {
+            throw new IllegalArgumentException("Null input passed to fetched page");
+        }
+
+        this.input = input;
+        this.contentType = contentType;
+    }
+
+    /**
+     * Appends the start of a buffer to the content.
+     * @param buffer The buffer
+     * @param length The number of bytes of it that were filled
+     */
+    void add(final byte[] buffer, final int length) {
+        content.add(ByteBuffer.wrap(buffer, 0, length));
+    }
+
+    /**
+     * Marks that the page's byte budget was spent before its content ended.
+     */
+    void setLimitReached() {
+        this.limitReached = true;
+    }
+
+    WebsiteSearcherInput getInput() {
+        return input;
+    }
+
+    String getContentType() {
+        return contentType;
+    }
+
+    /**
+     * @return the buffers holding the content, in order, each between its position and limit
+     */
+    List<ByteBuffer> getContent() {
+        return content;
+    }
+
+    boolean isLimitReached() {
+        return limitReached;
+    }
+}
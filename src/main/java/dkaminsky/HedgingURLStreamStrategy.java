@@ -0,0 +1,205 @@
+package dkaminsky;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URL;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Strategy decorator that cuts the tail latency of slow hosts by hedging. When a fetch has not produced its
+ * response head within a threshold, a second, identical request is sent, and whichever of the two answers first is
+ * used. The other is cancelled; since blocking socket reads can't be interrupted, a loser that answers later is
+ * aborted as soon as it does.
+ *
+ * The threshold is a percentile of the time recent fetches took to answer, so that only the slowest few percent
+ * are hedged and the extra load stays small. Until enough fetches have answered there is nothing to go by, and
+ * no fetch is hedged.
+ *
+ * Records {@link #FIRED} and {@link #WON} in the given {@link SearchStatistics}.
+ */
+class HedgingURLStreamStrategy implements URLStreamStrategy, Closeable {
+    static final String FIRED = "hedge.fired";
+    static final String WON = "hedge.won";
+    static final int LATENCY_SAMPLES = 1000;
+    static final int MIN_LATENCY_SAMPLES = 20;
+
+    private final URLStreamStrategy delegate;
+    private final LatencyTracker firstByteLatency;
+    private final long minDelayMillis;
+    private final SearchStatistics statistics;
+    private final ExecutorService executor;
+
+    /**
+     * @param delegate The strategy that fetches from the network
+     * @param percentile The percentile of recent fetches' time to answer after which a fetch is hedged
+     * @param minDelayMillis The least time a fetch is given to answer before it is hedged
+     * @param statistics Where hedge counts are recorded
+     */
+    HedgingURLStreamStrategy(final URLStreamStrategy delegate, final double percentile, final long minDelayMillis,
+                             final SearchStatistics statistics) {
+        this(delegate, new LatencyTracker(LATENCY_SAMPLES, percentile, MIN_LATENCY_SAMPLES), minDelayMillis,
+                statistics);
+    }
+
+    /**
+     * @param delegate The strategy that fetches from the network
+     * @param firstByteLatency Tracks how long fetches take to answer; its percentile is the hedging threshold
+     * @param minDelayMillis The least time a fetch is given to answer before it is hedged
+     * @param statistics Where hedge counts are recorded
+     */
+    HedgingURLStreamStrategy(final URLStreamStrategy delegate, final LatencyTracker firstByteLatency,
+                             final long minDelayMillis, final SearchStatistics statistics) {
+        if (delegate == null) {
+            throw new IllegalArgumentException("Null delegate passed to hedging strategy");
+        }
+        if (firstByteLatency == null) {
+            throw new IllegalArgumentException("Null latency tracker passed to hedging strategy");
+        }
+        if (minDelayMillis < 0) {
+            throw new IllegalArgumentException("Minimum hedging delay must not be negative");
+        }
+        if (statistics == null) {
+            throw new IllegalArgumentException("Null statistics passed to hedging strategy");
+        }
+
+        this.delegate = delegate;
+        this.firstByteLatency = firstByteLatency;
+        this.minDelayMillis = minDelayMillis;
+        this.statistics = statistics;
+        final AtomicInteger threadCount = new AtomicInteger();
+        this.executor = Executors.newCachedThreadPool(runnable -> {
+            final Thread thread = new Thread(runnable, "HedgedFetch-" + threadCount.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public InputStream openStream(final URL url) throws IOException {
+        return fetch(url).getContent();
+    }
+
+    @Override
+    public FetchResponse fetch(final URL url) throws IOException {
+        return fetch(url, Collections.emptyMap());
+    }
+
+    @Override
+    public FetchResponse fetch(final URL url, final Map<String, String> headers) throws IOException {
+        final Race race = new Race();
+        final CompletionService<FetchResponse> attempts = new ExecutorCompletionService<>(executor);
+        final Future<FetchResponse> primary = attempts.submit(new Attempt(url, headers, race));
+        Future<FetchResponse> hedge = null;
+        int outstanding = 1;
+        IOException failure = null;
+
+        try {
+            final long threshold = firstByteLatency.getPercentile();
+            Future<FetchResponse> done = threshold < 0 ? attempts.take()
+                    : attempts.poll(Math.max(minDelayMillis, threshold), TimeUnit.MILLISECONDS);
+            if (done == null) {
+                statistics.increment(FIRED);
+                hedge = attempts.submit(new Attempt(url, headers, race));
+                outstanding++;
+                done = attempts.take();
+            }
+
+            while (true) {
+                outstanding--;
+                try {
+                    final FetchResponse response = done.get();
+                    if (response != null) {
+                        if (done == hedge) {
+                            statistics.increment(WON);
+                        }
+                        return response;
+                    }
+                    // lost the race; the winner is still on its way
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        failure = e.getCause() instanceof IOException ? (IOException) e.getCause()
+                                : new IOException("Fetch failed: " + url, e.getCause());
+                    }
+                }
+                if (outstanding == 0) {
+                    throw failure;
+                }
+                done = attempts.take();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while fetching: " + url);
+        } finally {
+            // whatever answers from now on is not wanted
+            race.close();
+            primary.cancel(true);
+            if (hedge != null) {
+                hedge.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Stops the threads running fetches.
+     */
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Decides which of the requests for a URL is used.
+     */
+    private static final class Race {
+        private static final Object CLOSED = new Object();
+        private final AtomicReference<Object> winner = new AtomicReference<>();
+
+        boolean claim(final Attempt attempt) {
+            return winner.compareAndSet(null, attempt);
+        }
+
+        void close() {
+            winner.compareAndSet(null, CLOSED);
+        }
+    }
+
+    /**
+     * One of the requests for a URL. Answers null if the other request got there first.
+     */
+    private final class Attempt implements Callable<FetchResponse> {
+        private final URL url;
+        private final Map<String, String> headers;
+        private final Race race;
+
+        Attempt(final URL url, final Map<String, String> headers, final Race race) {
+            this.url = url;
+            this.headers = headers;
+            this.race = race;
+        }
+
+        @Override
+        public FetchResponse call() throws IOException {
+            final long started = System.nanoTime();
+            final FetchResponse response = delegate.fetch(url, headers);
+            firstByteLatency.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+            if (!race.claim(this)) {
+                response.abort();
+                return null;
+            }
+            return response;
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package dkaminsky;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Resolves host names to addresses for the fetch layer. Resolution may be asynchronous, so that a fetch engine
+ * need not block on DNS, and may be started ahead of time with {@link #prefetch(String)}.
+ */
+public interface HostResolver {
+    /**
+     * Resolves on demand with {@link InetAddress#getAllByName(String)}, on the calling thread.
+     */
+    HostResolver SYSTEM = host -> {
+        final CompletableFuture<InetAddress[]> addresses = new CompletableFuture<>();
+        try {
+            addresses.complete(InetAddress.getAllByName(host));
+        } catch (UnknownHostException | RuntimeException e) {
+            addresses.completeExceptionally(e);
+        }
+        return addresses;
+    };
+
+    /**
+     * Looks up the addresses of a host.
+     * @param host The host name or address literal
+     * @return the addresses, in order of preference, or an {@link UnknownHostException} failure
+     */
+    CompletableFuture<InetAddress[]> resolve(String host);
+
+    /**
+     * Hints that the host is about to be fetched from, so its addresses are ready by then. Does nothing unless
+     * the resolver resolves ahead of time.
+     * @param host The host name
+     */
+    default void prefetch(String host) {
+    }
+
+    /**
+     * Looks up the addresses of a host, waiting for the result.
+     * @param host The host name or address literal
+     * @return the addresses, in order of preference
+     * @throws IOException If the host cannot be resolved, or the wait is interrupted
+     */
+    default InetAddress[] resolveNow(String host) throws IOException {
+        try {
+            return resolve(host).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted resolving " + host);
+        } catch (ExecutionException e) {
+            throw failureOf(host, e.getCause());
+        }
+    }
+
+    /**
+     * Turns the failure of a resolution into the exception to report for it.
+     * @param host The host being resolved
+     * @param failure The failure, possibly wrapped by {@link CompletableFuture}
+     * @return the exception to report
+     */
+    static IOException failureOf(final String host, final Throwable failure) {
+        final Throwable cause = failure instanceof ExecutionException || failure instanceof CompletionException
+                ? failure.getCause() : failure;
+        if (cause instanceof IOException) {
+            return (IOException) cause;
+        }
+        final UnknownHostException unknown = new UnknownHostException(host);
+        unknown.initCause(cause);
+        return unknown;
+    }
+}
@@ -0,0 +1,380 @@
+package dkaminsky;
+
+import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A host-aware input queue that sits between the searcher and the workers in place of a plain FIFO queue. Inputs
+ * are queued per host and handed out round-robin across hosts, and a host is only eligible while it has fewer
+ * than the maximum number of fetches in flight and a token in its request-rate bucket. A worker taking from the
+ * queue is therefore given work for some other host rather than piling onto one that is at its budget.
+ *
+ * Workers must report each input they finish through {@link #onFinished(WebsiteSearcherInput, SearchOutcome)} so
+ * the host's concurrency slot is freed. Because of the budgets, {@link #poll()} may return null even though
+ * {@link #size()} is not zero.
+ *
+ * The queue may be bounded, so that {@link #put(WebsiteSearcherInput)} blocks while it is full. Inputs held back
+ * by their host's budget count toward the bound, so it should be well above the number of inputs any one host
+ * is likely to have queued at once, or a run of inputs for a slow host holds up the rest.
+ */
+class HostScheduler extends AbstractQueue<WebsiteSearcherInput>
+        implements BlockingQueue<WebsiteSearcherInput>, WebsiteSearcherListener {
+    private final int maxConcurrencyPerHost;
+    private final double requestsPerSecond;
+    private final int burst;
+    private final int capacity;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final Map<String, Host> hosts = new HashMap<>();
+    // hosts with queued inputs, a free slot and (as far as we know) a token, in round-robin order
+    private final ArrayDeque<Host> ready = new ArrayDeque<>();
+    // hosts with queued inputs and a free slot, waiting for a token
+    private final PriorityQueue<Host> throttled = new PriorityQueue<>(Comparator.comparingLong(host -> host.wakeAt));
+    // hosts with nothing queued or in flight, kept until their bucket refills so they cannot burst again early
+    private final LinkedHashMap<String, Host> idle = new LinkedHashMap<>();
+    private int size;
+
+    /**
+     * @param maxConcurrencyPerHost The maximum number of inputs for one host being worked on at once
+     * @param requestsPerSecond The sustained rate at which inputs for one host are handed out
+     * @param burst The number of inputs for one host that may be handed out at once after a quiet period
+     */
+    HostScheduler(final int maxConcurrencyPerHost, final double requestsPerSecond, final int burst) {
+        this(maxConcurrencyPerHost, requestsPerSecond, burst, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param maxConcurrencyPerHost The maximum number of inputs for one host being worked on at once
+     * @param requestsPerSecond The sustained rate at which inputs for one host are handed out
+     * @param burst The number of inputs for one host that may be handed out at once after a quiet period
+     * @param capacity The most inputs queued at once
+     */
+    HostScheduler(final int maxConcurrencyPerHost, final double requestsPerSecond, final int burst,
+                  final int capacity) {
+        if (maxConcurrencyPerHost < 1) {
+            throw new IllegalArgumentException("Scheduler must allow at least one fetch per host");
+        }
+        if (!(requestsPerSecond > 0)) {
+            throw new IllegalArgumentException("Request rate must be positive");
+        }
+        if (burst < 1) {
+            throw new IllegalArgumentException("Request burst must be at least one");
+        }
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Scheduler capacity must be at least one");
+        }
+
+        this.maxConcurrencyPerHost = maxConcurrencyPerHost;
+        this.requestsPerSecond = requestsPerSecond;
+        this.burst = burst;
+        this.capacity = capacity;
+    }
+
+    @Override
+    public boolean offer(final WebsiteSearcherInput input) {
+        if (input == null) {
+            throw new NullPointerException("Null input offered to scheduler");
+        }
+
+        lock.lock();
+        try {
+            if (size >= capacity) {
+                return false;
+            }
+            enqueue(input);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void put(final WebsiteSearcherInput input) throws InterruptedException {
+        if (input == null) {
+            throw new NullPointerException("Null input offered to scheduler");
+        }
+
+        lock.lockInterruptibly();
+        try {
+            while (size >= capacity) {
+                notFull.await();
+            }
+            enqueue(input);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean offer(final WebsiteSearcherInput input, final long timeout, final TimeUnit unit)
+            throws InterruptedException {
+        if (input == null) {
+            throw new NullPointerException("Null input offered to scheduler");
+        }
+
+        long remaining = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (size >= capacity) {
+                if (remaining <= 0) {
+                    return false;
+                }
+                remaining = notFull.awaitNanos(remaining);
+            }
+            enqueue(input);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Queues an input behind the others for its host. Must hold the lock.
+     */
+    private void enqueue(final WebsiteSearcherInput input) {
+        final String name = hostOf(input);
+        Host host = idle.remove(name);
+        if (host == null) {
+            host = hosts.computeIfAbsent(name, k -> new Host(System.nanoTime()));
+        } else {
+            hosts.put(name, host);
+        }
+        host.queue.add(input);
+        size++;
+        schedule(host);
+        changed.signalAll();
+    }
+
+    @Override
+    public WebsiteSearcherInput poll() {
+        lock.lock();
+        try {
+            return next(System.nanoTime());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public WebsiteSearcherInput take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (true) {
+                final long now = System.nanoTime();
+                final WebsiteSearcherInput input = next(now);
+                if (input != null) {
+                    return input;
+                }
+                if (throttled.isEmpty()) {
+                    changed.await();
+                } else {
+                    changed.awaitNanos(throttled.peek().wakeAt - now);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public WebsiteSearcherInput poll(final long timeout, final TimeUnit unit) throws InterruptedException {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (true) {
+                final long now = System.nanoTime();
+                final WebsiteSearcherInput input = next(now);
+                if (input != null || now >= deadline) {
+                    return input;
+                }
+                final long wakeAt = throttled.isEmpty() ? deadline : Math.min(deadline, throttled.peek().wakeAt);
+                changed.awaitNanos(wakeAt - now);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Frees the concurrency slot the input held on its host.
+     */
+    @Override
+    public void onFinished(final WebsiteSearcherInput input, final SearchOutcome outcome) {
+        final String name = hostOf(input);
+        lock.lock();
+        try {
+            final Host host = hosts.get(name);
+            if (host == null || host.inFlight == 0) {
+                return; // not handed out by this scheduler
+            }
+            host.inFlight--;
+            if (host.queue.isEmpty() && host.inFlight == 0) {
+                hosts.remove(name);
+                idle.put(name, host);
+            } else {
+                schedule(host);
+            }
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The head of the next eligible host's queue, without regard to its request-rate budget.
+     */
+    @Override
+    public WebsiteSearcherInput peek() {
+        lock.lock();
+        try {
+            final Host host = ready.isEmpty() ? throttled.peek() : ready.peek();
+            return host == null ? null : host.queue.peek();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int remainingCapacity() {
+        lock.lock();
+        try {
+            return capacity - size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * A snapshot of every queued input, grouped by host. Does not support removal.
+     */
+    @Override
+    public Iterator<WebsiteSearcherInput> iterator() {
+        lock.lock();
+        try {
+            final List<WebsiteSearcherInput> snapshot = new ArrayList<>(size);
+            for (Host host : hosts.values()) {
+                snapshot.addAll(host.queue);
+            }
+            return Collections.unmodifiableList(snapshot).iterator();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Drains the inputs that are eligible now; inputs held back by a host's budget stay queued.
+     */
+    @Override
+    public int drainTo(final Collection<? super WebsiteSearcherInput> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(final Collection<? super WebsiteSearcherInput> c, final int maxElements) {
+        lock.lock();
+        try {
+            int count = 0;
+            WebsiteSearcherInput input;
+            while (count < maxElements && (input = next(System.nanoTime())) != null) {
+                c.add(input);
+                count++;
+            }
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Hands out the next eligible input, if any. Must hold the lock.
+     */
+    private WebsiteSearcherInput next(final long now) {
+        while (!throttled.isEmpty() && throttled.peek().wakeAt <= now) {
+            ready.add(throttled.poll());
+        }
+        forgetRefilledHosts(now);
+
+        while (!ready.isEmpty()) {
+            final Host host = ready.poll();
+            final long wait = host.bucket.nanosUntilAvailable(now);
+            if (wait > 0) {
+                host.wakeAt = now + wait;
+                throttled.add(host);
+                continue;
+            }
+
+            host.bucket.tryAcquire(now);
+            final WebsiteSearcherInput input = host.queue.poll();
+            size--;
+            notFull.signal();
+            host.inFlight++;
+            host.scheduled = false;
+            schedule(host); // back of the line, if it still has work and a free slot
+            return input;
+        }
+        return null;
+    }
+
+    /**
+     * Puts a host in line if it has queued inputs and a free slot and is not in line already. Must hold the lock.
+     */
+    private void schedule(final Host host) {
+        if (!host.scheduled && !host.queue.isEmpty() && host.inFlight < maxConcurrencyPerHost) {
+            host.scheduled = true;
+            ready.add(host);
+        }
+    }
+
+    /**
+     * Drops idle hosts whose buckets have refilled, oldest first, so memory stays proportional to the hosts seen
+     * recently rather than all hosts ever seen. Must hold the lock.
+     */
+    private void forgetRefilledHosts(final long now) {
+        final Iterator<Host> it = idle.values().iterator();
+        while (it.hasNext() && it.next().bucket.isFull(now)) {
+            it.remove();
+        }
+    }
+
+    private static String hostOf(final WebsiteSearcherInput input) {
+        return input.getUrl().getHost().toLowerCase(Locale.ROOT);
+    }
+
+    private final class Host {
+        private final ArrayDeque<WebsiteSearcherInput> queue = new ArrayDeque<>();
+        private final TokenBucket bucket;
+        private int inFlight;
+        private boolean scheduled;
+        private long wakeAt;
+
+        Host(final long now) {
+            this.bucket = new TokenBucket(requestsPerSecond, burst, now);
+        }
+    }
+}
@@ -0,0 +1,399 @@
+package dkaminsky;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Hands another matcher only the text of an HTML page, as its content arrives: tags, comments, declarations and
+ * the content of {@code <script>} and {@code <style>} elements are dropped, and character references such as
+ * {@code &amp;} and {@code &#233;} are decoded, so that patterns neither waste time on markup nor match inside it.
+ * Tags that start a new block, such as {@code <p>} and {@code <br>}, become line breaks, so that text from two
+ * blocks doesn't run together; others vanish, so that {@code fo<b>o</b>} is still {@code foo}.
+ *
+ * The tokenizer works on bytes and keeps only a few bytes of state between pieces, so the page is never held
+ * whole. It relies on markup being ASCII, so is only used for charsets that extend ASCII; decoded references are
+ * encoded back into the page's charset. It is lenient rather than exact: it is meant to find the text a reader
+ * sees, not to validate the page.
+ *
+ * Not thread safe; one instance is used for one page at a time.
+ */
+class HtmlTextMatcher implements ContentMatcher {
+    private static final int OUTPUT_CAPACITY = 8192;
+    /** Longer tag names are none of those we look for. */
+    private static final int MAX_TAG_NAME = 10;
+    /** Longer references are not references. */
+    private static final int MAX_REFERENCE = 32;
+    private static final byte[] SCRIPT_END = {'<', '/', 's', 'c', 'r', 'i', 'p', 't'};
+    private static final byte[] STYLE_END = {'<', '/', 's', 't', 'y', 'l', 'e'};
+    private static final String[] BLOCK_TAGS = {
+            "address", "article", "aside", "blockquote", "br", "dd", "div", "dl", "dt", "figcaption", "figure",
+            "footer", "form", "h1", "h2", "h3", "h4", "h5", "h6", "header", "hr", "li", "main", "nav", "ol", "p",
+            "pre", "section", "table", "td", "th", "title", "tr", "ul"
+    };
+    private static final Map<String, Integer> NAMED_REFERENCES = new HashMap<>();
+
+    static {
+        final Object[] references = {
+                "amp", '&', "lt", '<', "gt", '>', "quot", '"', "apos", '\'', "nbsp", ' ', "copy", 0xA9, "reg", 0xAE,
+                "trade", 0x2122, "hellip", 0x2026, "ndash", 0x2013, "mdash", 0x2014, "lsquo", 0x2018,
+                "rsquo", 0x2019, "ldquo", 0x201C, "rdquo", 0x201D, "laquo", 0xAB, "raquo", 0xBB, "euro", 0x20AC,
+                "pound", 0xA3, "yen", 0xA5, "cent", 0xA2, "sect", 0xA7, "deg", 0xB0, "middot", 0xB7, "bull", 0x2022,
+                "times", 0xD7, "divide", 0xF7, "iexcl", 0xA1, "iquest", 0xBF, "szlig", 0xDF,
+                "aacute", 0xE1, "agrave", 0xE0, "acirc", 0xE2, "auml", 0xE4, "atilde", 0xE3, "aring", 0xE5,
+                "eacute", 0xE9, "egrave", 0xE8, "ecirc", 0xEA, "euml", 0xEB, "iacute", 0xED, "igrave", 0xEC,
+                "icirc", 0xEE, "iuml", 0xEF, "oacute", 0xF3, "ograve", 0xF2, "ocirc", 0xF4, "ouml", 0xF6,
+                "otilde", 0xF5, "oslash", 0xF8, "uacute", 0xFA, "ugrave", 0xF9, "ucirc", 0xFB, "uuml", 0xFC,
+                "ntilde", 0xF1, "ccedil", 0xE7, "Aacute", 0xC1, "Agrave", 0xC0, "Auml", 0xC4, "Eacute", 0xC9,
+                "Egrave", 0xC8, "Ouml", 0xD6, "Uuml", 0xDC, "Ntilde", 0xD1, "Ccedil", 0xC7, "aelig", 0xE6
+        };
+        for (int i = 0; i < references.length; i += 2) {
+            final Object value = references[i + 1];
+            NAMED_REFERENCES.put((String) references[i],
+                    value instanceof Character ? (int) (Character) value : (Integer) value);
+        }
+    }
+
+    private enum State {
+        TEXT, TAG_OPEN, TAG_NAME, TAG, MARKUP_DECLARATION, COMMENT_DASH, COMMENT, DECLARATION, RAW_TEXT, REFERENCE
+    }
+
+    private final ContentMatcher delegate;
+    private final CharsetEncoder encoder;
+    private final ByteBuffer output = ByteBuffer.allocate(OUTPUT_CAPACITY);
+    private final CharBuffer decoded = CharBuffer.allocate(2);
+    private final ByteBuffer encoded;
+    private final char[] tagName = new char[MAX_TAG_NAME];
+    private final char[] reference = new char[MAX_REFERENCE];
+    private State state = State.TEXT;
+    private int tagNameLength;
+    private boolean endTag;
+    private byte quote;
+    private boolean afterEquals;
+    private int dashes;
+    private byte[] rawTextEnd;
+    private int rawTextMatched;
+    private int referenceLength;
+    private boolean matched;
+
+    /**
+     * @param delegate The matcher to hand the text to
+     * @param charset The charset of the page, which must extend ASCII
+     */
+    HtmlTextMatcher(final ContentMatcher delegate, final Charset charset) {
+        if (delegate == null) {
+            throw new IllegalArgumentException("Null delegate passed to HTML text matcher");
+        }
+        if (charset == null) {
+            throw new IllegalArgumentException("Null charset passed to HTML text matcher");
+        }
+
+        this.delegate = delegate;
+        this.encoder = charset.newEncoder().onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.encoded = ByteBuffer.allocate((int) Math.ceil(encoder.maxBytesPerChar() * 2));
+    }
+
+    /**
+     * Whether a page with the given Content-Type is HTML, or may be: one without a Content-Type is taken to be.
+     * @param contentType The Content-Type header, or null
+     * @return whether the page's text should be extracted before matching
+     */
+    static boolean isMarkup(final String contentType) {
+        if (contentType == null) {
+            return true;
+        }
+        final String type = contentType.trim().toLowerCase(Locale.ROOT);
+        return type.startsWith("text/html") || type.startsWith("application/xhtml+xml");
+    }
+
+    @Override
+    public boolean feed(final ByteBuffer data) {
+        while (!matched && data.hasRemaining()) {
+            consume(data.get());
+        }
+        flushOutput();
+        return matched;
+    }
+
+    /**
+     * Signals the end of the content, handing over a reference that was still open as it stood.
+     */
+    @Override
+    public boolean finish() {
+        if (!matched && state == State.REFERENCE) {
+            emitReference(false);
+        }
+        flushOutput();
+        return delegate.finish();
+    }
+
+    @Override
+    public List<Pattern> getMatched() {
+        return delegate.getMatched();
+    }
+
+    @Override
+    public void reset() {
+        delegate.reset();
+        output.clear();
+        state = State.TEXT;
+        matched = false;
+    }
+
+    private void consume(final byte b) {
+        switch (state) {
+            case TEXT:
+                if (b == '<') {
+                    state = State.TAG_OPEN;
+                } else if (b == '&') {
+                    referenceLength = 0;
+                    state = State.REFERENCE;
+                } else {
+                    emit(b);
+                }
+                break;
+            case TAG_OPEN:
+                tagNameLength = 0;
+                endTag = false;
+                quote = 0;
+                afterEquals = false;
+                if (b == '!') {
+                    state = State.MARKUP_DECLARATION;
+                } else if (b == '?') {
+                    state = State.DECLARATION;
+                } else if (b == '/') {
+                    endTag = true;
+                    state = State.TAG_NAME;
+                } else if (isLetter(b)) {
+                    state = State.TAG_NAME;
+                    consume(b);
+                } else {
+                    // a lone less-than sign, which is text
+                    emit((byte) '<');
+                    state = State.TEXT;
+                    consume(b);
+                }
+                break;
+            case TAG_NAME:
+                if (isLetter(b) || (b >= '0' && b <= '9')) {
+                    if (tagNameLength < MAX_TAG_NAME) {
+                        tagName[tagNameLength] = AhoCorasick.fold((char) b);
+                    }
+                    tagNameLength++;
+                } else {
+                    state = State.TAG;
+                    consume(b);
+                }
+                break;
+            case TAG:
+                if (quote != 0) {
+                    if (b == quote) {
+                        quote = 0;
+                    }
+                } else if (b == '>') {
+                    endOfTag();
+                } else if ((b == '"' || b == '\'') && afterEquals) {
+                    quote = b;
+                    afterEquals = false;
+                } else if (b == '=') {
+                    afterEquals = true;
+                } else if (!isWhitespace(b)) {
+                    afterEquals = false;
+                }
+                break;
+            case MARKUP_DECLARATION:
+                if (b == '-') {
+                    state = State.COMMENT_DASH;
+                } else {
+                    state = State.DECLARATION;
+                    consume(b);
+                }
+                break;
+            case COMMENT_DASH:
+                if (b == '-') {
+                    dashes = 0;
+                    state = State.COMMENT;
+                } else {
+                    state = State.DECLARATION;
+                    consume(b);
+                }
+                break;
+            case COMMENT:
+                if (b == '>' && dashes >= 2) {
+                    state = State.TEXT;
+                } else {
+                    dashes = b == '-' ? dashes + 1 : 0;
+                }
+                break;
+            case DECLARATION:
+                if (b == '>') {
+                    state = State.TEXT;
+                }
+                break;
+            case RAW_TEXT:
+                if (AhoCorasick.fold((char) b) == rawTextEnd[rawTextMatched]) {
+                    if (++rawTextMatched == rawTextEnd.length) {
+                        // the end tag, whose name has been read already
+                        tagNameLength = MAX_TAG_NAME + 1;
+                        endTag = true;
+                        quote = 0;
+                        afterEquals = false;
+                        state = State.TAG;
+                    }
+                } else {
+                    rawTextMatched = b == '<' ? 1 : 0;
+                }
+                break;
+            case REFERENCE:
+                if (b == ';') {
+                    emitReference(true);
+                    state = State.TEXT;
+                } else if ((isLetter(b) || (b >= '0' && b <= '9') || (b == '#' && referenceLength == 0))
+                        && referenceLength < MAX_REFERENCE) {
+                    reference[referenceLength++] = (char) b;
+                } else {
+                    emitReference(false);
+                    state = State.TEXT;
+                    consume(b);
+                }
+                break;
+            default:
+                throw new IllegalStateException("Unknown state " + state);
+        }
+    }
+
+    private void endOfTag() {
+        state = State.TEXT;
+        if (!endTag && tagNameIs("script")) {
+            startRawText(SCRIPT_END);
+        } else if (!endTag && tagNameIs("style")) {
+            startRawText(STYLE_END);
+        } else {
+            for (String block : BLOCK_TAGS) {
+                if (tagNameIs(block)) {
+                    emit((byte) '\n');
+                    break;
+                }
+            }
+        }
+    }
+
+    private void startRawText(final byte[] end) {
+        rawTextEnd = end;
+        rawTextMatched = 0;
+        state = State.RAW_TEXT;
+    }
+
+    private boolean tagNameIs(final String name) {
+        if (tagNameLength != name.length()) {
+            return false;
+        }
+        for (int i = 0; i < tagNameLength; i++) {
+            if (tagName[i] != name.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Hands over the character a reference stands for, or the reference as it stands if it is none. Without its
+     * semicolon, only a numeric reference or a known name counts, as in browsers.
+     */
+    private void emitReference(final boolean terminated) {
+        final int codePoint = decodeReference();
+        if (codePoint >= 0) {
+            emitCodePoint(codePoint);
+            return;
+        }
+        emit((byte) '&');
+        for (int i = 0; i < referenceLength; i++) {
+            emit((byte) reference[i]);
+        }
+        if (terminated) {
+            emit((byte) ';');
+        }
+    }
+
+    private int decodeReference() {
+        if (referenceLength == 0) {
+            return -1;
+        }
+        if (reference[0] != '#') {
+            final Integer named = NAMED_REFERENCES.get(new String(reference, 0, referenceLength));
+            return named == null ? -1 : named;
+        }
+        final boolean hex = referenceLength > 1 && (reference[1] == 'x' || reference[1] == 'X');
+        final int start = hex ? 2 : 1;
+        if (start == referenceLength || referenceLength - start > 7) {
+            return -1;
+        }
+        try {
+            final int codePoint = Integer.parseInt(new String(reference, start, referenceLength - start),
+                    hex ? 16 : 10);
+            return codePoint > 0 && Character.isValidCodePoint(codePoint)
+                    && !(codePoint >= Character.MIN_SURROGATE && codePoint <= Character.MAX_SURROGATE)
+                    ? codePoint : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private void emitCodePoint(final int codePoint) {
+        if (codePoint < 0x80) {
+            emit((byte) codePoint);
+            return;
+        }
+        if (codePoint == 0xA0) {
+            // a no-break space is a space to whoever searches the text
+            emit((byte) ' ');
+            return;
+        }
+        decoded.clear();
+        if (Character.isBmpCodePoint(codePoint)) {
+            decoded.put((char) codePoint);
+        } else {
+            decoded.put(Character.highSurrogate(codePoint)).put(Character.lowSurrogate(codePoint));
+        }
+        decoded.flip();
+        encoded.clear();
+        encoder.reset();
+        encoder.encode(decoded, encoded, true);
+        encoder.flush(encoded);
+        encoded.flip();
+        while (encoded.hasRemaining()) {
+            emit(encoded.get());
+        }
+    }
+
+    private void emit(final byte b) {
+        if (!output.hasRemaining()) {
+            flushOutput();
+        }
+        output.put(b);
+    }
+
+    private void flushOutput() {
+        output.flip();
+        if (!matched && output.hasRemaining()) {
+            matched = delegate.feed(output);
+        }
+        output.clear();
+    }
+
+    private static boolean isLetter(final byte b) {
+        return (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z');
+    }
+
+    private static boolean isWhitespace(final byte b) {
+        return b == ' ' || b == '\t' || b == '\n' || b == '\r' || b == '\f';
+    }
+}
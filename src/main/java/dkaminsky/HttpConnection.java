@@ -0,0 +1,155 @@
+package dkaminsky;
+
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.net.UnknownHostException;
+
+/**
+ * A blocking socket connection to an HTTP or HTTPS server, able to carry several requests in turn.
+ */
+class HttpConnection implements Closeable {
+    private final Socket socket;
+    private final InputStream in;
+    private final OutputStream out;
+    private int requestCount;
+
+    HttpConnection(final Socket socket) throws IOException {
+        if (socket == null) {
+            throw new IllegalArgumentException("Null socket passed to connection");
+        }
+
+        this.socket = socket;
+        this.in = socket.getInputStream();
+        this.out = new BufferedOutputStream(socket.getOutputStream());
+    }
+
+    /**
+     * Opens a connection to the host of the URL, negotiating TLS for https, with the default connect timeout.
+     *
+     * @param url The URL to connect for
+     * @return the open connection
+     * @throws IOException If the connection cannot be established
+     */
+    static HttpConnection open(final URL url) throws IOException {
+        return open(url, FetchTimeouts.DEFAULT.getConnectMillis());
+    }
+
+    /**
+     * Opens a connection to the host of the URL, negotiating TLS for https.
+     *
+     * @param url The URL to connect for
+     * @param connectTimeoutMillis How long connecting, including the TLS handshake, may take
+     * @return the open connection
+     * @throws IOException If the connection cannot be established
+     */
+    static HttpConnection open(final URL url, final int connectTimeoutMillis) throws IOException {
+        return open(url, connectTimeoutMillis, HostResolver.SYSTEM);
+    }
+
+    /**
+     * Opens a connection to the host of the URL, negotiating TLS for https. Each address the host resolves to is
+     * tried in turn until one accepts the connection.
+     *
+     * @param url The URL to connect for
+     * @param connectTimeoutMillis How long connecting to one address, and the TLS handshake, may take
+     * @param resolver Resolves the host of the URL
+     * @return the open connection
+     * @throws IOException If the connection cannot be established
+     */
+    static HttpConnection open(final URL url, final int connectTimeoutMillis, final HostResolver resolver)
+            throws IOException {
+        final String host = url.getHost();
+        final int port = url.getPort() == -1 ? url.getDefaultPort() : url.getPort();
+        final Socket plain = connect(resolver.resolveNow(host), port, connectTimeoutMillis);
+        try {
+            if (!"https".equalsIgnoreCase(url.getProtocol())) {
+                return new HttpConnection(plain);
+            }
+
+            final SSLSocket tls = (SSLSocket) ((SSLSocketFactory) SSLSocketFactory.getDefault())
+                    .createSocket(plain, host, port, true);
+            final SSLParameters parameters = tls.getSSLParameters();
+            parameters.setEndpointIdentificationAlgorithm("HTTPS");
+            tls.setSSLParameters(parameters);
+            tls.setSoTimeout(connectTimeoutMillis);
+            tls.startHandshake();
+            return new HttpConnection(tls);
+        } catch (IOException | RuntimeException e) {
+            plain.close();
+            throw e;
+        }
+    }
+
+    private static Socket connect(final InetAddress[] addresses, final int port, final int connectTimeoutMillis)
+            throws IOException {
+        IOException failure = null;
+        for (InetAddress address : addresses) {
+            final Socket socket = new Socket();
+            try {
+                socket.setTcpNoDelay(true);
+                socket.connect(new InetSocketAddress(address, port), connectTimeoutMillis);
+                return socket;
+            } catch (IOException e) {
+                socket.close();
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+        throw failure == null ? new UnknownHostException("No addresses to connect to") : failure;
+    }
+
+    /**
+     * Writes a request to the server.
+     * @param request The request to send
+     * @throws IOException If the request cannot be written
+     */
+    void send(final HttpRequest request) throws IOException {
+        requestCount++;
+        out.write(request.encode());
+        out.flush();
+    }
+
+    /**
+     * Sets how long a read from the server may block.
+     * @param timeoutMillis The read timeout in milliseconds
+     * @throws IOException If the socket is closed
+     */
+    void setReadTimeout(final int timeoutMillis) throws IOException {
+        socket.setSoTimeout(timeoutMillis);
+    }
+
+    /**
+     * The stream from which responses are read.
+     * @return the socket input stream
+     */
+    InputStream getInputStream() {
+        return in;
+    }
+
+    /**
+     * Indicates whether this connection has carried a request before, in which case the server may have closed
+     * it while it sat idle.
+     * @return whether this connection is being reused
+     */
+    boolean isReused() {
+        return requestCount > 1;
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+}
@@ -0,0 +1,59 @@
+package dkaminsky;
+
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A minimal HTTP/1.1 GET request, encoded by hand for the fetch strategies that talk to sockets directly
+ * rather than going through {@link java.net.HttpURLConnection}.
+ */
+class HttpRequest {
+    private static final String CRLF = "\r\n";
+
+    private final URL url;
+    private final Map<String, String> headers = new LinkedHashMap<>();
+
+    HttpRequest(final URL url) {
+        if (url == null) {
+            throw new IllegalArgumentException("Null URL passed to request");
+        }
+
+        this.url = url;
+        header("Host", url.getPort() == -1 || url.getPort() == url.getDefaultPort()
+                ? url.getHost() : url.getHost() + ":" + url.getPort());
+        header("User-Agent", "Mozilla/5.0"); // spoof a well-known agent to avoid 403 errors
+        header("Accept", "*/*");
+    }
+
+    /**
+     * Sets a request header, replacing any previous value of the same name.
+     * @param name The header name
+     * @param value The header value
+     * @return this request
+     */
+    HttpRequest header(final String name, final String value) {
+        headers.put(name, value);
+        return this;
+    }
+
+    URL getUrl() {
+        return url;
+    }
+
+    /**
+     * Encodes the request line and headers, ready to be written to a connection.
+     * @return the request bytes
+     */
+    byte[] encode() {
+        final String file = url.getFile();
+        final StringBuilder request = new StringBuilder(256)
+                .append("GET ").append(file.isEmpty() ? "/" : file).append(" HTTP/1.1").append(CRLF);
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            request.append(header.getKey()).append(": ").append(header.getValue()).append(CRLF);
+        }
+        request.append(CRLF);
+        return request.toString().getBytes(StandardCharsets.ISO_8859_1);
+    }
+}
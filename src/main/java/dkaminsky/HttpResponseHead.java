@@ -0,0 +1,102 @@
+package dkaminsky;
+
+import java.net.MalformedURLException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The status line and headers of an HTTP response, as parsed by {@link HttpResponseParser}.
+ * Header names are matched case-insensitively.
+ */
+public class HttpResponseHead {
+    private final String version;
+    private final int statusCode;
+    private final String reasonPhrase;
+    private final Map<String, List<String>> headers;
+
+    HttpResponseHead(final String version, final int statusCode, final String reasonPhrase,
+                     final Map<String, List<String>> headers) {
+        this.version = version;
+        this.statusCode = statusCode;
+        this.reasonPhrase = reasonPhrase;
+        this.headers = Collections.unmodifiableMap(headers);
+    }
+
+    /**
+     * The protocol version from the status line, e.g. HTTP/1.1.
+     * @return the protocol version
+     */
+    public String getVersion() {
+        return version;
+    }
+
+    /**
+     * Indicates whether the server will keep the connection open after this response, per the protocol version
+     * and the Connection header.
+     * @return whether the connection may be reused
+     */
+    public boolean isKeepAlive() {
+        final String connection = getHeader("Connection");
+        if (connection != null && connection.toLowerCase(Locale.ROOT).contains("close")) {
+            return false;
+        }
+        return "HTTP/1.1".equals(version)
+                || (connection != null && connection.toLowerCase(Locale.ROOT).contains("keep-alive"));
+    }
+
+    /**
+     * The numeric status code of the response, e.g. 200.
+     * @return the status code
+     */
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    /**
+     * The reason phrase following the status code, possibly empty.
+     * @return the reason phrase
+     */
+    public String getReasonPhrase() {
+        return reasonPhrase;
+    }
+
+    /**
+     * Returns the first value of the named header.
+     * @param name The header name, in any case
+     * @return the first value of the header, or null if it is absent
+     */
+    public String getHeader(final String name) {
+        final List<String> values = headers.get(name);
+        return values == null || values.isEmpty() ? null : values.get(0);
+    }
+
+    /**
+     * All headers of the response, keyed case-insensitively.
+     * @return an unmodifiable view of the headers
+     */
+    public Map<String, List<String>> getHeaders() {
+        return headers;
+    }
+
+    /**
+     * Resolves the value of a Location header against the URL whose response it came in.
+     * @param url The URL requested
+     * @param location The value of the Location header, absolute or relative
+     * @return the URL redirected to
+     * @throws MalformedURLException If the location is not a valid URI reference
+     */
+    static URL resolveLocation(final URL url, final String location) throws MalformedURLException {
+        try {
+            return url.toURI().resolve(location).toURL();
+        } catch (URISyntaxException | IllegalArgumentException e) {
+            final MalformedURLException malformed = new MalformedURLException("Invalid redirect location: "
+                    + location + " for URL: " + url);
+            malformed.initCause(e);
+            throw malformed;
+        }
+    }
+}
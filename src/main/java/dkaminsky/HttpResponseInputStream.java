@@ -0,0 +1,110 @@
+package dkaminsky;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Reads a single HTTP response from a blocking stream, exposing its head and then its de-framed body as an
+ * {@link InputStream}. Reads from the underlying stream no further than the end of the response, so whatever
+ * follows, such as the next response on a keep-alive connection, is left untouched.
+ */
+class HttpResponseInputStream extends InputStream implements HttpResponseParser.Listener {
+    private static final int BUFFER_SIZE = 8192;
+
+    private final InputStream in;
+    private final HttpResponseParser parser = new HttpResponseParser();
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private final ByteBuffer raw = ByteBuffer.wrap(buffer);
+    private HttpResponseHead head;
+    private ByteBuffer body;
+
+    HttpResponseInputStream(final InputStream in) {
+        if (in == null) {
+            throw new IllegalArgumentException("Null stream passed to response stream");
+        }
+
+        this.in = in;
+        raw.limit(0);
+    }
+
+    /**
+     * Reads up to the end of the response head.
+     * @return the response head
+     * @throws IOException If the head cannot be read or is malformed
+     */
+    HttpResponseHead readHead() throws IOException {
+        while (head == null) {
+            fill();
+        }
+        return head;
+    }
+
+    /**
+     * Indicates whether the whole response has been read, leaving the underlying stream at the start of
+     * whatever follows it.
+     * @return whether the response is complete
+     */
+    boolean isComplete() {
+        return parser.isComplete();
+    }
+
+    @Override
+    public int read() throws IOException {
+        final byte[] one = new byte[1];
+        return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        readHead();
+        while (body == null || !body.hasRemaining()) {
+            if (parser.isComplete()) {
+                return -1;
+            }
+            fill();
+        }
+        final int count = Math.min(len, body.remaining());
+        body.get(b, off, count);
+        return count;
+    }
+
+    @Override
+    public int available() {
+        return body == null ? 0 : body.remaining();
+    }
+
+    @Override
+    public boolean onHead(final HttpResponseHead head) {
+        this.head = head;
+        return false; // pause so the caller can inspect the head
+    }
+
+    @Override
+    public boolean onBody(final ByteBuffer data) {
+        body = data; // a view of our own buffer, which is not refilled until it is drained
+        return false;
+    }
+
+    /**
+     * Parses buffered bytes, reading more from the underlying stream once they are used up.
+     */
+    private void fill() throws IOException {
+        if (!raw.hasRemaining()) {
+            if (parser.isComplete()) {
+                return;
+            }
+            final int count = in.read(buffer);
+            if (count < 0) {
+                parser.endOfInput();
+                return;
+            }
+            raw.clear();
+            raw.limit(count);
+        }
+        parser.feed(raw, this);
+    }
+}
@@ -0,0 +1,283 @@
+package dkaminsky;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Incremental parser for a single HTTP/1.1 response. Bytes are pushed in as they arrive from the network, in
+ * arbitrarily sized pieces, and the parsed head and the de-framed body (content-length, chunked or delimited by
+ * connection close) are handed to a {@link Listener}. Never buffers more than a single header line.
+ *
+ * A listener may pause parsing by returning false from a callback; feeding the remaining input again resumes
+ * where parsing left off.
+ *
+ * Not thread safe; a parser is owned by whichever thread is reading the connection.
+ */
+class HttpResponseParser {
+    private static final int MAX_LINE_LENGTH = 8192;
+    private static final int MAX_HEADER_COUNT = 256;
+
+    /**
+     * Receives the parts of a response as they are parsed.
+     */
+    interface Listener {
+        /**
+         * Called once the status line and headers of the final (non-1xx) response have been parsed.
+         * @param head The response head
+         * @return false to pause parsing
+         */
+        boolean onHead(HttpResponseHead head) throws IOException;
+
+        /**
+         * Called with each piece of the de-framed response body. The buffer is only valid for the duration of the
+         * call.
+         * @param data The body bytes, between the buffer's position and limit
+         * @return false to pause parsing
+         */
+        boolean onBody(ByteBuffer data) throws IOException;
+    }
+
+    private enum State {
+        STATUS_LINE, HEADERS, BODY_FIXED, BODY_UNTIL_CLOSE, CHUNK_SIZE, CHUNK_DATA, CHUNK_END, TRAILERS, DONE
+    }
+
+    private final StringBuilder line = new StringBuilder();
+    private State state = State.STATUS_LINE;
+    private String version;
+    private int statusCode;
+    private String reasonPhrase;
+    private Map<String, List<String>> headers;
+    private String lastHeaderName;
+    private int headerCount;
+    private long remaining;
+
+    /**
+     * Parses as much of the given input as possible, advancing its position past the consumed bytes.
+     *
+     * @param in The bytes read from the connection
+     * @param listener Receives the parsed head and body
+     * @return false if the listener paused parsing, true otherwise
+     * @throws IOException If the response is malformed
+     */
+    boolean feed(final ByteBuffer in, final Listener listener) throws IOException {
+        while (in.hasRemaining() && state != State.DONE) {
+            switch (state) {
+                case STATUS_LINE:
+                    if (readLine(in)) {
+                        parseStatusLine();
+                    }
+                    break;
+                case HEADERS:
+                    if (readLine(in)) {
+                        if (line.length() == 0) {
+                            if (!endOfHeaders(listener)) {
+                                return false;
+                            }
+                        } else {
+                            parseHeader();
+                        }
+                    }
+                    break;
+                case BODY_FIXED:
+                case CHUNK_DATA:
+                    final int count = (int) Math.min(remaining, in.remaining());
+                    remaining -= count;
+                    if (remaining == 0) {
+                        state = state == State.BODY_FIXED ? State.DONE : State.CHUNK_END;
+                    }
+                    if (!passBody(in, count, listener)) {
+                        return false;
+                    }
+                    break;
+                case BODY_UNTIL_CLOSE:
+                    if (!passBody(in, in.remaining(), listener)) {
+                        return false;
+                    }
+                    break;
+                case CHUNK_SIZE:
+                    if (readLine(in)) {
+                        parseChunkSize();
+                    }
+                    break;
+                case CHUNK_END:
+                    if (readLine(in)) {
+                        if (line.length() != 0) {
+                            throw new IOException("Malformed chunk terminator");
+                        }
+                        state = State.CHUNK_SIZE;
+                    }
+                    break;
+                case TRAILERS:
+                    if (readLine(in)) {
+                        if (line.length() == 0) {
+                            state = State.DONE;
+                        }
+                        line.setLength(0); // trailers are of no interest
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Signals that the connection was closed by the server. Completes a response whose body is delimited by the
+     * connection close.
+     *
+     * @throws IOException If the connection closed before the response was complete
+     */
+    void endOfInput() throws IOException {
+        if (state == State.BODY_UNTIL_CLOSE) {
+            state = State.DONE;
+        } else if (state != State.DONE) {
+            throw new EOFException("Connection closed before end of HTTP response");
+        }
+    }
+
+    /**
+     * Indicates whether the whole response, including its body, has been parsed.
+     * @return whether the response is complete
+     */
+    boolean isComplete() {
+        return state == State.DONE;
+    }
+
+    /**
+     * Indicates whether the body of this response runs until the connection closes, in which case the connection
+     * cannot be reused for another request.
+     * @return whether the body is delimited by connection close
+     */
+    boolean isCloseDelimited() {
+        return state == State.BODY_UNTIL_CLOSE;
+    }
+
+    private boolean passBody(final ByteBuffer in, final int count, final Listener listener) throws IOException {
+        final ByteBuffer body = in.slice();
+        body.limit(count);
+        in.position(in.position() + count);
+        return listener.onBody(body);
+    }
+
+    /**
+     * Accumulates bytes into the current line until a LF is reached. The CR of a CRLF pair is dropped.
+     * @return true if a full line is available
+     */
+    private boolean readLine(final ByteBuffer in) throws IOException {
+        while (in.hasRemaining()) {
+            final char c = (char) (in.get() & 0xff);
+            if (c == '\n') {
+                final int last = line.length() - 1;
+                if (last >= 0 && line.charAt(last) == '\r') {
+                    line.setLength(last);
+                }
+                return true;
+            }
+            if (line.length() >= MAX_LINE_LENGTH) {
+                throw new IOException("HTTP response line exceeds " + MAX_LINE_LENGTH + " bytes");
+            }
+            line.append(c);
+        }
+        return false;
+    }
+
+    private void parseStatusLine() throws IOException {
+        final String statusLine = line.toString();
+        line.setLength(0);
+        if (statusLine.isEmpty()) {
+            return; // tolerate stray blank lines between responses
+        }
+        final String[] parts = statusLine.split(" ", 3);
+        if (parts.length < 2 || !parts[0].startsWith("HTTP/")) {
+            throw new IOException("Malformed HTTP status line: " + statusLine);
+        }
+        try {
+            statusCode = Integer.parseInt(parts[1]);
+        } catch (NumberFormatException e) {
+            throw new IOException("Malformed HTTP status code: " + statusLine);
+        }
+        version = parts[0];
+        reasonPhrase = parts.length > 2 ? parts[2] : "";
+        headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        lastHeaderName = null;
+        headerCount = 0;
+        state = State.HEADERS;
+    }
+
+    private void parseHeader() throws IOException {
+        final String header = line.toString();
+        line.setLength(0);
+        if (++headerCount > MAX_HEADER_COUNT) {
+            throw new IOException("HTTP response has more than " + MAX_HEADER_COUNT + " headers");
+        }
+        if ((header.charAt(0) == ' ' || header.charAt(0) == '\t') && lastHeaderName != null) {
+            // obsolete line folding, append to the previous value
+            final List<String> values = headers.get(lastHeaderName);
+            final int last = values.size() - 1;
+            values.set(last, values.get(last) + " " + header.trim());
+            return;
+        }
+        final int colon = header.indexOf(':');
+        if (colon <= 0) {
+            throw new IOException("Malformed HTTP header: " + header);
+        }
+        lastHeaderName = header.substring(0, colon).trim();
+        headers.computeIfAbsent(lastHeaderName, k -> new ArrayList<>()).add(header.substring(colon + 1).trim());
+    }
+
+    private boolean endOfHeaders(final Listener listener) throws IOException {
+        line.setLength(0);
+        if (statusCode >= 100 && statusCode < 200) {
+            // interim response, the real one follows
+            state = State.STATUS_LINE;
+            return true;
+        }
+
+        final HttpResponseHead head = new HttpResponseHead(version, statusCode, reasonPhrase, headers);
+        final String transferEncoding = head.getHeader("Transfer-Encoding");
+        final String contentLength = head.getHeader("Content-Length");
+        if (statusCode == 204 || statusCode == 304) {
+            state = State.DONE;
+        } else if (transferEncoding != null && transferEncoding.toLowerCase(Locale.ROOT).contains("chunked")) {
+            state = State.CHUNK_SIZE;
+        } else if (contentLength != null) {
+            try {
+                remaining = Long.parseLong(contentLength);
+            } catch (NumberFormatException e) {
+                throw new IOException("Malformed Content-Length: " + contentLength);
+            }
+            if (remaining < 0) {
+                throw new IOException("Malformed Content-Length: " + contentLength);
+            }
+            state = remaining == 0 ? State.DONE : State.BODY_FIXED;
+        } else {
+            state = State.BODY_UNTIL_CLOSE;
+        }
+        return listener.onHead(head);
+    }
+
+    private void parseChunkSize() throws IOException {
+        String size = line.toString();
+        line.setLength(0);
+        final int extension = size.indexOf(';');
+        if (extension >= 0) {
+            size = size.substring(0, extension);
+        }
+        try {
+            remaining = Long.parseLong(size.trim(), 16);
+        } catch (NumberFormatException e) {
+            throw new IOException("Malformed chunk size: " + size);
+        }
+        if (remaining < 0) {
+            throw new IOException("Malformed chunk size: " + size);
+        }
+        state = remaining == 0 ? State.TRAILERS : State.CHUNK_DATA;
+    }
+}
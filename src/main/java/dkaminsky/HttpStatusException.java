@@ -0,0 +1,41 @@
+package dkaminsky;
+
+import java.io.IOException;
+import java.net.URL;
+
+/**
+ * Signals that a server answered with an error status (400 and above) rather than the content of the URL.
+ */
+public class HttpStatusException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    private final int statusCode;
+    private final String retryAfter;
+
+    /**
+     * @param statusCode The status code of the response
+     * @param retryAfter The Retry-After header of the response, or null if absent
+     * @param url The URL requested
+     */
+    HttpStatusException(final int statusCode, final String retryAfter, final URL url) {
+        super("Server returned HTTP response code: " + statusCode + " for URL: " + url);
+        this.statusCode = statusCode;
+        this.retryAfter = retryAfter;
+    }
+
+    /**
+     * The status code of the response, e.g. 503.
+     * @return the status code
+     */
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    /**
+     * The Retry-After header of the response, either a number of seconds or an HTTP date.
+     * @return the header value, or null if absent
+     */
+    public String getRetryAfter() {
+        return retryAfter;
+    }
+}
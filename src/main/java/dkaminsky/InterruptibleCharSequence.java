@@ -0,0 +1,59 @@
+package dkaminsky;
+
+import java.util.regex.Pattern;
+
+/**
+ * Text for a {@link java.util.regex.Matcher} to run over that stops the run once it has gone on too long, or once
+ * the thread has been interrupted, by throwing a {@link PatternTimeoutException}. A matcher reads its input a
+ * character at a time, however it backtracks, so the clock is checked every {@link #CHECK_INTERVAL} reads: often
+ * enough to stop within microseconds of the deadline, seldom enough to cost next to nothing.
+ *
+ * Not thread safe; reset for each run.
+ */
+final class InterruptibleCharSequence implements CharSequence {
+    static final int CHECK_INTERVAL = 4096;
+
+    private CharSequence text = "";
+    private Pattern pattern;
+    private long deadline;
+    private int untilCheck;
+
+    /**
+     * Starts a run over new text.
+     * @param text The text
+     * @param pattern The pattern that runs over it, which is named by the exception if it runs out of time
+     * @param deadline The {@link System#nanoTime()} by which the run must end
+     */
+    void reset(final CharSequence text, final Pattern pattern, final long deadline) {
+        this.text = text;
+        this.pattern = pattern;
+        this.deadline = deadline;
+        this.untilCheck = CHECK_INTERVAL;
+    }
+
+    @Override
+    public char charAt(final int index) {
+        if (--untilCheck == 0) {
+            untilCheck = CHECK_INTERVAL;
+            if (System.nanoTime() - deadline > 0 || Thread.currentThread().isInterrupted()) {
+                throw new PatternTimeoutException(pattern);
+            }
+        }
+        return text.charAt(index);
+    }
+
+    @Override
+    public int length() {
+        return text.length();
+    }
+
+    @Override
+    public CharSequence subSequence(final int start, final int end) {
+        return text.subSequence(start, end);
+    }
+
+    @Override
+    public String toString() {
+        return text.toString();
+    }
+}
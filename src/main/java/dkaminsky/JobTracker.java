@@ -0,0 +1,92 @@
+package dkaminsky;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Accounts for the URLs of one job: how many were queued and how many of those the workers have finished with,
+ * matched, not matched or failed. A URL being retried is not finished until its last attempt is. Once all the input
+ * has been read and every queued URL is finished, the job is complete and its output can be closed. Thread safe.
+ *
+ * Must be registered as a listener of the workers.
+ */
+class JobTracker implements WebsiteSearcherListener {
+    private final AtomicLong enqueued = new AtomicLong();
+    private final AtomicLong pending = new AtomicLong();
+    private final AtomicLong matched = new AtomicLong();
+    private final AtomicLong notMatched = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private volatile boolean inputDone;
+
+    /**
+     * Counts a URL about to be queued for the workers. Must be called before the URL is queued, so that it cannot
+     * be finished before it is counted.
+     */
+    void enqueued() {
+        enqueued.incrementAndGet();
+        pending.incrementAndGet();
+    }
+
+    /**
+     * Marks that no more URLs will be queued.
+     */
+    void inputDone() {
+        inputDone = true;
+    }
+
+    @Override
+    public void onFinished(final WebsiteSearcherInput input, final SearchOutcome outcome) {
+        switch (outcome) {
+            case RETRYING:
+                return; // it will be back
+            case MATCHED:
+                matched.incrementAndGet();
+                break;
+            case FAILED:
+                failed.incrementAndGet();
+                break;
+            default:
+                notMatched.incrementAndGet();
+                break;
+        }
+        pending.decrementAndGet();
+    }
+
+    /**
+     * Indicates if all the input has been read and every URL of it finished. Any result of the job is on the output
+     * queue by then, since workers queue results before they report the URL finished.
+     *
+     * @return Whether the job is complete.
+     */
+    boolean isComplete() {
+        return inputDone && pending.get() == 0;
+    }
+
+    long getEnqueued() {
+        return enqueued.get();
+    }
+
+    long getPending() {
+        return pending.get();
+    }
+
+    long getMatched() {
+        return matched.get();
+    }
+
+    /**
+     * @return the URLs searched without a match, including those given up at their byte budget or time limit
+     */
+    long getNotMatched() {
+        return notMatched.get();
+    }
+
+    long getFailed() {
+        return failed.get();
+    }
+
+    @Override
+    public String toString() {
+        return enqueued.get() + " URLs: " + matched.get() + " matched, " + notMatched.get() + " not matched, "
+                + failed.get() + " failed, " + pending.get() + " pending";
+    }
+}
@@ -0,0 +1,95 @@
+package dkaminsky;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the most recent latency samples and answers percentiles of them, so that thresholds can follow how fast
+ * hosts actually answer in this run rather than a fixed guess. Thread safe.
+ */
+class LatencyTracker {
+    private final long[] samples;
+    private final double percentile;
+    private final int minSamples;
+    private final int recomputeEvery;
+    private int next;
+    private int count;
+    private int sinceComputed;
+    private long recorded;
+    private long cached = -1L;
+
+    /**
+     * @param capacity The number of most recent samples kept
+     * @param percentile The percentile answered, above 0 and below 100
+     * @param minSamples The number of samples needed before there is an answer
+     */
+    LatencyTracker(final int capacity, final double percentile, final int minSamples) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Tracker must keep at least one sample");
+        }
+        if (!(percentile > 0 && percentile < 100)) {
+            throw new IllegalArgumentException("Percentile must be above 0 and below 100");
+        }
+        if (minSamples < 1 || minSamples > capacity) {
+            throw new IllegalArgumentException("Minimum samples must be between 1 and the capacity");
+        }
+
+        this.samples = new long[capacity];
+        this.percentile = percentile;
+        this.minSamples = minSamples;
+        // sorting on every call would cost more than the samples are worth; a slightly stale answer is fine
+        this.recomputeEvery = Math.max(1, capacity / 32);
+    }
+
+    /**
+     * Records a sample, displacing the oldest once the tracker is full.
+     * @param millis The latency in milliseconds
+     */
+    synchronized void record(final long millis) {
+        samples[next] = millis;
+        next = (next + 1) % samples.length;
+        if (count < samples.length) {
+            count++;
+        }
+        sinceComputed++;
+        recorded++;
+    }
+
+    /**
+     * The number of samples recorded since the tracker was made, including those since displaced.
+     * @return the number of samples
+     */
+    synchronized long getRecorded() {
+        return recorded;
+    }
+
+    /**
+     * The configured percentile of the recent samples.
+     * @return the latency in milliseconds, or -1 if there are too few samples yet
+     */
+    synchronized long getPercentile() {
+        if (count < minSamples) {
+            return -1L;
+        }
+        if (cached < 0 || sinceComputed >= recomputeEvery) {
+            cached = percentileOf(percentile);
+            sinceComputed = 0;
+        }
+        return cached;
+    }
+
+    /**
+     * Any percentile of the recent samples, worked out afresh. For callers that ask seldom.
+     * @param percentile The percentile, above 0 and below 100
+     * @return the latency in milliseconds, or -1 if there are too few samples yet
+     */
+    synchronized long getPercentile(final double percentile) {
+        return count < minSamples ? -1L : percentileOf(percentile);
+    }
+
+    private long percentileOf(final double percentile) {
+        final long[] sorted = Arrays.copyOf(samples, count);
+        Arrays.sort(sorted);
+        final int rank = (int) Math.ceil(percentile / 100 * count) - 1;
+        return sorted[Math.max(0, Math.min(count - 1, rank))];
+    }
+}
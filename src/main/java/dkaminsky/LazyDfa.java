@@ -0,0 +1,910 @@
+package dkaminsky;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+
+/**
+ * A regular expression engine that finds a match in time linear in the length of the text, whatever the pattern,
+ * so that no pattern can stall a worker the way backtracking can. The pattern is compiled to a nondeterministic
+ * automaton, and the equivalent deterministic automaton is built lazily: each state is made the first time the
+ * text leads to it and then cached. The cache is bounded; when it is full it is emptied and refilled as the text
+ * requires, so memory stays bounded and each character still costs at most one state's construction.
+ *
+ * Supports the part of the {@link Pattern} syntax that needs no backtracking: literals and the usual escapes,
+ * {@code .}, character classes without nesting or intersection, the predefined classes {@code \d \s \w} and their
+ * negations, groups, alternation, greedy and lazy quantifiers (which find the same matches), {@code ^} at the start
+ * of the pattern and {@code $} at its end, and the CASE_INSENSITIVE, DOTALL and UNIX_LINES flags. Anything else,
+ * such as back references, lookaround, word boundaries, possessive quantifiers or inline flags, is left to
+ * {@link Pattern}: {@link #compile(Pattern)} returns null for it.
+ *
+ * Immutable. The states built are kept in a {@link Cache} that belongs to the caller, one per matcher, so that
+ * they are reused for as long as the matcher is, whichever thread it runs on.
+ */
+final class LazyDfa {
+    /** The most states a cache holds before it is emptied. */
+    static final int MAX_STATES = 4096;
+    private static final int MAX_NODES = 10000;
+    private static final int MAX_REPEAT = 1000;
+
+    private static final byte CHAR = 0;
+    private static final byte SPLIT = 1;
+    private static final byte MATCH = 2;
+
+    private final byte[] kinds;
+    private final int[] out;
+    private final int[] out1;
+    private final boolean[][] accepts;
+    private final char[] classOf;
+    private final int classes;
+    private final int start;
+    private final boolean anchoredStart;
+    private final boolean anchoredEnd;
+    private final boolean unixLines;
+
+    private LazyDfa(final Nfa nfa, final int start, final boolean anchoredStart, final boolean anchoredEnd,
+                    final boolean unixLines) {
+        final int count = nfa.kinds.size();
+        this.kinds = new byte[count];
+        this.out = new int[count];
+        this.out1 = new int[count];
+        for (int i = 0; i < count; i++) {
+            kinds[i] = nfa.kinds.get(i);
+            out[i] = nfa.out.get(i);
+            out1[i] = nfa.out1.get(i);
+        }
+        this.start = start;
+        this.anchoredStart = anchoredStart;
+        this.anchoredEnd = anchoredEnd;
+        this.unixLines = unixLines;
+
+        // characters that no set tells apart share a class, so that each state needs a row only as wide as that
+        final TreeSet<Integer> boundaries = new TreeSet<>();
+        boundaries.add(0);
+        for (Ranges ranges : nfa.sets) {
+            if (ranges != null) {
+                for (int i = 0; i < ranges.bounds.length; i += 2) {
+                    boundaries.add(ranges.bounds[i]);
+                    boundaries.add(ranges.bounds[i + 1] + 1);
+                }
+            }
+        }
+        boundaries.remove(Character.MAX_VALUE + 1);
+        final int[] lows = boundaries.stream().mapToInt(Integer::intValue).toArray();
+        this.classes = lows.length;
+        this.classOf = new char[Character.MAX_VALUE + 1];
+        for (int k = 0; k < lows.length; k++) {
+            final int high = k + 1 < lows.length ? lows[k + 1] : Character.MAX_VALUE + 1;
+            Arrays.fill(classOf, lows[k], high, (char) k);
+        }
+        this.accepts = new boolean[count][];
+        for (int i = 0; i < count; i++) {
+            if (kinds[i] == CHAR) {
+                accepts[i] = new boolean[classes];
+                for (int k = 0; k < classes; k++) {
+                    accepts[i][k] = nfa.sets.get(i).contains(lows[k]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Compiles a pattern, if this engine supports it.
+     * @param pattern The pattern
+     * @return the engine for the pattern, or null if the pattern needs {@link Pattern}'s own
+     */
+    static LazyDfa compile(final Pattern pattern) {
+        final int flags = pattern.flags();
+        if ((flags & ~(Pattern.CASE_INSENSITIVE | Pattern.DOTALL | Pattern.UNIX_LINES | Pattern.MULTILINE)) != 0) {
+            return null;
+        }
+        try {
+            final Parser parser = new Parser(pattern.pattern(), flags);
+            final List<Node> items = new ArrayList<>(parser.concatenation(true));
+            if (parser.position != parser.regex.length()) {
+                return null; // an unbalanced parenthesis
+            }
+            final boolean anchoredStart = !items.isEmpty() && items.get(0) == Node.START;
+            if (anchoredStart) {
+                items.remove(0);
+            }
+            final boolean anchoredEnd = !items.isEmpty() && items.get(items.size() - 1) == Node.END;
+            if (anchoredEnd) {
+                items.remove(items.size() - 1);
+            }
+            if ((anchoredStart || anchoredEnd) && (flags & Pattern.MULTILINE) != 0) {
+                return null; // anchors would match at every line
+            }
+            final Nfa nfa = new Nfa();
+            final int match = nfa.add(MATCH, null, -1, -1);
+            final int start = nfa.build(new Node.Concat(items), match);
+            return new LazyDfa(nfa, start, anchoredStart, anchoredEnd, (flags & Pattern.UNIX_LINES) != 0);
+        } catch (UnsupportedSyntaxException e) {
+            return null;
+        }
+    }
+
+    /**
+     * A cache for the states of this automaton, empty until the first search with it.
+     * @return the cache
+     */
+    Cache newCache() {
+        return new Cache(kinds.length);
+    }
+
+    /**
+     * Like {@link #find(CharSequence, Cache)}, with a cache of its own that is thrown away afterwards. For one-off
+     * searches only.
+     * @param text The text
+     * @return true if there is a match
+     */
+    boolean find(final CharSequence text) {
+        return find(text, newCache());
+    }
+
+    /**
+     * Whether the pattern matches anywhere in the text, as {@link java.util.regex.Matcher#find()} would tell.
+     * @param text The text
+     * @param cache The cache of states to build on, from this automaton's {@link #newCache()}; used by one thread
+     *              at a time
+     * @return true if there is a match
+     */
+    boolean find(final CharSequence text, final Cache cache) {
+        State state = cache.startState(this);
+        State before = null;
+        State beforeThat = null;
+        final int length = text.length();
+        for (int i = 0; i < length; i++) {
+            if (state.match && !anchoredEnd) {
+                return true;
+            }
+            if (state.nodes.length == 0 && (!anchoredEnd || i < length - 2)) {
+                return false; // an anchored pattern that can no longer match, even before a final line terminator
+            }
+            final int k = classOf[text.charAt(i)];
+            State next = state.next[k];
+            if (next == null) {
+                next = cache.step(this, state, k);
+            }
+            beforeThat = before;
+            before = state;
+            state = next;
+        }
+        if (state.match) {
+            return true;
+        }
+        if (!anchoredEnd || length == 0) {
+            return false;
+        }
+        // $ also matches before a line terminator that ends the text
+        final char last = text.charAt(length - 1);
+        if (last == '\n' && length > 1 && text.charAt(length - 2) == '\r' && !unixLines) {
+            return beforeThat != null && beforeThat.match;
+        }
+        return isLineTerminator(last) && before != null && before.match;
+    }
+
+    private boolean isLineTerminator(final char c) {
+        return unixLines ? c == '\n' : c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+    }
+
+    /**
+     * A state of the deterministic automaton: the set of automaton nodes the text so far may have led to.
+     */
+    private static final class State {
+        private final int[] nodes;
+        private final boolean match;
+        private final State[] next;
+        private final int hash;
+
+        State(final int[] nodes, final boolean match, final int classes) {
+            this.nodes = nodes;
+            this.match = match;
+            this.next = new State[classes];
+            this.hash = Arrays.hashCode(nodes);
+        }
+
+        @Override
+        public boolean equals(final Object other) {
+            return other instanceof State && Arrays.equals(nodes, ((State) other).nodes);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * The states one matcher has built, and its scratch space for building more. Not thread safe.
+     */
+    static final class Cache {
+        private final Map<State, State> states = new HashMap<>();
+        private final int[] marks;
+        private final int[] stack;
+        private final int[] found;
+        private int generation;
+        private int count;
+        private int built;
+        private State startState;
+
+        Cache(final int nodes) {
+            this.marks = new int[nodes];
+            this.stack = new int[2 * nodes + 1];
+            this.found = new int[nodes];
+        }
+
+        State startState(final LazyDfa dfa) {
+            if (startState == null) {
+                begin();
+                addClosure(dfa, dfa.start);
+                startState = intern(dfa);
+            }
+            return startState;
+        }
+
+        State step(final LazyDfa dfa, final State state, final int k) {
+            begin();
+            for (int node : state.nodes) {
+                if (dfa.kinds[node] == CHAR && dfa.accepts[node][k]) {
+                    addClosure(dfa, dfa.out[node]);
+                }
+            }
+            if (!dfa.anchoredStart) {
+                addClosure(dfa, dfa.start); // a match may start at any character
+            }
+            final State next = intern(dfa);
+            state.next[k] = next;
+            return next;
+        }
+
+        private void begin() {
+            if (++generation == 0) {
+                Arrays.fill(marks, 0);
+                generation = 1;
+            }
+            count = 0;
+        }
+
+        private void addClosure(final LazyDfa dfa, final int node) {
+            int depth = 0;
+            stack[depth++] = node;
+            while (depth > 0) {
+                final int current = stack[--depth];
+                if (marks[current] == generation) {
+                    continue;
+                }
+                marks[current] = generation;
+                if (dfa.kinds[current] == SPLIT) {
+                    stack[depth++] = dfa.out1[current];
+                    stack[depth++] = dfa.out[current];
+                } else {
+                    found[count++] = current;
+                }
+            }
+        }
+
+        private State intern(final LazyDfa dfa) {
+            final int[] nodes = Arrays.copyOf(found, count);
+            Arrays.sort(nodes);
+            boolean match = false;
+            for (int node : nodes) {
+                match |= dfa.kinds[node] == MATCH;
+            }
+            final State candidate = new State(nodes, match, dfa.classes);
+            final State existing = states.get(candidate);
+            if (existing != null) {
+                return existing;
+            }
+            if (states.size() >= MAX_STATES) {
+                // start over rather than grow; states still referenced are simply no longer shared
+                states.clear();
+                startState = null;
+            }
+            states.put(candidate, candidate);
+            built++;
+            return candidate;
+        }
+
+        /**
+         * The number of states built since the last call.
+         * @return the number of states
+         */
+        int takeBuilt() {
+            final int taken = built;
+            built = 0;
+            return taken;
+        }
+    }
+
+    /**
+     * The nondeterministic automaton, built back to front so that each fragment is made knowing what follows it.
+     */
+    private static final class Nfa {
+        private final List<Byte> kinds = new ArrayList<>();
+        private final List<Ranges> sets = new ArrayList<>();
+        private final List<Integer> out = new ArrayList<>();
+        private final List<Integer> out1 = new ArrayList<>();
+
+        int add(final byte kind, final Ranges set, final int next, final int alternative) {
+            if (kinds.size() >= MAX_NODES) {
+                throw new UnsupportedSyntaxException();
+            }
+            kinds.add(kind);
+            sets.add(set);
+            out.add(next);
+            out1.add(alternative);
+            return kinds.size() - 1;
+        }
+
+        int build(final Node node, final int next) {
+            if (node instanceof Node.Chars) {
+                final Ranges set = ((Node.Chars) node).set;
+                if (!set.supplementary) {
+                    return add(CHAR, set, next, -1);
+                }
+                // characters outside the BMP come as surrogate pairs, which match as one character or not at all
+                final int single = add(CHAR, set.withoutSurrogates(), next, -1);
+                final int low = add(CHAR, Ranges.of(Character.MIN_LOW_SURROGATE, Character.MAX_LOW_SURROGATE),
+                        next, -1);
+                final int high = add(CHAR, Ranges.of(Character.MIN_HIGH_SURROGATE, Character.MAX_HIGH_SURROGATE),
+                        low, -1);
+                return add(SPLIT, null, single, high);
+            }
+            if (node instanceof Node.Concat) {
+                final List<Node> items = ((Node.Concat) node).items;
+                int current = next;
+                for (int i = items.size() - 1; i >= 0; i--) {
+                    current = build(items.get(i), current);
+                }
+                return current;
+            }
+            if (node instanceof Node.Alternation) {
+                final List<Node> branches = ((Node.Alternation) node).branches;
+                int current = build(branches.get(branches.size() - 1), next);
+                for (int i = branches.size() - 2; i >= 0; i--) {
+                    current = add(SPLIT, null, build(branches.get(i), next), current);
+                }
+                return current;
+            }
+            if (node instanceof Node.Repeat) {
+                final Node.Repeat repeat = (Node.Repeat) node;
+                int current;
+                if (repeat.max < 0) {
+                    final int loop = add(SPLIT, null, -1, next);
+                    out.set(loop, build(repeat.item, loop));
+                    current = loop;
+                } else {
+                    current = next;
+                    for (int i = repeat.min; i < repeat.max; i++) {
+                        current = add(SPLIT, null, build(repeat.item, current), next);
+                    }
+                }
+                for (int i = 0; i < repeat.min; i++) {
+                    current = build(repeat.item, current);
+                }
+                return current;
+            }
+            // anchors anywhere but the ends of the pattern
+            throw new UnsupportedSyntaxException();
+        }
+    }
+
+    /**
+     * The syntax tree of a pattern.
+     */
+    private abstract static class Node {
+        static final Node START = new Node() { };
+        static final Node END = new Node() { };
+
+        static final class Chars extends Node {
+            private final Ranges set;
+
+            Chars(final Ranges set) {
+                this.set = set;
+            }
+        }
+
+        static final class Concat extends Node {
+            private final List<Node> items;
+
+            Concat(final List<Node> items) {
+                this.items = items;
+            }
+        }
+
+        static final class Alternation extends Node {
+            private final List<Node> branches;
+
+            Alternation(final List<Node> branches) {
+                this.branches = branches;
+            }
+        }
+
+        static final class Repeat extends Node {
+            private final Node item;
+            private final int min;
+            private final int max;
+
+            Repeat(final Node item, final int min, final int max) {
+                this.item = item;
+                this.min = min;
+                this.max = max;
+            }
+        }
+    }
+
+    /**
+     * Parses the supported syntax, throwing {@link UnsupportedSyntaxException} at anything else.
+     */
+    private static final class Parser {
+        private final String regex;
+        private final boolean caseInsensitive;
+        private final boolean dotAll;
+        private final boolean unixLines;
+        private int position;
+
+        Parser(final String regex, final int flags) {
+            this.regex = regex;
+            this.caseInsensitive = (flags & Pattern.CASE_INSENSITIVE) != 0;
+            this.dotAll = (flags & Pattern.DOTALL) != 0;
+            this.unixLines = (flags & Pattern.UNIX_LINES) != 0;
+        }
+
+        Node alternation() {
+            final List<Node> branches = new ArrayList<>();
+            branches.add(new Node.Concat(concatenation(false)));
+            while (position < regex.length() && regex.charAt(position) == '|') {
+                position++;
+                branches.add(new Node.Concat(concatenation(false)));
+            }
+            return branches.size() == 1 ? branches.get(0) : new Node.Alternation(branches);
+        }
+
+        /**
+         * Items up to the end of the enclosing group or branch. At the top, stops at an alternation.
+         */
+        List<Node> concatenation(final boolean top) {
+            final List<Node> items = new ArrayList<>();
+            while (position < regex.length()) {
+                final char c = regex.charAt(position);
+                if (c == ')' || c == '|') {
+                    if (top && c == '|') {
+                        // the anchors of one branch are not those of the pattern
+                        position = 0;
+                        items.clear();
+                        items.add(alternation());
+                        return items;
+                    }
+                    break;
+                }
+                position++;
+                Node atom;
+                switch (c) {
+                    case '(':
+                        atom = group();
+                        break;
+                    case '[':
+                        atom = new Node.Chars(characterClass());
+                        break;
+                    case '.':
+                        atom = new Node.Chars(dot());
+                        break;
+                    case '^':
+                        atom = Node.START;
+                        break;
+                    case '$':
+                        atom = Node.END;
+                        break;
+                    case '\\':
+                        atom = escape();
+                        if (atom instanceof Node.Concat) {
+                            // a quantifier after a quotation applies to its last character
+                            final List<Node> quoted = ((Node.Concat) atom).items;
+                            if (quoted.isEmpty()) {
+                                continue;
+                            }
+                            items.addAll(quoted.subList(0, quoted.size() - 1));
+                            atom = quoted.get(quoted.size() - 1);
+                        }
+                        break;
+                    case '*':
+                    case '+':
+                    case '?':
+                    case '{':
+                        throw new UnsupportedSyntaxException();
+                    default:
+                        atom = literal(c);
+                        break;
+                }
+                items.add(quantified(atom));
+            }
+            return items;
+        }
+
+        private Node group() {
+            if (position < regex.length() && regex.charAt(position) == '?') {
+                position++;
+                final char c = next();
+                if (c == '<' && position < regex.length() && Character.isLetter(regex.charAt(position))) {
+                    final int end = regex.indexOf('>', position);
+                    if (end < 0) {
+                        throw new UnsupportedSyntaxException();
+                    }
+                    position = end + 1;
+                } else if (c != ':') {
+                    throw new UnsupportedSyntaxException();
+                }
+            }
+            final Node inner = alternation();
+            if (next() != ')') {
+                throw new UnsupportedSyntaxException();
+            }
+            return inner;
+        }
+
+        private Node quantified(final Node atom) {
+            if (position >= regex.length()) {
+                return atom;
+            }
+            final int min;
+            final int max;
+            final char c = regex.charAt(position);
+            if (c == '?') {
+                min = 0;
+                max = 1;
+            } else if (c == '*') {
+                min = 0;
+                max = -1;
+            } else if (c == '+') {
+                min = 1;
+                max = -1;
+            } else if (c == '{') {
+                position++;
+                min = number();
+                if (position < regex.length() && regex.charAt(position) == ',') {
+                    position++;
+                    max = position < regex.length() && regex.charAt(position) == '}' ? -1 : number();
+                } else {
+                    max = min;
+                }
+                if (regex.charAt(position) != '}' || (max >= 0 && max < min)) {
+                    throw new UnsupportedSyntaxException();
+                }
+            } else {
+                return atom;
+            }
+            position++;
+            if (atom == Node.START || atom == Node.END) {
+                throw new UnsupportedSyntaxException();
+            }
+            if (position < regex.length()) {
+                if (regex.charAt(position) == '?') {
+                    position++; // a lazy quantifier matches wherever a greedy one does
+                } else if (regex.charAt(position) == '+') {
+                    throw new UnsupportedSyntaxException(); // possessive quantifiers give up matches
+                }
+            }
+            return new Node.Repeat(atom, min, max);
+        }
+
+        private int number() {
+            final int start = position;
+            while (position < regex.length() && Character.isDigit(regex.charAt(position))) {
+                position++;
+            }
+            if (start == position || position - start > 4) {
+                throw new UnsupportedSyntaxException();
+            }
+            final int value = Integer.parseInt(regex.substring(start, position));
+            if (value > MAX_REPEAT || position >= regex.length()) {
+                throw new UnsupportedSyntaxException();
+            }
+            return value;
+        }
+
+        private Node escape() {
+            final char c = next();
+            final Ranges predefined = predefined(c);
+            if (predefined != null) {
+                return new Node.Chars(predefined);
+            }
+            if (c == 'Q') {
+                final int end = regex.indexOf("\\E", position);
+                final String quoted = regex.substring(position, end < 0 ? regex.length() : end);
+                position = end < 0 ? regex.length() : end + 2;
+                final List<Node> chars = new ArrayList<>();
+                for (int i = 0; i < quoted.length(); i++) {
+                    chars.add(literal(quoted.charAt(i)));
+                }
+                return new Node.Concat(chars);
+            }
+            return literal(escapedChar(c));
+        }
+
+        /**
+         * The character an escape stands for, after the backslash and its first character.
+         */
+        private char escapedChar(final char c) {
+            if (!Character.isLetterOrDigit(c)) {
+                return c;
+            }
+            switch (c) {
+                case 't':
+                    return '\t';
+                case 'n':
+                    return '\n';
+                case 'r':
+                    return '\r';
+                case 'f':
+                    return '\f';
+                case 'a':
+                    return '\u0007';
+                case 'e':
+                    return '\u001B';
+                case 'x':
+                    return hex(2);
+                case 'u':
+                    return hex(4);
+                default:
+                    throw new UnsupportedSyntaxException();
+            }
+        }
+
+        private char hex(final int digits) {
+            if (position + digits > regex.length()) {
+                throw new UnsupportedSyntaxException();
+            }
+            final String text = regex.substring(position, position + digits);
+            position += digits;
+            try {
+                final char c = (char) Integer.parseInt(text, 16);
+                if (Character.isSurrogate(c)) {
+                    throw new UnsupportedSyntaxException();
+                }
+                return c;
+            } catch (NumberFormatException e) {
+                throw new UnsupportedSyntaxException();
+            }
+        }
+
+        private Ranges predefined(final char c) {
+            switch (c) {
+                case 'd':
+                    return Ranges.of('0', '9');
+                case 'D':
+                    return Ranges.of('0', '9').negate();
+                case 's':
+                    return whitespace();
+                case 'S':
+                    return whitespace().negate();
+                case 'w':
+                    return word();
+                case 'W':
+                    return word().negate();
+                default:
+                    return null;
+            }
+        }
+
+        private static Ranges whitespace() {
+            return Ranges.of('\t', '\r').union(Ranges.of(' ', ' '));
+        }
+
+        private static Ranges word() {
+            return Ranges.of('a', 'z').union(Ranges.of('A', 'Z')).union(Ranges.of('0', '9'))
+                    .union(Ranges.of('_', '_'));
+        }
+
+        private Ranges dot() {
+            if (dotAll) {
+                return Ranges.EMPTY.negate();
+            }
+            if (unixLines) {
+                return Ranges.of('\n', '\n').negate();
+            }
+            return Ranges.of('\n', '\n').union(Ranges.of('\r', '\r')).union(Ranges.of('\u0085', '\u0085'))
+                    .union(Ranges.of('\u2028', '\u2029')).negate();
+        }
+
+        private Node literal(final char c) {
+            if (Character.isSurrogate(c)) {
+                // half of a character outside the BMP, matched as is
+                return new Node.Chars(Ranges.of(c, c));
+            }
+            return new Node.Chars(caseInsensitive ? Ranges.of(c, c).foldAscii() : Ranges.of(c, c));
+        }
+
+        private Ranges characterClass() {
+            boolean negated = false;
+            if (position < regex.length() && regex.charAt(position) == '^') {
+                negated = true;
+                position++;
+            }
+            if (position < regex.length() && regex.charAt(position) == ']') {
+                throw new UnsupportedSyntaxException();
+            }
+            Ranges set = Ranges.EMPTY;
+            while (true) {
+                final char c = next();
+                if (c == ']') {
+                    break;
+                }
+                if (c == '[' || (c == '&' && position < regex.length() && regex.charAt(position) == '&')) {
+                    throw new UnsupportedSyntaxException(); // unions and intersections
+                }
+                final char low;
+                if (c == '\\') {
+                    final char e = next();
+                    final Ranges predefined = predefined(e);
+                    if (predefined != null) {
+                        set = set.union(predefined);
+                        continue;
+                    }
+                    low = escapedChar(e);
+                } else {
+                    low = c;
+                }
+                char high = low;
+                if (position + 1 < regex.length() && regex.charAt(position) == '-'
+                        && regex.charAt(position + 1) != ']') {
+                    position++;
+                    final char h = next();
+                    if (h == '[') {
+                        throw new UnsupportedSyntaxException();
+                    }
+                    high = h == '\\' ? escapedChar(next()) : h;
+                    if (high < low) {
+                        throw new UnsupportedSyntaxException();
+                    }
+                }
+                if (Character.isSurrogate(low) || Character.isSurrogate(high)
+                        || (low < Character.MIN_SURROGATE && high > Character.MAX_SURROGATE)) {
+                    throw new UnsupportedSyntaxException();
+                }
+                set = set.union(Ranges.of(low, high));
+            }
+            if (caseInsensitive) {
+                set = set.foldAscii();
+            }
+            return negated ? set.negate() : set;
+        }
+
+        private char next() {
+            if (position >= regex.length()) {
+                throw new UnsupportedSyntaxException();
+            }
+            return regex.charAt(position++);
+        }
+    }
+
+    /**
+     * A set of characters as sorted, disjoint, inclusive ranges, and whether it also holds every character
+     * outside the BMP.
+     */
+    private static final class Ranges {
+        static final Ranges EMPTY = new Ranges(new int[0], false);
+
+        private final int[] bounds;
+        private final boolean supplementary;
+
+        private Ranges(final int[] bounds, final boolean supplementary) {
+            this.bounds = bounds;
+            this.supplementary = supplementary;
+        }
+
+        static Ranges of(final int low, final int high) {
+            return new Ranges(new int[] {low, high}, false);
+        }
+
+        boolean contains(final int c) {
+            for (int i = 0; i < bounds.length; i += 2) {
+                if (c >= bounds[i] && c <= bounds[i + 1]) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        Ranges union(final Ranges other) {
+            final List<int[]> all = new ArrayList<>();
+            for (int i = 0; i < bounds.length; i += 2) {
+                all.add(new int[] {bounds[i], bounds[i + 1]});
+            }
+            for (int i = 0; i < other.bounds.length; i += 2) {
+                all.add(new int[] {other.bounds[i], other.bounds[i + 1]});
+            }
+            all.sort((a, b) -> Integer.compare(a[0], b[0]));
+            final List<Integer> merged = new ArrayList<>();
+            for (int[] range : all) {
+                final int last = merged.size() - 1;
+                if (last > 0 && range[0] <= merged.get(last) + 1) {
+                    merged.set(last, Math.max(merged.get(last), range[1]));
+                } else {
+                    merged.add(range[0]);
+                    merged.add(range[1]);
+                }
+            }
+            return new Ranges(merged.stream().mapToInt(Integer::intValue).toArray(),
+                    supplementary || other.supplementary);
+        }
+
+        /**
+         * Every character not in this set, including those outside the BMP if this set has none of them.
+         */
+        Ranges negate() {
+            final List<Integer> result = new ArrayList<>();
+            int next = 0;
+            for (int i = 0; i < bounds.length; i += 2) {
+                if (bounds[i] > next) {
+                    result.add(next);
+                    result.add(bounds[i] - 1);
+                }
+                next = bounds[i + 1] + 1;
+            }
+            if (next <= Character.MAX_VALUE) {
+                result.add(next);
+                result.add((int) Character.MAX_VALUE);
+            }
+            return new Ranges(result.stream().mapToInt(Integer::intValue).toArray(), !supplementary);
+        }
+
+        /**
+         * This set with the other case of each ASCII letter in it.
+         */
+        Ranges foldAscii() {
+            Ranges result = this;
+            for (int i = 0; i < bounds.length; i += 2) {
+                final int lowerStart = Math.max(bounds[i], 'a');
+                final int lowerEnd = Math.min(bounds[i + 1], 'z');
+                if (lowerStart <= lowerEnd) {
+                    result = result.union(of(lowerStart - 32, lowerEnd - 32));
+                }
+                final int upperStart = Math.max(bounds[i], 'A');
+                final int upperEnd = Math.min(bounds[i + 1], 'Z');
+                if (upperStart <= upperEnd) {
+                    result = result.union(of(upperStart + 32, upperEnd + 32));
+                }
+            }
+            return result;
+        }
+
+        /**
+         * This set without surrogates, which in well formed text only come in pairs.
+         */
+        Ranges withoutSurrogates() {
+            final Ranges surrogates = of(Character.MIN_SURROGATE, Character.MAX_SURROGATE);
+            if (!intersects(surrogates)) {
+                return this;
+            }
+            final Ranges result = new Ranges(bounds, false).negate().union(surrogates).negate();
+            return new Ranges(result.bounds, supplementary);
+        }
+
+        private boolean intersects(final Ranges other) {
+            for (int i = 0; i < bounds.length; i += 2) {
+                for (int j = 0; j < other.bounds.length; j += 2) {
+                    if (bounds[i] <= other.bounds[j + 1] && other.bounds[j] <= bounds[i + 1]) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Thrown where the pattern uses syntax this engine does not support.
+     */
+    private static final class UnsupportedSyntaxException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        UnsupportedSyntaxException() {
+            super(null, null, false, false);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package dkaminsky;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Stream decorator that reports end of stream once a given number of bytes has been read, whether or not the
+ * underlying stream has more.
+ */
+class LimitedInputStream extends FilterInputStream {
+    private long remaining;
+    private boolean limitReached;
+
+    /**
+     * @param in The stream to limit
+     * @param limit The maximum number of bytes to read
+     */
+    LimitedInputStream(final InputStream in, final long limit) {
+        super(in);
+        if (in == null) {
+            throw new IllegalArgumentException("Null stream passed to limited stream");
+        }
+        if (limit < 0) {
+            throw new IllegalArgumentException("Limit must not be negative");
+        }
+
+        this.remaining = limit;
+    }
+
+    /**
+     * Indicates whether reading stopped because of the limit rather than the end of the underlying stream.
+     * @return whether the limit was reached
+     */
+    boolean isLimitReached() {
+        return limitReached;
+    }
+
+    @Override
+    public int read() throws IOException {
+        final byte[] one = new byte[1];
+        return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (remaining == 0) {
+            // only call it a limit if there really was more to read
+            limitReached = limitReached || in.read() >= 0;
+            return -1;
+        }
+        final int count = in.read(b, off, (int) Math.min(len, remaining));
+        if (count > 0) {
+            remaining -= count;
+        }
+        return count;
+    }
+
+    @Override
+    public long skip(final long n) throws IOException {
+        final long skipped = in.skip(Math.min(n, remaining));
+        remaining -= skipped;
+        return skipped;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return (int) Math.min(in.available(), remaining);
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+}
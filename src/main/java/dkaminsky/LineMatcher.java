@@ -0,0 +1,143 @@
+package dkaminsky;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Searches content that arrives in arbitrarily sized pieces line by line. Lines are split the same way
+ * {@link java.io.BufferedReader#readLine()} splits them (LF, CR or CRLF) and decoded once complete, so multi-byte
+ * characters may straddle pieces. Used for patterns that need a regular expression engine. Lines are decoded into
+ * a buffer that is reused from line to line, rather than into a string each, and a line that is all ASCII in a
+ * charset that extends ASCII is simply widened into it, without a decoder.
+ *
+ * Only used for charsets that extend ASCII, in which a line feed or carriage return byte is always that character.
+ *
+ * Not thread safe; one instance is used per page.
+ */
+class LineMatcher implements ContentMatcher {
+    private static final int INITIAL_LINE_CAPACITY = 256;
+
+    private final PatternSet.Scan scan;
+    private final CharsetDecoder decoder;
+    private final boolean asciiCompatible;
+    private byte[] line = new byte[INITIAL_LINE_CAPACITY];
+    private ByteBuffer lineBytes = ByteBuffer.wrap(line);
+    private CharBuffer chars = CharBuffer.allocate(INITIAL_LINE_CAPACITY);
+    private int length;
+    private boolean nonAscii;
+    private boolean skipLineFeed;
+    private boolean matched;
+
+    LineMatcher(final PatternSet.Scan scan, final Charset charset) {
+        if (scan == null) {
+            throw new IllegalArgumentException("Null scan passed to line matcher");
+        }
+        if (charset == null) {
+            throw new IllegalArgumentException("Null charset passed to line matcher");
+        }
+
+        this.scan = scan;
+        // replace malformed input as new String(byte[], Charset) would
+        this.decoder = charset.newDecoder().onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.asciiCompatible = PatternSet.isAsciiCompatible(charset);
+    }
+
+    /**
+     * Consumes the given content, testing every line it completes.
+     */
+    @Override
+    public boolean feed(final ByteBuffer data) {
+        while (!matched && data.hasRemaining()) {
+            final byte b = data.get();
+            if (skipLineFeed) {
+                skipLineFeed = false;
+                if (b == '\n') {
+                    continue;
+                }
+            }
+            if (b == '\n' || b == '\r') {
+                skipLineFeed = b == '\r';
+                testLine();
+            } else {
+                if (length == line.length) {
+                    line = Arrays.copyOf(line, line.length * 2);
+                    lineBytes = ByteBuffer.wrap(line);
+                }
+                line[length++] = b;
+                nonAscii |= b < 0;
+            }
+        }
+        return matched;
+    }
+
+    /**
+     * Signals the end of the content, testing the final line if it was not terminated, and reports how often
+     * regular expressions were run.
+     */
+    @Override
+    public boolean finish() {
+        if (!matched && length > 0) {
+            testLine();
+        }
+        scan.report();
+        return matched;
+    }
+
+    @Override
+    public List<Pattern> getMatched() {
+        return scan.getMatched();
+    }
+
+    @Override
+    public void reset() {
+        scan.reset();
+        length = 0;
+        nonAscii = false;
+        skipLineFeed = false;
+        matched = false;
+    }
+
+    private void testLine() {
+        if (asciiCompatible && !nonAscii) {
+            widenLine();
+        } else {
+            decodeLine();
+        }
+        matched = scan.test(chars);
+        length = 0;
+        nonAscii = false;
+    }
+
+    private void widenLine() {
+        if (chars.capacity() < length) {
+            chars = CharBuffer.allocate(Math.max(length, chars.capacity() * 2));
+        }
+        final char[] array = chars.array();
+        for (int i = 0; i < length; i++) {
+            array[i] = (char) line[i];
+        }
+        chars.clear();
+        chars.limit(length);
+    }
+
+    private void decodeLine() {
+        lineBytes.clear();
+        lineBytes.limit(length);
+        decoder.reset();
+        chars.clear();
+        while (decoder.decode(lineBytes, chars, true).isOverflow() || decoder.flush(chars).isOverflow()) {
+            final CharBuffer larger = CharBuffer.allocate(chars.capacity() * 2);
+            chars.flip();
+            larger.put(chars);
+            chars = larger;
+        }
+        chars.flip();
+    }
+}
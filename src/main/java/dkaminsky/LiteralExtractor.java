@@ -0,0 +1,317 @@
+package dkaminsky;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Works out literals that any match of a regular expression must contain, so that text can be checked for them
+ * with a cheap literal search before the expression itself is run. For example, every match of
+ * {@code .*\sand\s.*} contains "and", and every match of {@code (cat|dog)s?} contains "cat" or "dog".
+ *
+ * Follows the common subset of the syntax: literals and escapes, character classes, groups, alternation and
+ * quantifiers. Where a pattern uses anything else, such as inline flags or back references, it gives up rather
+ * than risk a literal that some match does not contain.
+ */
+final class LiteralExtractor {
+    /** Literals shorter than this occur in too much text to be worth searching for first. */
+    static final int MIN_LITERAL_LENGTH = 2;
+
+    private final String regex;
+    private int position;
+
+    private LiteralExtractor(final String regex) {
+        this.regex = regex;
+    }
+
+    /**
+     * The literals of which any match of the pattern contains at least one.
+     * @param pattern The pattern
+     * @return the literals, or null if there are none worth searching for
+     */
+    static Set<String> requiredLiterals(final Pattern pattern) {
+        final int flags = pattern.flags();
+        if ((flags & (Pattern.COMMENTS | Pattern.CANON_EQ | Pattern.LITERAL)) != 0) {
+            return null;
+        }
+        if ((flags & Pattern.CASE_INSENSITIVE) != 0 && (flags & Pattern.UNICODE_CASE) != 0) {
+            // the literal search folds ASCII only, while Unicode folds even some ASCII letters beyond it: 'k' with
+            // the Kelvin sign, 's' with the long s, 'i' with the dotted and dotless i
+            return null;
+        }
+        final Set<String> literals;
+        try {
+            final LiteralExtractor extractor = new LiteralExtractor(pattern.pattern());
+            literals = extractor.alternation();
+            if (extractor.position != extractor.regex.length()) {
+                return null;
+            }
+        } catch (UnsupportedSyntaxException e) {
+            return null;
+        }
+        if (literals == null || shortest(literals) < MIN_LITERAL_LENGTH) {
+            return null;
+        }
+        return Collections.unmodifiableSet(literals);
+    }
+
+    /**
+     * Branches separated by '|', up to the end of the enclosing group. A match contains a literal of one of them.
+     */
+    private Set<String> alternation() {
+        final Set<String> literals = new LinkedHashSet<>();
+        boolean required = true;
+        while (true) {
+            final Set<String> branch = sequence();
+            if (branch == null) {
+                required = false;
+            } else {
+                literals.addAll(branch);
+            }
+            if (position < regex.length() && regex.charAt(position) == '|') {
+                position++;
+            } else {
+                return required ? literals : null;
+            }
+        }
+    }
+
+    /**
+     * Atoms one after the other. A match contains each run of literal characters and a literal of each group that
+     * must occur; the best of them is chosen.
+     */
+    private Set<String> sequence() {
+        Set<String> best = null;
+        final StringBuilder run = new StringBuilder();
+        while (position < regex.length()) {
+            final char c = regex.charAt(position);
+            if (c == '|' || c == ')') {
+                break;
+            }
+            position++;
+            Set<String> group = null;
+            int literal = -1;
+            switch (c) {
+                case '\\':
+                    literal = escape(run);
+                    break;
+                case '[':
+                    skipClass();
+                    break;
+                case '(':
+                    group = group();
+                    break;
+                case '.':
+                case '^':
+                case '$':
+                    break;
+                case '*':
+                case '+':
+                case '?':
+                case '{':
+                    throw new UnsupportedSyntaxException();
+                default:
+                    literal = c;
+                    break;
+            }
+
+            final int min = quantifier();
+            if (literal >= 0 && min != 0) {
+                run.append((char) literal);
+            }
+            if (literal < 0 || min >= 0) {
+                // the run can't go on past anything but a single literal character
+                best = better(best, run.length() == 0 ? null : Collections.singleton(run.toString()));
+                run.setLength(0);
+            }
+            if (group != null && min != 0) {
+                best = better(best, group);
+            }
+        }
+        return better(best, run.length() == 0 ? null : Collections.singleton(run.toString()));
+    }
+
+    /**
+     * An escape, after the backslash. Appends all but the last character of a quoted sequence to the run.
+     * @return the literal character, or -1 if the escape matches something other than a single character
+     */
+    private int escape(final StringBuilder run) {
+        final char c = next();
+        if (!Character.isLetterOrDigit(c)) {
+            return c;
+        }
+        switch (c) {
+            case 't':
+                return '\t';
+            case 'n':
+                return '\n';
+            case 'r':
+                return '\r';
+            case 'f':
+                return '\f';
+            case 'a':
+                return '\u0007';
+            case 'e':
+                return '\u001B';
+            case 'd': case 'D': case 's': case 'S': case 'w': case 'W': case 'h': case 'H': case 'v': case 'V':
+            case 'R': case 'b': case 'B': case 'A': case 'G': case 'z': case 'Z':
+                return -1;
+            case 'Q':
+                final int end = regex.indexOf("\\E", position);
+                final String quoted = regex.substring(position, end < 0 ? regex.length() : end);
+                position = end < 0 ? regex.length() : end + 2;
+                if (quoted.isEmpty()) {
+                    return -1;
+                }
+                run.append(quoted, 0, quoted.length() - 1);
+                return quoted.charAt(quoted.length() - 1);
+            default:
+                // code points, properties, back references and the like
+                throw new UnsupportedSyntaxException();
+        }
+    }
+
+    /**
+     * A character class, after the opening bracket. It matches a single character, never a literal.
+     */
+    private void skipClass() {
+        if (position < regex.length() && regex.charAt(position) == '^') {
+            position++;
+        }
+        if (position < regex.length() && regex.charAt(position) == ']') {
+            throw new UnsupportedSyntaxException();
+        }
+        int depth = 1;
+        while (depth > 0) {
+            final char c = next();
+            if (c == '\\') {
+                if ("pPxu0cQNk".indexOf(next()) >= 0) {
+                    throw new UnsupportedSyntaxException();
+                }
+            } else if (c == '[') {
+                depth++;
+            } else if (c == ']') {
+                depth--;
+            }
+        }
+    }
+
+    /**
+     * A group, after the opening parenthesis.
+     * @return the literals of which a match of the group contains one, or null if there are none
+     */
+    private Set<String> group() {
+        boolean lookaround = false;
+        if (position < regex.length() && regex.charAt(position) == '?') {
+            position++;
+            final char c = next();
+            if (c == '=' || c == '!') {
+                lookaround = true;
+            } else if (c == '<') {
+                final char d = next();
+                if (d == '=' || d == '!') {
+                    lookaround = true;
+                } else {
+                    final int end = regex.indexOf('>', position);
+                    if (end < 0) {
+                        throw new UnsupportedSyntaxException();
+                    }
+                    position = end + 1;
+                }
+            } else if (c != ':' && c != '>') {
+                // inline flags change how the rest is matched
+                throw new UnsupportedSyntaxException();
+            }
+        }
+        final Set<String> literals = alternation();
+        if (next() != ')') {
+            throw new UnsupportedSyntaxException();
+        }
+        return lookaround ? null : literals;
+    }
+
+    /**
+     * A quantifier, if one follows.
+     * @return the least number of repetitions it allows, or -1 if there is no quantifier
+     */
+    private int quantifier() {
+        if (position >= regex.length()) {
+            return -1;
+        }
+        final int min;
+        final char c = regex.charAt(position);
+        if (c == '?' || c == '*') {
+            position++;
+            min = 0;
+        } else if (c == '+') {
+            position++;
+            min = 1;
+        } else if (c == '{') {
+            position++;
+            final int start = position;
+            while (position < regex.length() && Character.isDigit(regex.charAt(position))) {
+                position++;
+            }
+            if (start == position || position - start > 9) {
+                throw new UnsupportedSyntaxException();
+            }
+            min = Integer.parseInt(regex.substring(start, position));
+            while (next() != '}') {
+                // the maximum doesn't matter
+            }
+        } else {
+            return -1;
+        }
+        // lazy and possessive quantifiers repeat as often
+        if (position < regex.length() && (regex.charAt(position) == '?' || regex.charAt(position) == '+')) {
+            position++;
+        }
+        return min;
+    }
+
+    private char next() {
+        if (position >= regex.length()) {
+            throw new UnsupportedSyntaxException();
+        }
+        return regex.charAt(position++);
+    }
+
+    /**
+     * The better of two sets of literals to search for: the one whose shortest literal is longer, then the one with
+     * fewer literals.
+     */
+    private static Set<String> better(final Set<String> a, final Set<String> b) {
+        if (a == null) {
+            return b;
+        }
+        if (b == null) {
+            return a;
+        }
+        final int shortestA = shortest(a);
+        final int shortestB = shortest(b);
+        if (shortestA != shortestB) {
+            return shortestA > shortestB ? a : b;
+        }
+        return a.size() <= b.size() ? a : b;
+    }
+
+    private static int shortest(final Set<String> literals) {
+        int shortest = Integer.MAX_VALUE;
+        for (String literal : literals) {
+            shortest = Math.min(shortest, literal.length());
+        }
+        return shortest;
+    }
+
+    /**
+     * Thrown where the pattern uses syntax the analysis does not follow.
+     */
+    private static final class UnsupportedSyntaxException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        UnsupportedSyntaxException() {
+            super(null, null, false, false);
+        }
+    }
+}
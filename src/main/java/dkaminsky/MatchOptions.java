@@ -0,0 +1,170 @@
+package dkaminsky;
+
+/**
+ * How a job's patterns are applied to the content of a page: line by line, as {@link java.io.BufferedReader}
+ * would split it, or over a sliding window of the content that ignores line breaks; by which regular
+ * expression engine; whether to match HTML pages as they are or only the text they show; and how long
+ * {@link java.util.regex.Pattern} may spend on a page.
+ */
+class MatchOptions {
+    static final int DEFAULT_WINDOW_CHARS = 16384;
+    static final int DEFAULT_LOOKBACK_CHARS = 1024;
+    static final long DEFAULT_PATTERN_TIMEOUT_MILLIS = 10000;
+
+    /**
+     * Line by line matching with {@link java.util.regex.Pattern}, the default.
+     */
+    static final MatchOptions DEFAULT = new MatchOptions(Mode.LINE, DEFAULT_WINDOW_CHARS, DEFAULT_LOOKBACK_CHARS);
+
+    /**
+     * What patterns are matched against.
+     */
+    enum Mode {
+        /** Each line on its own. A line may be as long as the page. */
+        LINE,
+        /** A bounded window that slides over the content, so that matches may span lines. */
+        WINDOW
+    }
+
+    /**
+     * Which engine matches patterns that are not plain literals.
+     */
+    enum Engine {
+        /** {@link java.util.regex.Pattern}, which backtracks, so some patterns take time exponential in the text. */
+        JDK,
+        /**
+         * {@link LazyDfa}, which takes time linear in the text, for the patterns it supports. Others are still
+         * matched by {@link java.util.regex.Pattern}.
+         */
+        DFA
+    }
+
+    private final Mode mode;
+    private final int windowChars;
+    private final int lookbackChars;
+    private final Engine engine;
+    private final boolean extractText;
+    private final long patternTimeoutMillis;
+
+    /**
+     * Options that match with {@link java.util.regex.Pattern}.
+     * @param mode What patterns are matched against
+     * @param windowChars The most characters of content held at once in {@link Mode#WINDOW} mode
+     * @param lookbackChars The characters kept from one window to the next in {@link Mode#WINDOW} mode
+     */
+    MatchOptions(final Mode mode, final int windowChars, final int lookbackChars) {
+        this(mode, windowChars, lookbackChars, Engine.JDK);
+    }
+
+    /**
+     * @param mode What patterns are matched against
+     * @param windowChars The most characters of content held at once in {@link Mode#WINDOW} mode
+     * @param lookbackChars The characters at the end of the window that are kept when it slides on, so that
+     *                      matches up to this long are found even where they straddle two windows
+     * @param engine Which engine matches patterns that are not plain literals
+     */
+    MatchOptions(final Mode mode, final int windowChars, final int lookbackChars, final Engine engine) {
+        this(mode, windowChars, lookbackChars, engine, false);
+    }
+
+    /**
+     * @param mode What patterns are matched against
+     * @param windowChars The most characters of content held at once in {@link Mode#WINDOW} mode
+     * @param lookbackChars The characters at the end of the window that are kept when it slides on, so that
+     *                      matches up to this long are found even where they straddle two windows
+     * @param engine Which engine matches patterns that are not plain literals
+     * @param extractText Whether patterns are matched against the text of HTML pages, without their markup,
+     *                    scripts and styles, rather than against the pages as they are
+     */
+    MatchOptions(final Mode mode, final int windowChars, final int lookbackChars, final Engine engine,
+                 final boolean extractText) {
+        this(mode, windowChars, lookbackChars, engine, extractText, 0);
+    }
+
+    /**
+     * @param mode What patterns are matched against
+     * @param windowChars The most characters of content held at once in {@link Mode#WINDOW} mode
+     * @param lookbackChars The characters at the end of the window that are kept when it slides on, so that
+     *                      matches up to this long are found even where they straddle two windows
+     * @param engine Which engine matches patterns that are not plain literals
+     * @param extractText Whether patterns are matched against the text of HTML pages, without their markup,
+     *                    scripts and styles, rather than against the pages as they are
+     * @param patternTimeoutMillis The most time {@link java.util.regex.Pattern} may spend matching one page before
+     *                             its search is given up, or 0 for no limit
+     */
+    MatchOptions(final Mode mode, final int windowChars, final int lookbackChars, final Engine engine,
+                 final boolean extractText, final long patternTimeoutMillis) {
+        if (mode == null) {
+            throw new IllegalArgumentException("Null mode passed to match options");
+        }
+        if (engine == null) {
+            throw new IllegalArgumentException("Null engine passed to match options");
+        }
+        if (lookbackChars < 1) {
+            throw new IllegalArgumentException("Lookback must be positive");
+        }
+        if (windowChars <= lookbackChars) {
+            throw new IllegalArgumentException("Window must be larger than its lookback");
+        }
+        if (patternTimeoutMillis < 0) {
+            throw new IllegalArgumentException("Pattern timeout must not be negative");
+        }
+
+        this.mode = mode;
+        this.windowChars = windowChars;
+        this.lookbackChars = lookbackChars;
+        this.engine = engine;
+        this.extractText = extractText;
+        this.patternTimeoutMillis = patternTimeoutMillis;
+    }
+
+    /**
+     * What patterns are matched against.
+     * @return the mode
+     */
+    Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * The most characters of content held at once in window mode.
+     * @return the window size in characters
+     */
+    int getWindowChars() {
+        return windowChars;
+    }
+
+    /**
+     * The characters kept from one window to the next in window mode, which bounds the length of a match that
+     * straddles two windows.
+     * @return the lookback in characters
+     */
+    int getLookbackChars() {
+        return lookbackChars;
+    }
+
+    /**
+     * Which engine matches patterns that are not plain literals.
+     * @return the engine
+     */
+    Engine getEngine() {
+        return engine;
+    }
+
+    /**
+     * Whether patterns are matched against the text of HTML pages rather than against the pages as they are.
+     * @return true to extract the text of HTML pages first
+     */
+    boolean isExtractText() {
+        return extractText;
+    }
+
+    /**
+     * The most time {@link java.util.regex.Pattern} may spend matching one page, summed over its lines or
+     * windows and patterns. Patterns matched by other engines take time linear in the content, so need no limit.
+     * @return the timeout in milliseconds, or 0 for no limit
+     */
+    long getPatternTimeoutMillis() {
+        return patternTimeoutMillis;
+    }
+}
@@ -0,0 +1,42 @@
+package dkaminsky;
+
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The {@link ContentMatcher}s one thread searches pages with, one per charset and kind of page, reset and reused from
+ * page to page rather than made anew. They are made again only when the patterns change, which they do only between
+ * jobs.
+ *
+ * Not thread safe; one thread uses an instance at a time.
+ */
+class MatcherCache {
+    private final Map<Charset, ContentMatcher> matchers = new HashMap<>();
+    private final Map<Charset, ContentMatcher> markupMatchers = new HashMap<>();
+    private PatternSet matcherPatterns;
+
+    /**
+     * The matcher for the given patterns, charset and kind of page, ready for a new page.
+     * @param patterns The patterns to search for
+     * @param charset The charset of the page
+     * @param markup Whether the page is HTML, to be matched only on its text if the match options say so
+     * @return the matcher
+     */
+    ContentMatcher get(final PatternSet patterns, final Charset charset, final boolean markup) {
+        if (patterns != matcherPatterns) {
+            matchers.clear();
+            markupMatchers.clear();
+            matcherPatterns = patterns;
+        }
+        final Map<Charset, ContentMatcher> cache = markup ? markupMatchers : matchers;
+        ContentMatcher matcher = cache.get(charset);
+        if (matcher == null) {
+            matcher = patterns.newMatcher(charset, markup);
+            cache.put(charset, matcher);
+        } else {
+            matcher.reset();
+        }
+        return matcher;
+    }
+}
@@ -0,0 +1,282 @@
+package dkaminsky;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The matching stage of a search run split into a fetch stage and a matching stage. Fetch threads, which spend their
+ * time waiting on the network, read pages into buffers and hand them over through {@link #submit(FetchedPage, long)};
+ * a fixed number of matching threads, as many as there are cores by default, take them off a bounded queue and
+ * search them. Threads blocked on sockets and threads busy matching are so sized apart: the fetch threads can be
+ * many without more than the cores running regular expressions at once, and a full queue holds the fetch threads
+ * back when matching falls behind.
+ *
+ * Each matching thread searches a page with a {@link PageMatcher}, as {@link PageSearcher} does, which sends the
+ * URL to the output queue if anything matched, and tells the listener how the search ended; a page whose search
+ * throws is reported as failed and the thread carries on. Pages that are never searched, because the pool was
+ * closed first, are reported as failed too. Buffers are given back to a bounded spare pool once their page is done
+ * with, for fetch threads to read the next pages into.
+ *
+ * Records how long the fetch threads spent fetching and waiting to hand pages over, and how long the matching
+ * threads spent busy and idle, so that the stage holding the run back can be told apart: fetch threads that often
+ * wait on a full queue mean matching is the bottleneck, matching threads that are mostly idle mean fetching is.
+ */
+class MatchingPool implements Closeable {
+    static final String PAGES = "pipeline.match.pages";
+    static final String MATCH_BUSY_MILLIS = "pipeline.match.busyMillis";
+    static final String MATCH_IDLE_MILLIS = "pipeline.match.idleMillis";
+    static final String MATCH_UTILIZATION_PERCENT = "pipeline.match.utilizationPercent";
+    static final String FETCH_BUSY_MILLIS = "pipeline.fetch.busyMillis";
+    static final String HANDOFF_BLOCKS = "pipeline.fetch.handoffBlocks";
+    static final String HANDOFF_BLOCKED_MILLIS = "pipeline.fetch.handoffBlockedMillis";
+
+    static final int BUFFER_SIZE = 8192;
+    /** The most idle buffers kept for reuse; 8 MB worth. */
+    private static final int MAX_SPARE_BUFFERS = 1024;
+    /** How long an idle matching thread waits for a page before it checks whether the pool has been closed. */
+    private static final long IDLE_POLL_MILLIS = 1000;
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private final BlockingQueue<FetchedPage> pages;
+    private final BlockingQueue<byte[]> spareBuffers = new ArrayBlockingQueue<>(MAX_SPARE_BUFFERS);
+    private final BlockingQueue<SearchResult> outputQueue;
+    private final WebsiteSearcherListener listener;
+    private final CharsetDetector charsets;
+    private final SearchStatistics statistics;
+    private final List<Thread> threads = new ArrayList<>();
+    private final AtomicBoolean running = new AtomicBoolean(true);
+    private final LongAdder pagesSearched = new LongAdder();
+    private final LongAdder matchBusyNanos = new LongAdder();
+    private final LongAdder matchIdleNanos = new LongAdder();
+    private final LongAdder fetchBusyNanos = new LongAdder();
+    private final LongAdder handoffBlocks = new LongAdder();
+    private final LongAdder handoffBlockedNanos = new LongAdder();
+
+    /**
+     * Starts the matching threads.
+     *
+     * @param threads The number of matching threads
+     * @param queueCapacity The most fetched pages waiting to be searched at once
+     * @param outputQueue Where the URLs of matching pages are sent
+     * @param listener Told how the search of each page ended
+     * @param charsets Picks the charset each page is decoded in
+     * @param statistics Where the stages' times are recorded when the pool is closed
+     */
+    MatchingPool(final int threads, final int queueCapacity, final BlockingQueue<SearchResult> outputQueue,
+                 final WebsiteSearcherListener listener, final CharsetDetector charsets,
+                 final SearchStatistics statistics) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Pool must have at least one matching thread");
+        }
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("Pool must queue at least one page");
+        }
+        if (outputQueue == null) {
+            throw new IllegalArgumentException("Null output queue passed to matching pool");
+        }
+        if (listener == null) {
+            throw new IllegalArgumentException("Null listener passed to matching pool");
+        }
+        if (charsets == null) {
+            throw new IllegalArgumentException("Null charset detector passed to matching pool");
+        }
+        if (statistics == null) {
+            throw new IllegalArgumentException("Null statistics passed to matching pool");
+        }
+
+        this.pages = new ArrayBlockingQueue<>(queueCapacity);
+        this.outputQueue = outputQueue;
+        this.listener = listener;
+        this.charsets = charsets;
+        this.statistics = statistics;
+        for (int i = 0; i < threads; i++) {
+            final Thread thread = new MatchingThread(i);
+            this.threads.add(thread);
+            thread.start();
+        }
+    }
+
+    /**
+     * A buffer to read a page into: a spare one if there is one, otherwise a new one of {@link #BUFFER_SIZE} bytes.
+     * @return the buffer
+     */
+    byte[] takeBuffer() {
+        final byte[] buffer = spareBuffers.poll();
+        return buffer == null ? new byte[BUFFER_SIZE] : buffer;
+    }
+
+    /**
+     * Queues a fetched page to be searched, blocking while the queue is full. If the pool has been closed, the page
+     * is dropped instead.
+     *
+     * @param page The page
+     * @param fetchStarted When the fetch of the page started, by {@link System#nanoTime()}
+     * @throws InterruptedException If interrupted while waiting for room in the queue; the page is then the caller's
+     *                              to {@link #drop(FetchedPage)}
+     */
+    void submit(final FetchedPage page, final long fetchStarted) throws InterruptedException {
+        final long fetched = System.nanoTime();
+        fetchBusyNanos.add(fetched - fetchStarted);
+        if (!pages.offer(page)) {
+            handoffBlocks.increment();
+            try {
+                pages.put(page);
+            } finally {
+                handoffBlockedNanos.add(System.nanoTime() - fetched);
+            }
+        }
+        if (!running.get() && pages.remove(page)) {
+            drop(page); // queued after close() emptied the queue, so no thread will take it
+        }
+    }
+
+    /**
+     * Reports a page that will not be searched as failed, and gives its buffers back.
+     * @param page The page
+     */
+    void drop(final FetchedPage page) {
+        recycle(page);
+        listener.onFinished(page.getInput(), SearchOutcome.FAILED);
+    }
+
+    /**
+     * @return the number of fetched pages waiting to be searched
+     */
+    int getQueued() {
+        return pages.size();
+    }
+
+    /**
+     * @return the number of pages searched so far
+     */
+    long getPagesSearched() {
+        return pagesSearched.sum();
+    }
+
+    /**
+     * @return the share of the matching threads' time spent searching rather than waiting for pages, from 0 to 1
+     */
+    double getMatchUtilization() {
+        final long busy = matchBusyNanos.sum();
+        final long total = busy + matchIdleNanos.sum();
+        return total == 0 ? 0.0 : (double) busy / total;
+    }
+
+    /**
+     * Stops the matching threads, dropping pages still waiting to be searched, and records the stages' times.
+     * Dropped pages are reported as failed.
+     */
+    @Override
+    public void close() {
+        if (!running.getAndSet(false)) {
+            return;
+        }
+        for (Thread thread : threads) {
+            thread.interrupt();
+        }
+        // frees any fetch thread blocked on a full queue
+        final List<FetchedPage> dropped = new ArrayList<>();
+        pages.drainTo(dropped);
+        for (FetchedPage page : dropped) {
+            drop(page);
+        }
+
+        statistics.add(PAGES, pagesSearched.sum());
+        statistics.add(MATCH_BUSY_MILLIS, TimeUnit.NANOSECONDS.toMillis(matchBusyNanos.sum()));
+        statistics.add(MATCH_IDLE_MILLIS, TimeUnit.NANOSECONDS.toMillis(matchIdleNanos.sum()));
+        statistics.add(MATCH_UTILIZATION_PERCENT, Math.round(getMatchUtilization() * 100));
+        statistics.add(FETCH_BUSY_MILLIS, TimeUnit.NANOSECONDS.toMillis(fetchBusyNanos.sum()));
+        statistics.add(HANDOFF_BLOCKS, handoffBlocks.sum());
+        statistics.add(HANDOFF_BLOCKED_MILLIS, TimeUnit.NANOSECONDS.toMillis(handoffBlockedNanos.sum()));
+    }
+
+    /**
+     * Gives a page's buffers back for reuse, as many as there is room for.
+     */
+    private void recycle(final FetchedPage page) {
+        for (ByteBuffer buffer : page.getContent()) {
+            if (buffer.capacity() == BUFFER_SIZE && !spareBuffers.offer(buffer.array())) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Takes pages off the queue and searches them with a {@link PageMatcher} of its own.
+     */
+    private final class MatchingThread extends Thread {
+        private final PageMatcher matcher = new PageMatcher(outputQueue, charsets);
+
+        MatchingThread(final int index) {
+            super("WebSearcherMatch-" + index);
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            while (running.get()) {
+                final long waiting = System.nanoTime();
+                final FetchedPage page;
+                try {
+                    page = pages.poll(IDLE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    break;
+                }
+                final long started = System.nanoTime();
+                matchIdleNanos.add(started - waiting);
+                if (page == null) {
+                    continue;
+                }
+
+                SearchOutcome outcome = SearchOutcome.FAILED;
+                try {
+                    outcome = search(page);
+                } catch (IOException e) {
+                    // not thrown, as the content is already in memory
+                    e.printStackTrace(System.err);
+                } finally {
+                    recycle(page);
+                    matchBusyNanos.add(System.nanoTime() - started);
+                    pagesSearched.increment();
+                    listener.onFinished(page.getInput(), outcome);
+                }
+            }
+        }
+
+        /**
+         * Feeds a page's content to its matcher until it ends, every pattern has matched or the search ends early,
+         * and sends the URL to the output queue if anything matched.
+         * @return how the search ended
+         */
+        private SearchOutcome search(final FetchedPage page) throws IOException {
+            final List<ByteBuffer> content = page.getContent();
+            return matcher.search(page.getInput(), page.getContentType(), content.isEmpty() ? EMPTY : content.get(0),
+                    new PageMatcher.Content() {
+                        private int next = 1;
+
+                        @Override
+                        public ByteBuffer next() {
+                            return next < content.size() ? content.get(next++) : null;
+                        }
+
+                        @Override
+                        public boolean isLimitReached() {
+                            return page.isLimitReached();
+                        }
+
+                        @Override
+                        public void abort() {
+                            // already read
+                        }
+                    });
+        }
+    }
+}
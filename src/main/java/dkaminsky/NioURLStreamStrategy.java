@@ -0,0 +1,537 @@
+package dkaminsky;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Non-blocking fetch engine built on {@link Selector}s. A handful of I/O threads, each running its own selector,
+ * multiplex all open connections, so the number of fetches in flight is bounded by sockets rather than threads.
+ * Response content is parsed as it is read and pushed straight to the fetch's {@link AsyncFetchListener}. Host
+ * names are resolved through a {@link HostResolver}, so with an asynchronous resolver no thread waits on DNS.
+ *
+ * Speaks plain HTTP/1.1 only. Redirects are followed within the http scheme, as {@link java.net.HttpURLConnection}
+ * does, and error statuses (400 and above) are reported as failures. Compressed content is negotiated and decoded
+ * on the fly by a {@link DecodingFetchListener}.
+ *
+ * Each fetch is bounded by {@link FetchTimeouts}, from the moment it is submitted. The I/O threads keep track of the
+ * deadline of every fetch's current phase (resolving the host and connecting, each within the connect timeout,
+ * waiting for the response, the whole transfer) and fail fetches whose deadline has passed with a
+ * {@link SocketTimeoutException}. An exception or error thrown while handling a fetch, such as one from a listener,
+ * fails that fetch and leaves the thread to carry on with the rest.
+ */
+public class NioURLStreamStrategy implements AsyncURLStreamStrategy, Closeable {
+    private static final int MAX_REDIRECTS = 5;
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    private final IoLoop[] loops;
+    private final SearchStatistics statistics;
+    private final FetchTimeouts timeouts;
+    private final HostResolver resolver;
+    private final AtomicInteger nextLoop = new AtomicInteger();
+    private final AtomicBoolean open = new AtomicBoolean(true);
+
+    /**
+     * Creates the engine and starts its I/O threads.
+     *
+     * @param ioThreads The number of selector threads to run
+     * @param statistics Where content byte counts are recorded
+     * @throws IOException If a selector cannot be opened
+     */
+    public NioURLStreamStrategy(final int ioThreads, final SearchStatistics statistics) throws IOException {
+        this(ioThreads, statistics, FetchTimeouts.DEFAULT);
+    }
+
+    /**
+     * Creates the engine and starts its I/O threads.
+     *
+     * @param ioThreads The number of selector threads to run
+     * @param statistics Where content byte counts are recorded
+     * @param timeouts How long each fetch may take
+     * @throws IOException If a selector cannot be opened
+     */
+    NioURLStreamStrategy(final int ioThreads, final SearchStatistics statistics, final FetchTimeouts timeouts)
+            throws IOException {
+        this(ioThreads, statistics, timeouts, HostResolver.SYSTEM);
+    }
+
+    /**
+     * Creates the engine and starts its I/O threads.
+     *
+     * @param ioThreads The number of selector threads to run
+     * @param statistics Where content byte counts are recorded
+     * @param timeouts How long each fetch may take
+     * @param resolver Resolves host names; a fetch waiting for an asynchronous resolver holds no thread
+     * @throws IOException If a selector cannot be opened
+     */
+    NioURLStreamStrategy(final int ioThreads, final SearchStatistics statistics, final FetchTimeouts timeouts,
+                         final HostResolver resolver) throws IOException {
+        if (ioThreads < 1) {
+            throw new IllegalArgumentException("At least one I/O thread is required");
+        }
+        if (statistics == null) {
+            throw new IllegalArgumentException("Null statistics passed to strategy");
+        }
+        if (timeouts == null) {
+            throw new IllegalArgumentException("Null timeouts passed to strategy");
+        }
+        if (resolver == null) {
+            throw new IllegalArgumentException("Null resolver passed to strategy");
+        }
+
+        this.statistics = statistics;
+        this.timeouts = timeouts;
+        this.resolver = resolver;
+        this.loops = new IoLoop[ioThreads];
+        for (int i = 0; i < ioThreads; i++) {
+            loops[i] = new IoLoop("NioFetch-" + i);
+        }
+        for (IoLoop loop : loops) {
+            loop.start();
+        }
+    }
+
+    @Override
+    public AsyncFetch fetch(final URL url, final AsyncFetchListener listener) {
+        if (url == null) {
+            throw new IllegalArgumentException("Null URL passed to fetch");
+        }
+        if (listener == null) {
+            throw new IllegalArgumentException("Null listener passed to fetch");
+        }
+        if (!open.get()) {
+            throw new IllegalStateException("Fetch engine is closed");
+        }
+
+        // spread connections over the loops; each connection stays on one loop for its lifetime
+        final IoLoop loop = loops[Math.floorMod(nextLoop.getAndIncrement(), loops.length)];
+        final Fetch fetch = new Fetch(new DecodingFetchListener(listener, statistics), loop, timeouts, resolver);
+        fetch.start(url);
+        return fetch;
+    }
+
+    /**
+     * Stops the I/O threads. Fetches still in flight are reported as failed.
+     */
+    @Override
+    public void close() {
+        if (open.compareAndSet(true, false)) {
+            for (IoLoop loop : loops) {
+                loop.shutdown();
+            }
+        }
+    }
+
+    /**
+     * A selector thread. All operations on the channels registered with it, and all listener callbacks for their
+     * fetches, happen on this thread.
+     */
+    private static final class IoLoop extends Thread {
+        private final Selector selector;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        // fetch deadlines, soonest first; entries disarmed by a fetch moving on are dropped as they come up
+        private final PriorityQueue<Timeout> timeouts =
+                new PriorityQueue<>(Comparator.comparingLong(timeout -> timeout.deadline));
+        private final AtomicBoolean running = new AtomicBoolean(true);
+
+        IoLoop(final String name) throws IOException {
+            super(name);
+            setDaemon(true);
+            this.selector = Selector.open();
+        }
+
+        /**
+         * Runs the task on this loop's thread at the next opportunity.
+         */
+        void execute(final Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        void shutdown() {
+            running.set(false);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            while (running.get()) {
+                try {
+                    final Timeout next = timeouts.peek();
+                    if (next == null) {
+                        selector.select();
+                    } else {
+                        final long wait = next.deadline - System.nanoTime();
+                        if (wait > 0) {
+                            // round up, as select(0) would wait forever
+                            selector.select(Math.max(1L, TimeUnit.NANOSECONDS.toMillis(wait + 999999L)));
+                        } else {
+                            selector.selectNow();
+                        }
+                    }
+                } catch (IOException e) {
+                    System.err.println("I/O exception in selector of " + getName());
+                    e.printStackTrace(System.err);
+                    break;
+                }
+
+                runTasks();
+
+                final Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    final SelectionKey key = keys.next();
+                    keys.remove();
+                    final Fetch fetch = (Fetch) key.attachment();
+                    guard(() -> fetch.onReady(key));
+                }
+
+                expireTimeouts();
+            }
+
+            runTasks();
+            final IOException closed = new IOException("Fetch engine closed");
+            for (SelectionKey key : selector.keys()) {
+                final Fetch fetch = (Fetch) key.attachment();
+                guard(() -> fetch.fail(closed));
+            }
+            // fetches yet to be registered, e.g. still resolving their host
+            for (Timeout timeout : timeouts) {
+                final Fetch fetch = timeout.fetch;
+                if (fetch != null) {
+                    guard(() -> fetch.fail(closed));
+                }
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                // nothing to do
+            }
+        }
+
+        /**
+         * Keeps watch over the fetch until the deadline, unless the returned entry is disarmed first.
+         */
+        Timeout watch(final Fetch fetch, final long deadline) {
+            final Timeout timeout = new Timeout(fetch, deadline);
+            timeouts.add(timeout);
+            return timeout;
+        }
+
+        private void expireTimeouts() {
+            final long now = System.nanoTime();
+            while (!timeouts.isEmpty() && timeouts.peek().deadline - now <= 0) {
+                final Fetch fetch = timeouts.poll().fetch;
+                if (fetch != null) {
+                    guard(() -> fetch.fail(new SocketTimeoutException(fetch.phase + " timed out for URL: "
+                            + fetch.url)));
+                }
+            }
+        }
+
+        private void runTasks() {
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                guard(task);
+            }
+        }
+
+        /**
+         * Runs the task, never letting a misbehaving listener take the whole loop down.
+         */
+        private static void guard(final Runnable task) {
+            try {
+                task.run();
+            } catch (RuntimeException | Error e) {
+                e.printStackTrace(System.err);
+            }
+        }
+    }
+
+    /**
+     * A deadline of a fetch. Disarmed by letting go of the fetch once it finishes or moves on to another deadline,
+     * so that the entry, which stays queued until its deadline, keeps neither the fetch nor its listeners alive.
+     */
+    private static final class Timeout {
+        private Fetch fetch;
+        private final long deadline;
+
+        Timeout(final Fetch fetch, final long deadline) {
+            this.fetch = fetch;
+            this.deadline = deadline;
+        }
+    }
+
+    /**
+     * The state of a single fetch, including any redirects it follows. Only touched from its loop's thread once
+     * started.
+     */
+    private static final class Fetch implements AsyncFetch, HttpResponseParser.Listener {
+        private final AsyncFetchListener listener;
+        private final IoLoop loop;
+        private final FetchTimeouts timeouts;
+        private final HostResolver resolver;
+        private final long totalDeadline;
+        private volatile boolean cancelled;
+        private boolean finished;
+        private int redirects;
+        private String phase;
+        private Timeout timeout;
+
+        // state of the current connection
+        private URL url;
+        private SocketChannel channel;
+        private ByteBuffer request;
+        private HttpResponseParser parser;
+        private URL redirect;
+
+        Fetch(final AsyncFetchListener listener, final IoLoop loop, final FetchTimeouts timeouts,
+              final HostResolver resolver) {
+            this.listener = listener;
+            this.loop = loop;
+            this.timeouts = timeouts;
+            this.resolver = resolver;
+            this.totalDeadline = timeouts.getDeadline(System.nanoTime());
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            loop.execute(this::finish);
+        }
+
+        /**
+         * Resolves the host of the URL, then opens a connection and hands it to the loop. Runs on the calling
+         * thread for the first request and on the loop for redirects; once the resolver has the addresses, the
+         * connection is opened on whichever thread completes the resolution.
+         */
+        void start(final URL target) {
+            url = target;
+            if (!"http".equalsIgnoreCase(url.getProtocol())) {
+                final IOException e = new IOException("Unsupported protocol: " + url.getProtocol());
+                loop.execute(() -> fail(e));
+                return;
+            }
+
+            // watched for from submission, so that a host that never resolves times out too; queued ahead of
+            // anything the resolution queues
+            loop.execute(() -> {
+                if (!finished) {
+                    enterPhase("Resolve", timeouts.getConnectMillis());
+                }
+            });
+            final String host = url.getHost();
+            resolver.resolve(host).whenComplete((addresses, failure) -> {
+                if (failure != null) {
+                    final IOException e = HostResolver.failureOf(host, failure);
+                    loop.execute(() -> fail(e));
+                } else {
+                    connect(addresses[0]);
+                }
+            });
+        }
+
+        private void connect(final InetAddress address) {
+            SocketChannel ch = null;
+            final boolean connected;
+            try {
+                final int port = url.getPort() == -1 ? url.getDefaultPort() : url.getPort();
+                ch = SocketChannel.open();
+                ch.configureBlocking(false);
+                ch.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                connected = ch.connect(new InetSocketAddress(address, port));
+            } catch (IOException e) {
+                closeQuietly(ch);
+                loop.execute(() -> fail(e));
+                return;
+            }
+
+            request = ByteBuffer.wrap(new HttpRequest(url)
+                    .header("Accept-Encoding", ContentEncoding.ACCEPT_ENCODING)
+                    .header("Connection", "close")
+                    .encode());
+            parser = new HttpResponseParser();
+            final SocketChannel opened = ch;
+            loop.execute(() -> register(opened, connected));
+        }
+
+        private void register(final SocketChannel ch, final boolean connected) {
+            if (finished || cancelled) {
+                closeQuietly(ch);
+                return;
+            }
+            channel = ch;
+            try {
+                ch.register(loop.selector, connected ? SelectionKey.OP_WRITE : SelectionKey.OP_CONNECT, this);
+            } catch (ClosedChannelException e) {
+                fail(e);
+                return;
+            }
+            enterPhase("Connect", timeouts.getConnectMillis());
+        }
+
+        /**
+         * Moves to the next phase of the fetch, which must be over within the given time or by the total
+         * deadline, whichever comes first. Runs on the loop.
+         */
+        private void enterPhase(final String name, final long millis) {
+            final long phaseDeadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+            phase = name;
+            watch(phaseDeadline - totalDeadline < 0 ? phaseDeadline : totalDeadline);
+        }
+
+        /**
+         * Replaces the deadline being watched for. Runs on the loop.
+         */
+        private void watch(final long deadline) {
+            unwatch();
+            timeout = loop.watch(this, deadline);
+        }
+
+        private void unwatch() {
+            if (timeout != null) {
+                timeout.fetch = null;
+                timeout = null;
+            }
+        }
+
+        void onReady(final SelectionKey key) {
+            try {
+                if (key.isConnectable()) {
+                    if (channel.finishConnect()) {
+                        key.interestOps(SelectionKey.OP_WRITE);
+                    }
+                } else if (key.isWritable()) {
+                    channel.write(request);
+                    if (!request.hasRemaining()) {
+                        key.interestOps(SelectionKey.OP_READ);
+                        enterPhase("Response", timeouts.getFirstByteMillis());
+                    }
+                } else if (key.isReadable()) {
+                    read();
+                }
+            } catch (IOException e) {
+                fail(e);
+            } catch (CancelledKeyException e) {
+                // closed underneath us, e.g. by cancel()
+            } catch (RuntimeException | Error e) {
+                // e.g. a listener overflowing the stack; only this fetch fails
+                fail(new IOException("Unexpected error fetching " + url, e));
+            }
+        }
+
+        private void read() throws IOException {
+            final ByteBuffer buffer = loop.readBuffer;
+            buffer.clear();
+            if (channel.read(buffer) < 0) {
+                parser.endOfInput();
+                complete();
+                return;
+            }
+            buffer.flip();
+
+            if (!parser.feed(buffer, this)) {
+                if (redirect != null) {
+                    final URL target = redirect;
+                    closeChannel();
+                    redirect = null;
+                    redirects++;
+                    start(target);
+                } else {
+                    complete(); // the listener has seen enough
+                }
+            } else if (parser.isComplete()) {
+                complete();
+            }
+        }
+
+        @Override
+        public boolean onHead(final HttpResponseHead head) throws IOException {
+            final int status = head.getStatusCode();
+            if (status >= 300 && status < 400 && status != 304 && redirects < MAX_REDIRECTS) {
+                final String location = head.getHeader("Location");
+                if (location != null) {
+                    final URL target = HttpResponseHead.resolveLocation(url, location);
+                    if ("http".equalsIgnoreCase(target.getProtocol())) {
+                        redirect = target;
+                        return false;
+                    }
+                }
+            }
+            if (status >= 400) {
+                throw new HttpStatusException(status, head.getHeader("Retry-After"), url);
+            }
+            if (cancelled) {
+                return false;
+            }
+            phase = "Fetch";
+            watch(totalDeadline);
+            listener.onResponse(head);
+            return true;
+        }
+
+        @Override
+        public boolean onBody(final ByteBuffer data) {
+            return !cancelled && listener.onData(data);
+        }
+
+        private void complete() {
+            if (finished) {
+                return;
+            }
+            finish();
+            if (!cancelled) {
+                listener.onComplete();
+            }
+        }
+
+        void fail(final IOException e) {
+            if (finished) {
+                return;
+            }
+            finish();
+            if (!cancelled) {
+                listener.onFailure(e);
+            }
+        }
+
+        private void finish() {
+            finished = true;
+            unwatch();
+            closeChannel();
+        }
+
+        private void closeChannel() {
+            closeQuietly(channel);
+            channel = null;
+        }
+
+        private static void closeQuietly(final SocketChannel ch) {
+            if (ch != null) {
+                try {
+                    ch.close(); // also cancels its selection key
+                } catch (IOException e) {
+                    // nothing to do
+                }
+            }
+        }
+    }
+}
@@ -4,17 +4,121 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
 /**
  * Naive implementation of stream factory that uses the {@link URL#openConnection()} method to open a stream
- * to the specified URL.
+ * to the specified URL. Compressed content is negotiated and decoded as it is read, see {@link ContentEncoding}.
+ *
+ * Each fetch is bounded by {@link FetchTimeouts}: the connection's connect and read timeouts cover connecting and
+ * waiting for the server, and a {@link FetchDeadline} disconnects a fetch that runs past its total deadline.
  */
 public class OpenStreamURLStreamStrategy implements URLStreamStrategy {
+    private final SearchStatistics statistics;
+    private final FetchTimeouts timeouts;
+
+    public OpenStreamURLStreamStrategy() {
+        this(new SearchStatistics());
+    }
+
+    /**
+     * @param statistics Where content byte counts are recorded
+     */
+    public OpenStreamURLStreamStrategy(final SearchStatistics statistics) {
+        this(statistics, FetchTimeouts.DEFAULT);
+    }
+
+    /**
+     * @param statistics Where content byte counts are recorded
+     * @param timeouts How long each fetch may take
+     */
+    OpenStreamURLStreamStrategy(final SearchStatistics statistics, final FetchTimeouts timeouts) {
+        if (statistics == null) {
+            throw new IllegalArgumentException("Null statistics passed to strategy");
+        }
+        if (timeouts == null) {
+            throw new IllegalArgumentException("Null timeouts passed to strategy");
+        }
+
+        this.statistics = statistics;
+        this.timeouts = timeouts;
+    }
+
     @Override
     public InputStream openStream(URL url) throws IOException {
+        return fetch(url).getContent();
+    }
+
+    @Override
+    public FetchResponse fetch(URL url) throws IOException {
+        return fetch(url, Collections.emptyMap());
+    }
+
+    /**
+     * Aborting the response disconnects, so that {@link HttpURLConnection} does not read out the rest of the
+     * content in the background in the hope of reusing the connection.
+     */
+    @Override
+    public FetchResponse fetch(URL url, Map<String, String> headers) throws IOException {
         HttpURLConnection connection = (HttpURLConnection) url.openConnection();
         connection.addRequestProperty("User-Agent", "Mozilla/5.0"); // spoof a well-known agent to avoid 403 errors
+        connection.addRequestProperty("Accept-Encoding", ContentEncoding.ACCEPT_ENCODING);
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            connection.addRequestProperty(header.getKey(), header.getValue());
+        }
+        connection.setConnectTimeout(timeouts.getConnectMillis());
+        connection.setReadTimeout(timeouts.getFirstByteMillis());
+
+        final FetchDeadline deadline = FetchDeadline.start(timeouts.getDeadline(System.nanoTime()),
+                connection::disconnect);
+        InputStream body = null;
+        try {
+            final int status = connection.getResponseCode();
+            if (status >= 400) {
+                // fail the way HttpURLConnection would, but keep what a retry needs to know
+                connection.disconnect();
+                throw new HttpStatusException(status, connection.getHeaderField("Retry-After"), connection.getURL());
+            }
+            body = deadline.guard(connection.getInputStream());
+            final HttpResponseHead head = headOf(connection);
+            final InputStream content = head.getStatusCode() == HttpURLConnection.HTTP_NOT_MODIFIED ? body
+                    : ContentEncoding.decode(body, connection.getContentEncoding(), statistics);
+            return new FetchResponse(content, head, connection::disconnect);
+        } catch (IOException e) {
+            abandon(body, deadline);
+            throw deadline.translate(e);
+        } catch (RuntimeException e) {
+            abandon(body, deadline);
+            throw e;
+        }
+    }
+
+    private static HttpResponseHead headOf(final HttpURLConnection connection) throws IOException {
+        final Map<String, List<String>> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        for (Map.Entry<String, List<String>> header : connection.getHeaderFields().entrySet()) {
+            if (header.getKey() != null) { // the status line
+                headers.put(header.getKey(), header.getValue());
+            }
+        }
+        final String statusLine = connection.getHeaderField(0);
+        final String version = statusLine == null || statusLine.indexOf(' ') < 0 ? "HTTP/1.1"
+                : statusLine.substring(0, statusLine.indexOf(' '));
+        final String reasonPhrase = connection.getResponseMessage();
+        return new HttpResponseHead(version, connection.getResponseCode(), reasonPhrase == null ? "" : reasonPhrase,
+                headers);
+    }
 
-        return connection.getInputStream();
+    private static void abandon(final InputStream body, final FetchDeadline deadline) {
+        deadline.cancel();
+        if (body != null) {
+            try {
+                body.close();
+            } catch (IOException e) {
+                // nothing to do
+            }
+        }
     }
 }
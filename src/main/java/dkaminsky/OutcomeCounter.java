@@ -0,0 +1,54 @@
+package dkaminsky;
+
+/**
+ * Listener that counts how the searches of the run ended, one counter per {@link SearchOutcome}, so that e.g.
+ * pages given up on at their byte budget are reported apart from pages read in full without a match.
+ */
+class OutcomeCounter implements WebsiteSearcherListener {
+    static final String MATCHED = "outcome.matched";
+    static final String NOT_MATCHED = "outcome.notMatched";
+    static final String NO_MATCH_WITHIN_BUDGET = "outcome.noMatchWithinBudget";
+    static final String PATTERN_TIMEOUT = "outcome.patternTimeout";
+    static final String RETRYING = "outcome.retrying";
+    static final String FAILED = "outcome.failed";
+
+    private final SearchStatistics statistics;
+
+    /**
+     * @param statistics Where the outcome counts are recorded
+     */
+    OutcomeCounter(final SearchStatistics statistics) {
+        if (statistics == null) {
+            throw new IllegalArgumentException("Null statistics passed to outcome counter");
+        }
+
+        this.statistics = statistics;
+    }
+
+    @Override
+    public void onFinished(final WebsiteSearcherInput input, final SearchOutcome outcome) {
+        statistics.increment(counterFor(outcome));
+    }
+
+    /**
+     * The name of the counter for an outcome.
+     * @param outcome The outcome
+     * @return the counter name
+     */
+    static String counterFor(final SearchOutcome outcome) {
+        switch (outcome) {
+            case MATCHED:
+                return MATCHED;
+            case NOT_MATCHED:
+                return NOT_MATCHED;
+            case NO_MATCH_WITHIN_BUDGET:
+                return NO_MATCH_WITHIN_BUDGET;
+            case PATTERN_TIMEOUT:
+                return PATTERN_TIMEOUT;
+            case RETRYING:
+                return RETRYING;
+            default:
+                return FAILED;
+        }
+    }
+}
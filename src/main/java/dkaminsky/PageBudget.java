@@ -0,0 +1,68 @@
+package dkaminsky;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The maximum number of content bytes scanned per URL before the search gives up on it, optionally varying by
+ * content type. Limits for a content type are looked up by exact media type (e.g. {@code text/html}), then by
+ * type wildcard (e.g. {@code text/*}), falling back to the default limit.
+ */
+class PageBudget {
+    /**
+     * A budget without limits.
+     */
+    static final PageBudget UNLIMITED = new PageBudget(Long.MAX_VALUE, new HashMap<>());
+
+    private final long defaultLimit;
+    private final Map<String, Long> limitsByType;
+
+    /**
+     * @param defaultLimit The limit for content types without a specific limit
+     * @param limitsByType Limits keyed by media type or type wildcard
+     */
+    PageBudget(final long defaultLimit, final Map<String, Long> limitsByType) {
+        if (defaultLimit < 1) {
+            throw new IllegalArgumentException("Page budget must be positive");
+        }
+        if (limitsByType == null) {
+            throw new IllegalArgumentException("Null content type limits passed to page budget");
+        }
+
+        this.defaultLimit = defaultLimit;
+        this.limitsByType = new HashMap<>();
+        for (Map.Entry<String, Long> limit : limitsByType.entrySet()) {
+            if (limit.getValue() == null || limit.getValue() < 1) {
+                throw new IllegalArgumentException("Page budget for " + limit.getKey() + " must be positive");
+            }
+            this.limitsByType.put(limit.getKey().trim().toLowerCase(Locale.ROOT), limit.getValue());
+        }
+    }
+
+    /**
+     * The number of bytes that may be scanned for content of the given type.
+     * @param contentType A Content-Type header value, possibly with parameters, or null if unknown
+     * @return the limit in bytes
+     */
+    long getLimit(final String contentType) {
+        if (contentType == null || limitsByType.isEmpty()) {
+            return defaultLimit;
+        }
+        String mediaType = contentType.toLowerCase(Locale.ROOT);
+        final int parameters = mediaType.indexOf(';');
+        if (parameters >= 0) {
+            mediaType = mediaType.substring(0, parameters);
+        }
+        mediaType = mediaType.trim();
+
+        Long limit = limitsByType.get(mediaType);
+        if (limit == null) {
+            final int slash = mediaType.indexOf('/');
+            if (slash > 0) {
+                limit = limitsByType.get(mediaType.substring(0, slash) + "/*");
+            }
+        }
+        return limit == null ? defaultLimit : limit;
+    }
+}
@@ -0,0 +1,120 @@
+package dkaminsky;
+
+import java.io.IOException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.regex.Pattern;
+
+/**
+ * Searches the content of one page at a time, whether it is read from the connection as it is searched
+ * ({@link PageSearcher}) or was read into buffers beforehand ({@link MatchingPool}). Feeds the content to the job's
+ * {@link ContentMatcher}, in the charset the {@link CharsetDetector} picks from the response and the start of the
+ * content, until it ends or every pattern has matched, and sends the URL to the output queue if anything matched.
+ *
+ * A regular expression that spends longer on the page than the match options allow ends the search, and what
+ * matched before then is still sent. Anything else thrown while searching, such as a backtracking regular expression
+ * overflowing the stack, fails the page rather than the thread searching it. Either way the rest of the content is
+ * given up, as it is once every pattern has matched or the page's byte budget is spent.
+ *
+ * Not thread safe; one thread uses an instance at a time, reusing its matchers from page to page.
+ */
+class PageMatcher {
+    /**
+     * The content of a page, chunk by chunk.
+     */
+    interface Content {
+        /**
+         * @return the next chunk of content, or null once the content has ended
+         * @throws IOException If the content could not be read
+         */
+        ByteBuffer next() throws IOException;
+
+        /**
+         * @return whether the content was cut short at the page's byte budget
+         */
+        boolean isLimitReached();
+
+        /**
+         * Gives up the rest of the content, which will not be searched.
+         */
+        void abort();
+    }
+
+    private final BlockingQueue<SearchResult> outputQueue;
+    private final CharsetDetector charsets;
+    private final MatcherCache matchers = new MatcherCache();
+
+    /**
+     * @param outputQueue Where the URLs of matching pages are sent
+     * @param charsets Picks the charset each page is decoded in
+     */
+    PageMatcher(final BlockingQueue<SearchResult> outputQueue, final CharsetDetector charsets) {
+        if (outputQueue == null) {
+            throw new IllegalArgumentException("Null output queue passed to page matcher");
+        }
+        if (charsets == null) {
+            throw new IllegalArgumentException("Null charset detector passed to page matcher");
+        }
+
+        this.outputQueue = outputQueue;
+        this.charsets = charsets;
+    }
+
+    /**
+     * Searches a page for the input's patterns.
+     *
+     * @param input The URL and the patterns to search it for
+     * @param contentType The content type of the response, or null if unknown
+     * @param head The start of the content, enough to find a {@code <meta>} tag naming the charset in
+     * @param content The rest of the content
+     * @return how the search ended
+     * @throws IOException If the content could not be read
+     */
+    SearchOutcome search(final WebsiteSearcherInput input, final String contentType, final ByteBuffer head,
+                         final Content content) throws IOException {
+        final URL url = input.getUrl();
+        ContentMatcher matcher = null;
+        try {
+            matcher = matchers.get(input.getPatterns(), charsets.detect(contentType, head),
+                    HtmlTextMatcher.isMarkup(contentType));
+            boolean allMatched = matcher.feed(head);
+            ByteBuffer chunk;
+            while (!allMatched && (chunk = content.next()) != null) {
+                allMatched = matcher.feed(chunk);
+            }
+            matcher.finish();
+            if (allMatched || content.isLimitReached()) {
+                content.abort(); // don't pay for content we won't look at
+            }
+            if (report(url, matcher.getMatched())) {
+                return SearchOutcome.MATCHED;
+            }
+            return content.isLimitReached() ? SearchOutcome.NO_MATCH_WITHIN_BUDGET : SearchOutcome.NOT_MATCHED;
+        } catch (PatternTimeoutException e) {
+            content.abort(); // the rest won't be searched
+            System.err.println("Pattern timed out on URL: " + url + " (" + e.getPattern() + ")");
+            report(url, matcher.getMatched());
+            return SearchOutcome.PATTERN_TIMEOUT;
+        } catch (RuntimeException | Error e) {
+            // e.g. a regular expression overflowing the stack; the page fails, the thread lives on
+            content.abort();
+            System.err.println("Unexpected error searching URL: " + url);
+            e.printStackTrace(System.err);
+            return SearchOutcome.FAILED;
+        }
+    }
+
+    /**
+     * Sends the URL to the output queue with the patterns that matched, if any did.
+     * @return whether any did
+     */
+    private boolean report(final URL url, final List<Pattern> matched) {
+        if (matched.isEmpty()) {
+            return false;
+        }
+        outputQueue.offer(new SearchResult(url, matched));
+        return true;
+    }
+}
@@ -0,0 +1,205 @@
+package dkaminsky;
+
+import java.io.IOException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Fetches and searches one page at a time through a blocking {@link URLStreamStrategy}: the work a
+ * {@link WebsiteSearcherWorker} does for each input it takes, apart from taking it. The content is read in bytes
+ * and searched as it is read by a {@link PageMatcher}, which sends the URL to the output queue if any pattern
+ * matches. Reading stops once every pattern has matched, the page's byte budget is spent or the search ends early,
+ * and the rest of the transfer is aborted. The buffer and the matchers are reused from page to page.
+ *
+ * A failed fetch is offered to the retry handler. Either way, tells the listener how the search ended.
+ *
+ * Given a {@link MatchingPool}, only fetches: it reads each page, up to its byte budget, into buffers and hands them
+ * to the pool, whose threads search the page, send the URL to the output queue and tell the listener. Failed
+ * fetches are still dealt with here.
+ *
+ * Not thread safe; one thread uses an instance at a time.
+ */
+class PageSearcher {
+    private static final int BUFFER_SIZE = 8192;
+
+    private final URLStreamStrategy urlStreamStrategy;
+    private final WebsiteSearcherListener listener;
+    private final PageBudget budget;
+    private final RetryHandler retryHandler;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private final ByteBuffer view = ByteBuffer.wrap(buffer);
+    private final PageMatcher matcher;
+    private final MatchingPool matchingPool;
+
+    /**
+     * @param outputQueue Where the URLs of matching pages are sent
+     * @param urlStreamStrategy Fetches the pages
+     * @param listener Told how the search of each page ended
+     * @param budget How many bytes of each page are read
+     * @param retryHandler Offered failed fetches
+     * @param charsets Picks the charset each page is decoded in
+     */
+    PageSearcher(final BlockingQueue<SearchResult> outputQueue, final URLStreamStrategy urlStreamStrategy,
+                 final WebsiteSearcherListener listener, final PageBudget budget, final RetryHandler retryHandler,
+                 final CharsetDetector charsets) {
+        this(outputQueue, urlStreamStrategy, listener, budget, retryHandler, charsets, null);
+    }
+
+    /**
+     * @param outputQueue Where the URLs of matching pages are sent
+     * @param urlStreamStrategy Fetches the pages
+     * @param listener Told how the search of each page ended
+     * @param budget How many bytes of each page are read
+     * @param retryHandler Offered failed fetches
+     * @param charsets Picks the charset each page is decoded in
+     * @param matchingPool The pool fetched pages are handed to for searching, or null to search them on this thread
+     */
+    PageSearcher(final BlockingQueue<SearchResult> outputQueue, final URLStreamStrategy urlStreamStrategy,
+                 final WebsiteSearcherListener listener, final PageBudget budget, final RetryHandler retryHandler,
+                 final CharsetDetector charsets, final MatchingPool matchingPool) {
+        if (outputQueue == null) {
+            throw new IllegalArgumentException("Null output queue passed to page searcher");
+        }
+        if (urlStreamStrategy == null) {
+            throw new IllegalArgumentException("Null URL stream factory passed to page searcher");
+        }
+        if (listener == null) {
+            throw new IllegalArgumentException("Null listener passed to page searcher");
+        }
+        if (budget == null) {
+            throw new IllegalArgumentException("Null page budget passed to page searcher");
+        }
+        if (retryHandler == null) {
+            throw new IllegalArgumentException("Null retry handler passed to page searcher");
+        }
+        if (charsets == null) {
+            throw new IllegalArgumentException("Null charset detector passed to page searcher");
+        }
+
+        this.matcher = new PageMatcher(outputQueue, charsets);
+        this.urlStreamStrategy = urlStreamStrategy;
+        this.listener = listener;
+        this.budget = budget;
+        this.retryHandler = retryHandler;
+        this.matchingPool = matchingPool;
+    }
+
+    /**
+     * Fetches and searches the input's page, and tells the listener how the search ended. With a matching pool, hands
+     * the fetched page to the pool to be searched, blocking while the pool's queue is full.
+     * @param input The URL and the patterns to search it for
+     */
+    void search(final WebsiteSearcherInput input) {
+        final URL url = input.getUrl();
+        SearchOutcome outcome = SearchOutcome.NOT_MATCHED;
+
+        final long started = System.nanoTime();
+        FetchedPage page = null;
+        try (final FetchResponse response = urlStreamStrategy.fetch(url);
+             final LimitedInputStream in = new LimitedInputStream(response.getContent(),
+                     budget.getLimit(response.getContentType()))) {
+            if (matchingPool == null) {
+                outcome = search(input, response, in);
+            } else {
+                page = read(input, response, in);
+            }
+        } catch (IOException e) {
+            page = null;
+            if (retryHandler.retry(input, e)) {
+                System.err.println("Will retry URL: " + url.toString() + " (" + e + ")");
+                outcome = SearchOutcome.RETRYING;
+            } else {
+                // nothing to do but print and continue
+                System.err.println("I/O exception reading data from URL: " + url.toString());
+                e.printStackTrace(System.err);
+                outcome = SearchOutcome.FAILED;
+            }
+        } catch (RuntimeException | Error e) {
+            // e.g. a regular expression overflowing the stack; the page fails, the thread lives on
+            System.err.println("Unexpected error searching URL: " + url);
+            e.printStackTrace(System.err);
+            outcome = SearchOutcome.FAILED;
+        } finally {
+            if (page == null) {
+                listener.onFinished(input, outcome);
+            }
+        }
+
+        if (page != null) {
+            // handed over once the connection is given back; the pool tells the listener once the page is searched
+            try {
+                matchingPool.submit(page, started);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt(); // shutting down
+                matchingPool.drop(page);
+            }
+        }
+    }
+
+    /**
+     * Reads a page, up to its byte budget, into buffers from the matching pool. All of it, as nothing is searched
+     * until it is handed over; see {@link WebsiteSearcherSettings#isPipelinedMatchingEnabled()}.
+     */
+    private FetchedPage read(final WebsiteSearcherInput input, final FetchResponse response,
+                             final LimitedInputStream in) throws IOException {
+        final FetchedPage page = new FetchedPage(input, response.getContentType());
+        int read = 0;
+        while (read != -1) {
+            final byte[] chunk = matchingPool.takeBuffer();
+            int filled = 0;
+            while (filled < chunk.length && (read = in.read(chunk, filled, chunk.length - filled)) != -1) {
+                filled += read;
+            }
+            page.add(chunk, filled);
+        }
+        if (in.isLimitReached()) {
+            response.abort(); // don't pay for content we won't look at
+            page.setLimitReached();
+        }
+        return page;
+    }
+
+    /**
+     * Reads a page into its matcher until the content ends, every pattern has matched, the page's byte budget is
+     * spent or a pattern runs out of time, and sends the URL to the output queue if anything matched.
+     * @return how the search ended
+     */
+    private SearchOutcome search(final WebsiteSearcherInput input, final FetchResponse response,
+                                 final LimitedInputStream in) throws IOException {
+        // enough of the start of the content to find a <meta> tag naming the charset in
+        int read = 0;
+        int filled = 0;
+        while (filled < CharsetDetector.SNIFF_BYTES && (read = in.read(buffer, filled, buffer.length - filled)) != -1) {
+            filled += read;
+        }
+        view.clear();
+        view.limit(filled);
+        final boolean ended = read == -1;
+        return matcher.search(input, response.getContentType(), view, new PageMatcher.Content() {
+            private boolean end = ended;
+
+            @Override
+            public ByteBuffer next() throws IOException {
+                final int count = end ? -1 : in.read(buffer);
+                if (count == -1) {
+                    end = true;
+                    return null;
+                }
+                view.clear();
+                view.limit(count);
+                return view;
+            }
+
+            @Override
+            public boolean isLimitReached() {
+                return in.isLimitReached();
+            }
+
+            @Override
+            public void abort() {
+                response.abort();
+            }
+        });
+    }
+}
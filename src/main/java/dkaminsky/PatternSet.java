@@ -0,0 +1,550 @@
+package dkaminsky;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The patterns a job searches every page for. Each page is fetched and scanned once, however many patterns there
+ * are: patterns that are plain literals are all found in a single pass of an {@link AhoCorasick} automaton, and
+ * only the rest are run as regular expressions, each until it has matched. Where a regular expression needs some
+ * literal for a match, as {@code .*\sand\s.*} needs "and", the automaton looks for that literal too, and the
+ * expression is run only on lines that contain it. If every pattern is an ASCII literal,
+ * content in an ASCII compatible charset is searched as raw bytes, without decoding it or splitting it into lines.
+ *
+ * The time {@link Pattern} may spend on one page is bounded by the match options, so that a pattern that
+ * backtracks catastrophically gives up the page rather than holding its worker.
+ *
+ * Records {@link #REGEX_RUNS} and {@link #REGEX_SKIPS}, the runs of a regular expression that a literal spared,
+ * in the given {@link SearchStatistics}.
+ *
+ * Immutable and shared by every input of a job. The state of the search of one page is kept in a {@link Scan}.
+ */
+public class PatternSet {
+    static final String REGEX_RUNS = "regex.runs";
+    static final String REGEX_SKIPS = "regex.prefilterSkips";
+    static final String DFA_STATES_BUILT = "dfa.statesBuilt";
+
+    /** Characters that give a pattern meaning beyond its literal text. */
+    private static final String METACHARACTERS = "\\^$.|?*+()[]{}";
+    private static final Map<Charset, Boolean> ASCII_COMPATIBLE = new ConcurrentHashMap<>();
+
+    private final List<Pattern> patterns;
+    private final Pattern[] regexes;
+    private final LazyDfa[] dfas;
+    private final boolean[] prefiltered;
+    private final int literalPatternCount;
+    private final int prefilteredCount;
+    private final int[] literalPatterns;
+    private final String[] literals;
+    private final boolean[] caseSensitive;
+    private final boolean[] prefilterLiteral;
+    private final AhoCorasick automaton;
+    private final boolean asciiLiteralsOnly;
+    private final int longestCaseSensitiveLiteral;
+    private final SearchStatistics statistics;
+    private final MatchOptions options;
+    private final long timeoutNanos;
+
+    /**
+     * @param patterns The patterns, in the order their matches are reported
+     */
+    public PatternSet(final List<Pattern> patterns) {
+        this(patterns, new SearchStatistics());
+    }
+
+    /**
+     * @param patterns The patterns, in the order their matches are reported
+     * @param statistics Where counts of regular expression runs are recorded
+     */
+    public PatternSet(final List<Pattern> patterns, final SearchStatistics statistics) {
+        this(patterns, statistics, MatchOptions.DEFAULT);
+    }
+
+    /**
+     * @param patterns The patterns, in the order their matches are reported
+     * @param statistics Where counts of regular expression runs are recorded
+     * @param options How the patterns are applied to content
+     */
+    PatternSet(final List<Pattern> patterns, final SearchStatistics statistics, final MatchOptions options) {
+        if (patterns == null || patterns.isEmpty()) {
+            throw new IllegalArgumentException("No patterns passed to pattern set");
+        }
+        if (statistics == null) {
+            throw new IllegalArgumentException("Null statistics passed to pattern set");
+        }
+        if (options == null) {
+            throw new IllegalArgumentException("Null match options passed to pattern set");
+        }
+
+        this.patterns = Collections.unmodifiableList(new ArrayList<>(patterns));
+        this.statistics = statistics;
+        this.options = options;
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(options.getPatternTimeoutMillis());
+        this.regexes = new Pattern[patterns.size()];
+        this.dfas = new LazyDfa[patterns.size()];
+        this.prefiltered = new boolean[patterns.size()];
+        final List<Integer> literalPatterns = new ArrayList<>();
+        final List<String> literals = new ArrayList<>();
+        final List<Boolean> caseSensitive = new ArrayList<>();
+        int literalPatternCount = 0;
+        int prefilteredCount = 0;
+        for (int i = 0; i < patterns.size(); i++) {
+            final Pattern pattern = patterns.get(i);
+            if (pattern == null) {
+                throw new IllegalArgumentException("Null pattern passed to pattern set");
+            }
+            final String literal = literalOf(pattern);
+            if (literal != null) {
+                literalPatterns.add(i);
+                literals.add(literal);
+                caseSensitive.add((pattern.flags() & Pattern.CASE_INSENSITIVE) == 0);
+                literalPatternCount++;
+                continue;
+            }
+            regexes[i] = pattern;
+            if (options.getEngine() == MatchOptions.Engine.DFA) {
+                dfas[i] = LazyDfa.compile(pattern);
+            }
+            final Set<String> required = LiteralExtractor.requiredLiterals(pattern);
+            if (required != null) {
+                // only a hint of a match, so the case of the hit doesn't matter
+                for (String prefilter : required) {
+                    literalPatterns.add(i);
+                    literals.add(prefilter);
+                    caseSensitive.add(false);
+                }
+                prefiltered[i] = true;
+                prefilteredCount++;
+            }
+        }
+        this.literalPatternCount = literalPatternCount;
+        this.prefilteredCount = prefilteredCount;
+        this.literalPatterns = literalPatterns.stream().mapToInt(Integer::intValue).toArray();
+        this.literals = literals.toArray(new String[0]);
+        this.caseSensitive = new boolean[this.literals.length];
+        this.prefilterLiteral = new boolean[this.literals.length];
+        for (int i = 0; i < this.literals.length; i++) {
+            this.caseSensitive[i] = caseSensitive.get(i);
+            this.prefilterLiteral[i] = regexes[this.literalPatterns[i]] != null;
+        }
+        this.automaton = literals.isEmpty() ? null : new AhoCorasick(literals);
+
+        boolean asciiLiteralsOnly = literalPatternCount == patterns.size();
+        int longestCaseSensitiveLiteral = 0;
+        for (int i = 0; i < this.literals.length; i++) {
+            // a literal without line breaks is found within a line or not at all, so lines need not be split
+            for (int j = 0; j < this.literals[i].length(); j++) {
+                final char c = this.literals[i].charAt(j);
+                asciiLiteralsOnly &= c < 0x80 && c != '\n' && c != '\r';
+            }
+            if (this.caseSensitive[i]) {
+                longestCaseSensitiveLiteral = Math.max(longestCaseSensitiveLiteral, this.literals[i].length());
+            }
+        }
+        this.asciiLiteralsOnly = asciiLiteralsOnly;
+        this.longestCaseSensitiveLiteral = longestCaseSensitiveLiteral;
+    }
+
+    /**
+     * A set of a single pattern.
+     * @param pattern The pattern
+     * @return the pattern set
+     */
+    public static PatternSet of(final Pattern pattern) {
+        return new PatternSet(Collections.singletonList(pattern));
+    }
+
+    /**
+     * The patterns of the set.
+     * @return the patterns, in order
+     */
+    public List<Pattern> getPatterns() {
+        return patterns;
+    }
+
+    /**
+     * The number of patterns in the set.
+     * @return the number of patterns
+     */
+    public int size() {
+        return patterns.size();
+    }
+
+    /**
+     * The patterns that are matched by {@link Pattern} although the match options ask for {@link LazyDfa},
+     * because they use syntax it does not support.
+     * @return the patterns, in order; empty unless the DFA engine was asked for
+     */
+    List<Pattern> getBacktrackingPatterns() {
+        final List<Pattern> backtracking = new ArrayList<>();
+        if (options.getEngine() == MatchOptions.Engine.DFA) {
+            for (int i = 0; i < regexes.length; i++) {
+                if (regexes[i] != null && dfas[i] == null) {
+                    backtracking.add(regexes[i]);
+                }
+            }
+        }
+        return backtracking;
+    }
+
+    /**
+     * Starts the search of a page, line by line or window by window.
+     * @return the state of the search
+     */
+    Scan newScan() {
+        return new Scan();
+    }
+
+    /**
+     * Starts the search of a page that is not markup, whose content is in the given charset.
+     * @param charset The charset of the content
+     * @return the matcher for the page
+     * @see #newMatcher(Charset, boolean)
+     */
+    ContentMatcher newMatcher(final Charset charset) {
+        return newMatcher(charset, false);
+    }
+
+    /**
+     * Starts the search of a page whose content is in the given charset, searching its raw bytes if the patterns
+     * allow it, and otherwise decoded lines or windows as the match options say. Content in a charset that does
+     * not extend ASCII, such as UTF-16, can't be split into lines before it is decoded, so it is searched by
+     * window whatever the options. Where the options ask for it, only the text of a page that is HTML is searched.
+     * @param charset The charset of the content
+     * @param markup Whether the page is HTML, or may be
+     * @return the matcher for the page
+     */
+    ContentMatcher newMatcher(final Charset charset, final boolean markup) {
+        final ContentMatcher matcher = newContentMatcher(charset);
+        return markup && options.isExtractText() && isAsciiCompatible(charset)
+                ? new HtmlTextMatcher(matcher, charset) : matcher;
+    }
+
+    private ContentMatcher newContentMatcher(final Charset charset) {
+        if (asciiLiteralsOnly && isAsciiCompatible(charset)) {
+            return new ByteScan();
+        }
+        if (options.getMode() == MatchOptions.Mode.WINDOW) {
+            return new WindowMatcher(newScan(), charset, options);
+        }
+        if (!isAsciiCompatible(charset)) {
+            return new WindowMatcher(newScan(), charset, new MatchOptions(MatchOptions.Mode.WINDOW,
+                    options.getWindowChars(), options.getLookbackChars(), options.getEngine()));
+        }
+        return new LineMatcher(newScan(), charset);
+    }
+
+    /**
+     * Whether ASCII text means the same bytes in the given charset, and those bytes mean nothing else. True of
+     * UTF-8, which never uses bytes below 0x80 within other characters, and of single byte charsets that extend
+     * ASCII, such as ISO-8859-1 and windows-1252.
+     */
+    static boolean isAsciiCompatible(final Charset charset) {
+        return ASCII_COMPATIBLE.computeIfAbsent(charset, c -> {
+            if (c.equals(StandardCharsets.UTF_8)) {
+                return true;
+            }
+            if (!c.canEncode() || c.newEncoder().maxBytesPerChar() != 1) {
+                return false;
+            }
+            final byte[] ascii = new byte[0x80];
+            for (int i = 0; i < ascii.length; i++) {
+                ascii[i] = (byte) i;
+            }
+            final String decoded = new String(ascii, c);
+            for (int i = 0; i < ascii.length; i++) {
+                if (decoded.length() != ascii.length || decoded.charAt(i) != i) {
+                    return false;
+                }
+            }
+            return true;
+        });
+    }
+
+    /**
+     * The text a pattern matches if it matches nothing but a single literal, or null if it needs a regular
+     * expression engine. Literals whose case is folded beyond ASCII, and empty literals, are left to the engine.
+     */
+    static String literalOf(final Pattern pattern) {
+        final int flags = pattern.flags();
+        if ((flags & ~(Pattern.CASE_INSENSITIVE | Pattern.LITERAL | Pattern.MULTILINE | Pattern.DOTALL
+                | Pattern.UNIX_LINES)) != 0) {
+            return null;
+        }
+        final String text = pattern.pattern();
+        if (text.isEmpty()) {
+            return null;
+        }
+        if ((flags & Pattern.LITERAL) != 0) {
+            return text;
+        }
+        for (int i = 0; i < text.length(); i++) {
+            if (METACHARACTERS.indexOf(text.charAt(i)) >= 0) {
+                return null;
+            }
+        }
+        return text;
+    }
+
+    /**
+     * The search of one page, line by line or window by window. Not thread safe.
+     */
+    final class Scan implements AhoCorasick.HitListener {
+        private final boolean[] matched = new boolean[patterns.size()];
+        private final boolean[] candidate = new boolean[patterns.size()];
+        private final Matcher[] matchers = new Matcher[patterns.size()];
+        private final LazyDfa.Cache[] dfaCaches = new LazyDfa.Cache[patterns.size()];
+        private final InterruptibleCharSequence interruptible =
+                timeoutNanos > 0 ? new InterruptibleCharSequence() : null;
+        private int matchedCount;
+        private int literalsPending = literalPatternCount;
+        private int prefilteredPending = prefilteredCount;
+        private int targets;
+        private long runs;
+        private long skips;
+        private CharSequence line;
+        private long regexNanos;
+
+        /**
+         * Searches a line, or a window of content, for the patterns that have not matched yet.
+         * @param line The line
+         * @return true once every pattern has matched, so that the rest of the page need not be read
+         * @throws PatternTimeoutException If {@link Pattern} has spent more than the match options allow on the
+         *                                 page so far
+         */
+        boolean test(final CharSequence line) {
+            targets = literalsPending + prefilteredPending;
+            if (targets > 0) {
+                if (prefilteredPending > 0) {
+                    Arrays.fill(candidate, false);
+                }
+                this.line = line;
+                automaton.scan(line, this);
+                this.line = null;
+            }
+            for (int i = 0; i < regexes.length && matchedCount < matched.length; i++) {
+                if (regexes[i] != null && !matched[i]) {
+                    if (prefiltered[i] && !candidate[i]) {
+                        skips++;
+                        continue;
+                    }
+                    runs++;
+                    if (find(i, line)) {
+                        matched[i] = true;
+                        matchedCount++;
+                        if (prefiltered[i]) {
+                            prefilteredPending--;
+                        }
+                    }
+                }
+            }
+            return matchedCount == matched.length;
+        }
+
+        private boolean find(final int pattern, final CharSequence line) {
+            if (dfas[pattern] != null) {
+                if (dfaCaches[pattern] == null) {
+                    dfaCaches[pattern] = dfas[pattern].newCache();
+                }
+                return dfas[pattern].find(line, dfaCaches[pattern]);
+            }
+            if (interruptible == null) {
+                return matcher(pattern, line).find();
+            }
+            final long start = System.nanoTime();
+            interruptible.reset(line, regexes[pattern], start + timeoutNanos - regexNanos);
+            try {
+                return matcher(pattern, interruptible).find();
+            } finally {
+                regexNanos += System.nanoTime() - start;
+            }
+        }
+
+        private Matcher matcher(final int pattern, final CharSequence text) {
+            if (matchers[pattern] == null) {
+                matchers[pattern] = regexes[pattern].matcher(text);
+            } else {
+                matchers[pattern].reset(text);
+            }
+            return matchers[pattern];
+        }
+
+        @Override
+        public boolean onHit(final int literal, final int end) {
+            final int pattern = literalPatterns[literal];
+            if (matched[pattern]) {
+                return false;
+            }
+            if (prefilterLiteral[literal]) {
+                if (candidate[pattern]) {
+                    return false;
+                }
+                candidate[pattern] = true;
+                return --targets == 0;
+            }
+            if (caseSensitive[literal] && !endsWith(line, end, literals[literal])) {
+                return false;
+            }
+            matched[pattern] = true;
+            matchedCount++;
+            literalsPending--;
+            return --targets == 0;
+        }
+
+        /**
+         * The patterns that have matched so far.
+         * @return the patterns, in the order of the set
+         */
+        List<Pattern> getMatched() {
+            return matchedPatterns(matched, matchedCount);
+        }
+
+        /**
+         * Forgets what has matched, to search another page. Keeps the regular expression matchers.
+         */
+        void reset() {
+            Arrays.fill(matched, false);
+            matchedCount = 0;
+            literalsPending = literalPatternCount;
+            prefilteredPending = prefilteredCount;
+            regexNanos = 0;
+        }
+
+        /**
+         * Records the runs of regular expressions, and the DFA states built, since the last report in the set's
+         * statistics.
+         */
+        void report() {
+            long built = 0;
+            for (LazyDfa.Cache cache : dfaCaches) {
+                if (cache != null) {
+                    built += cache.takeBuilt();
+                }
+            }
+            if (built > 0) {
+                statistics.add(DFA_STATES_BUILT, built);
+            }
+            if (runs > 0) {
+                statistics.add(REGEX_RUNS, runs);
+                runs = 0;
+            }
+            if (skips > 0) {
+                statistics.add(REGEX_SKIPS, skips);
+                skips = 0;
+            }
+        }
+
+        private boolean endsWith(final CharSequence text, final int end, final String literal) {
+            final int start = end - literal.length();
+            for (int i = 0; i < literal.length(); i++) {
+                if (text.charAt(start + i) != literal.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * The search of one page whose patterns are all ASCII literals, straight over the bytes of its content.
+     * Not thread safe.
+     */
+    private final class ByteScan implements ContentMatcher, AhoCorasick.HitListener {
+        private final boolean[] matched = new boolean[patterns.size()];
+        // the end of the content before the current piece, to confirm case-sensitive hits that straddle pieces
+        private final byte[] carry = new byte[Math.max(0, longestCaseSensitiveLiteral - 1)];
+        private int carried;
+        private int matchedCount;
+        private int state;
+        private ByteBuffer data;
+        private int start;
+
+        @Override
+        public boolean feed(final ByteBuffer data) {
+            if (matchedCount < matched.length) {
+                this.data = data;
+                this.start = data.position();
+                state = automaton.scan(data, state, this);
+                if (carry.length > 0) {
+                    keepTail();
+                }
+                this.data = null;
+            }
+            return matchedCount == matched.length;
+        }
+
+        @Override
+        public boolean finish() {
+            return matchedCount == matched.length;
+        }
+
+        @Override
+        public void reset() {
+            Arrays.fill(matched, false);
+            matchedCount = 0;
+            state = 0;
+            carried = 0;
+        }
+
+        @Override
+        public List<Pattern> getMatched() {
+            return matchedPatterns(matched, matchedCount);
+        }
+
+        @Override
+        public boolean onHit(final int literal, final int end) {
+            final int pattern = literalPatterns[literal];
+            if (matched[pattern] || (caseSensitive[literal] && !endsWith(end, literals[literal]))) {
+                return false;
+            }
+            matched[pattern] = true;
+            return ++matchedCount == matched.length;
+        }
+
+        private boolean endsWith(final int end, final String literal) {
+            for (int i = 0; i < literal.length(); i++) {
+                final int index = end - literal.length() + i;
+                final byte b = index >= start ? data.get(index) : carry[carried - (start - index)];
+                if (b != literal.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void keepTail() {
+            final int end = data.position();
+            final int fresh = Math.min(end - start, carry.length);
+            final int kept = Math.min(carried, carry.length - fresh);
+            System.arraycopy(carry, carried - kept, carry, 0, kept);
+            for (int i = 0; i < fresh; i++) {
+                carry[kept + i] = data.get(end - fresh + i);
+            }
+            carried = kept + fresh;
+        }
+    }
+
+    private List<Pattern> matchedPatterns(final boolean[] matched, final int matchedCount) {
+        if (matchedCount == 0) {
+            return Collections.emptyList();
+        }
+        final List<Pattern> result = new ArrayList<>(matchedCount);
+        for (int i = 0; i < matched.length; i++) {
+            if (matched[i]) {
+                result.add(patterns.get(i));
+            }
+        }
+        return result;
+    }
+}
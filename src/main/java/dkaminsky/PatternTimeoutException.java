@@ -0,0 +1,29 @@
+package dkaminsky;
+
+import java.util.regex.Pattern;
+
+/**
+ * Thrown when a regular expression has spent more than its budget of time on one page, as a pattern that
+ * backtracks catastrophically can. The search of the page is given up, and the page reported as timed out.
+ */
+class PatternTimeoutException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    private final transient Pattern pattern;
+
+    /**
+     * @param pattern The pattern that ran out of time
+     */
+    PatternTimeoutException(final Pattern pattern) {
+        super("Pattern ran out of time: " + pattern);
+        this.pattern = pattern;
+    }
+
+    /**
+     * The pattern that ran out of time.
+     * @return the pattern
+     */
+    Pattern getPattern() {
+        return pattern;
+    }
+}
@@ -0,0 +1,190 @@
+package dkaminsky;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Implementation of stream factory that speaks HTTP/1.1 over its own sockets, leasing them from a
+ * {@link ConnectionPool} so that consecutive URLs on the same host reuse an established TCP (and TLS) connection
+ * instead of paying for a new one.
+ *
+ * A connection goes back to the pool when the stream is closed after the whole response has been read; a stream
+ * closed early, e.g. because a match was found, takes its connection down with it. Compressed content is
+ * negotiated and decoded as it is read, see {@link ContentEncoding}.
+ *
+ * Each fetch is bounded by {@link FetchTimeouts}: the socket read timeout covers waiting for the server, and a
+ * {@link FetchDeadline} closes the connection of a fetch that runs past its total deadline. Connect timeouts are
+ * up to the pool's connection factory.
+ */
+public class PooledURLStreamStrategy implements URLStreamStrategy {
+    private static final int MAX_REDIRECTS = 5;
+
+    private final ConnectionPool<HttpConnection> pool;
+    private final SearchStatistics statistics;
+    private final FetchTimeouts timeouts;
+
+    /**
+     * @param pool The pool to lease connections from
+     * @param statistics Where content byte counts are recorded
+     */
+    PooledURLStreamStrategy(final ConnectionPool<HttpConnection> pool, final SearchStatistics statistics) {
+        this(pool, statistics, FetchTimeouts.DEFAULT);
+    }
+
+    /**
+     * @param pool The pool to lease connections from
+     * @param statistics Where content byte counts are recorded
+     * @param timeouts How long each fetch may take
+     */
+    PooledURLStreamStrategy(final ConnectionPool<HttpConnection> pool, final SearchStatistics statistics,
+                            final FetchTimeouts timeouts) {
+        if (pool == null) {
+            throw new IllegalArgumentException("Null connection pool passed to strategy");
+        }
+        if (statistics == null) {
+            throw new IllegalArgumentException("Null statistics passed to strategy");
+        }
+        if (timeouts == null) {
+            throw new IllegalArgumentException("Null timeouts passed to strategy");
+        }
+
+        this.pool = pool;
+        this.statistics = statistics;
+        this.timeouts = timeouts;
+    }
+
+    @Override
+    public InputStream openStream(final URL url) throws IOException {
+        return fetch(url).getContent();
+    }
+
+    @Override
+    public FetchResponse fetch(final URL url) throws IOException {
+        return fetch(url, Collections.emptyMap());
+    }
+
+    @Override
+    public FetchResponse fetch(final URL url, final Map<String, String> headers) throws IOException {
+        final long deadline = timeouts.getDeadline(System.nanoTime());
+        URL target = url;
+        for (int redirects = 0; ; redirects++) {
+            final PooledResponseStream response = request(target, headers, deadline);
+            final HttpResponseHead head = response.head;
+            final int status = head.getStatusCode();
+            final String location = head.getHeader("Location");
+
+            if (status >= 300 && status < 400 && status != 304 && location != null && redirects < MAX_REDIRECTS) {
+                try {
+                    drainAndClose(response);
+                } catch (IOException e) {
+                    throw response.deadline.translate(e);
+                }
+                target = HttpResponseHead.resolveLocation(target, location);
+                continue;
+            }
+            if (status >= 400) {
+                response.close();
+                throw new HttpStatusException(status, head.getHeader("Retry-After"), target);
+            }
+            try {
+                final InputStream body = response.deadline.guard(response);
+                final InputStream content = status == 304 ? body
+                        : ContentEncoding.decode(body, head.getHeader("Content-Encoding"), statistics);
+                return new FetchResponse(content, head, () -> { });
+            } catch (IOException e) {
+                response.close();
+                throw response.deadline.translate(e);
+            } catch (RuntimeException e) {
+                response.close();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Sends a GET for the URL and reads the response head. A pooled connection may have been closed by the server
+     * while idle, so a failure before any response arrives on a reused connection is retried on a new one.
+     */
+    private PooledResponseStream request(final URL url, final Map<String, String> headers, final long deadline)
+            throws IOException {
+        while (true) {
+            final HttpConnection connection = pool.acquire(url);
+            final FetchDeadline watch = FetchDeadline.start(deadline, () -> closeQuietly(connection));
+            final HttpResponseInputStream in = new HttpResponseInputStream(connection.getInputStream());
+            try {
+                connection.setReadTimeout(timeouts.getFirstByteMillis());
+                final HttpRequest request = new HttpRequest(url)
+                        .header("Accept-Encoding", ContentEncoding.ACCEPT_ENCODING);
+                for (Map.Entry<String, String> header : headers.entrySet()) {
+                    request.header(header.getKey(), header.getValue());
+                }
+                connection.send(request);
+                final HttpResponseHead head = in.readHead();
+                return new PooledResponseStream(url, connection, in, head, watch);
+            } catch (IOException e) {
+                watch.cancel();
+                pool.release(url, connection, false);
+                if (!connection.isReused() || watch.isExpired()) {
+                    throw watch.translate(e);
+                }
+            } catch (RuntimeException e) {
+                watch.cancel();
+                pool.release(url, connection, false);
+                throw e;
+            }
+        }
+    }
+
+    private static void closeQuietly(final HttpConnection connection) {
+        try {
+            connection.close();
+        } catch (IOException e) {
+            // nothing to do
+        }
+    }
+
+    private static void drainAndClose(final InputStream in) throws IOException {
+        try {
+            final byte[] discard = new byte[4096];
+            while (in.read(discard) >= 0) {
+                // redirect bodies are small; reading them lets the connection be reused
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * The body of a response, which gives its connection back to the pool when closed.
+     */
+    private final class PooledResponseStream extends FilterInputStream {
+        private final URL url;
+        private final HttpConnection connection;
+        private final HttpResponseHead head;
+        private final FetchDeadline deadline;
+        private boolean closed;
+
+        PooledResponseStream(final URL url, final HttpConnection connection, final HttpResponseInputStream in,
+                             final HttpResponseHead head, final FetchDeadline deadline) {
+            super(in);
+            this.url = url;
+            this.connection = connection;
+            this.head = head;
+            this.deadline = deadline;
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                deadline.cancel();
+                pool.release(url, connection, ((HttpResponseInputStream) in).isComplete() && head.isKeepAlive()
+                        && !deadline.isExpired());
+            }
+        }
+    }
+}
@@ -0,0 +1,299 @@
+package dkaminsky;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Properties;
+
+/**
+ * Persistent store of fetched content for conditional requests on later runs, one entry per URL in a directory
+ * of its own. An entry holds the validators of the response (ETag and Last-Modified), its content type, and the
+ * decoded content as far as it was read, which may be all of it or only a prefix.
+ *
+ * Entries are written to temporary files and moved into place, so a crash or a concurrent run leaves either the
+ * old entry or the new one, never a mix.
+ */
+class ResponseCache {
+    private static final String URL = "url";
+    private static final String ETAG = "etag";
+    private static final String LAST_MODIFIED = "lastModified";
+    private static final String CONTENT_TYPE = "contentType";
+    private static final String LENGTH = "length";
+    private static final String COMPLETE = "complete";
+
+    private final Path directory;
+    private final long maxBodyBytes;
+
+    /**
+     * @param directory Where entries are kept; created if it does not exist
+     * @param maxBodyBytes The most content stored per URL
+     * @throws IOException If the directory cannot be created
+     */
+    ResponseCache(final Path directory, final long maxBodyBytes) throws IOException {
+        if (directory == null) {
+            throw new IllegalArgumentException("Null directory passed to response cache");
+        }
+        if (maxBodyBytes < 1) {
+            throw new IllegalArgumentException("Response cache must store at least one byte per URL");
+        }
+
+        this.directory = Files.createDirectories(directory);
+        this.maxBodyBytes = maxBodyBytes;
+    }
+
+    /**
+     * The most content stored per URL; content beyond it is not stored, leaving a prefix.
+     * @return the limit in bytes
+     */
+    long getMaxBodyBytes() {
+        return maxBodyBytes;
+    }
+
+    /**
+     * Looks up the entry for a URL.
+     * @param url The URL
+     * @return the entry, or null if there is none or it cannot be read
+     */
+    Entry get(final URL url) {
+        final String key = keyOf(url);
+        final Properties meta = new Properties();
+        try (InputStream in = Files.newInputStream(directory.resolve(key + ".meta"))) {
+            meta.load(in);
+        } catch (IOException e) {
+            return null;
+        }
+        if (!url.toString().equals(meta.getProperty(URL))) {
+            return null;
+        }
+        try {
+            final Entry entry = new Entry(directory.resolve(key + ".body"), meta.getProperty(ETAG),
+                    meta.getProperty(LAST_MODIFIED), meta.getProperty(CONTENT_TYPE),
+                    Long.parseLong(meta.getProperty(LENGTH, "-1")), Boolean.parseBoolean(meta.getProperty(COMPLETE)));
+            return entry.length >= 0 && Files.size(entry.body) == entry.length ? entry : null;
+        } catch (IOException | NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Starts recording the content of a response for a URL. Nothing is stored until the recording is committed.
+     * @param url The URL
+     * @param etag The ETag of the response, or null
+     * @param lastModified The Last-Modified of the response, or null
+     * @param contentType The Content-Type of the response, or null
+     * @return the recording
+     * @throws IOException If a temporary file cannot be created
+     */
+    Recording record(final URL url, final String etag, final String lastModified, final String contentType)
+            throws IOException {
+        final Path temporary = Files.createTempFile(directory, keyOf(url), ".tmp");
+        try {
+            return new Recording(url, etag, lastModified, contentType, temporary);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temporary);
+            throw e;
+        }
+    }
+
+    /**
+     * Drops the entry for a URL, e.g. because the content changed and can no longer be validated.
+     * @param url The URL
+     */
+    void remove(final URL url) {
+        final String key = keyOf(url);
+        try {
+            Files.deleteIfExists(directory.resolve(key + ".meta"));
+            Files.deleteIfExists(directory.resolve(key + ".body"));
+        } catch (IOException e) {
+            // a stale entry only costs an unconditional request next time
+        }
+    }
+
+    private static String keyOf(final URL url) {
+        try {
+            final byte[] digest = MessageDigest.getInstance("SHA-256")
+                    .digest(url.toString().getBytes(StandardCharsets.UTF_8));
+            final StringBuilder key = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                key.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return key.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private static void moveIntoPlace(final Path source, final Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * A stored response.
+     */
+    static final class Entry {
+        private final Path body;
+        private final String etag;
+        private final String lastModified;
+        private final String contentType;
+        private final long length;
+        private final boolean complete;
+
+        Entry(final Path body, final String etag, final String lastModified, final String contentType,
+              final long length, final boolean complete) {
+            this.body = body;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.contentType = contentType;
+            this.length = length;
+            this.complete = complete;
+        }
+
+        String getEtag() {
+            return etag;
+        }
+
+        String getLastModified() {
+            return lastModified;
+        }
+
+        String getContentType() {
+            return contentType;
+        }
+
+        /**
+         * The number of content bytes stored.
+         */
+        long getLength() {
+            return length;
+        }
+
+        /**
+         * Whether the stored content is all of it rather than a prefix.
+         */
+        boolean isComplete() {
+            return complete;
+        }
+
+        /**
+         * Opens the stored content.
+         * @return the content
+         * @throws IOException If the content cannot be read
+         */
+        InputStream openBody() throws IOException {
+            return Files.newInputStream(body);
+        }
+    }
+
+    /**
+     * Content being stored as it is read. Stops storing once the limit is reached, keeping what it has as a prefix.
+     */
+    final class Recording {
+        private final URL url;
+        private final String etag;
+        private final String lastModified;
+        private final String contentType;
+        private final Path temporary;
+        private final OutputStream out;
+        private long length;
+        private boolean truncated;
+        private boolean done;
+
+        private Recording(final URL url, final String etag, final String lastModified, final String contentType,
+                          final Path temporary) throws IOException {
+            this.url = url;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.contentType = contentType;
+            this.temporary = temporary;
+            this.out = Files.newOutputStream(temporary);
+        }
+
+        /**
+         * Stores content, up to the limit.
+         * @param b The content
+         * @param off The offset of the first byte to store
+         * @param len The number of bytes
+         * @throws IOException If the content cannot be written
+         */
+        void write(final byte[] b, final int off, final int len) throws IOException {
+            final int stored = (int) Math.min(len, maxBodyBytes - length);
+            if (stored > 0) {
+                out.write(b, off, stored);
+                length += stored;
+            }
+            truncated = truncated || stored < len;
+        }
+
+        /**
+         * Stores the entry, replacing any existing one.
+         * @param reachedEnd Whether all of the content was read
+         * @throws IOException If the entry cannot be written
+         */
+        void commit(final boolean reachedEnd) throws IOException {
+            if (done) {
+                return;
+            }
+            done = true;
+            try {
+                out.close();
+                final String key = keyOf(url);
+                final Properties meta = new Properties();
+                meta.setProperty(URL, url.toString());
+                if (etag != null) {
+                    meta.setProperty(ETAG, etag);
+                }
+                if (lastModified != null) {
+                    meta.setProperty(LAST_MODIFIED, lastModified);
+                }
+                if (contentType != null) {
+                    meta.setProperty(CONTENT_TYPE, contentType);
+                }
+                meta.setProperty(LENGTH, Long.toString(length));
+                meta.setProperty(COMPLETE, Boolean.toString(reachedEnd && !truncated));
+
+                final Path metaTemporary = Files.createTempFile(directory, key, ".tmp");
+                try {
+                    try (OutputStream metaOut = Files.newOutputStream(metaTemporary)) {
+                        meta.store(metaOut, null);
+                    }
+                    // drop the old metadata first, so that a reader never pairs it with the new body
+                    Files.deleteIfExists(directory.resolve(key + ".meta"));
+                    moveIntoPlace(temporary, directory.resolve(key + ".body"));
+                    moveIntoPlace(metaTemporary, directory.resolve(key + ".meta"));
+                } finally {
+                    Files.deleteIfExists(metaTemporary);
+                }
+            } finally {
+                Files.deleteIfExists(temporary);
+            }
+        }
+
+        /**
+         * Throws away what was recorded, leaving any existing entry alone.
+         */
+        void discard() {
+            if (done) {
+                return;
+            }
+            done = true;
+            try {
+                out.close();
+                Files.deleteIfExists(temporary);
+            } catch (IOException e) {
+                // nothing to do
+            }
+        }
+    }
+}
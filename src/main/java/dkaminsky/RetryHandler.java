@@ -0,0 +1,21 @@
+package dkaminsky;
+
+import java.io.IOException;
+
+/**
+ * Decides what becomes of an input whose fetch failed.
+ */
+public interface RetryHandler {
+    /**
+     * A handler that never retries.
+     */
+    RetryHandler NONE = (input, failure) -> false;
+
+    /**
+     * Called by a worker when the fetch of an input fails. Must not block.
+     * @param input The input whose fetch failed
+     * @param failure Why it failed
+     * @return true if the input will be tried again later, false if it is given up on
+     */
+    boolean retry(WebsiteSearcherInput input, IOException failure);
+}
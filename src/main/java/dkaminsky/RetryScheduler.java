@@ -0,0 +1,263 @@
+package dkaminsky;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Gives failed fetches another chance. Failures that are likely to be transient (timeouts, connection resets,
+ * server errors and rate limiting) are retried after an exponential backoff with full jitter, so that retries of
+ * many URLs on a struggling host spread out instead of arriving in waves. A Retry-After from the server is
+ * honoured, up to the maximum delay. Other failures, and inputs out of attempts, are given up on.
+ *
+ * Inputs waiting for their retry sit on a delay queue of their own; a background thread puts each back on the
+ * input queue when its time comes, so workers carry on with fresh inputs meanwhile. Must also be registered as
+ * a {@link WebsiteSearcherListener} so that it can forget inputs once they are done with.
+ *
+ * Records {@link #SCHEDULED} and {@link #EXHAUSTED}, and a count per kind of failure retried, in the given
+ * {@link SearchStatistics}.
+ */
+class RetryScheduler extends Thread implements RetryHandler, WebsiteSearcherListener, Closeable {
+    static final String SCHEDULED = "retry.scheduled";
+    static final String EXHAUSTED = "retry.exhausted";
+
+    /**
+     * What a failure says about the chance a retry succeeds.
+     */
+    enum FailureKind {
+        /** The server did not connect or answer in time. */
+        TIMEOUT("retry.timeout"),
+        /** The connection broke off. */
+        RESET("retry.reset"),
+        /** The server answered with a 5xx status. */
+        SERVER_ERROR("retry.serverError"),
+        /** The server answered 429 Too Many Requests. */
+        RATE_LIMITED("retry.rateLimited"),
+        /** Anything else, such as an unknown host or a 404; retrying would fail the same way. */
+        PERMANENT(null);
+
+        private final String counter;
+
+        FailureKind(final String counter) {
+            this.counter = counter;
+        }
+    }
+
+    private final BlockingQueue<WebsiteSearcherInput> inputQueue;
+    private final int maxAttempts;
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+    private final SearchStatistics statistics;
+    private final DelayQueue<DelayedInput> delayed = new DelayQueue<>();
+    private final Map<WebsiteSearcherInput, Integer> attempts = new ConcurrentHashMap<>();
+    private final AtomicBoolean running = new AtomicBoolean(true);
+
+    /**
+     * @param inputQueue The queue retried inputs are put back on
+     * @param maxAttempts The most times an input is fetched, counting the first
+     * @param baseDelayMillis The upper bound of the delay before the first retry, doubled for each one after
+     * @param maxDelayMillis The upper bound of any delay
+     * @param statistics Where retry counts are recorded
+     */
+    RetryScheduler(final BlockingQueue<WebsiteSearcherInput> inputQueue, final int maxAttempts,
+                   final long baseDelayMillis, final long maxDelayMillis, final SearchStatistics statistics) {
+        super("RetryScheduler");
+        if (inputQueue == null) {
+            throw new IllegalArgumentException("Null input queue passed to retry scheduler");
+        }
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("Inputs must be fetched at least once");
+        }
+        if (baseDelayMillis < 1 || maxDelayMillis < baseDelayMillis) {
+            throw new IllegalArgumentException("Retry delays must be positive, the maximum no less than the base");
+        }
+        if (statistics == null) {
+            throw new IllegalArgumentException("Null statistics passed to retry scheduler");
+        }
+
+        this.inputQueue = inputQueue;
+        this.maxAttempts = maxAttempts;
+        this.baseDelayMillis = baseDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+        this.statistics = statistics;
+        setDaemon(true);
+    }
+
+    @Override
+    public boolean retry(final WebsiteSearcherInput input, final IOException failure) {
+        final FailureKind kind = classify(failure);
+        if (kind == FailureKind.PERMANENT || !running.get()) {
+            return false;
+        }
+        final int attempt = attempts.merge(input, 1, Integer::sum);
+        if (attempt >= maxAttempts) {
+            statistics.increment(EXHAUSTED);
+            return false;
+        }
+
+        statistics.increment(SCHEDULED);
+        statistics.increment(kind.counter);
+        long delay = ThreadLocalRandom.current().nextLong(backoffCeiling(attempt) + 1);
+        if (failure instanceof HttpStatusException) {
+            final long retryAfter = parseRetryAfter(((HttpStatusException) failure).getRetryAfter(),
+                    System.currentTimeMillis());
+            delay = Math.min(maxDelayMillis, Math.max(delay, retryAfter));
+        }
+        delayed.add(new DelayedInput(input, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay)));
+        return true;
+    }
+
+    /**
+     * Forgets how often an input was tried once it is done with.
+     */
+    @Override
+    public void onFinished(final WebsiteSearcherInput input, final SearchOutcome outcome) {
+        if (outcome != SearchOutcome.RETRYING) {
+            attempts.remove(input);
+        }
+    }
+
+    /**
+     * The number of inputs waiting for their retry.
+     * @return the number of inputs
+     */
+    int getPendingCount() {
+        return delayed.size();
+    }
+
+    /**
+     * Indicates if the main processing loop of this thread will continue after the current iteration.
+     *
+     * @return Whether this thread will continue.
+     */
+    public boolean isRunning() {
+        return running.get();
+    }
+
+    /**
+     * Stops scheduling retries. Inputs still waiting for theirs are dropped.
+     */
+    @Override
+    public void close() {
+        running.set(false);
+        interrupt();
+    }
+
+    /**
+     * Puts inputs back on the input queue as their delays run out.
+     */
+    @Override
+    public void run() {
+        while (running.get()) {
+            try {
+                inputQueue.put(delayed.take().input);
+            } catch (InterruptedException e) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Classifies a failure by how likely a retry is to succeed.
+     * @param failure The failure
+     * @return the kind of failure
+     */
+    static FailureKind classify(final IOException failure) {
+        if (failure instanceof HttpStatusException) {
+            final int status = ((HttpStatusException) failure).getStatusCode();
+            if (status == 429) {
+                return FailureKind.RATE_LIMITED;
+            }
+            // 501 Not Implemented and 505 HTTP Version Not Supported will not go away
+            return status >= 500 && status != 501 && status != 505 ? FailureKind.SERVER_ERROR
+                    : FailureKind.PERMANENT;
+        }
+        if (failure instanceof SocketTimeoutException) {
+            return FailureKind.TIMEOUT;
+        }
+        if (failure instanceof EOFException) {
+            return FailureKind.RESET; // the response was cut short
+        }
+        final String message = failure.getMessage() == null ? "" : failure.getMessage().toLowerCase(Locale.ROOT);
+        if (message.contains("timed out")) {
+            return FailureKind.TIMEOUT;
+        }
+        // the JDK reports resets as plain IOExceptions from channels and SocketExceptions from sockets
+        if (message.contains("connection reset") || message.contains("broken pipe")
+                || (failure instanceof SocketException && message.contains("closed by remote host"))) {
+            return FailureKind.RESET;
+        }
+        return FailureKind.PERMANENT;
+    }
+
+    /**
+     * The most a retry after the given attempt is delayed, before jitter: the base delay, doubled for each attempt
+     * after the first, up to the maximum.
+     */
+    private long backoffCeiling(final int attempt) {
+        long ceiling = baseDelayMillis;
+        for (int i = 1; i < attempt && ceiling < maxDelayMillis; i++) {
+            ceiling <<= 1;
+        }
+        return Math.min(maxDelayMillis, ceiling);
+    }
+
+    /**
+     * Parses a Retry-After header, which is either a number of seconds or an HTTP date.
+     * @param value The header value, or null
+     * @param now The current time in milliseconds since the epoch
+     * @return the delay it asks for in milliseconds, zero if none
+     */
+    static long parseRetryAfter(final String value, final long now) {
+        if (value == null) {
+            return 0L;
+        }
+        try {
+            final long seconds = Long.parseLong(value.trim());
+            return seconds <= 0 ? 0L : TimeUnit.SECONDS.toMillis(Math.min(seconds, Integer.MAX_VALUE));
+        } catch (NumberFormatException e) {
+            // not seconds, so it should be a date
+        }
+        try {
+            final long at = ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME)
+                    .toInstant().toEpochMilli();
+            return Math.max(0L, at - now);
+        } catch (DateTimeParseException e) {
+            return 0L;
+        }
+    }
+
+    private static final class DelayedInput implements Delayed {
+        private final WebsiteSearcherInput input;
+        private final long dueAt;
+
+        DelayedInput(final WebsiteSearcherInput input, final long dueAt) {
+            this.input = input;
+            this.dueAt = dueAt;
+        }
+
+        @Override
+        public long getDelay(final TimeUnit unit) {
+            return unit.convert(dueAt - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(final Delayed other) {
+            return Long.compare(getDelay(TimeUnit.NANOSECONDS), other.getDelay(TimeUnit.NANOSECONDS));
+        }
+    }
+}
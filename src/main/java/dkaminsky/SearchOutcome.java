@@ -0,0 +1,19 @@
+package dkaminsky;
+
+/**
+ * How the search of a single URL ended.
+ */
+public enum SearchOutcome {
+    /** The content matched the search pattern. */
+    MATCHED,
+    /** The content was read in full without a match. */
+    NOT_MATCHED,
+    /** The content did not match within the page's byte budget, and the rest of it was not read. */
+    NO_MATCH_WITHIN_BUDGET,
+    /** A pattern spent longer than it may on the content, and the rest of it was not searched. */
+    PATTERN_TIMEOUT,
+    /** The content could not be retrieved this time, and will be tried again later. */
+    RETRYING,
+    /** The content could not be retrieved. */
+    FAILED
+}
@@ -0,0 +1,54 @@
+package dkaminsky;
+
+import java.net.URL;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * A page that matched, along with which of the job's patterns it matched.
+ */
+public class SearchResult {
+    private final URL url;
+    private final List<Pattern> matchedPatterns;
+
+    /**
+     * @param url The URL of the page
+     * @param matchedPatterns The patterns that matched, in the order of the job's {@link PatternSet}
+     */
+    public SearchResult(final URL url, final List<Pattern> matchedPatterns) {
+        if (url == null) {
+            throw new IllegalArgumentException("Null URL passed to search result");
+        }
+        if (matchedPatterns == null || matchedPatterns.isEmpty()) {
+            throw new IllegalArgumentException("No matched patterns passed to search result");
+        }
+
+        this.url = url;
+        this.matchedPatterns = Collections.unmodifiableList(matchedPatterns);
+    }
+
+    /**
+     * The URL of the page that matched.
+     * @return the URL
+     */
+    public URL getUrl() {
+        return url;
+    }
+
+    /**
+     * The patterns the page matched.
+     * @return the patterns, in the order of the job's pattern set
+     */
+    public List<Pattern> getMatchedPatterns() {
+        return matchedPatterns;
+    }
+
+    /**
+     * The URL of the page, as it appears in the results.
+     */
+    @Override
+    public String toString() {
+        return url.toString();
+    }
+}
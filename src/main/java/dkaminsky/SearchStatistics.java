@@ -0,0 +1,52 @@
+package dkaminsky;
+
+import java.io.PrintStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Named counters describing a search run, shared by every component that has something to report. Each
+ * component defines the names of its own counters. Thread safe and cheap to update from hot paths.
+ */
+public class SearchStatistics {
+    private final ConcurrentMap<String, LongAdder> counters = new ConcurrentSkipListMap<>();
+
+    /**
+     * Adds one to the named counter.
+     * @param name The counter name
+     */
+    public void increment(final String name) {
+        add(name, 1L);
+    }
+
+    /**
+     * Adds to the named counter, creating it if necessary.
+     * @param name The counter name
+     * @param delta The amount to add
+     */
+    public void add(final String name, final long delta) {
+        counters.computeIfAbsent(name, k -> new LongAdder()).add(delta);
+    }
+
+    /**
+     * The current value of the named counter.
+     * @param name The counter name
+     * @return the value, or zero if the counter has never been updated
+     */
+    public long get(final String name) {
+        final LongAdder counter = counters.get(name);
+        return counter == null ? 0L : counter.sum();
+    }
+
+    /**
+     * Writes every counter, in name order, one per line.
+     * @param out The stream to write to
+     */
+    public void report(final PrintStream out) {
+        for (Map.Entry<String, LongAdder> counter : counters.entrySet()) {
+            out.println(counter.getKey() + ": " + counter.getValue().sum());
+        }
+    }
+}
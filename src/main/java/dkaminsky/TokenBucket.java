@@ -0,0 +1,76 @@
+package dkaminsky;
+
+/**
+ * A token bucket rate limiter. Tokens accrue at a fixed rate up to a maximum burst, and each permitted action
+ * spends one. Time is passed in by the caller so that one clock reading can serve many buckets.
+ *
+ * Not thread safe; callers synchronize.
+ */
+class TokenBucket {
+    private final double tokensPerNano;
+    private final double capacity;
+    private double tokens;
+    private long lastRefill;
+
+    /**
+     * Creates a full bucket.
+     *
+     * @param tokensPerSecond The rate at which tokens accrue
+     * @param burst The maximum number of tokens the bucket holds
+     * @param now The current time, in nanoseconds
+     */
+    TokenBucket(final double tokensPerSecond, final int burst, final long now) {
+        if (!(tokensPerSecond > 0)) {
+            throw new IllegalArgumentException("Token rate must be positive");
+        }
+        if (burst < 1) {
+            throw new IllegalArgumentException("Token burst must be at least one");
+        }
+
+        this.tokensPerNano = tokensPerSecond / 1e9;
+        this.capacity = burst;
+        this.tokens = burst;
+        this.lastRefill = now;
+    }
+
+    /**
+     * How long until a token is available.
+     * @param now The current time, in nanoseconds
+     * @return the wait in nanoseconds, zero if a token is available now
+     */
+    long nanosUntilAvailable(final long now) {
+        refill(now);
+        return tokens >= 1 ? 0L : (long) Math.ceil((1 - tokens) / tokensPerNano);
+    }
+
+    /**
+     * Spends a token if one is available.
+     * @param now The current time, in nanoseconds
+     * @return whether a token was spent
+     */
+    boolean tryAcquire(final long now) {
+        refill(now);
+        if (tokens >= 1) {
+            tokens--;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Indicates whether the bucket has refilled completely, i.e. it holds no memory of recent use.
+     * @param now The current time, in nanoseconds
+     * @return whether the bucket is full
+     */
+    boolean isFull(final long now) {
+        refill(now);
+        return tokens >= capacity;
+    }
+
+    private void refill(final long now) {
+        if (now > lastRefill) {
+            tokens = Math.min(capacity, tokens + (now - lastRefill) * tokensPerNano);
+            lastRefill = now;
+        }
+    }
+}
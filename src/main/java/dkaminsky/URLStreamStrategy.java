@@ -3,6 +3,7 @@ package dkaminsky;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
+import java.util.Map;
 
 /**
  * Abstraction for creating an {@link InputStream} from a {@link URL}. Used for injecting
@@ -15,4 +16,27 @@ public interface URLStreamStrategy {
      * @return A stream which accesses the data of the site corresponding to the provided URL
      */
     InputStream openStream(URL url) throws IOException;
+
+    /**
+     * Opens the provided URL along with what is known about its content. Strategies that can tell the content
+     * type, or cut a transfer short, override this; by default the content type is unknown and aborting simply
+     * closes the stream.
+     * @param url The URL to open
+     * @return The response for the site corresponding to the provided URL
+     */
+    default FetchResponse fetch(URL url) throws IOException {
+        return new FetchResponse(openStream(url), null);
+    }
+
+    /**
+     * Opens the provided URL, sending the given request headers if the strategy speaks HTTP. The headers may be
+     * conditional, such as If-None-Match, in which case the response may be a 304 without content. By default the
+     * headers are ignored, which leaves the server to send the content as for an unconditional request.
+     * @param url The URL to open
+     * @param headers Request headers to add, by name
+     * @return The response for the site corresponding to the provided URL
+     */
+    default FetchResponse fetch(URL url, Map<String, String> headers) throws IOException {
+        return fetch(url);
+    }
 }
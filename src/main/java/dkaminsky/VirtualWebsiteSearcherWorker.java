@@ -0,0 +1,120 @@
+package dkaminsky;
+
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Virtual thread counterpart of {@link WebsiteSearcherWorker}. A single thread consumes {@link WebsiteSearcherInput}s
+ * and starts a virtual thread for each, which fetches and searches the page through a blocking
+ * {@link URLStreamStrategy} just as a worker thread does. A virtual thread blocked on a socket read holds no
+ * platform thread, so thousands of fetches may be in flight at once without making the fetch layer asynchronous.
+ *
+ * The number of fetches in flight is bounded. The {@link PageSearcher}s, with their buffers and matchers, are kept
+ * and reused from page to page, so there are never more of them than the most fetches that have been in flight at
+ * once.
+ */
+class VirtualWebsiteSearcherWorker extends Thread {
+    private final BlockingQueue<WebsiteSearcherInput> inputQueue;
+    private final BlockingQueue<SearchResult> outputQueue;
+    private final URLStreamStrategy urlStreamStrategy;
+    private final WebsiteSearcherListener listener;
+    private final PageBudget budget;
+    private final RetryHandler retryHandler;
+    private final CharsetDetector charsets;
+    private final int maxInFlight;
+    private final Semaphore inFlight;
+    private final Queue<PageSearcher> idleSearchers = new ConcurrentLinkedQueue<>();
+    private final ThreadFactory fetchThreads = Thread.ofVirtual().name("WebSearcherFetch-", 0).factory();
+    private final AtomicBoolean running = new AtomicBoolean(true);
+
+    VirtualWebsiteSearcherWorker(final BlockingQueue<WebsiteSearcherInput> inputQueue,
+                                 final BlockingQueue<SearchResult> outputQueue,
+                                 final URLStreamStrategy urlStreamStrategy,
+                                 final int maxInFlight,
+                                 final WebsiteSearcherListener listener,
+                                 final PageBudget budget,
+                                 final RetryHandler retryHandler,
+                                 final CharsetDetector charsets) {
+        super("VirtualWebSearcherWorker");
+        if (inputQueue == null) {
+            throw new IllegalArgumentException("Null input queue passed to worker");
+        }
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("Worker must allow at least one fetch in flight");
+        }
+
+        this.inputQueue = inputQueue;
+        this.outputQueue = outputQueue;
+        this.urlStreamStrategy = urlStreamStrategy;
+        this.listener = listener;
+        this.budget = budget;
+        this.retryHandler = retryHandler;
+        this.charsets = charsets;
+        this.maxInFlight = maxInFlight;
+        this.inFlight = new Semaphore(maxInFlight);
+        // checks the rest of the arguments, and is ready for the first fetch
+        idleSearchers.add(newPageSearcher());
+    }
+
+    /**
+     * Indicates if the main processing loop of this thread will continue after the current iteration.
+     *
+     * @return Whether this thread will continue.
+     */
+    public boolean isRunning() {
+        return this.running.get();
+    }
+
+    /**
+     * Sets an internal flag telling the worker thread to stop dispatching new fetches.
+     */
+    void shutdown() {
+        this.running.set(false);
+    }
+
+    /**
+     * The number of fetches in flight now.
+     * @return the number of fetches
+     */
+    int getInFlight() {
+        return maxInFlight - inFlight.availablePermits();
+    }
+
+    /**
+     * The dispatch loop of the worker thread. Takes inputs off the input queue and starts a virtual thread for
+     * each, blocking only while the maximum number of fetches is already in flight.
+     */
+    @Override
+    public void run() {
+        while (running.get()) {
+            try {
+                final WebsiteSearcherInput input = inputQueue.take();
+                inFlight.acquire();
+                fetchThreads.newThread(() -> search(input)).start();
+            } catch (InterruptedException e) {
+                break;
+            }
+        }
+    }
+
+    private void search(final WebsiteSearcherInput input) {
+        PageSearcher searcher = idleSearchers.poll();
+        if (searcher == null) {
+            searcher = newPageSearcher();
+        }
+        try {
+            searcher.search(input);
+        } finally {
+            idleSearchers.add(searcher);
+            inFlight.release();
+        }
+    }
+
+    private PageSearcher newPageSearcher() {
+        return new PageSearcher(outputQueue, urlStreamStrategy, listener, budget, retryHandler, charsets);
+    }
+}
@@ -1,14 +1,27 @@
 package dkaminsky;
 
 import java.io.*;
+import java.net.MalformedURLException;
+import java.net.URI;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
 import java.util.regex.Pattern;
 
 public class WebsiteSearcher extends Thread {
+    static final String PRODUCER_BLOCKS = "input.producerBlocks";
+    static final String PRODUCER_BLOCKED_MILLIS = "input.producerBlockedMillis";
+
     private static final String LINE_SEPARATOR = System.getProperty("line.separator");
     private static final int MAX_THREADS = 20;
     private static final String DEFAULT_SEARCH_EXPRESSION = ".*\\sand\\s.*";
@@ -17,14 +30,22 @@ public class WebsiteSearcher extends Thread {
     private static final String DEFAULT_INPUT_FILE_PATH = "urls.txt";
     private static final String DEFAULT_OUTPUT_FILE_PATH = "results.txt";
     private static final String HTTP_SCHEME = "http://";
+    /** The exit status of a run cut short by the job deadline, told apart from a complete run (0) and a crash (1). */
+    static final int EXIT_DEADLINE_REACHED = 2;
+    /** How often results are written out while the input queue is full, and a tracked job checked for completion. */
+    private static final long DRAIN_INTERVAL_MILLIS = 100;
 
     private final Reader input;
     private final Writer output;
 
-    private final Pattern searchExpressionPattern;
+    private final PatternSet searchPatterns;
     private final BlockingQueue<WebsiteSearcherInput> inputQueue;
-    private final BlockingQueue<URL> outputQueue;
+    private final BlockingQueue<SearchResult> outputQueue;
+    private final HostResolver resolver;
+    private final SearchStatistics statistics;
+    private final JobTracker job;
     private final AtomicBoolean running = new AtomicBoolean(true);
+    private long blockedNanos;
 
     private CountDownLatch inputProcessed = new CountDownLatch(1);
 
@@ -41,7 +62,87 @@ public class WebsiteSearcher extends Thread {
      * @param outputQueue The queue to which workers will send results to be written by this thread
      */
     public WebsiteSearcher(final Reader input, final Writer output, final Pattern searchExpressionPattern,
-                           final BlockingQueue<WebsiteSearcherInput> inputQueue, final BlockingQueue<URL> outputQueue) {
+                           final BlockingQueue<WebsiteSearcherInput> inputQueue,
+                           final BlockingQueue<SearchResult> outputQueue) {
+        this(input, output, searchExpressionPattern, inputQueue, outputQueue, HostResolver.SYSTEM);
+    }
+
+    /**
+     * Like {@link #WebsiteSearcher(Reader, Writer, Pattern, BlockingQueue, BlockingQueue)}, but starts resolving
+     * the host of each URL as soon as it is read, so that by the time a worker picks the URL up its addresses
+     * are ready.
+     *
+     * @param input An open reader whose data represents the set of URLs to check
+     * @param output An open writer where matching sites will be written.
+     * @param searchExpressionPattern The pattern to tell each worker to search for.
+     * @param inputQueue The queue from which workers will receive inputs created by this thread
+     * @param outputQueue The queue to which workers will send results to be written by this thread
+     * @param resolver The resolver shared with the workers' fetch layer
+     */
+    public WebsiteSearcher(final Reader input, final Writer output, final Pattern searchExpressionPattern,
+                           final BlockingQueue<WebsiteSearcherInput> inputQueue,
+                           final BlockingQueue<SearchResult> outputQueue, final HostResolver resolver) {
+        this(input, output, searchExpressionPattern == null ? null : PatternSet.of(searchExpressionPattern),
+                inputQueue, outputQueue, resolver);
+    }
+
+    /**
+     * Like {@link #WebsiteSearcher(Reader, Writer, Pattern, BlockingQueue, BlockingQueue, HostResolver)}, but
+     * searches every page for several patterns in one pass. Each matching site is written along with the patterns
+     * it matched, separated by tabs.
+     *
+     * @param input An open reader whose data represents the set of URLs to check
+     * @param output An open writer where matching sites will be written.
+     * @param searchPatterns The patterns to tell each worker to search for.
+     * @param inputQueue The queue from which workers will receive inputs created by this thread
+     * @param outputQueue The queue to which workers will send results to be written by this thread
+     * @param resolver The resolver shared with the workers' fetch layer
+     */
+    public WebsiteSearcher(final Reader input, final Writer output, final PatternSet searchPatterns,
+                           final BlockingQueue<WebsiteSearcherInput> inputQueue,
+                           final BlockingQueue<SearchResult> outputQueue, final HostResolver resolver) {
+        this(input, output, searchPatterns, inputQueue, outputQueue, resolver, new SearchStatistics());
+    }
+
+    /**
+     * Like {@link #WebsiteSearcher(Reader, Writer, PatternSet, BlockingQueue, BlockingQueue, HostResolver)}, but
+     * records in the given statistics how often, and for how long, reading the input waited for room in a bounded
+     * input queue.
+     *
+     * @param input An open reader whose data represents the set of URLs to check
+     * @param output An open writer where matching sites will be written.
+     * @param searchPatterns The patterns to tell each worker to search for.
+     * @param inputQueue The queue from which workers will receive inputs created by this thread
+     * @param outputQueue The queue to which workers will send results to be written by this thread
+     * @param resolver The resolver shared with the workers' fetch layer
+     * @param statistics Where {@link #PRODUCER_BLOCKS} and {@link #PRODUCER_BLOCKED_MILLIS} are recorded
+     */
+    public WebsiteSearcher(final Reader input, final Writer output, final PatternSet searchPatterns,
+                           final BlockingQueue<WebsiteSearcherInput> inputQueue,
+                           final BlockingQueue<SearchResult> outputQueue, final HostResolver resolver,
+                           final SearchStatistics statistics) {
+        this(input, output, searchPatterns, inputQueue, outputQueue, resolver, statistics, null);
+    }
+
+    /**
+     * Like {@link #WebsiteSearcher(Reader, Writer, PatternSet, BlockingQueue, BlockingQueue, HostResolver,
+     * SearchStatistics)}, but counts each URL it queues in the given tracker, and stops once the job is complete:
+     * once all the input is read, the workers have finished every URL of it and their results are written. Without
+     * a tracker, results are written until the searcher is shut down.
+     *
+     * @param input An open reader whose data represents the set of URLs to check
+     * @param output An open writer where matching sites will be written.
+     * @param searchPatterns The patterns to tell each worker to search for.
+     * @param inputQueue The queue from which workers will receive inputs created by this thread
+     * @param outputQueue The queue to which workers will send results to be written by this thread
+     * @param resolver The resolver shared with the workers' fetch layer
+     * @param statistics Where {@link #PRODUCER_BLOCKS} and {@link #PRODUCER_BLOCKED_MILLIS} are recorded
+     * @param job The tracker the workers report finished URLs to, or null to run until shut down
+     */
+    public WebsiteSearcher(final Reader input, final Writer output, final PatternSet searchPatterns,
+                           final BlockingQueue<WebsiteSearcherInput> inputQueue,
+                           final BlockingQueue<SearchResult> outputQueue, final HostResolver resolver,
+                           final SearchStatistics statistics, final JobTracker job) {
         super("WebSearcher");
         if (input == null) {
             throw new IllegalArgumentException("Input reader is null");
@@ -49,7 +150,7 @@ public class WebsiteSearcher extends Thread {
         if (output == null) {
             throw new IllegalArgumentException("Output writer is null");
         }
-        if (searchExpressionPattern == null) {
+        if (searchPatterns == null) {
             throw new IllegalArgumentException("Search pattern is null");
         }
         if (inputQueue == null) {
@@ -58,16 +159,27 @@ public class WebsiteSearcher extends Thread {
         if (outputQueue == null) {
             throw new IllegalArgumentException("Output queue is null");
         }
+        if (resolver == null) {
+            throw new IllegalArgumentException("Resolver is null");
+        }
+        if (statistics == null) {
+            throw new IllegalArgumentException("Statistics is null");
+        }
 
         this.input = input;
         this.output = output;
-        this.searchExpressionPattern = searchExpressionPattern;
+        this.searchPatterns = searchPatterns;
         this.inputQueue = inputQueue;
         this.outputQueue = outputQueue;
+        this.resolver = resolver;
+        this.statistics = statistics;
+        this.job = job;
     }
 
     /**
-     * Starts the website searcher thread.
+     * Starts the website searcher thread. Reads the input into the input queue, no faster than the workers take
+     * from it if it is bounded, then writes out results as the workers find them, until the job is complete if it
+     * is tracked.
      */
     @Override
     public void run() {
@@ -91,26 +203,45 @@ public class WebsiteSearcher extends Thread {
                     urlStr = HTTP_SCHEME + urlStr;
                 }
                 // construct URL and create input
-                final URL url = new URL(urlStr);
-                final WebsiteSearcherInput input = new WebsiteSearcherInput(searchExpressionPattern, url);
-                inputQueue.offer(input);
+                final URL url = toUrl(urlStr);
+                final WebsiteSearcherInput input = new WebsiteSearcherInput(searchPatterns, url);
+                resolver.prefetch(url.getHost());
+                if (job != null) {
+                    job.enqueued();
+                }
+                enqueue(input);
             }
         } catch (IOException e) {
             // nothing to really do except toss it upward
             throw new RuntimeException("Error reading from input", e);
+        } catch (InterruptedException e) {
+            return; // stopped before all the input was read
         }
 
+        if (job != null) {
+            job.inputDone();
+        }
         inputProcessed.countDown();
 
         // consume input, dispatching each new URL to a different worker
         while (running.get()) {
-            final URL matchingURL;
             try {
-                matchingURL = outputQueue.take();
-                output.append(matchingURL.toString());
-                output.append(LINE_SEPARATOR);
-                output.flush(); // in a production scenario we may flush less often, particularly if
-                                // we are writing to a "slow" device such as a traditional magnetic disk
+                if (job == null) {
+                    write(outputQueue.take());
+                    continue;
+                }
+                final SearchResult result = outputQueue.poll(DRAIN_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+                if (result != null) {
+                    write(result);
+                } else if (job.isComplete()) {
+                    // every result was queued before its URL was reported finished, so these are the last
+                    SearchResult last;
+                    while ((last = outputQueue.poll()) != null) {
+                        write(last);
+                    }
+                    System.err.println("Job complete, " + job);
+                    running.set(false);
+                }
             } catch (IOException e) {
                 // nothing to really do except toss it upward
                 throw new RuntimeException("Failed to write to output", e);
@@ -120,6 +251,56 @@ public class WebsiteSearcher extends Thread {
         }
     }
 
+    /**
+     * Queues an input for the workers, waiting for room if the queue is bounded and full. While it waits, writes
+     * out the results the workers have found so far, so that they don't pile up until all the input is read.
+     */
+    private void enqueue(final WebsiteSearcherInput input) throws IOException, InterruptedException {
+        if (inputQueue.offer(input)) {
+            return;
+        }
+        statistics.increment(PRODUCER_BLOCKS);
+        final long start = System.nanoTime();
+        try {
+            do {
+                SearchResult result;
+                while ((result = outputQueue.poll()) != null) {
+                    write(result);
+                }
+            } while (!inputQueue.offer(input, DRAIN_INTERVAL_MILLIS, TimeUnit.MILLISECONDS));
+        } finally {
+            final long reported = TimeUnit.NANOSECONDS.toMillis(blockedNanos);
+            blockedNanos += System.nanoTime() - start;
+            statistics.add(PRODUCER_BLOCKED_MILLIS, TimeUnit.NANOSECONDS.toMillis(blockedNanos) - reported);
+        }
+    }
+
+    /**
+     * Parses a URL of the input, failing on a malformed one as {@link URL#URL(String)} did.
+     */
+    private static URL toUrl(final String spec) throws MalformedURLException {
+        try {
+            return URI.create(spec).toURL();
+        } catch (IllegalArgumentException e) {
+            final MalformedURLException malformed = new MalformedURLException("Invalid URL in input: " + spec);
+            malformed.initCause(e);
+            throw malformed;
+        }
+    }
+
+    private void write(final SearchResult result) throws IOException {
+        output.append(result.getUrl().toString());
+        if (searchPatterns.size() > 1) {
+            // say which of the patterns matched; a single pattern goes without saying
+            for (Pattern pattern : result.getMatchedPatterns()) {
+                output.append('\t').append(pattern.pattern());
+            }
+        }
+        output.append(LINE_SEPARATOR);
+        output.flush(); // in a production scenario we may flush less often, particularly if
+                        // we are writing to a "slow" device such as a traditional magnetic disk
+    }
+
     /**
      * Indicates if the output processing loop is set to continue running. Exposed for testing.
      *
@@ -147,20 +328,92 @@ public class WebsiteSearcher extends Thread {
         return inputProcessed;
     }
 
+    /**
+     * Reads search patterns, one per line, compiled case-insensitively like the default pattern. Blank lines are
+     * skipped.
+     *
+     * @param patternFile The file to read
+     * @param statistics Where the patterns' counts of regular expression runs are recorded
+     * @param options How the patterns are applied to content
+     * @return The patterns
+     */
+    static PatternSet readPatterns(final File patternFile, final SearchStatistics statistics,
+                                   final MatchOptions options) {
+        final List<Pattern> patterns = new ArrayList<>();
+        try {
+            for (String line : Files.readAllLines(patternFile.toPath(), StandardCharsets.UTF_8)) {
+                if (!line.trim().isEmpty()) {
+                    patterns.add(Pattern.compile(line, Pattern.CASE_INSENSITIVE));
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("I/O error reading patterns from " + patternFile.getAbsolutePath(), e);
+        }
+        if (patterns.isEmpty()) {
+            throw new IllegalArgumentException("Pattern file has no patterns: " + patternFile.getAbsolutePath());
+        }
+        return new PatternSet(patterns, statistics, options);
+    }
+
     public static void main(final String[] args) throws InterruptedException {
         File inputFile = new File(DEFAULT_INPUT_FILE_PATH);
         File outputFile = new File(DEFAULT_OUTPUT_FILE_PATH);
 
+        final WebsiteSearcherSettings settings = WebsiteSearcherSettings.fromSystemProperties();
+        final long jobStarted = System.nanoTime();
+        final long jobTimeoutMillis = settings.getJobTimeoutMillis();
+        final FetchTimeouts timeouts = settings.getFetchTimeouts(jobStarted);
+
         // create a queue to be shared by workers
-        // use linked instead of array because we don't know in advance the data size
-        BlockingQueue<WebsiteSearcherInput> inputQueue = new LinkedBlockingQueue<>();
-        BlockingQueue<URL> outputQueue = new LinkedBlockingQueue<>();
+        // bounded, so that the input file is read no faster than the workers get through it
+        final BlockingQueue<WebsiteSearcherInput> inputQueue;
+        final WebsiteSearcherListener schedulerListener;
+        BlockingQueue<SearchResult> outputQueue = new LinkedBlockingQueue<>();
+        if (settings.isHostSchedulingEnabled()) {
+            // hand out URLs round-robin by host, within each host's concurrency and rate budget
+            final HostScheduler scheduler = new HostScheduler(settings.getMaxConcurrencyPerHost(),
+                    settings.getRequestsPerSecondPerHost(), settings.getRequestBurstPerHost(),
+                    settings.getInputQueueCapacity());
+            inputQueue = scheduler;
+            schedulerListener = scheduler;
+        } else {
+            inputQueue = new LinkedBlockingQueue<>(settings.getInputQueueCapacity());
+            schedulerListener = WebsiteSearcherListener.NONE;
+        }
 
         // if input file doesn't exist or isn't readable, fail fast
         if (!inputFile.isFile() || !inputFile.canRead()) {
             throw new IllegalArgumentException("File does not exist or is unreadable: " + inputFile.getAbsolutePath());
         }
 
+        final SearchStatistics statistics = new SearchStatistics();
+
+        // search for the patterns in the pattern file, if any, all in the same pass over each page
+        final PatternSet searchPatterns;
+        if (settings.getPatternFile() == null) {
+            searchPatterns = new PatternSet(Collections.singletonList(DEFAULT_SEARCH_PATTERN), statistics,
+                    settings.getMatchOptions());
+        } else {
+            final File patternFile = new File(settings.getPatternFile());
+            if (!patternFile.isFile() || !patternFile.canRead()) {
+                throw new IllegalArgumentException("Pattern file does not exist or is unreadable: "
+                        + patternFile.getAbsolutePath());
+            }
+            searchPatterns = readPatterns(patternFile, statistics, settings.getMatchOptions());
+        }
+        for (Pattern pattern : searchPatterns.getBacktrackingPatterns()) {
+            System.err.println("Pattern not supported by the DFA engine, matching with java.util.regex: " + pattern);
+        }
+        final List<Pattern> backtracking = settings.getMatchOptions().getEngine() == MatchOptions.Engine.DFA
+                ? searchPatterns.getBacktrackingPatterns() : searchPatterns.getPatterns();
+        for (Pattern pattern : backtracking) {
+            final String nested = BacktrackingAnalyzer.nestedQuantifier(pattern);
+            if (nested != null) {
+                System.err.println("Pattern may backtrack catastrophically, nested quantifier " + nested + ": "
+                        + pattern);
+            }
+        }
+
         // if output file exists, delete it if it's a normal file, fail fast if we can't delete it,
         // fail fast if it's not a normal file
         if (outputFile.exists()) {
@@ -175,18 +428,115 @@ public class WebsiteSearcher extends Thread {
             }
         }
 
-        // for main method, use URL.openStream method naively. Abstracted for testing.
-        final URLStreamStrategy urlStreamFactory = new OpenStreamURLStreamStrategy();
-
-        final WebsiteSearcherWorker[] workers = new WebsiteSearcherWorker[MAX_THREADS];
+        // transient failures go back on the input queue after a backoff, without holding up a worker
+        final RetryScheduler retryScheduler = new RetryScheduler(inputQueue, settings.getRetryMaxAttempts(),
+                settings.getRetryBaseDelayMillis(), settings.getRetryMaxDelayMillis(), statistics);
+        retryScheduler.start();
+        // counts URLs in and out, so that the searcher knows when the last one is done
+        final JobTracker job = new JobTracker();
+        final WebsiteSearcherListener workerListener =
+                WebsiteSearcherListener.all(schedulerListener, retryScheduler, new OutcomeCounter(statistics), job);
+        final PageBudget budget = settings.getPageBudget();
+        final CharsetDetector charsets = new CharsetDetector(settings.getDefaultCharset(), statistics);
+        final DnsCache dnsCache = new DnsCache(settings.getDnsCacheSize(), settings.getDnsTtlMillis(),
+                settings.getDnsNegativeTtlMillis(), settings.getDnsResolverThreads(), statistics);
+        final List<Closeable> resources = new ArrayList<>();
+        resources.add(dnsCache);
+        resources.add(retryScheduler);
+        final WebsiteSearcherWorker[] workers;
+        final AsyncWebsiteSearcherWorker asyncWorker;
+        final VirtualWebsiteSearcherWorker virtualWorker;
         final WebsiteSearcher searcher;
 
-        for (int i = 0; i < MAX_THREADS; i++) {
-            final WebsiteSearcherWorker workerThread =
-                new WebsiteSearcherWorker(inputQueue, outputQueue, urlStreamFactory);
+        if (settings.getFetchMode() == WebsiteSearcherSettings.FetchMode.NIO) {
+            // a single dispatcher keeps many fetches in flight on a few selector threads
+            final NioURLStreamStrategy nioStrategy;
+            try {
+                nioStrategy = new NioURLStreamStrategy(settings.getIoThreads(), statistics, timeouts, dnsCache);
+            } catch (IOException e) {
+                throw new IllegalStateException("Unable to start NIO fetch engine", e);
+            }
+            resources.add(nioStrategy);
+            asyncWorker = new AsyncWebsiteSearcherWorker(inputQueue, outputQueue, nioStrategy,
+                    settings.getMaxInFlight(), workerListener, budget, retryScheduler, charsets);
+            asyncWorker.start();
+            virtualWorker = null;
+            workers = new WebsiteSearcherWorker[0];
+        } else {
+            URLStreamStrategy urlStreamFactory;
+            if (settings.getFetchMode() == WebsiteSearcherSettings.FetchMode.POOLED) {
+                final ConnectionPool<HttpConnection> pool = new ConnectionPool<>(settings.getMaxConnectionsPerHost(),
+                        settings.getIdleTimeoutMillis(),
+                        url -> HttpConnection.open(url, timeouts.getConnectMillis(), dnsCache), statistics);
+                resources.add(pool);
+                urlStreamFactory = new PooledURLStreamStrategy(pool, statistics, timeouts);
+            } else {
+                // for main method, use URL.openStream method naively. Abstracted for testing.
+                // it resolves hosts itself, but finds them in the JVM's address cache once prefetched
+                urlStreamFactory = new OpenStreamURLStreamStrategy(statistics, timeouts);
+            }
+
+            if (settings.isHedgingEnabled()) {
+                // race a second request against fetches that are slower than most to answer
+                final HedgingURLStreamStrategy hedging = new HedgingURLStreamStrategy(urlStreamFactory,
+                        settings.getHedgePercentile(), settings.getHedgeMinDelayMillis(), statistics);
+                resources.add(hedging);
+                urlStreamFactory = hedging;
+            }
+
+            if (settings.getCacheDirectory() != null) {
+                // revalidate what earlier runs fetched rather than fetch it again
+                try {
+                    final ResponseCache cache = new ResponseCache(Paths.get(settings.getCacheDirectory()),
+                            settings.getCacheMaxBodyBytes());
+                    urlStreamFactory = new CachingURLStreamStrategy(urlStreamFactory, cache, statistics);
+                } catch (IOException e) {
+                    throw new IllegalStateException("Unable to open response cache", e);
+                }
+            }
+
+            asyncWorker = null;
+            final MatchingPool matchingPool;
+            if (settings.isPipelinedMatchingEnabled() && !settings.isVirtualThreadsEnabled()) {
+                // the worker threads only fetch; a thread per core searches what they fetch
+                matchingPool = new MatchingPool(settings.getMatchThreads(), settings.getMatchQueueCapacity(),
+                        outputQueue, workerListener, charsets, statistics);
+                resources.add(matchingPool);
+            } else {
+                matchingPool = null;
+            }
+            final URLStreamStrategy strategy = urlStreamFactory;
+            final Supplier<PageSearcher> pageSearchers = () -> new PageSearcher(outputQueue, strategy,
+                    workerListener, budget, retryScheduler, charsets, matchingPool);
+
+            if (settings.isVirtualThreadsEnabled()) {
+                // a virtual thread per fetch, each blocking only itself
+                virtualWorker = new VirtualWebsiteSearcherWorker(inputQueue, outputQueue, urlStreamFactory,
+                        settings.getVirtualMaxInFlight(), workerListener, budget, retryScheduler, charsets);
+                virtualWorker.start();
+                workers = new WebsiteSearcherWorker[0];
+            } else if (settings.isAdaptiveWorkersEnabled()) {
+                // as many worker threads as raise throughput, remeasured every interval
+                virtualWorker = null;
+                workers = new WebsiteSearcherWorker[0];
+                final int minWorkers = settings.getMinWorkers();
+                final int maxWorkers = settings.getMaxWorkers();
+                final AdaptiveWorkerPool pool = new AdaptiveWorkerPool(pageLatency ->
+                        new WebsiteSearcherWorker(inputQueue, pageSearchers.get(), pageLatency),
+                        Math.max(minWorkers, Math.min(maxWorkers, MAX_THREADS)), minWorkers, maxWorkers,
+                        settings.getWorkersIntervalMillis(), statistics);
+                resources.add(pool);
+            } else {
+                virtualWorker = null;
+                workers = new WebsiteSearcherWorker[MAX_THREADS];
+                for (int i = 0; i < MAX_THREADS; i++) {
+                    final WebsiteSearcherWorker workerThread =
+                        new WebsiteSearcherWorker(inputQueue, pageSearchers.get(), new LatencyTracker(1, 50, 1));
 
-            workerThread.start();
-            workers[i] = workerThread;
+                    workerThread.start();
+                    workers[i] = workerThread;
+                }
+            }
         }
 
         final FileReader inReader;
@@ -197,7 +547,8 @@ public class WebsiteSearcher extends Thread {
         } catch (IOException e) {
             throw new IllegalStateException("I/O error reading from input or writing to output");
         }
-        searcher = new WebsiteSearcher(inReader, outWriter, DEFAULT_SEARCH_PATTERN, inputQueue, outputQueue);
+        searcher = new WebsiteSearcher(inReader, outWriter, searchPatterns, inputQueue, outputQueue,
+                dnsCache, statistics, job);
 
         // Make sure all threads finish whenever the program exits, even
         // if it's on a SIGKILL from the OS
@@ -208,11 +559,39 @@ public class WebsiteSearcher extends Thread {
                     workerThread.shutdown();
                 }
             }
+            if (asyncWorker != null) {
+                asyncWorker.shutdown();
+            }
+            if (virtualWorker != null) {
+                virtualWorker.shutdown();
+            }
+            for (Closeable resource : resources) {
+                try {
+                    resource.close();
+                } catch (IOException e) {
+                    // nothing to do
+                }
+            }
+            statistics.report(System.out);
         }));
 
+        int status = 0;
         try {
             searcher.start();
-            searcher.join();
+            if (jobTimeoutMillis == 0) {
+                searcher.join();
+            } else {
+                final long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - jobStarted);
+                searcher.join(Math.max(1L, jobTimeoutMillis - elapsedMillis));
+                if (searcher.isAlive()) {
+                    // fetches in flight have hit the same deadline; stop writing results before the output closes
+                    System.err.println("Job deadline of " + jobTimeoutMillis + " ms reached, stopping");
+                    status = EXIT_DEADLINE_REACHED;
+                    searcher.shutdown();
+                    searcher.interrupt();
+                    searcher.join();
+                }
+            }
         } finally {
             try {
                 inReader.close();
@@ -221,5 +600,7 @@ public class WebsiteSearcher extends Thread {
                 // nothing to do
             }
         }
+
+        System.exit(status); // the workers are still waiting for input; the shutdown hook cleans up
     }
 }
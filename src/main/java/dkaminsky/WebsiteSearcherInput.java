@@ -7,20 +7,32 @@ import java.util.regex.Pattern;
  * Represents a single unit of work to be consumed by a single worker.
  */
 public class WebsiteSearcherInput {
-    private Pattern regexPattern;
+    private PatternSet patterns;
     private URL url;
 
     WebsiteSearcherInput(Pattern regexPattern, URL url) {
-        this.regexPattern = regexPattern;
+        this(PatternSet.of(regexPattern), url);
+    }
+
+    WebsiteSearcherInput(PatternSet patterns, URL url) {
+        this.patterns = patterns;
         this.url = url;
     }
 
     /**
-     * The compiled regular expression to evaluate against.
+     * The compiled regular expression to evaluate against, or the first of them if the job searches for several.
      * @return the regex pattern
      */
     public Pattern getRegexPattern() {
-        return regexPattern;
+        return patterns.getPatterns().get(0);
+    }
+
+    /**
+     * The compiled regular expressions to evaluate against, all in the same pass over the content.
+     * @return the patterns
+     */
+    public PatternSet getPatterns() {
+        return patterns;
     }
 
     /**
@@ -0,0 +1,38 @@
+package dkaminsky;
+
+/**
+ * Notified by the workers as they finish with each {@link WebsiteSearcherInput}, whatever the outcome. Called
+ * from worker (or I/O) threads, so implementations must be thread safe and should not block.
+ */
+public interface WebsiteSearcherListener {
+    /**
+     * A listener that does nothing.
+     */
+    WebsiteSearcherListener NONE = (input, outcome) -> { };
+
+    /**
+     * Called once a worker is done with an input.
+     * @param input The input that was searched
+     * @param outcome How the search ended
+     */
+    void onFinished(WebsiteSearcherInput input, SearchOutcome outcome);
+
+    /**
+     * Combines listeners into one that notifies each in turn.
+     * @param listeners The listeners to notify
+     * @return the combined listener
+     */
+    static WebsiteSearcherListener all(final WebsiteSearcherListener... listeners) {
+        for (WebsiteSearcherListener listener : listeners) {
+            if (listener == null) {
+                throw new IllegalArgumentException("Null listener passed to combined listener");
+            }
+        }
+        final WebsiteSearcherListener[] copy = listeners.clone();
+        return (input, outcome) -> {
+            for (WebsiteSearcherListener listener : copy) {
+                listener.onFinished(input, outcome);
+            }
+        };
+    }
+}
@@ -0,0 +1,540 @@
+package dkaminsky;
+
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.UnsupportedCharsetException;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tunable settings of a search run. Read from system properties so they can be given on the command line, e.g.
+ * {@code java -Dwebsearcher.fetchMode=nio -jar website-searcher.jar}. Every setting has a sensible default.
+ */
+class WebsiteSearcherSettings {
+    static final String FETCH_MODE = "websearcher.fetchMode";
+    static final String IO_THREADS = "websearcher.nio.ioThreads";
+    static final String MAX_IN_FLIGHT = "websearcher.nio.maxInFlight";
+    static final String VIRTUAL_THREADS = "websearcher.virtual.enabled";
+    static final String VIRTUAL_MAX_IN_FLIGHT = "websearcher.virtual.maxInFlight";
+    static final String ADAPTIVE_WORKERS = "websearcher.workers.adaptive";
+    static final String MIN_WORKERS = "websearcher.workers.min";
+    static final String MAX_WORKERS = "websearcher.workers.max";
+    static final String WORKERS_INTERVAL_MILLIS = "websearcher.workers.intervalMillis";
+    static final String MAX_CONNECTIONS_PER_HOST = "websearcher.pool.maxPerHost";
+    static final String IDLE_TIMEOUT_MILLIS = "websearcher.pool.idleTimeoutMillis";
+    static final String INPUT_QUEUE_CAPACITY = "websearcher.input.queueCapacity";
+    static final String HOST_SCHEDULING = "websearcher.host.scheduling";
+    static final String MAX_CONCURRENCY_PER_HOST = "websearcher.host.maxConcurrency";
+    static final String REQUESTS_PER_SECOND_PER_HOST = "websearcher.host.requestsPerSecond";
+    static final String REQUEST_BURST_PER_HOST = "websearcher.host.burst";
+    static final String MAX_BYTES_PER_PAGE = "websearcher.budget.maxBytes";
+    static final String CONNECT_TIMEOUT_MILLIS = "websearcher.timeout.connectMillis";
+    static final String FIRST_BYTE_TIMEOUT_MILLIS = "websearcher.timeout.firstByteMillis";
+    static final String TOTAL_TIMEOUT_MILLIS = "websearcher.timeout.totalMillis";
+    static final String JOB_TIMEOUT_MILLIS = "websearcher.timeout.jobMillis";
+    static final String DNS_CACHE_SIZE = "websearcher.dns.cacheSize";
+    static final String DNS_TTL_MILLIS = "websearcher.dns.ttlMillis";
+    static final String DNS_NEGATIVE_TTL_MILLIS = "websearcher.dns.negativeTtlMillis";
+    static final String DNS_RESOLVER_THREADS = "websearcher.dns.resolverThreads";
+    static final String CACHE_DIRECTORY = "websearcher.cache.dir";
+    static final String CACHE_MAX_BODY_BYTES = "websearcher.cache.maxBodyBytes";
+    static final String RETRY_MAX_ATTEMPTS = "websearcher.retry.maxAttempts";
+    static final String RETRY_BASE_DELAY_MILLIS = "websearcher.retry.baseDelayMillis";
+    static final String RETRY_MAX_DELAY_MILLIS = "websearcher.retry.maxDelayMillis";
+    static final String HEDGING = "websearcher.hedge.enabled";
+    static final String PATTERN_FILE = "websearcher.patternFile";
+    static final String MATCH_MODE = "websearcher.match.mode";
+    static final String MATCH_WINDOW_CHARS = "websearcher.match.windowChars";
+    static final String MATCH_LOOKBACK_CHARS = "websearcher.match.lookbackChars";
+    static final String MATCH_ENGINE = "websearcher.match.engine";
+    static final String MATCH_HTML_TEXT = "websearcher.match.htmlText";
+    static final String MATCH_PATTERN_TIMEOUT_MILLIS = "websearcher.match.patternTimeoutMillis";
+    static final String MATCH_PIPELINED = "websearcher.match.pipelined";
+    static final String MATCH_THREADS = "websearcher.match.threads";
+    static final String MATCH_QUEUE_CAPACITY = "websearcher.match.queueCapacity";
+    static final String DEFAULT_CHARSET = "websearcher.defaultCharset";
+    static final String HEDGE_PERCENTILE = "websearcher.hedge.percentile";
+    static final String HEDGE_MIN_DELAY_MILLIS = "websearcher.hedge.minDelayMillis";
+
+    /**
+     * How page content is fetched.
+     */
+    enum FetchMode {
+        /** One worker thread per fetch, blocking on a {@link URLStreamStrategy}. */
+        BLOCKING,
+        /** Like {@link #BLOCKING}, but through {@link PooledURLStreamStrategy}'s keep-alive connections. */
+        POOLED,
+        /** A single dispatcher feeding the non-blocking {@link NioURLStreamStrategy}. */
+        NIO
+    }
+
+    private final Properties properties;
+
+    WebsiteSearcherSettings(final Properties properties) {
+        if (properties == null) {
+            throw new IllegalArgumentException("Null properties passed to settings");
+        }
+
+        this.properties = properties;
+    }
+
+    /**
+     * Creates settings backed by the JVM's system properties.
+     * @return the settings
+     */
+    static WebsiteSearcherSettings fromSystemProperties() {
+        return new WebsiteSearcherSettings(System.getProperties());
+    }
+
+    /**
+     * The fetch engine to use, {@link FetchMode#BLOCKING} by default.
+     * @return the fetch mode
+     */
+    FetchMode getFetchMode() {
+        final String value = properties.getProperty(FETCH_MODE, FetchMode.BLOCKING.name());
+        try {
+            return FetchMode.valueOf(value.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid value for " + FETCH_MODE + ": " + value);
+        }
+    }
+
+    /**
+     * The number of selector threads of the NIO fetch engine. Defaults to the number of cores, up to four.
+     * @return the number of I/O threads
+     */
+    int getIoThreads() {
+        return getPositiveInt(IO_THREADS, Math.min(4, Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * The maximum number of fetches the NIO fetch engine keeps open at once.
+     * @return the maximum number of fetches in flight
+     */
+    int getMaxInFlight() {
+        return getPositiveInt(MAX_IN_FLIGHT, 1000);
+    }
+
+    /**
+     * Whether pages are fetched and searched on a virtual thread each, through {@link VirtualWebsiteSearcherWorker},
+     * rather than on a fixed set of worker threads. Applies to the {@code blocking} and {@code pooled} fetch modes.
+     * @return whether virtual threads are used
+     */
+    boolean isVirtualThreadsEnabled() {
+        return getBoolean(VIRTUAL_THREADS, false);
+    }
+
+    /**
+     * The maximum number of fetches in flight at once on virtual threads.
+     * @return the maximum number of fetches in flight
+     */
+    int getVirtualMaxInFlight() {
+        return getPositiveInt(VIRTUAL_MAX_IN_FLIGHT, 2000);
+    }
+
+    /**
+     * Whether the number of worker threads is resized as the run goes, through {@link AdaptiveWorkerPool}, rather
+     * than fixed. Applies to the {@code blocking} and {@code pooled} fetch modes without virtual threads.
+     * @return whether the worker pool is adaptive
+     */
+    boolean isAdaptiveWorkersEnabled() {
+        return getBoolean(ADAPTIVE_WORKERS, false);
+    }
+
+    /**
+     * The fewest worker threads an adaptive pool shrinks to.
+     * @return the minimum number of workers
+     */
+    int getMinWorkers() {
+        return getPositiveInt(MIN_WORKERS, 4);
+    }
+
+    /**
+     * The most worker threads an adaptive pool grows to. Must be at least the minimum.
+     * @return the maximum number of workers
+     */
+    int getMaxWorkers() {
+        final int max = getPositiveInt(MAX_WORKERS, 200);
+        if (max < getMinWorkers()) {
+            throw new IllegalArgumentException("Invalid value for " + MAX_WORKERS + ": " + max
+                    + " is below " + MIN_WORKERS);
+        }
+        return max;
+    }
+
+    /**
+     * How often an adaptive pool measures its throughput and resizes, 5 seconds by default: long enough for a few
+     * pages to finish per worker, so that one slow host doesn't look like a trend.
+     * @return the resize interval in milliseconds
+     */
+    long getWorkersIntervalMillis() {
+        return getPositiveLong(WORKERS_INTERVAL_MILLIS, 5000L);
+    }
+
+    /**
+     * Whether the worker threads only fetch pages, handing them to a {@link MatchingPool} to be searched, rather
+     * than fetch and search each page themselves. Applies to the {@code blocking} and {@code pooled} fetch modes
+     * without virtual threads.
+     *
+     * The trade-off: a page is handed over whole, so it is read up to its byte budget before any of it is searched.
+     * The early abort of an unsplit search, which stops reading as soon as every pattern has matched, is lost, and
+     * pages that would match near their start cost their full download and a queue slot's worth of memory. Worth
+     * it when matching is CPU-bound and pages are mostly read to the end anyway; not when most pages match early.
+     * @return whether fetching and matching are separate stages
+     */
+    boolean isPipelinedMatchingEnabled() {
+        return getBoolean(MATCH_PIPELINED, false);
+    }
+
+    /**
+     * The number of threads searching fetched pages when fetching and matching are separate stages. One per
+     * available core unless set.
+     * @return the number of matching threads
+     */
+    int getMatchThreads() {
+        return getPositiveInt(MATCH_THREADS, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * The most fetched pages waiting to be searched at once when fetching and matching are separate stages. Each
+     * is held in memory in full, up to its byte budget.
+     * @return the capacity of the matching queue
+     */
+    int getMatchQueueCapacity() {
+        return getPositiveInt(MATCH_QUEUE_CAPACITY, 64);
+    }
+
+    /**
+     * The most URLs queued for the workers at once. The input file is read no faster than the workers take URLs
+     * from the queue, so memory use is bounded by this rather than by the length of the file.
+     * @return the capacity of the input queue
+     */
+    int getInputQueueCapacity() {
+        return getPositiveInt(INPUT_QUEUE_CAPACITY, 10000);
+    }
+
+    /**
+     * The maximum number of pooled connections open to any one host.
+     * @return the per-host connection limit
+     */
+    int getMaxConnectionsPerHost() {
+        return getPositiveInt(MAX_CONNECTIONS_PER_HOST, 6);
+    }
+
+    /**
+     * How long a pooled connection may sit idle before it is closed.
+     * @return the idle timeout in milliseconds
+     */
+    long getIdleTimeoutMillis() {
+        return getPositiveLong(IDLE_TIMEOUT_MILLIS, 30000L);
+    }
+
+    /**
+     * Whether inputs are handed to the workers by a {@link HostScheduler} rather than in file order. On by default.
+     * @return whether per-host scheduling is enabled
+     */
+    boolean isHostSchedulingEnabled() {
+        return getBoolean(HOST_SCHEDULING, true);
+    }
+
+    /**
+     * The maximum number of fetches in flight to any one host when host scheduling is enabled.
+     * @return the per-host concurrency limit
+     */
+    int getMaxConcurrencyPerHost() {
+        return getPositiveInt(MAX_CONCURRENCY_PER_HOST, 2);
+    }
+
+    /**
+     * The sustained rate of requests to any one host when host scheduling is enabled.
+     * @return requests per second
+     */
+    double getRequestsPerSecondPerHost() {
+        return getPositiveDouble(REQUESTS_PER_SECOND_PER_HOST, 2.0);
+    }
+
+    /**
+     * The number of requests to one host that may be made at once after a quiet period, when host scheduling is
+     * enabled.
+     * @return the per-host request burst
+     */
+    int getRequestBurstPerHost() {
+        return getPositiveInt(REQUEST_BURST_PER_HOST, 4);
+    }
+
+    /**
+     * The number of content bytes scanned per URL before the search gives up on it, 1 MiB by default. A limit
+     * for a media type or type wildcard is given by appending it to the key, e.g.
+     * {@code websearcher.budget.maxBytes.text/html} or {@code websearcher.budget.maxBytes.text/*}.
+     * @return the page budget
+     */
+    PageBudget getPageBudget() {
+        final String prefix = MAX_BYTES_PER_PAGE + ".";
+        final Map<String, Long> limitsByType = new HashMap<>();
+        for (String key : properties.stringPropertyNames()) {
+            if (key.startsWith(prefix) && key.length() > prefix.length()) {
+                limitsByType.put(key.substring(prefix.length()), getPositiveLong(key, Long.MAX_VALUE));
+            }
+        }
+        return new PageBudget(getPositiveLong(MAX_BYTES_PER_PAGE, 1024L * 1024L), limitsByType);
+    }
+
+    /**
+     * How long the whole search may run, or zero (the default) for no limit.
+     * @return the job timeout in milliseconds
+     */
+    long getJobTimeoutMillis() {
+        return getNonNegativeLong(JOB_TIMEOUT_MILLIS, 0L);
+    }
+
+    /**
+     * How long each fetch may take: 10 seconds to connect, 30 seconds until the server starts responding and
+     * 2 minutes in all by default, and never past the end of the job.
+     * @param jobStarted The {@link System#nanoTime()} at which the job started
+     * @return the fetch timeouts
+     */
+    FetchTimeouts getFetchTimeouts(final long jobStarted) {
+        final long jobTimeoutMillis = getJobTimeoutMillis();
+        final long jobDeadline = jobTimeoutMillis == 0 ? Long.MAX_VALUE
+                : jobStarted + TimeUnit.MILLISECONDS.toNanos(jobTimeoutMillis);
+        return new FetchTimeouts(getPositiveInt(CONNECT_TIMEOUT_MILLIS, FetchTimeouts.DEFAULT_CONNECT_MILLIS),
+                getPositiveInt(FIRST_BYTE_TIMEOUT_MILLIS, FetchTimeouts.DEFAULT_FIRST_BYTE_MILLIS),
+                getPositiveLong(TOTAL_TIMEOUT_MILLIS, FetchTimeouts.DEFAULT_TOTAL_MILLIS), jobDeadline);
+    }
+
+    /**
+     * The maximum number of hosts whose addresses are cached.
+     * @return the DNS cache size
+     */
+    int getDnsCacheSize() {
+        return getPositiveInt(DNS_CACHE_SIZE, 10000);
+    }
+
+    /**
+     * How long resolved addresses are cached, 30 seconds by default as in the JVM's own address cache.
+     * @return the DNS time to live in milliseconds
+     */
+    long getDnsTtlMillis() {
+        return getPositiveLong(DNS_TTL_MILLIS, 30000L);
+    }
+
+    /**
+     * How long a failed resolution is cached, 10 seconds by default as in the JVM's own address cache.
+     * @return the negative DNS time to live in milliseconds
+     */
+    long getDnsNegativeTtlMillis() {
+        return getPositiveLong(DNS_NEGATIVE_TTL_MILLIS, 10000L);
+    }
+
+    /**
+     * The number of host names resolved at once ahead of the workers.
+     * @return the number of resolver threads
+     */
+    int getDnsResolverThreads() {
+        return getPositiveInt(DNS_RESOLVER_THREADS, 8);
+    }
+
+    /**
+     * The directory of the response cache used for conditional requests, or null (the default) to fetch every
+     * URL in full on every run.
+     * @return the cache directory, or null if caching is off
+     */
+    String getCacheDirectory() {
+        final String value = properties.getProperty(CACHE_DIRECTORY);
+        return value == null || value.trim().isEmpty() ? null : value.trim();
+    }
+
+    /**
+     * The most content stored in the response cache per URL, 1 MiB by default.
+     * @return the limit in bytes
+     */
+    long getCacheMaxBodyBytes() {
+        return getPositiveLong(CACHE_MAX_BODY_BYTES, 1024L * 1024L);
+    }
+
+    /**
+     * The most times a URL is fetched when its fetches fail in ways worth retrying, 3 by default. 1 turns retries
+     * off.
+     * @return the maximum number of attempts
+     */
+    int getRetryMaxAttempts() {
+        return getPositiveInt(RETRY_MAX_ATTEMPTS, 3);
+    }
+
+    /**
+     * The upper bound of the delay before the first retry of a URL, 1 second by default. It doubles with each
+     * further retry.
+     * @return the base delay in milliseconds
+     */
+    long getRetryBaseDelayMillis() {
+        return getPositiveLong(RETRY_BASE_DELAY_MILLIS, 1000L);
+    }
+
+    /**
+     * The upper bound of any delay before a retry, including one asked for by a Retry-After header, 1 minute by
+     * default.
+     * @return the maximum delay in milliseconds
+     */
+    long getRetryMaxDelayMillis() {
+        final long maxDelay = getPositiveLong(RETRY_MAX_DELAY_MILLIS, 60000L);
+        if (maxDelay < getRetryBaseDelayMillis()) {
+            throw new IllegalArgumentException("Invalid value for " + RETRY_MAX_DELAY_MILLIS + ": " + maxDelay);
+        }
+        return maxDelay;
+    }
+
+    /**
+     * A file of search patterns, one per line, all of which are searched for in the same pass over each page, or
+     * null (the default) to search for the built-in pattern.
+     * @return the pattern file path, or null
+     */
+    String getPatternFile() {
+        final String value = properties.getProperty(PATTERN_FILE);
+        return value == null || value.trim().isEmpty() ? null : value.trim();
+    }
+
+    /**
+     * How patterns are applied to content: line by line (the default), or over a sliding window of
+     * {@code websearcher.match.windowChars} characters that keeps the last {@code websearcher.match.lookbackChars}
+     * of each window for the next; and with {@link java.util.regex.Pattern} (the default) or, where
+     * {@code websearcher.match.engine} is {@code dfa}, with {@link LazyDfa}; and, where
+     * {@code websearcher.match.htmlText} is true, against only the text of HTML pages. A page on which
+     * {@link java.util.regex.Pattern} spends more than {@code websearcher.match.patternTimeoutMillis} is given up.
+     * @return the match options
+     */
+    MatchOptions getMatchOptions() {
+        final String value = properties.getProperty(MATCH_MODE, MatchOptions.Mode.LINE.name());
+        final MatchOptions.Mode mode;
+        try {
+            mode = MatchOptions.Mode.valueOf(value.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid value for " + MATCH_MODE + ": " + value);
+        }
+        final int windowChars = getPositiveInt(MATCH_WINDOW_CHARS, MatchOptions.DEFAULT_WINDOW_CHARS);
+        final int lookbackChars = getPositiveInt(MATCH_LOOKBACK_CHARS, MatchOptions.DEFAULT_LOOKBACK_CHARS);
+        if (lookbackChars >= windowChars) {
+            throw new IllegalArgumentException("Invalid value for " + MATCH_LOOKBACK_CHARS + ": " + lookbackChars);
+        }
+        final String engineValue = properties.getProperty(MATCH_ENGINE, MatchOptions.Engine.JDK.name());
+        final MatchOptions.Engine engine;
+        try {
+            engine = MatchOptions.Engine.valueOf(engineValue.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid value for " + MATCH_ENGINE + ": " + engineValue);
+        }
+        return new MatchOptions(mode, windowChars, lookbackChars, engine, getBoolean(MATCH_HTML_TEXT, false),
+                getPositiveLong(MATCH_PATTERN_TIMEOUT_MILLIS, MatchOptions.DEFAULT_PATTERN_TIMEOUT_MILLIS));
+    }
+
+    /**
+     * The charset of pages that name none in a byte order mark, their Content-Type header or a {@code <meta>} tag.
+     * The platform default unless set.
+     * @return the fallback charset
+     */
+    Charset getDefaultCharset() {
+        final String value = properties.getProperty(DEFAULT_CHARSET);
+        if (value == null || value.trim().isEmpty()) {
+            return Charset.defaultCharset();
+        }
+        try {
+            return Charset.forName(value.trim());
+        } catch (IllegalCharsetNameException | UnsupportedCharsetException e) {
+            throw new IllegalArgumentException("Invalid value for " + DEFAULT_CHARSET + ": " + value);
+        }
+    }
+
+    /**
+     * Whether slow fetches are hedged with a second request through {@link HedgingURLStreamStrategy}. Off by
+     * default, since hedges add load to hosts that are already slow.
+     * @return whether hedging is enabled
+     */
+    boolean isHedgingEnabled() {
+        return getBoolean(HEDGING, false);
+    }
+
+    /**
+     * The percentile of recent fetches' time to answer after which a fetch is hedged, 95 by default.
+     * @return the percentile, above 0 and below 100
+     */
+    double getHedgePercentile() {
+        final double percentile = getPositiveDouble(HEDGE_PERCENTILE, 95.0);
+        if (percentile >= 100) {
+            throw new IllegalArgumentException("Invalid value for " + HEDGE_PERCENTILE + ": " + percentile);
+        }
+        return percentile;
+    }
+
+    /**
+     * The least time a fetch is given to answer before it is hedged, 50 milliseconds by default, so that fast runs
+     * don't hedge over noise.
+     * @return the minimum delay in milliseconds
+     */
+    long getHedgeMinDelayMillis() {
+        return getPositiveLong(HEDGE_MIN_DELAY_MILLIS, 50L);
+    }
+
+    private boolean getBoolean(final String key, final boolean defaultValue) {
+        final String value = properties.getProperty(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        if (value.trim().equalsIgnoreCase("true")) {
+            return true;
+        }
+        if (value.trim().equalsIgnoreCase("false")) {
+            return false;
+        }
+        throw new IllegalArgumentException("Invalid value for " + key + ": " + value);
+    }
+
+    private double getPositiveDouble(final String key, final double defaultValue) {
+        final String value = properties.getProperty(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            final double parsed = Double.parseDouble(value.trim());
+            if (parsed > 0 && !Double.isInfinite(parsed)) {
+                return parsed;
+            }
+        } catch (NumberFormatException e) {
+            // fall through
+        }
+        throw new IllegalArgumentException("Invalid value for " + key + ": " + value);
+    }
+
+    private int getPositiveInt(final String key, final int defaultValue) {
+        final long value = getPositiveLong(key, defaultValue);
+        if (value > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Invalid value for " + key + ": " + value);
+        }
+        return (int) value;
+    }
+
+    private long getNonNegativeLong(final String key, final long defaultValue) {
+        final String value = properties.getProperty(key);
+        if (value != null && value.trim().equals("0")) {
+            return 0L;
+        }
+        return getPositiveLong(key, defaultValue);
+    }
+
+    private long getPositiveLong(final String key, final long defaultValue) {
+        final String value = properties.getProperty(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            final long parsed = Long.parseLong(value.trim());
+            if (parsed > 0) {
+                return parsed;
+            }
+        } catch (NumberFormatException e) {
+            // fall through
+        }
+        throw new IllegalArgumentException("Invalid value for " + key + ": " + value);
+    }
+}
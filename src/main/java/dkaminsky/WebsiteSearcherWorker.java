@@ -1,43 +1,81 @@
 package dkaminsky;
 
-import java.io.*;
-import java.net.URI;
-import java.net.URL;
+import java.nio.charset.Charset;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.function.Predicate;
-import java.util.regex.Pattern;
 
 /**
- * A worker thread that consumes an individual {@link URI} and a search {@link Pattern}
- * in the form of a {@link WebsiteSearcherInput} and possibly determines to add the
- * corresponding URL to the outputQueue if the pattern is detected in the retrieved data.
+ * A worker thread that polls the input queue for {@link WebsiteSearcherInput}s, waking up every so often to see
+ * whether it has been shut down, and hands each to its {@link PageSearcher}. The page searcher fetches the URL as a
+ * {@link FetchResponse} and searches it for the input's {@link PatternSet}, itself or through a matching pool.
  *
- * Naively assumes {@link URL#openStream()} will function properly without doing any
- * special processing around HTTP headers, TCP options, proxy settings, etc.
+ * Tracks whether it is busy with a page, and records how long each page takes in a {@link LatencyTracker}, so that
+ * a pool of workers can be sized to the throughput the network bears.
  */
 class WebsiteSearcherWorker extends Thread {
+    /** How long an idle worker waits for input before it checks whether it has been shut down. */
+    private static final long IDLE_POLL_MILLIS = 1000;
+
     private final BlockingQueue<WebsiteSearcherInput> inputQueue;
-    private final BlockingQueue<URL> outputQueue;
-    private final URLStreamStrategy urlStreamStrategy;
+    private final PageSearcher pageSearcher;
+    private final LatencyTracker pageLatency;
     private final AtomicBoolean running = new AtomicBoolean(true);
+    private volatile boolean busy;
 
     WebsiteSearcherWorker(final BlockingQueue<WebsiteSearcherInput> inputQueue,
-                          final BlockingQueue<URL> outputQueue,
+                          final BlockingQueue<SearchResult> outputQueue,
                           final URLStreamStrategy urlStreamStrategy) {
+        this(inputQueue, outputQueue, urlStreamStrategy, WebsiteSearcherListener.NONE, PageBudget.UNLIMITED,
+                RetryHandler.NONE, new CharsetDetector(Charset.defaultCharset(), new SearchStatistics()));
+    }
+
+    WebsiteSearcherWorker(final BlockingQueue<WebsiteSearcherInput> inputQueue,
+                          final BlockingQueue<SearchResult> outputQueue,
+                          final URLStreamStrategy urlStreamStrategy,
+                          final WebsiteSearcherListener listener,
+                          final PageBudget budget,
+                          final RetryHandler retryHandler,
+                          final CharsetDetector charsets) {
+        this(inputQueue, outputQueue, urlStreamStrategy, listener, budget, retryHandler, charsets,
+                new LatencyTracker(1, 50, 1));
+    }
+
+    /**
+     * Like the constructor without it, but records how long each page takes, from fetch to the end of its search,
+     * in the given tracker.
+     */
+    WebsiteSearcherWorker(final BlockingQueue<WebsiteSearcherInput> inputQueue,
+                          final BlockingQueue<SearchResult> outputQueue,
+                          final URLStreamStrategy urlStreamStrategy,
+                          final WebsiteSearcherListener listener,
+                          final PageBudget budget,
+                          final RetryHandler retryHandler,
+                          final CharsetDetector charsets,
+                          final LatencyTracker pageLatency) {
+        this(inputQueue, new PageSearcher(outputQueue, urlStreamStrategy, listener, budget, retryHandler, charsets),
+                pageLatency);
+    }
+
+    /**
+     * A worker that has the given page searcher deal with each input it takes, e.g. one that hands the pages it
+     * fetches to a {@link MatchingPool}, and records how long each page takes in the given tracker.
+     */
+    WebsiteSearcherWorker(final BlockingQueue<WebsiteSearcherInput> inputQueue, final PageSearcher pageSearcher,
+                          final LatencyTracker pageLatency) {
         if (inputQueue == null) {
             throw new IllegalArgumentException("Null input queue passed to worker");
         }
-        if (outputQueue == null) {
-            throw new IllegalArgumentException("Null output queue passed to worker");
+        if (pageSearcher == null) {
+            throw new IllegalArgumentException("Null page searcher passed to worker");
         }
-        if (urlStreamStrategy == null) {
-            throw new IllegalArgumentException("Null URL stream factory passed to worker");
+        if (pageLatency == null) {
+            throw new IllegalArgumentException("Null latency tracker passed to worker");
         }
 
         this.inputQueue = inputQueue;
-        this.outputQueue = outputQueue;
-        this.urlStreamStrategy = urlStreamStrategy;
+        this.pageSearcher = pageSearcher;
+        this.pageLatency = pageLatency;
     }
 
     /**
@@ -50,41 +88,41 @@ class WebsiteSearcherWorker extends Thread {
     }
 
     /**
-     * Sets an internal flag telling the worker thread to stop running.
+     * Sets an internal flag telling the worker thread to stop running. It stops once it has finished the page it is
+     * on, if any, or within a second if it is waiting for input.
      */
     void shutdown() {
         this.running.set(false);
     }
 
     /**
-     * The main work loop of the worker thread. Consumes a single item
-     * from the inputQueue and reads it line by line, searching for the search pattern.
+     * Indicates if the worker is fetching or searching a page rather than waiting for one.
      *
-     * If it finds a match, sends the URL of the matched data to the output queue.
+     * @return Whether this worker is busy.
+     */
+    boolean isBusy() {
+        return busy;
+    }
+
+    /**
+     * The main work loop of the worker thread. Consumes a single item from the inputQueue and has the worker's
+     * {@link PageSearcher} fetch and search it, until shut down or interrupted.
      */
     @Override
     public void run() {
         while(running.get()) {
             try {
-                final WebsiteSearcherInput input = inputQueue.take();
-
-                final URL url = input.getUrl();
-                final Predicate matcher = input.getRegexPattern().asPredicate();
-
-                try (final InputStream in = urlStreamStrategy.openStream(url);
-                     final InputStreamReader isReader = new InputStreamReader(in);
-                     final BufferedReader reader = new BufferedReader(isReader)) {
-                    String line;
-                    while ((line = reader.readLine()) != null) {
-                        if (matcher.test(line)) {
-                            outputQueue.offer(url);
-                            break;
-                        }
-                    }
-                } catch (IOException e) {
-                    // nothing to do but print and continue
-                    System.err.println("I/O exception reading data from URL: " + url.toString());
-                    e.printStackTrace(System.err);
+                final WebsiteSearcherInput input = inputQueue.poll(IDLE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (input == null) {
+                    continue;
+                }
+                busy = true;
+                final long started = System.nanoTime();
+                try {
+                    pageSearcher.search(input);
+                } finally {
+                    busy = false;
+                    pageLatency.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
                 }
             } catch (InterruptedException e) {
                 break;
@@ -0,0 +1,146 @@
+package dkaminsky;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Searches content that arrives in arbitrarily sized pieces over a sliding window of decoded characters, without
+ * regard to line breaks. Patterns therefore find matches that span lines, and a page that is one giant line costs
+ * no more memory than any other: the window grows up to its maximum and then slides on, keeping a lookback of
+ * the previous window so that matches straddling the two are found.
+ *
+ * Anchors such as {@code ^} and {@code $} match at the edges of the window, which are not those of the content.
+ *
+ * Not thread safe; one instance is used per page.
+ */
+class WindowMatcher implements ContentMatcher {
+    private static final int INITIAL_WINDOW_CHARS = 1024;
+    private static final int INPUT_CAPACITY = 8192;
+
+    private final PatternSet.Scan scan;
+    private final CharsetDecoder decoder;
+    private final int maxChars;
+    private final int lookbackChars;
+    private final ByteBuffer input = ByteBuffer.allocate(INPUT_CAPACITY);
+    private CharBuffer window;
+    private boolean untested;
+    private boolean matched;
+
+    WindowMatcher(final PatternSet.Scan scan, final Charset charset, final MatchOptions options) {
+        if (scan == null) {
+            throw new IllegalArgumentException("Null scan passed to window matcher");
+        }
+        if (charset == null) {
+            throw new IllegalArgumentException("Null charset passed to window matcher");
+        }
+        if (options == null) {
+            throw new IllegalArgumentException("Null options passed to window matcher");
+        }
+
+        this.scan = scan;
+        // replace malformed input as InputStreamReader would
+        this.decoder = charset.newDecoder().onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.maxChars = options.getWindowChars();
+        this.lookbackChars = options.getLookbackChars();
+        this.window = CharBuffer.allocate(Math.min(INITIAL_WINDOW_CHARS, maxChars));
+    }
+
+    @Override
+    public boolean feed(final ByteBuffer data) {
+        while (!matched && data.hasRemaining()) {
+            final int count = Math.min(input.remaining(), data.remaining());
+            final int limit = data.limit();
+            data.limit(data.position() + count);
+            input.put(data);
+            data.limit(limit);
+
+            input.flip();
+            decode(false);
+            input.compact();
+        }
+        return matched;
+    }
+
+    /**
+     * Signals the end of the content, testing what of the window has not been tested yet, and reports how often
+     * regular expressions were run.
+     */
+    @Override
+    public boolean finish() {
+        if (!matched) {
+            input.flip();
+            decode(true);
+            input.clear();
+            while (!matched && decoder.flush(window).isOverflow()) {
+                slide();
+            }
+            if (!matched && untested) {
+                test();
+            }
+        }
+        scan.report();
+        return matched;
+    }
+
+    @Override
+    public List<Pattern> getMatched() {
+        return scan.getMatched();
+    }
+
+    @Override
+    public void reset() {
+        scan.reset();
+        decoder.reset();
+        input.clear();
+        window.clear();
+        untested = false;
+        matched = false;
+    }
+
+    private void decode(final boolean endOfInput) {
+        while (!matched) {
+            final int before = window.position();
+            final CoderResult result = decoder.decode(input, window, endOfInput);
+            untested |= window.position() != before;
+            if (!result.isOverflow()) {
+                // the input is used up, but for the start of a character whose remaining bytes are still to come
+                return;
+            }
+            slide();
+        }
+    }
+
+    /**
+     * Makes room in a full window: grows it while it may grow, and otherwise tests it and keeps only its lookback.
+     */
+    private void slide() {
+        if (window.capacity() < maxChars) {
+            final CharBuffer larger = CharBuffer.allocate(Math.min(maxChars, window.capacity() * 2));
+            window.flip();
+            larger.put(window);
+            window = larger;
+            return;
+        }
+        test();
+        if (!matched) {
+            window.flip();
+            window.position(window.limit() - lookbackChars);
+            window.compact();
+        }
+    }
+
+    private void test() {
+        window.flip();
+        matched = scan.test(window);
+        window.position(window.limit());
+        window.limit(window.capacity());
+        untested = false;
+    }
+}
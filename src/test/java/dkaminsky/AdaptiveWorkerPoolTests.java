@@ -0,0 +1,197 @@
+package dkaminsky;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+public class AdaptiveWorkerPoolTests {
+    private static final long TIMEOUT_MILLIS = 10000L;
+    private static final long NEVER_MILLIS = TimeUnit.HOURS.toMillis(1);
+    private static final CharsetDetector CHARSETS = new CharsetDetector(StandardCharsets.UTF_8, new SearchStatistics());
+    private static final Pattern SEARCH_PATTERN = Pattern.compile("z+");
+
+    private final BlockingQueue<WebsiteSearcherInput> inputQueue = new LinkedBlockingQueue<>();
+    private final BlockingQueue<SearchResult> outputQueue = new LinkedBlockingQueue<>();
+    private final SearchStatistics statistics = new SearchStatistics();
+    private final List<WebsiteSearcherWorker> created = new CopyOnWriteArrayList<>();
+    private AdaptiveWorkerPool pool;
+
+    private AdaptiveWorkerPool pool(final int initial, final int min, final int max) {
+        pool = new AdaptiveWorkerPool(pageLatency -> {
+            final WebsiteSearcherWorker worker = new WebsiteSearcherWorker(inputQueue, outputQueue,
+                    url -> new ByteArrayInputStream("zzz\n".getBytes(StandardCharsets.US_ASCII)),
+                    WebsiteSearcherListener.NONE, PageBudget.UNLIMITED, RetryHandler.NONE, CHARSETS, pageLatency);
+            created.add(worker);
+            return worker;
+        }, initial, min, max, NEVER_MILLIS, statistics);
+        return pool;
+    }
+
+    @After
+    public void tearDown() {
+        if (pool != null) {
+            pool.close();
+        }
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testThrowsOnNullFactory() {
+        new AdaptiveWorkerPool(null, 1, 1, 1, 1000, statistics);
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testThrowsOnMaxBelowMin() {
+        pool(4, 4, 2);
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testThrowsOnInitialOutsideBounds() {
+        pool(10, 1, 5);
+    }
+
+    @Test
+    public void testStartsInitialWorkers() {
+        pool(3, 1, 10);
+        assertEquals(3, pool.getSize());
+        assertEquals(3, created.size());
+        for (WebsiteSearcherWorker worker : created) {
+            assertTrue(worker.isAlive());
+        }
+    }
+
+    @Test
+    public void testShrinkingRetiresWorkers() throws Exception {
+        pool(4, 1, 10);
+        pool.resize(2);
+        assertEquals(2, pool.getSize());
+        created.get(3).join(TIMEOUT_MILLIS);
+        created.get(2).join(TIMEOUT_MILLIS);
+        assertFalse(created.get(3).isAlive());
+        assertFalse(created.get(2).isAlive());
+        assertTrue(created.get(0).isAlive());
+    }
+
+    @Test
+    public void testCountsFinishedPagesAndAdjusts() throws Exception {
+        pool(2, 1, 10);
+        for (int i = 0; i < 10; i++) {
+            inputQueue.add(new WebsiteSearcherInput(SEARCH_PATTERN, URI.create("http://site" + i + ".com").toURL()));
+        }
+        for (int i = 0; i < 10; i++) {
+            assertNotNull(outputQueue.poll(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        }
+
+        // with nothing left to fetch, both workers soon sit idle
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MILLIS);
+        while (pool.getBusy() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        pool.adjust();
+        assertEquals(1, pool.getSize());
+        assertEquals(1, statistics.get(AdaptiveWorkerPool.SHRINKS));
+    }
+
+    @Test
+    public void testIdleWorkersShrinkThePool() {
+        pool(1, 1, 100);
+        final AdaptiveWorkerPool.Decision decision = pool.decide(20, 5, 100.0, 200);
+        assertEquals(AdaptiveWorkerPool.Direction.SHRINK, decision.direction);
+        assertEquals(16, decision.target);
+    }
+
+    @Test
+    public void testFirstIntervalProbesUpwards() {
+        pool(1, 1, 100);
+        final AdaptiveWorkerPool.Decision decision = pool.decide(20, 20, 100.0, 200);
+        assertEquals(AdaptiveWorkerPool.Direction.GROW, decision.direction);
+        assertEquals(25, decision.target);
+    }
+
+    @Test
+    public void testKeepsGrowingWhileThroughputRises() {
+        pool(1, 1, 100);
+        pool.decide(20, 20, 100.0, 200);
+        final AdaptiveWorkerPool.Decision decision = pool.decide(25, 25, 125.0, 200);
+        assertEquals(AdaptiveWorkerPool.Direction.GROW, decision.direction);
+        assertEquals(31, decision.target);
+    }
+
+    @Test
+    public void testTurnsBackWhenGrowingLowersThroughput() {
+        pool(1, 1, 100);
+        pool.decide(20, 20, 100.0, 200);
+        final AdaptiveWorkerPool.Decision decision = pool.decide(25, 25, 80.0, 400);
+        assertEquals(AdaptiveWorkerPool.Direction.SHRINK, decision.direction);
+        assertEquals(20, decision.target);
+    }
+
+    @Test
+    public void testGrowsWhenShrinkingLowersThroughput() {
+        pool(1, 1, 100);
+        pool.decide(20, 5, 100.0, 200);
+        final AdaptiveWorkerPool.Decision decision = pool.decide(16, 16, 60.0, 200);
+        assertEquals(AdaptiveWorkerPool.Direction.GROW, decision.direction);
+        assertEquals(20, decision.target);
+    }
+
+    @Test
+    public void testShrinksWhenLatencyRisesWithoutGain() {
+        pool(1, 1, 100);
+        pool.decide(20, 20, 100.0, 200);
+        pool.decide(25, 25, 100.0, 200);
+        final AdaptiveWorkerPool.Decision decision = pool.decide(20, 20, 100.0, 400);
+        assertEquals(AdaptiveWorkerPool.Direction.SHRINK, decision.direction);
+        assertEquals("latency rose with no gain", decision.reason);
+    }
+
+    @Test
+    public void testShrinksWhenGrowingGainsNothing() {
+        pool(1, 1, 100);
+        pool.decide(20, 20, 100.0, 200);
+        final AdaptiveWorkerPool.Decision decision = pool.decide(25, 25, 105.0, 210);
+        assertEquals(AdaptiveWorkerPool.Direction.SHRINK, decision.direction);
+        assertEquals(20, decision.target);
+    }
+
+    @Test
+    public void testHoldsAtBounds() {
+        pool(1, 1, 25);
+        pool.decide(20, 20, 100.0, 200);
+        final AdaptiveWorkerPool.Decision decision = pool.decide(25, 25, 150.0, 200);
+        assertEquals(AdaptiveWorkerPool.Direction.HOLD, decision.direction);
+        assertEquals(25, decision.target);
+    }
+
+    @Test
+    public void testWorkerRecordsPageLatency() throws Exception {
+        final LatencyTracker latency = new LatencyTracker(10, 50, 1);
+        final WebsiteSearcherWorker worker = new WebsiteSearcherWorker(inputQueue, outputQueue,
+                url -> new ByteArrayInputStream("zzz\n".getBytes(StandardCharsets.US_ASCII)),
+                WebsiteSearcherListener.NONE, PageBudget.UNLIMITED, RetryHandler.NONE, CHARSETS, latency);
+        worker.start();
+        try {
+            inputQueue.add(new WebsiteSearcherInput(SEARCH_PATTERN, URI.create("http://site.com").toURL()));
+            assertNotNull(outputQueue.poll(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+            final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MILLIS);
+            while (latency.getPercentile(50) < 0 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertTrue(latency.getPercentile(50) >= 0);
+        } finally {
+            worker.shutdown();
+            worker.join(TIMEOUT_MILLIS);
+        }
+        assertFalse(worker.isAlive());
+    }
+}
@@ -0,0 +1,34 @@
+package dkaminsky;
+
+import org.junit.Test;
+
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+public class BacktrackingAnalyzerTests {
+    private static String nested(final String regex) {
+        return BacktrackingAnalyzer.nestedQuantifier(Pattern.compile(regex));
+    }
+
+    @Test
+    public void testFindsNestedQuantifiers() {
+        assertEquals("(a+)+", nested("(a+)+$"));
+        assertEquals("(\\w+\\s?)*", nested("^(\\w+\\s?)*$"));
+        assertEquals("(?:x(y*))*", nested("start(?:x(y*))*end"));
+        assertEquals("(a*b?){2,}", nested("(a*b?){2,}"));
+        assertEquals("((ab)+c)+", nested("((ab)+c)+"));
+    }
+
+    @Test
+    public void testIgnoresSafePatterns() {
+        assertNull(nested(".*\\sand\\s.*"));
+        assertNull(nested("(ab)+c*"));
+        assertNull(nested("(a+){2}"));
+        assertNull(nested("(a+b)?"));
+        assertNull(nested("[(a+)]+"));
+        assertNull(nested("\\(a+\\)+"));
+        assertNull(nested("\\Q(a+)+\\E"));
+        assertNull(BacktrackingAnalyzer.nestedQuantifier(Pattern.compile("(a+)+", Pattern.LITERAL)));
+    }
+}
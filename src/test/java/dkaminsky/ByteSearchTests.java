@@ -0,0 +1,80 @@
+package dkaminsky;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ByteSearchTests {
+    private static int naiveNext(final ByteBuffer data, final byte[] values, final int from, final int to) {
+        for (int i = from; i < to; i++) {
+            for (byte value : values) {
+                if (data.get(i) == value) {
+                    return i;
+                }
+            }
+        }
+        return to;
+    }
+
+    @Test
+    public void testDeclinesTooManyValues() {
+        assertNull(ByteSearch.of(new byte[0]));
+        assertNull(ByteSearch.of(new byte[] {1, 2, 3, 4, 5}));
+        assertNotNull(ByteSearch.of(new byte[] {1, 2, 3, 4}));
+    }
+
+    @Test
+    public void testFindsWhatNaiveSearchFinds() {
+        final Random random = new Random(7);
+        final byte[][] valueSets = {{'n'}, {'n', 'N'}, {0, (byte) 0x80, (byte) 0xFF, 0x7F}, {(byte) 0x81}};
+        for (byte[] values : valueSets) {
+            final ByteSearch search = ByteSearch.of(values);
+            for (int n = 0; n < 2000; n++) {
+                final byte[] bytes = new byte[random.nextInt(40)];
+                for (int i = 0; i < bytes.length; i++) {
+                    // mostly bytes next to the values, which a borrow between lanes would mistake for them
+                    bytes[i] = random.nextInt(8) == 0 ? values[random.nextInt(values.length)]
+                            : (byte) (values[0] + random.nextInt(3) - 1);
+                    if (random.nextInt(4) == 0) {
+                        bytes[i] = (byte) random.nextInt(256);
+                    }
+                }
+                final int from = bytes.length == 0 ? 0 : random.nextInt(bytes.length);
+                final int to = from + random.nextInt(bytes.length - from + 1);
+                for (ByteOrder order : new ByteOrder[] {ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN}) {
+                    final ByteBuffer data = ByteBuffer.wrap(bytes).order(order);
+                    assertEquals(Arrays.toString(bytes) + " from " + from + " to " + to,
+                            naiveNext(data, values, from, to), search.next(data, from, to));
+                    assertEquals(0, data.position());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testAutomatonFindsLiteralsAfterSkipping() {
+        final AhoCorasick automaton = new AhoCorasick(Collections.singletonList("needle"));
+        final String text = "hay hay nee NEEDLE hay neeneedle hay needl";
+        final ByteBuffer data = ByteBuffer.wrap(text.getBytes(StandardCharsets.US_ASCII));
+        final StringBuilder ends = new StringBuilder();
+        final int state = automaton.scan(data, 0, (literal, end) -> {
+            ends.append(end).append(' ');
+            return false;
+        });
+        assertEquals("18 32 ", ends.toString());
+        assertEquals(text.length(), data.position());
+
+        // a literal split between two pieces is still found
+        final ByteBuffer rest = ByteBuffer.wrap("e".getBytes(StandardCharsets.US_ASCII));
+        final boolean[] found = new boolean[1];
+        automaton.scan(rest, state, (literal, end) -> found[0] = true);
+        assertTrue(found[0]);
+    }
+}
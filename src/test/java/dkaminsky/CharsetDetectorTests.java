@@ -0,0 +1,98 @@
+package dkaminsky;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+public class CharsetDetectorTests {
+    private static final Charset WINDOWS_1252 = Charset.forName("windows-1252");
+    private static final Charset SHIFT_JIS = Charset.forName("Shift_JIS");
+
+    private static ByteBuffer ascii(final String text) {
+        return ByteBuffer.wrap(text.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    public void testReadsContentTypeCharset() {
+        assertEquals(StandardCharsets.UTF_8, CharsetDetector.fromContentType("text/html; charset=utf-8"));
+        assertEquals(SHIFT_JIS, CharsetDetector.fromContentType("text/html;Charset=\"Shift_JIS\""));
+        assertEquals(WINDOWS_1252, CharsetDetector.fromContentType("text/plain; charset=ISO-8859-1"));
+        assertNull(CharsetDetector.fromContentType("text/html"));
+        assertNull(CharsetDetector.fromContentType("text/html; charset=no-such-charset"));
+        assertNull(CharsetDetector.fromContentType(null));
+    }
+
+    @Test
+    public void testReadsMetaTags() {
+        assertEquals(SHIFT_JIS, CharsetDetector.fromMeta(ascii("<html><head><META CharSet='shift_jis'>")));
+        assertEquals(StandardCharsets.UTF_8, CharsetDetector.fromMeta(
+                ascii("<meta http-equiv=\"Content-Type\" content=\"text/html; charset=UTF-8\"/>")));
+        assertEquals(StandardCharsets.UTF_8, CharsetDetector.fromMeta(ascii("<meta charset=\"utf-16le\">")));
+        assertNull(CharsetDetector.fromMeta(ascii("<metadata charset=\"shift_jis\">")));
+        assertNull(CharsetDetector.fromMeta(ascii("<meta name=\"viewport\"><p>charset=shift_jis</p>")));
+        assertNull(CharsetDetector.fromMeta(ascii("<meta charset=\"shift_")));
+
+        final StringBuilder late = new StringBuilder();
+        for (int i = 0; i < CharsetDetector.SNIFF_BYTES; i++) {
+            late.append(' ');
+        }
+        assertNull(CharsetDetector.fromMeta(ascii(late + "<meta charset=\"shift_jis\">")));
+    }
+
+    @Test
+    public void testPrefersByteOrderMarkThenHeaderThenMeta() {
+        final SearchStatistics statistics = new SearchStatistics();
+        final CharsetDetector underTest = new CharsetDetector(StandardCharsets.UTF_8, statistics);
+        final ByteBuffer meta = ascii("<meta charset=shift_jis>");
+
+        final ByteBuffer marked = ByteBuffer.allocate(64);
+        marked.put((byte) 0xEF).put((byte) 0xBB).put((byte) 0xBF).put(meta.duplicate()).flip();
+        assertEquals(StandardCharsets.UTF_8, underTest.detect("text/html; charset=windows-1252", marked));
+        assertEquals(0, marked.position());
+        assertEquals(WINDOWS_1252, underTest.detect("text/html; charset=windows-1252", meta));
+        assertEquals(SHIFT_JIS, underTest.detect("text/html", meta));
+        assertEquals(StandardCharsets.UTF_8, underTest.detect(null, ascii("<p>hello</p>")));
+
+        assertEquals(1, statistics.get(CharsetDetector.FROM_BYTE_ORDER_MARK));
+        assertEquals(1, statistics.get(CharsetDetector.FROM_HEADER));
+        assertEquals(1, statistics.get(CharsetDetector.FROM_META));
+        assertEquals(1, statistics.get(CharsetDetector.FROM_FALLBACK));
+        assertEquals(2, statistics.get(CharsetDetector.CHARSET_PREFIX + "UTF-8"));
+        assertEquals(1, statistics.get(CharsetDetector.CHARSET_PREFIX + "Shift_JIS"));
+    }
+
+    @Test
+    public void testWorkerDecodesPageInItsCharset() throws Exception {
+        final BlockingQueue<WebsiteSearcherInput> inputQueue = new LinkedBlockingQueue<>();
+        final BlockingQueue<SearchResult> outputQueue = new LinkedBlockingQueue<>();
+        final BlockingQueue<SearchOutcome> outcomes = new LinkedBlockingQueue<>();
+        // the page names its charset only in a meta tag, and is not valid UTF-8
+        final byte[] page = "<meta charset=\"windows-1252\"><p>caf\u00e9 \u2019s</p>".getBytes(WINDOWS_1252);
+        final WebsiteSearcherWorker worker = new WebsiteSearcherWorker(inputQueue, outputQueue,
+                url -> new ByteArrayInputStream(page), (input, outcome) -> outcomes.add(outcome),
+                PageBudget.UNLIMITED, RetryHandler.NONE,
+                new CharsetDetector(StandardCharsets.UTF_8, new SearchStatistics()));
+        final Pattern pattern = Pattern.compile("caf\u00e9 \u2019s");
+
+        worker.start();
+        try {
+            inputQueue.add(new WebsiteSearcherInput(pattern, URI.create("http://fakesite.com").toURL()));
+            assertEquals(SearchOutcome.MATCHED, outcomes.poll(10, TimeUnit.SECONDS));
+            assertEquals(Collections.singletonList(pattern), outputQueue.take().getMatchedPatterns());
+        } finally {
+            worker.shutdown();
+            worker.interrupt();
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package dkaminsky;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class ConnectionPoolTests {
+    private static final String SITE_1 = "http://www.fakesite.com/a";
+    private static final String SITE_1_OTHER_PAGE = "http://WWW.FAKESITE.COM:80/b";
+    private static final String SITE_2 = "http://www.somewhereelse.com";
+
+    private SearchStatistics statistics;
+    private AtomicInteger opened;
+    private ConnectionPool<FakeConnection> underTest;
+
+    @Before
+    public void setUp() {
+        statistics = new SearchStatistics();
+        opened = new AtomicInteger();
+        underTest = new ConnectionPool<>(2, 60000L, url -> new FakeConnection(opened.incrementAndGet()), statistics);
+    }
+
+    @After
+    public void tearDown() {
+        underTest.close();
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testThrowsOnZeroMaxPerHost() {
+        new ConnectionPool<FakeConnection>(0, 1000L, url -> new FakeConnection(0), statistics);
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testThrowsOnNullStatistics() {
+        new ConnectionPool<FakeConnection>(1, 1000L, url -> new FakeConnection(0), null);
+    }
+
+    @Test
+    public void testReleasedConnectionIsReusedForSameHost() throws IOException {
+        final FakeConnection first = underTest.acquire(URI.create(SITE_1).toURL());
+        underTest.release(URI.create(SITE_1).toURL(), first, true);
+
+        final FakeConnection second = underTest.acquire(URI.create(SITE_1_OTHER_PAGE).toURL());
+        assertSame(first, second);
+        assertEquals(1, statistics.get(ConnectionPool.HITS));
+        assertEquals(1, statistics.get(ConnectionPool.MISSES));
+    }
+
+    @Test
+    public void testConnectionIsNotSharedAcrossHosts() throws IOException {
+        final FakeConnection first = underTest.acquire(URI.create(SITE_1).toURL());
+        underTest.release(URI.create(SITE_1).toURL(), first, true);
+
+        final FakeConnection second = underTest.acquire(URI.create(SITE_2).toURL());
+        assertNotSame(first, second);
+        assertEquals(0, statistics.get(ConnectionPool.HITS));
+        assertEquals(2, statistics.get(ConnectionPool.MISSES));
+    }
+
+    @Test
+    public void testUnreusableConnectionIsClosed() throws IOException {
+        final FakeConnection connection = underTest.acquire(URI.create(SITE_1).toURL());
+        underTest.release(URI.create(SITE_1).toURL(), connection, false);
+
+        assertTrue(connection.closed);
+        assertEquals(0, underTest.getIdleCount());
+    }
+
+    @Test
+    public void testAcquireBlocksAtMaxPerHost() throws Exception {
+        final URL url = URI.create(SITE_1).toURL();
+        final FakeConnection first = underTest.acquire(url);
+        underTest.acquire(url);
+
+        final CountDownLatch acquired = new CountDownLatch(1);
+        final Thread waiter = new Thread(() -> {
+            try {
+                underTest.acquire(url);
+                acquired.countDown();
+            } catch (IOException e) {
+                // leaves the latch untouched
+            }
+        });
+        waiter.start();
+
+        assertFalse(acquired.await(300, TimeUnit.MILLISECONDS));
+        underTest.release(url, first, true);
+        assertTrue(acquired.await(5, TimeUnit.SECONDS));
+        assertEquals(2, opened.get());
+    }
+
+    @Test
+    public void testIdleConnectionsAreEvicted() throws Exception {
+        final ConnectionPool<FakeConnection> pool =
+                new ConnectionPool<>(2, 50L, url -> new FakeConnection(0), statistics);
+        try {
+            final FakeConnection connection = pool.acquire(URI.create(SITE_1).toURL());
+            pool.release(URI.create(SITE_1).toURL(), connection, true);
+            Thread.sleep(100);
+            pool.evictIdle();
+
+            assertTrue(connection.closed);
+            assertEquals(0, pool.getIdleCount());
+            assertEquals(1, statistics.get(ConnectionPool.EVICTIONS));
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test
+    public void testPooledStrategyReusesConnections() throws Exception {
+        final HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", exchange -> {
+            final byte[] body = ("page " + exchange.getRequestURI().getPath()).getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+        final ConnectionPool<HttpConnection> pool =
+                new ConnectionPool<>(2, 60000L, HttpConnection::open, statistics);
+        try {
+            final PooledURLStreamStrategy strategy = new PooledURLStreamStrategy(pool, statistics);
+            final String base = "http://127.0.0.1:" + server.getAddress().getPort();
+            for (int i = 0; i < 5; i++) {
+                try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                        strategy.openStream(URI.create(base + "/" + i).toURL()), StandardCharsets.UTF_8))) {
+                    assertEquals("page /" + i, reader.readLine());
+                    assertNull(reader.readLine());
+                }
+            }
+
+            assertEquals(1, statistics.get(ConnectionPool.MISSES));
+            assertEquals(4, statistics.get(ConnectionPool.HITS));
+        } finally {
+            pool.close();
+            server.stop(0);
+        }
+    }
+
+    static class FakeConnection implements Closeable {
+        final int id;
+        volatile boolean closed;
+
+        FakeConnection(int id) {
+            this.id = id;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package dkaminsky;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.*;
+
+public class ContentEncodingTests {
+    private static final String CONTENT = "a line of content\nand another one\n";
+    private static final int REPEATS = 500;
+
+    private SearchStatistics statistics;
+    private String expected;
+
+    @Before
+    public void setUp() {
+        statistics = new SearchStatistics();
+        final StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < REPEATS; i++) {
+            builder.append(CONTENT);
+        }
+        expected = builder.toString();
+    }
+
+    @Test
+    public void testParse() {
+        assertEquals(ContentEncoding.Coding.GZIP, ContentEncoding.parse(" GZip "));
+        assertEquals(ContentEncoding.Coding.GZIP, ContentEncoding.parse("x-gzip"));
+        assertEquals(ContentEncoding.Coding.DEFLATE, ContentEncoding.parse("deflate"));
+        assertEquals(ContentEncoding.Coding.IDENTITY, ContentEncoding.parse(null));
+        assertEquals(ContentEncoding.Coding.IDENTITY, ContentEncoding.parse("br"));
+    }
+
+    @Test
+    public void testDecodeGzipStream() throws IOException {
+        final byte[] compressed = gzip(expected.getBytes(StandardCharsets.UTF_8));
+
+        assertEquals(expected, readFully(ContentEncoding.decode(
+                new ByteArrayInputStream(compressed), "gzip", statistics)));
+        assertEquals(compressed.length, statistics.get(ContentEncoding.COMPRESSED_BYTES));
+        assertEquals(expected.length(), statistics.get(ContentEncoding.DECOMPRESSED_BYTES));
+    }
+
+    @Test
+    public void testDecodeZlibAndRawDeflateStreams() throws IOException {
+        final byte[] content = expected.getBytes(StandardCharsets.UTF_8);
+
+        assertEquals(expected, readFully(ContentEncoding.decode(
+                new ByteArrayInputStream(deflate(content, false)), "deflate", statistics)));
+        assertEquals(expected, readFully(ContentEncoding.decode(
+                new ByteArrayInputStream(deflate(content, true)), "deflate", statistics)));
+    }
+
+    @Test
+    public void testIdentityStreamIsCounted() throws IOException {
+        assertEquals(CONTENT, readFully(ContentEncoding.decode(
+                new ByteArrayInputStream(CONTENT.getBytes(StandardCharsets.UTF_8)), null, statistics)));
+        assertEquals(CONTENT.length(), statistics.get(ContentEncoding.IDENTITY_BYTES));
+        assertEquals(0, statistics.get(ContentEncoding.COMPRESSED_BYTES));
+    }
+
+    @Test
+    public void testListenerDecodesGzipFedOneByteAtATime() throws IOException {
+        final byte[] compressed = gzipWithHeaderFields(expected.getBytes(StandardCharsets.UTF_8));
+        final CollectingListener listener = feed("gzip", compressed, 1);
+
+        assertTrue(listener.completed);
+        assertEquals(expected, listener.content());
+        assertEquals(compressed.length, statistics.get(ContentEncoding.COMPRESSED_BYTES));
+        assertEquals(expected.length(), statistics.get(ContentEncoding.DECOMPRESSED_BYTES));
+    }
+
+    @Test
+    public void testListenerDecodesConcatenatedGzipMembers() throws IOException {
+        final ByteArrayOutputStream members = new ByteArrayOutputStream();
+        members.write(gzip("first\n".getBytes(StandardCharsets.UTF_8)));
+        members.write(gzip("second\n".getBytes(StandardCharsets.UTF_8)));
+        final CollectingListener listener = feed("gzip", members.toByteArray(), 7);
+
+        assertTrue(listener.completed);
+        assertEquals("first\nsecond\n", listener.content());
+    }
+
+    @Test
+    public void testListenerDecodesDeflate() throws IOException {
+        final byte[] content = expected.getBytes(StandardCharsets.UTF_8);
+
+        assertEquals(expected, feed("deflate", deflate(content, false), 1).content());
+        assertEquals(expected, feed("deflate", deflate(content, true), 1000).content());
+    }
+
+    @Test
+    public void testListenerReportsTruncatedContent() throws IOException {
+        final byte[] compressed = gzip(expected.getBytes(StandardCharsets.UTF_8));
+        final byte[] truncated = new byte[compressed.length / 2];
+        System.arraycopy(compressed, 0, truncated, 0, truncated.length);
+        final CollectingListener listener = feed("gzip", truncated, 100);
+
+        assertFalse(listener.completed);
+        assertNotNull(listener.failure);
+    }
+
+    @Test
+    public void testListenerReportsCorruptContent() throws IOException {
+        final CollectingListener listener = feed("gzip", "definitely not gzip".getBytes(StandardCharsets.UTF_8), 4);
+
+        assertFalse(listener.completed);
+        assertNotNull(listener.failure);
+    }
+
+    private CollectingListener feed(String contentEncoding, byte[] body, int pieceSize) {
+        final CollectingListener listener = new CollectingListener();
+        final DecodingFetchListener underTest = new DecodingFetchListener(listener, statistics);
+        final HttpResponseParser parser = new HttpResponseParser();
+        try {
+            // let the parser build the head so the listener sees real headers
+            parser.feed(ByteBuffer.wrap(("HTTP/1.1 200 OK\r\nContent-Encoding: " + contentEncoding
+                    + "\r\nContent-Length: 0\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1)),
+                    new HttpResponseParser.Listener() {
+                        @Override
+                        public boolean onHead(HttpResponseHead head) {
+                            underTest.onResponse(head);
+                            return true;
+                        }
+
+                        @Override
+                        public boolean onBody(ByteBuffer data) {
+                            return true;
+                        }
+                    });
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        for (int i = 0; i < body.length; i += pieceSize) {
+            if (!underTest.onData(ByteBuffer.wrap(body, i, Math.min(pieceSize, body.length - i)))) {
+                break;
+            }
+        }
+        underTest.onComplete();
+        return listener;
+    }
+
+    private static byte[] gzip(byte[] content) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(content);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Builds a gzip member with the optional extra, name, comment and header checksum fields all present.
+     */
+    private static byte[] gzipWithHeaderFields(byte[] content) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(new byte[] {0x1f, (byte) 0x8b, 8, 2 | 4 | 8 | 16, 0, 0, 0, 0, 0, 3});
+        out.write(new byte[] {3, 0, 'x', 'y', 'z'});
+        out.write("page.html\0".getBytes(StandardCharsets.ISO_8859_1));
+        out.write("a comment\0".getBytes(StandardCharsets.ISO_8859_1));
+        out.write(new byte[] {0, 0});
+        out.write(deflate(content, true));
+        out.write(new byte[8]); // the trailer is skipped rather than verified
+        return out.toByteArray();
+    }
+
+    private static byte[] deflate(byte[] content, boolean raw) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (DeflaterOutputStream deflate = new DeflaterOutputStream(out, new Deflater(6, raw))) {
+            deflate.write(content);
+        }
+        return out.toByteArray();
+    }
+
+    private static String readFully(InputStream in) throws IOException {
+        try (InputStream stream = in) {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[1024];
+            int count;
+            while ((count = stream.read(buffer)) >= 0) {
+                out.write(buffer, 0, count);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    static class CollectingListener implements AsyncFetchListener {
+        boolean completed;
+        IOException failure;
+        private final ByteArrayOutputStream content = new ByteArrayOutputStream();
+
+        @Override
+        public void onResponse(HttpResponseHead head) {
+            // nothing to do
+        }
+
+        @Override
+        public boolean onData(ByteBuffer data) {
+            while (data.hasRemaining()) {
+                content.write(data.get());
+            }
+            return true;
+        }
+
+        @Override
+        public void onComplete() {
+            completed = true;
+        }
+
+        @Override
+        public void onFailure(IOException e) {
+            failure = e;
+        }
+
+        String content() {
+            return new String(content.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package dkaminsky;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+public class ContentMatcherTests {
+    private static final Pattern REGEX = Pattern.compile("quick\\s+brown", Pattern.CASE_INSENSITIVE);
+    private static final Pattern LITERAL = Pattern.compile("needle");
+    private static final MatchOptions WINDOW = new MatchOptions(MatchOptions.Mode.WINDOW,
+            MatchOptions.DEFAULT_WINDOW_CHARS, MatchOptions.DEFAULT_LOOKBACK_CHARS);
+    private static final MatchOptions DFA = new MatchOptions(MatchOptions.Mode.LINE,
+            MatchOptions.DEFAULT_WINDOW_CHARS, MatchOptions.DEFAULT_LOOKBACK_CHARS, MatchOptions.Engine.DFA);
+
+    private static ContentMatcher matcherFor(final Pattern pattern, final MatchOptions options) {
+        return new PatternSet(Collections.singletonList(pattern), new SearchStatistics(), options)
+                .newMatcher(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] page(final int lines) {
+        final StringBuilder page = new StringBuilder();
+        for (int i = 0; i < lines; i++) {
+            page.append("the slow brown fox jumps over the lazy dog, line ").append(i).append(" caf\u00e9\r\n");
+        }
+        return page.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static boolean search(final ContentMatcher matcher, final byte[] page, final ByteBuffer view) {
+        matcher.reset();
+        for (int i = 0; i < page.length; i += view.capacity()) {
+            final int count = Math.min(view.capacity(), page.length - i);
+            view.clear();
+            view.put(page, i, count);
+            view.flip();
+            if (matcher.feed(view)) {
+                break;
+            }
+        }
+        return matcher.finish();
+    }
+
+    /**
+     * Bytes allocated by this thread per search of the page, once the matcher's buffers have grown to fit it.
+     */
+    private static long allocatedPerPage(final ContentMatcher matcher, final byte[] page) {
+        final com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        final ByteBuffer view = ByteBuffer.allocate(8192);
+        for (int i = 0; i < 200; i++) {
+            assertFalse(search(matcher, page, view));
+        }
+        final long thread = Thread.currentThread().threadId();
+        final long before = threads.getThreadAllocatedBytes(thread);
+        final int pages = 100;
+        for (int i = 0; i < pages; i++) {
+            search(matcher, page, view);
+        }
+        return (threads.getThreadAllocatedBytes(thread) - before) / pages;
+    }
+
+    private static void assertAllocationIsFlat(final Pattern pattern, final MatchOptions options) {
+        final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)
+                || !((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemorySupported()) {
+            return; // nothing to measure with on this JVM
+        }
+        final ContentMatcher matcher = matcherFor(pattern, options);
+        final long small = allocatedPerPage(matcher, page(100));
+        final long large = allocatedPerPage(matcher, page(1000));
+        assertTrue("Allocated " + small + " bytes per page", small < 256);
+        assertTrue("Allocated " + large + " bytes per page", large < 256);
+    }
+
+    @Test
+    public void testLineMatcherAllocatesNothingPerPage() {
+        assertAllocationIsFlat(REGEX, MatchOptions.DEFAULT);
+    }
+
+    @Test
+    public void testWindowMatcherAllocatesNothingPerPage() {
+        assertAllocationIsFlat(REGEX, WINDOW);
+    }
+
+    @Test
+    public void testDfaLineMatcherAllocatesNothingPerPage() {
+        assertAllocationIsFlat(REGEX, DFA);
+    }
+
+    @Test
+    public void testByteScanAllocatesNothingPerPage() {
+        assertAllocationIsFlat(LITERAL, MatchOptions.DEFAULT);
+    }
+
+    @Test
+    public void testResetForgetsMatches() {
+        for (MatchOptions options : new MatchOptions[] {MatchOptions.DEFAULT, WINDOW, DFA}) {
+            for (Pattern pattern : new Pattern[] {REGEX, LITERAL}) {
+                final ContentMatcher matcher = matcherFor(pattern, options);
+                final ByteBuffer view = ByteBuffer.allocate(16);
+                final byte[] matching = "a QUICK  brown needle\nand more\r\n".getBytes(StandardCharsets.UTF_8);
+                assertTrue(search(matcher, matching, view));
+                assertEquals(Collections.singletonList(pattern), matcher.getMatched());
+                assertFalse(search(matcher, page(3), view));
+                assertTrue(matcher.getMatched().isEmpty());
+                assertTrue(search(matcher, matching, view));
+            }
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package dkaminsky;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.net.InetAddress;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+public class DnsCacheTests {
+    private static final long TIMEOUT_MILLIS = 10000L;
+
+    private SearchStatistics statistics;
+    private DnsCache underTest;
+
+    @Before
+    public void setUp() {
+        statistics = new SearchStatistics();
+        underTest = new DnsCache(2, 60000L, 60000L, 2, statistics);
+    }
+
+    @After
+    public void tearDown() {
+        underTest.close();
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testThrowsOnZeroEntries() {
+        new DnsCache(0, 1000L, 1000L, 1, statistics);
+    }
+
+    @Test
+    public void testResolvesAndCaches() throws Exception {
+        final InetAddress[] first = underTest.resolve("127.0.0.1").get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        final InetAddress[] second = underTest.resolveNow("127.0.0.1");
+
+        assertEquals(InetAddress.getByName("127.0.0.1"), first[0]);
+        assertSame(first, second);
+        assertEquals(1L, statistics.get(DnsCache.MISSES));
+        assertEquals(1L, statistics.get(DnsCache.HITS));
+    }
+
+    @Test
+    public void testHostsAreCaseInsensitive() throws Exception {
+        underTest.resolveNow("LOCALHOST");
+        underTest.resolveNow("localhost");
+
+        assertEquals(1L, statistics.get(DnsCache.MISSES));
+    }
+
+    @Test
+    public void testExpiredEntriesAreResolvedAgain() throws Exception {
+        try (DnsCache cache = new DnsCache(2, 0L, 0L, 1, statistics)) {
+            cache.resolveNow("127.0.0.1");
+            cache.resolveNow("127.0.0.1");
+
+            assertEquals(2L, statistics.get(DnsCache.MISSES));
+        }
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() throws Exception {
+        underTest.resolveNow("127.0.0.1");
+        underTest.resolveNow("127.0.0.2");
+        underTest.resolveNow("127.0.0.1");
+        underTest.resolveNow("127.0.0.3");
+
+        assertEquals(2, underTest.size());
+        underTest.resolveNow("127.0.0.1");
+        underTest.resolveNow("127.0.0.2");
+        assertEquals(2L, statistics.get(DnsCache.HITS));
+        assertEquals(4L, statistics.get(DnsCache.MISSES));
+    }
+
+    @Test
+    public void testFailuresAreReportedAsUnknownHost() {
+        final CompletableFuture<InetAddress[]> failed = new CompletableFuture<>();
+        failed.completeExceptionally(new IllegalStateException("resolver broke"));
+        final HostResolver resolver = host -> failed;
+
+        try {
+            resolver.resolveNow("example.com");
+            fail("Resolution did not fail");
+        } catch (UnknownHostException e) {
+            assertEquals("example.com", e.getMessage());
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        } catch (IOException e) {
+            fail("Unexpected failure: " + e);
+        }
+    }
+
+    @Test
+    public void testSearcherPrefetchesHostsAsItReadsInput() throws Exception {
+        final List<String> prefetched = new CopyOnWriteArrayList<>();
+        final HostResolver resolver = new HostResolver() {
+            @Override
+            public CompletableFuture<InetAddress[]> resolve(String host) {
+                throw new AssertionError("The searcher should only prefetch");
+            }
+
+            @Override
+            public void prefetch(String host) {
+                prefetched.add(host);
+            }
+        };
+        final LinkedBlockingQueue<WebsiteSearcherInput> inputQueue = new LinkedBlockingQueue<>();
+        final WebsiteSearcher searcher = new WebsiteSearcher(
+                new StringReader("HEADER\n1,www.fakesite.com\n2,http://foobar.quux/page\n"), new StringWriter(),
+                Pattern.compile("z"), inputQueue, new LinkedBlockingQueue<>(), resolver);
+
+        searcher.start();
+        try {
+            assertTrue(searcher.getInputProcessed().await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+
+            assertEquals(2, prefetched.size());
+            assertEquals("www.fakesite.com", prefetched.get(0));
+            assertEquals("foobar.quux", prefetched.get(1));
+            assertEquals(URI.create("http://foobar.quux/page").toURL(),
+                    inputQueue.toArray(new WebsiteSearcherInput[0])[1].getUrl());
+        } finally {
+            searcher.shutdown();
+            searcher.interrupt();
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package dkaminsky;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class FetchTimeoutsTests {
+    private static final long TIMEOUT_MILLIS = 10000L;
+
+    private ServerSocket server;
+    private Thread acceptor;
+    private final List<Socket> accepted = new ArrayList<>();
+    private volatile boolean trickle;
+    private String baseUrl;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        baseUrl = "http://127.0.0.1:" + server.getLocalPort() + "/";
+        acceptor = new Thread(this::serve, "TestAcceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.close();
+        synchronized (accepted) {
+            for (Socket socket : accepted) {
+                socket.close();
+            }
+        }
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testThrowsOnNonPositiveTimeout() {
+        new FetchTimeouts(0, 1000, 1000L, Long.MAX_VALUE);
+    }
+
+    @Test
+    public void testDeadlineIsCappedByJobDeadline() {
+        final FetchTimeouts timeouts = new FetchTimeouts(1000, 1000, 5000L, 10000000000L);
+
+        assertEquals(5000000000L, timeouts.getDeadline(0L));
+        assertEquals(10000000000L, timeouts.getDeadline(7000000000L));
+    }
+
+    @Test
+    public void testDeadlineWithoutJobDeadline() {
+        final long started = -TimeUnit.HOURS.toNanos(1);
+
+        assertEquals(started + TimeUnit.MILLISECONDS.toNanos(FetchTimeouts.DEFAULT_TOTAL_MILLIS),
+                FetchTimeouts.DEFAULT.getDeadline(started));
+    }
+
+    @Test
+    public void testOpenStreamTimesOutWaitingForResponse() throws Exception {
+        final OpenStreamURLStreamStrategy strategy = new OpenStreamURLStreamStrategy(new SearchStatistics(),
+                new FetchTimeouts(1000, 200, 5000L, Long.MAX_VALUE));
+
+        assertTimesOut(() -> strategy.fetch(URI.create(baseUrl).toURL()).close());
+    }
+
+    @Test
+    public void testOpenStreamAbortsTricklingTransfer() throws Exception {
+        trickle = true;
+        final OpenStreamURLStreamStrategy strategy = new OpenStreamURLStreamStrategy(new SearchStatistics(),
+                new FetchTimeouts(1000, 1000, 500L, Long.MAX_VALUE));
+
+        assertTimesOut(() -> readAll(strategy.fetch(URI.create(baseUrl).toURL())));
+    }
+
+    @Test
+    public void testPooledAbortsTricklingTransfer() throws Exception {
+        trickle = true;
+        final SearchStatistics statistics = new SearchStatistics();
+        try (ConnectionPool<HttpConnection> pool = new ConnectionPool<>(2, 60000L, HttpConnection::open, statistics)) {
+            final PooledURLStreamStrategy strategy = new PooledURLStreamStrategy(pool, statistics,
+                    new FetchTimeouts(1000, 1000, 500L, Long.MAX_VALUE));
+
+            assertTimesOut(() -> readAll(strategy.fetch(URI.create(baseUrl).toURL())));
+        }
+    }
+
+    @Test
+    public void testPooledTimesOutWaitingForResponse() throws Exception {
+        final SearchStatistics statistics = new SearchStatistics();
+        try (ConnectionPool<HttpConnection> pool = new ConnectionPool<>(2, 60000L, HttpConnection::open, statistics)) {
+            final PooledURLStreamStrategy strategy = new PooledURLStreamStrategy(pool, statistics,
+                    new FetchTimeouts(1000, 200, 5000L, Long.MAX_VALUE));
+
+            assertTimesOut(() -> strategy.fetch(URI.create(baseUrl).toURL()).close());
+        }
+    }
+
+    @Test
+    public void testNioTimesOutWaitingForResponse() throws Exception {
+        try (NioURLStreamStrategy strategy = new NioURLStreamStrategy(1, new SearchStatistics(),
+                new FetchTimeouts(1000, 200, 5000L, Long.MAX_VALUE))) {
+            final NioURLStreamStrategyTests.CollectingListener listener =
+                    new NioURLStreamStrategyTests.CollectingListener();
+            strategy.fetch(URI.create(baseUrl).toURL(), listener);
+
+            assertTrue(listener.done.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+            assertTrue(listener.failure instanceof SocketTimeoutException);
+        }
+    }
+
+    @Test
+    public void testNioAbortsTricklingTransfer() throws Exception {
+        trickle = true;
+        try (NioURLStreamStrategy strategy = new NioURLStreamStrategy(1, new SearchStatistics(),
+                new FetchTimeouts(1000, 1000, 500L, Long.MAX_VALUE))) {
+            final NioURLStreamStrategyTests.CollectingListener listener =
+                    new NioURLStreamStrategyTests.CollectingListener();
+            strategy.fetch(URI.create(baseUrl).toURL(), listener);
+
+            assertTrue(listener.done.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+            assertNotNull(listener.head);
+            assertTrue(listener.failure instanceof SocketTimeoutException);
+        }
+    }
+
+    private interface Fetch {
+        void run() throws IOException;
+    }
+
+    private static void assertTimesOut(final Fetch fetch) {
+        final long started = System.nanoTime();
+        try {
+            fetch.run();
+            fail("Fetch did not time out");
+        } catch (SocketTimeoutException e) {
+            assertTrue(System.nanoTime() - started < TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MILLIS));
+        } catch (IOException e) {
+            throw new AssertionError("Expected a timeout", e);
+        }
+    }
+
+    private static void readAll(final FetchResponse response) throws IOException {
+        try (InputStream in = response.getContent()) {
+            final byte[] buffer = new byte[1024];
+            while (in.read(buffer) >= 0) {
+                // discard
+            }
+        }
+    }
+
+    /**
+     * Accepts connections and either never answers or, when trickling, answers with an endless chunked page a
+     * few bytes at a time.
+     */
+    private void serve() {
+        while (!server.isClosed()) {
+            final Socket socket;
+            try {
+                socket = server.accept();
+            } catch (IOException e) {
+                return;
+            }
+            synchronized (accepted) {
+                accepted.add(socket);
+            }
+            if (trickle) {
+                final Thread writer = new Thread(() -> trickle(socket), "TestTrickler");
+                writer.setDaemon(true);
+                writer.start();
+            }
+        }
+    }
+
+    private static void trickle(final Socket socket) {
+        try {
+            final OutputStream out = socket.getOutputStream();
+            out.write("HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+            while (true) {
+                out.write("2\r\na\n\r\n".getBytes(StandardCharsets.US_ASCII));
+                out.flush();
+                Thread.sleep(50);
+            }
+        } catch (IOException | InterruptedException e) {
+            // the client gave up
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package dkaminsky;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class HedgingURLStreamStrategyTests {
+    private static final long TIMEOUT_MILLIS = 10000L;
+
+    private SearchStatistics statistics;
+    private LatencyTracker latency;
+    private URL url;
+    private final CountDownLatch releaseFirst = new CountDownLatch(1);
+    private final AtomicInteger calls = new AtomicInteger();
+    private final AtomicInteger aborts = new AtomicInteger();
+    private HedgingURLStreamStrategy underTest;
+
+    @Before
+    public void setUp() throws Exception {
+        statistics = new SearchStatistics();
+        latency = new LatencyTracker(10, 50.0, 1);
+        url = URI.create("http://fakesite.com").toURL();
+    }
+
+    @After
+    public void tearDown() {
+        releaseFirst.countDown();
+        if (underTest != null) {
+            underTest.close();
+        }
+    }
+
+    /**
+     * A strategy whose first fetch hangs until released, and whose later fetches answer at once with their number.
+     */
+    private URLStreamStrategy firstFetchHangs() {
+        return new URLStreamStrategy() {
+            @Override
+            public InputStream openStream(final URL url) throws IOException {
+                return fetch(url).getContent();
+            }
+
+            @Override
+            public FetchResponse fetch(final URL url) throws IOException {
+                final int call = calls.incrementAndGet();
+                if (call == 1) {
+                    try {
+                        releaseFirst.await();
+                    } catch (InterruptedException e) {
+                        // answer anyway, as a blocked socket read would
+                    }
+                }
+                return new FetchResponse(new ByteArrayInputStream(String.valueOf(call).getBytes(
+                        StandardCharsets.US_ASCII)), "text/plain", aborts::incrementAndGet);
+            }
+        };
+    }
+
+    private static int read(final FetchResponse response) throws IOException {
+        try (InputStream in = response.getContent()) {
+            return in.read() - '0';
+        }
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testThrowsOnNullDelegate() {
+        new HedgingURLStreamStrategy(null, latency, 0L, statistics);
+    }
+
+    @Test
+    public void testTrackerAnswersPercentileOfRecentSamples() {
+        final LatencyTracker tracker = new LatencyTracker(4, 75.0, 2);
+        tracker.record(100L);
+        assertEquals(-1L, tracker.getPercentile());
+
+        tracker.record(1L);
+        tracker.record(2L);
+        tracker.record(3L);
+        assertEquals(3L, tracker.getPercentile());
+
+        // the oldest, slowest sample falls out
+        tracker.record(1L);
+        assertEquals(2L, tracker.getPercentile());
+    }
+
+    @Test
+    public void testSlowFetchIsHedgedAndLoserAborted() throws Exception {
+        latency.record(1L);
+        underTest = new HedgingURLStreamStrategy(firstFetchHangs(), latency, 0L, statistics);
+
+        assertEquals(2, read(underTest.fetch(url)));
+        assertEquals(1L, statistics.get(HedgingURLStreamStrategy.FIRED));
+        assertEquals(1L, statistics.get(HedgingURLStreamStrategy.WON));
+
+        releaseFirst.countDown();
+        final long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (aborts.get() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10L);
+        }
+        assertEquals(1, aborts.get());
+    }
+
+    @Test
+    public void testNoHedgeWithoutSamples() throws Exception {
+        underTest = new HedgingURLStreamStrategy(firstFetchHangs(), latency, 0L, statistics);
+        new Thread(() -> {
+            try {
+                Thread.sleep(200L);
+            } catch (InterruptedException e) {
+                // release early
+            }
+            releaseFirst.countDown();
+        }).start();
+
+        assertEquals(1, read(underTest.fetch(url)));
+        assertEquals(1, calls.get());
+        assertEquals(0L, statistics.get(HedgingURLStreamStrategy.FIRED));
+    }
+
+    @Test
+    public void testFastFetchIsNotHedged() throws Exception {
+        latency.record(TIMEOUT_MILLIS);
+        releaseFirst.countDown();
+        underTest = new HedgingURLStreamStrategy(firstFetchHangs(), latency, 0L, statistics);
+
+        assertEquals(1, read(underTest.fetch(url)));
+        assertEquals(1, calls.get());
+        assertEquals(0L, statistics.get(HedgingURLStreamStrategy.FIRED));
+        assertEquals(0, aborts.get());
+    }
+
+    @Test
+    public void testFailureIsPassedOn() throws Exception {
+        underTest = new HedgingURLStreamStrategy(url -> {
+            throw new IOException("Connection reset");
+        }, latency, 0L, statistics);
+
+        try {
+            underTest.fetch(url);
+            fail("Expected the failure of the fetch");
+        } catch (IOException e) {
+            assertEquals("Connection reset", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package dkaminsky;
+
+import org.junit.Test;
+
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+public class HostSchedulerTests {
+    private static final Pattern SEARCH_PATTERN = Pattern.compile("anything");
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testThrowsOnZeroConcurrency() {
+        new HostScheduler(0, 1.0, 1);
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testThrowsOnZeroRate() {
+        new HostScheduler(1, 0.0, 1);
+    }
+
+    @Test
+    public void testHostsAreServedRoundRobin() {
+        final HostScheduler underTest = new HostScheduler(10, 1000.0, 10);
+        underTest.offer(input("http://a.com/1"));
+        underTest.offer(input("http://a.com/2"));
+        underTest.offer(input("http://a.com/3"));
+        underTest.offer(input("http://b.com/1"));
+        underTest.offer(input("http://c.com/1"));
+
+        assertEquals(5, underTest.size());
+        assertEquals("http://a.com/1", underTest.poll().getUrl().toString());
+        assertEquals("http://b.com/1", underTest.poll().getUrl().toString());
+        assertEquals("http://c.com/1", underTest.poll().getUrl().toString());
+        assertEquals("http://a.com/2", underTest.poll().getUrl().toString());
+        assertEquals("http://a.com/3", underTest.poll().getUrl().toString());
+        assertNull(underTest.poll());
+    }
+
+    @Test
+    public void testConcurrencyLimitHoldsBackHostUntilFinished() {
+        final HostScheduler underTest = new HostScheduler(1, 1000.0, 10);
+        underTest.offer(input("http://a.com/1"));
+        underTest.offer(input("http://a.com/2"));
+        underTest.offer(input("http://b.com/1"));
+
+        final WebsiteSearcherInput first = underTest.poll();
+        assertEquals("http://a.com/1", first.getUrl().toString());
+        assertEquals("http://b.com/1", underTest.poll().getUrl().toString());
+        assertNull(underTest.poll()); // a.com is at its limit
+        assertEquals(1, underTest.size());
+
+        underTest.onFinished(first, SearchOutcome.NOT_MATCHED);
+        assertEquals("http://a.com/2", underTest.poll().getUrl().toString());
+    }
+
+    @Test
+    public void testHostCaseIsFoldedWhateverTheLocale() {
+        final Locale locale = Locale.getDefault();
+        Locale.setDefault(Locale.forLanguageTag("tr-TR")); // where 'I' lower-cases to a dotless i
+        try {
+            final HostScheduler underTest = new HostScheduler(1, 1000.0, 10);
+            underTest.offer(input("http://INFO.com/1"));
+            underTest.offer(input("http://info.com/2"));
+
+            assertEquals("http://INFO.com/1", underTest.poll().getUrl().toString());
+            assertNull(underTest.poll()); // the same host, at its limit
+        } finally {
+            Locale.setDefault(locale);
+        }
+    }
+
+    @Test
+    public void testRateLimitSpacesRequestsToOneHost() throws InterruptedException {
+        final HostScheduler underTest = new HostScheduler(10, 20.0, 1);
+        for (int i = 0; i < 5; i++) {
+            underTest.offer(input("http://a.com/" + i));
+        }
+        underTest.offer(input("http://b.com/1"));
+
+        final long start = System.nanoTime();
+        final List<String> taken = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            taken.add(underTest.take().getUrl().toString());
+        }
+        final long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        // four waits of 50ms for a.com, while b.com goes out without waiting
+        assertTrue("took " + elapsedMillis + "ms", elapsedMillis >= 190);
+        assertEquals("http://b.com/1", taken.get(1));
+    }
+
+    @Test
+    public void testTakeWakesWhenInputIsOffered() throws Exception {
+        final HostScheduler underTest = new HostScheduler(1, 1000.0, 1);
+        final List<WebsiteSearcherInput> taken = new ArrayList<>();
+        final Thread taker = new Thread(() -> {
+            try {
+                taken.add(underTest.take());
+            } catch (InterruptedException e) {
+                // leaves the list empty
+            }
+        });
+        taker.start();
+
+        Thread.sleep(100);
+        underTest.offer(input("http://a.com/1"));
+        taker.join(5000);
+
+        assertEquals(1, taken.size());
+    }
+
+    @Test
+    public void testPollWithTimeoutGivesUp() throws InterruptedException {
+        final HostScheduler underTest = new HostScheduler(1, 1000.0, 1);
+
+        assertNull(underTest.poll(50, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testBoundedSchedulerBlocksPutWhileFull() throws Exception {
+        final HostScheduler underTest = new HostScheduler(10, 1000.0, 10, 2);
+        assertTrue(underTest.offer(input("http://a.com/1")));
+        assertTrue(underTest.offer(input("http://b.com/1")));
+        assertFalse(underTest.offer(input("http://a.com/2")));
+        assertFalse(underTest.offer(input("http://a.com/2"), 50, TimeUnit.MILLISECONDS));
+        assertEquals(0, underTest.remainingCapacity());
+
+        final Thread putter = new Thread(() -> {
+            try {
+                underTest.put(input("http://c.com/1"));
+            } catch (InterruptedException e) {
+                // leaves the scheduler full
+            }
+        });
+        putter.start();
+        Thread.sleep(100);
+        assertTrue(putter.isAlive());
+
+        assertNotNull(underTest.take());
+        putter.join(5000);
+        assertFalse(putter.isAlive());
+        assertEquals(2, underTest.size());
+    }
+
+    @Test
+    public void testIteratorAndDrainTo() {
+        final HostScheduler underTest = new HostScheduler(1, 1000.0, 10);
+        underTest.offer(input("http://a.com/1"));
+        underTest.offer(input("http://a.com/2"));
+        underTest.offer(input("http://b.com/1"));
+
+        int count = 0;
+        for (WebsiteSearcherInput ignored : underTest) {
+            count++;
+        }
+        assertEquals(3, count);
+
+        final List<WebsiteSearcherInput> drained = new ArrayList<>();
+        assertEquals(2, underTest.drainTo(drained));
+        assertEquals(1, underTest.size());
+    }
+
+    private static WebsiteSearcherInput input(String url) {
+        try {
+            return new WebsiteSearcherInput(SEARCH_PATTERN, URI.create(url).toURL());
+        } catch (MalformedURLException e) {
+            throw new IllegalStateException("malformed constant in test: " + url);
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package dkaminsky;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+public class HtmlTextMatcherTests {
+    private static final String PAGE = "<!DOCTYPE html><html><head><title>Menu</title>"
+            + "<style>p > b { color: red }</style>"
+            + "<script type=\"text/javascript\">if (a < b && c) { s = \" and \"; }</script>"
+            + "</head><body><!-- and <p> -- and --><p class='x > y'>Fish &amp; chips</p>"
+            + "<b>fo</b>o<br/>done</body></html>";
+    private static final String TEXT = "\nMenu\n\nFish & chips\nfoo\ndone";
+
+    /**
+     * Collects what it is fed, and never matches.
+     */
+    private static class Collector implements ContentMatcher {
+        private final ByteArrayOutputStream text = new ByteArrayOutputStream();
+
+        @Override
+        public boolean feed(final ByteBuffer data) {
+            while (data.hasRemaining()) {
+                text.write(data.get());
+            }
+            return false;
+        }
+
+        @Override
+        public boolean finish() {
+            return false;
+        }
+
+        @Override
+        public List<Pattern> getMatched() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public void reset() {
+            text.reset();
+        }
+    }
+
+    private static String extract(final String page, final Charset charset, final int pieceSize) {
+        final Collector collector = new Collector();
+        final HtmlTextMatcher matcher = new HtmlTextMatcher(collector, charset);
+        final byte[] bytes = page.getBytes(charset);
+        for (int i = 0; i < bytes.length; i += pieceSize) {
+            matcher.feed(ByteBuffer.wrap(bytes, i, Math.min(pieceSize, bytes.length - i)));
+        }
+        matcher.finish();
+        return new String(collector.text.toByteArray(), charset);
+    }
+
+    @Test
+    public void testSkipsMarkupScriptsStylesAndComments() {
+        assertEquals(TEXT, extract(PAGE, StandardCharsets.UTF_8, 8192));
+    }
+
+    @Test
+    public void testPiecesSplitAnywhere() {
+        for (int pieceSize = 1; pieceSize < 8; pieceSize++) {
+            assertEquals(TEXT, extract(PAGE, StandardCharsets.UTF_8, pieceSize));
+        }
+    }
+
+    @Test
+    public void testDecodesCharacterReferences() {
+        final String page = "caf&eacute; &#233;&#xE9; a&nbsp;b &lt;b&gt; &bogus; &amp &#xD800; &#128512; AT&T";
+        final String text = "caf\u00e9 \u00e9\u00e9 a b <b> &bogus; & &#xD800; \ud83d\ude00 AT&T";
+        assertEquals(text, extract(page, StandardCharsets.UTF_8, 8192));
+        assertEquals(text, extract(page, StandardCharsets.UTF_8, 1));
+        assertEquals("caf\u00e9 \u20ac", extract("caf&eacute; &euro;", Charset.forName("windows-1252"), 3));
+    }
+
+    @Test
+    public void testLoneLessThanIsText() {
+        assertEquals("1 < 2, 3 <= 4", extract("1 < 2, 3 <= 4", StandardCharsets.UTF_8, 1));
+    }
+
+    @Test
+    public void testPatternsMissTextInScripts() {
+        final MatchOptions options = new MatchOptions(MatchOptions.Mode.LINE, MatchOptions.DEFAULT_WINDOW_CHARS,
+                MatchOptions.DEFAULT_LOOKBACK_CHARS, MatchOptions.Engine.JDK, true);
+        final PatternSet patterns = new PatternSet(Collections.singletonList(Pattern.compile("\\sand\\s")),
+                new SearchStatistics(), options);
+        final byte[] page = PAGE.getBytes(StandardCharsets.UTF_8);
+
+        final ContentMatcher html = patterns.newMatcher(StandardCharsets.UTF_8, true);
+        assertTrue(html instanceof HtmlTextMatcher);
+        assertFalse(html.feed(ByteBuffer.wrap(page)));
+        assertFalse(html.finish());
+        html.reset();
+        assertTrue(html.feed(ByteBuffer.wrap("<p>salt and pepper</p>".getBytes(StandardCharsets.UTF_8)))
+                || html.finish());
+
+        final ContentMatcher plain = patterns.newMatcher(StandardCharsets.UTF_8, false);
+        assertFalse(plain instanceof HtmlTextMatcher);
+        assertTrue(plain.feed(ByteBuffer.wrap(page)) || plain.finish());
+        assertFalse(patterns.newMatcher(StandardCharsets.UTF_16, true) instanceof HtmlTextMatcher);
+    }
+
+    @Test
+    public void testIsMarkup() {
+        assertTrue(HtmlTextMatcher.isMarkup(null));
+        assertTrue(HtmlTextMatcher.isMarkup("text/html; charset=utf-8"));
+        assertTrue(HtmlTextMatcher.isMarkup("Application/XHTML+XML"));
+        assertFalse(HtmlTextMatcher.isMarkup("text/plain"));
+        assertFalse(HtmlTextMatcher.isMarkup("application/json"));
+    }
+}
@@ -0,0 +1,120 @@
+package dkaminsky;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class HttpResponseParserTests {
+    private HttpResponseParser underTest;
+    private RecordingListener listener;
+
+    @Before
+    public void setUp() {
+        underTest = new HttpResponseParser();
+        listener = new RecordingListener();
+    }
+
+    @Test
+    public void testContentLengthBody() throws IOException {
+        feed("HTTP/1.1 200 OK\r\nContent-Length: 11\r\nContent-Type: text/html\r\n\r\nhello world", 64);
+
+        assertTrue(underTest.isComplete());
+        assertEquals(200, listener.head.getStatusCode());
+        assertEquals("OK", listener.head.getReasonPhrase());
+        assertEquals("text/html", listener.head.getHeader("content-type"));
+        assertEquals("hello world", listener.body());
+    }
+
+    @Test
+    public void testChunkedBodyFedOneByteAtATime() throws IOException {
+        feed("HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n"
+                + "5\r\nhello\r\n6;ext=1\r\n world\r\n0\r\nTrailer: x\r\n\r\n", 1);
+
+        assertTrue(underTest.isComplete());
+        assertEquals("hello world", listener.body());
+    }
+
+    @Test
+    public void testInterimResponseIsSkipped() throws IOException {
+        feed("HTTP/1.1 100 Continue\r\n\r\nHTTP/1.1 404 Not Found\r\nContent-Length: 0\r\n\r\n", 7);
+
+        assertTrue(underTest.isComplete());
+        assertEquals(404, listener.head.getStatusCode());
+        assertEquals("", listener.body());
+    }
+
+    @Test
+    public void testBodyDelimitedByConnectionClose() throws IOException {
+        feed("HTTP/1.0 200 OK\n\nsome content", 5);
+
+        assertFalse(underTest.isComplete());
+        assertTrue(underTest.isCloseDelimited());
+        underTest.endOfInput();
+        assertTrue(underTest.isComplete());
+        assertEquals("some content", listener.body());
+    }
+
+    @Test(expected=EOFException.class)
+    public void testTruncatedBody() throws IOException {
+        feed("HTTP/1.1 200 OK\r\nContent-Length: 100\r\n\r\ntoo short", 64);
+
+        underTest.endOfInput();
+    }
+
+    @Test(expected=IOException.class)
+    public void testMalformedStatusLine() throws IOException {
+        feed("<html>not http</html>\r\n", 64);
+    }
+
+    @Test
+    public void testListenerStopsParsing() throws IOException {
+        listener.stopAfterHead = true;
+
+        assertFalse(underTest.feed(bytes("HTTP/1.1 200 OK\r\nContent-Length: 4\r\n\r\nbody"), listener));
+        assertEquals("", listener.body());
+    }
+
+    private void feed(String response, int pieceSize) throws IOException {
+        final byte[] data = response.getBytes(StandardCharsets.ISO_8859_1);
+        for (int i = 0; i < data.length; i += pieceSize) {
+            final ByteBuffer piece = ByteBuffer.wrap(data, i, Math.min(pieceSize, data.length - i));
+            assertTrue(underTest.feed(piece, listener));
+            assertFalse(piece.hasRemaining() && !underTest.isComplete());
+        }
+    }
+
+    private static ByteBuffer bytes(String s) {
+        return ByteBuffer.wrap(s.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    static class RecordingListener implements HttpResponseParser.Listener {
+        HttpResponseHead head;
+        boolean stopAfterHead;
+        private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+        @Override
+        public boolean onHead(HttpResponseHead head) {
+            this.head = head;
+            return !stopAfterHead;
+        }
+
+        @Override
+        public boolean onBody(ByteBuffer data) {
+            while (data.hasRemaining()) {
+                body.write(data.get());
+            }
+            return true;
+        }
+
+        String body() {
+            return new String(body.toByteArray(), StandardCharsets.ISO_8859_1);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package dkaminsky;
+
+import org.junit.Test;
+
+import java.net.URI;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+public class JobTrackerTests {
+    private static final Pattern SEARCH_PATTERN = Pattern.compile("z+");
+
+    private final JobTracker underTest = new JobTracker();
+
+    private static WebsiteSearcherInput input(final String url) throws Exception {
+        return new WebsiteSearcherInput(SEARCH_PATTERN, URI.create(url).toURL());
+    }
+
+    @Test
+    public void testEmptyJobIsCompleteOnceInputIsDone() {
+        assertFalse(underTest.isComplete());
+        underTest.inputDone();
+        assertTrue(underTest.isComplete());
+    }
+
+    @Test
+    public void testCompleteOnlyOnceEveryUrlIsFinished() throws Exception {
+        underTest.enqueued();
+        underTest.enqueued();
+        underTest.inputDone();
+        underTest.onFinished(input("http://site1.com"), SearchOutcome.MATCHED);
+        assertFalse(underTest.isComplete());
+        assertEquals(1, underTest.getPending());
+        underTest.onFinished(input("http://site2.com"), SearchOutcome.NOT_MATCHED);
+        assertTrue(underTest.isComplete());
+    }
+
+    @Test
+    public void testNotCompleteWhileInputIsBeingRead() throws Exception {
+        underTest.enqueued();
+        underTest.onFinished(input("http://site1.com"), SearchOutcome.MATCHED);
+        assertFalse(underTest.isComplete());
+    }
+
+    @Test
+    public void testRetriedUrlIsFinishedOnlyByItsLastAttempt() throws Exception {
+        final WebsiteSearcherInput input = input("http://site1.com");
+        underTest.enqueued();
+        underTest.inputDone();
+        underTest.onFinished(input, SearchOutcome.RETRYING);
+        underTest.onFinished(input, SearchOutcome.RETRYING);
+        assertFalse(underTest.isComplete());
+        underTest.onFinished(input, SearchOutcome.FAILED);
+        assertTrue(underTest.isComplete());
+    }
+
+    @Test
+    public void testCountsOutcomes() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            underTest.enqueued();
+        }
+        underTest.onFinished(input("http://site1.com"), SearchOutcome.MATCHED);
+        underTest.onFinished(input("http://site2.com"), SearchOutcome.NOT_MATCHED);
+        underTest.onFinished(input("http://site3.com"), SearchOutcome.NO_MATCH_WITHIN_BUDGET);
+        underTest.onFinished(input("http://site4.com"), SearchOutcome.PATTERN_TIMEOUT);
+        underTest.onFinished(input("http://site5.com"), SearchOutcome.FAILED);
+
+        assertEquals(5, underTest.getEnqueued());
+        assertEquals(1, underTest.getMatched());
+        assertEquals(3, underTest.getNotMatched());
+        assertEquals(1, underTest.getFailed());
+        assertEquals(0, underTest.getPending());
+    }
+}
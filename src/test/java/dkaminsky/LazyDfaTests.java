@@ -0,0 +1,136 @@
+package dkaminsky;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+public class LazyDfaTests {
+    private static final String[] TEXTS = {
+            "", "a", "abc", "ABC", "xabcx", "a\nb", "a\r\nb", "abc\n", "abc\r\n", "abc\n\n", "  and  ",
+            "the quick brown fox", "the QUICK brown\tfox", "caf\u00e9", "x\ud83d\ude00y", "123-456", "a_b c.d",
+            "aaab", "ababab", "foo.bar", "a\u2028b", "\t\u000B"
+    };
+
+    private static void assertSameAsPattern(final String regex, final int flags) {
+        final Pattern pattern = Pattern.compile(regex, flags);
+        final LazyDfa dfa = LazyDfa.compile(pattern);
+        assertNotNull("Not supported: " + regex, dfa);
+        for (String text : TEXTS) {
+            assertEquals(regex + " on \"" + text + "\"", pattern.matcher(text).find(), dfa.find(text));
+        }
+    }
+
+    @Test
+    public void testFindsWhatPatternFinds() {
+        final String[] regexes = {
+                "", "a", "abc", "a|b", "a(b|c)", "(?:ab)+", "a*b", "a+?b", "ab?c", "a{2}", "a{1,2}b", "(ab){2,}",
+                ".", "a.c", "x.y", "\\d+", "\\D", "\\s", "\\S+", "\\w+", "\\W", "[a-c]+", "[^a-c]", "[^\\s]",
+                "[\\d_]", "[.-]", "\\.", "\\Qfoo.\\E", "\\x41", "\\u00e9", "\\t", "^a", "^abc$", "c$", "^$",
+                ".*\\sand\\s.*", "quick\\s+brown", "(?<word>b)c", "\ud83d\ude00", "caf.", "[^x]y", "a.b"
+        };
+        for (String regex : regexes) {
+            assertSameAsPattern(regex, 0);
+            assertSameAsPattern(regex, Pattern.CASE_INSENSITIVE);
+            assertSameAsPattern(regex, Pattern.DOTALL);
+            assertSameAsPattern(regex, Pattern.UNIX_LINES);
+        }
+    }
+
+    @Test
+    public void testDeclinesUnsupportedSyntax() {
+        final String[] regexes = {
+                "(a)\\1", "a(?=b)", "(?<!a)b", "\\bword\\b", "a*+b", "(?i)a", "[a[b]]", "[a-z&&[^b]]", "\\p{L}",
+                "a^b", "a$b", "a|^b", "\\z", "\\0101"
+        };
+        for (String regex : regexes) {
+            assertNull(regex, LazyDfa.compile(Pattern.compile(regex)));
+        }
+        assertNull(LazyDfa.compile(Pattern.compile("^a", Pattern.MULTILINE)));
+        assertNull(LazyDfa.compile(Pattern.compile("a", Pattern.COMMENTS)));
+        assertNotNull(LazyDfa.compile(Pattern.compile("a", Pattern.MULTILINE)));
+    }
+
+    @Test
+    public void testTakesLinearTimeWherePatternBacktracks() {
+        // (a|aa)*c backtracks exponentially on a run of a's with no c
+        final char[] run = new char[100000];
+        Arrays.fill(run, 'a');
+        final String text = new String(run);
+        final LazyDfa dfa = LazyDfa.compile(Pattern.compile("(a|aa)*c"));
+        final long start = System.nanoTime();
+        assertFalse(dfa.find(text));
+        assertTrue(System.nanoTime() - start < 5_000_000_000L);
+        assertTrue(dfa.find(text + "c"));
+    }
+
+    @Test
+    public void testMatchesAfterCacheIsFull() {
+        // the DFA of a pattern with an a 14 characters before the end has 2^15 states, more than the cache holds
+        final Pattern pattern = Pattern.compile("(a|b)*a(a|b){14}c");
+        final LazyDfa dfa = LazyDfa.compile(pattern);
+        final Random random = new Random(42);
+        for (int n = 0; n < 100; n++) {
+            final StringBuilder text = new StringBuilder();
+            for (int i = 0; i < 200; i++) {
+                text.append(random.nextBoolean() ? 'a' : 'b');
+            }
+            if (n % 2 == 0) {
+                text.append('c');
+            }
+            assertEquals(pattern.matcher(text).find(), dfa.find(text));
+        }
+    }
+
+    @Test
+    public void testMatchesFromManyThreads() throws Exception {
+        final Pattern pattern = Pattern.compile("b[aeiou]+t\\s");
+        final LazyDfa dfa = LazyDfa.compile(pattern);
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final Future<?>[] futures = new Future<?>[4];
+            for (int t = 0; t < futures.length; t++) {
+                futures[t] = executor.submit(() -> {
+                    for (int n = 0; n < 1000; n++) {
+                        assertTrue(dfa.find("a boot here"));
+                        assertFalse(dfa.find("a bt here"));
+                    }
+                });
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testPatternSetMatchesWithDfaEngine() {
+        final MatchOptions options = new MatchOptions(MatchOptions.Mode.LINE, MatchOptions.DEFAULT_WINDOW_CHARS,
+                MatchOptions.DEFAULT_LOOKBACK_CHARS, MatchOptions.Engine.DFA);
+        final Pattern supported = Pattern.compile("qu[a-z]+k", Pattern.CASE_INSENSITIVE);
+        final Pattern backReference = Pattern.compile("(o)\\1");
+        final PatternSet patterns = new PatternSet(Arrays.asList(supported, backReference), new SearchStatistics(),
+                options);
+        assertEquals(Collections.singletonList(backReference), patterns.getBacktrackingPatterns());
+
+        final PatternSet.Scan scan = patterns.newScan();
+        assertFalse(scan.test("the QUICK brown fox"));
+        assertTrue(scan.test("a good dog"));
+        assertEquals(Arrays.asList(supported, backReference), scan.getMatched());
+    }
+
+    @Test
+    public void testPatternSetHasNoBacktrackingPatternsWithJdkEngine() {
+        final PatternSet patterns = new PatternSet(Collections.singletonList(Pattern.compile("(o)\\1")));
+        assertTrue(patterns.getBacktrackingPatterns().isEmpty());
+    }
+}
@@ -0,0 +1,74 @@
+package dkaminsky;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+public class LiteralExtractorTests {
+    private static Set<String> literalsOf(final String regex) {
+        return LiteralExtractor.requiredLiterals(Pattern.compile(regex));
+    }
+
+    private static Set<String> setOf(final String... literals) {
+        return new HashSet<>(Arrays.asList(literals));
+    }
+
+    @Test
+    public void testExtractsLiteralOfDefaultPattern() {
+        assertEquals(Collections.singleton("and"),
+                LiteralExtractor.requiredLiterals(Pattern.compile(".*\\sand\\s.*", Pattern.CASE_INSENSITIVE)));
+    }
+
+    @Test
+    public void testGivesUpUnderUnicodeCaseFolding() {
+        final Pattern ask = Pattern.compile("ask.*", Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE);
+        assertTrue(ask.matcher("a\u017Fk").find());
+        assertNull(LiteralExtractor.requiredLiterals(ask));
+
+        final Pattern kelvin = Pattern.compile("kelvin", Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE);
+        assertTrue(kelvin.matcher("\u212Aelvin").find());
+        assertNull(LiteralExtractor.requiredLiterals(kelvin));
+        assertEquals(Collections.singleton("kelvin"),
+                LiteralExtractor.requiredLiterals(Pattern.compile("kelvin", Pattern.CASE_INSENSITIVE)));
+    }
+
+    @Test
+    public void testPrefersLongestRun() {
+        assertEquals(Collections.singleton("quick"), literalsOf("a\\d+quick[xyz]fox?"));
+        assertEquals(Collections.singleton("fo"), literalsOf("fox?"));
+        assertEquals(Collections.singleton("abb"), literalsOf("x*abb+c?"));
+        assertEquals(Collections.singleton("a.b"), literalsOf("a\\.b"));
+        assertEquals(Collections.singleton("x+y"), literalsOf("\\Qx+y\\E"));
+    }
+
+    @Test
+    public void testFollowsGroupsAndAlternation() {
+        assertEquals(setOf("cat", "dog"), literalsOf("(cat|dog)s?"));
+        assertEquals(setOf("cat", "dog"), literalsOf("cat|(?:hot )?dog"));
+        assertEquals(Collections.singleton("needle"), literalsOf("(?:hay)?needle(?<rest>stack)*"));
+        assertEquals(Collections.singleton("word"), literalsOf("(?<!x)word(?=y)"));
+    }
+
+    @Test
+    public void testGivesUpWhenNothingIsRequired() {
+        assertNull(literalsOf("cat|.*"));
+        assertNull(literalsOf("(cat)?"));
+        assertNull(literalsOf("[a-z]+\\d"));
+        assertNull(literalsOf("a.b"));
+    }
+
+    @Test
+    public void testGivesUpOnUnfollowedSyntax() {
+        assertNull(literalsOf("(?i)needle"));
+        assertNull(literalsOf("(ab)\\1"));
+        assertNull(literalsOf("\\x41BC"));
+        assertNull(literalsOf("needle\\p{L}"));
+        assertNull(LiteralExtractor.requiredLiterals(Pattern.compile("needle", Pattern.COMMENTS)));
+    }
+}
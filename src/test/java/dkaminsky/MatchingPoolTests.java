@@ -0,0 +1,270 @@
+package dkaminsky;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+public class MatchingPoolTests {
+    private static final long TIMEOUT_MILLIS = 10000L;
+    private static final CharsetDetector CHARSETS = new CharsetDetector(StandardCharsets.UTF_8, new SearchStatistics());
+    private static final Pattern SEARCH_PATTERN = Pattern.compile("z+");
+
+    private final BlockingQueue<SearchResult> outputQueue = new LinkedBlockingQueue<>();
+    private final BlockingQueue<SearchOutcome> outcomes = new LinkedBlockingQueue<>();
+    private final SearchStatistics statistics = new SearchStatistics();
+    private MatchingPool pool;
+
+    private MatchingPool pool(final int threads, final int queueCapacity, final WebsiteSearcherListener listener) {
+        pool = new MatchingPool(threads, queueCapacity, outputQueue, listener, CHARSETS, statistics);
+        return pool;
+    }
+
+    private static WebsiteSearcherInput input(final String url) throws IOException {
+        return new WebsiteSearcherInput(SEARCH_PATTERN, URI.create(url).toURL());
+    }
+
+    private PageSearcher fetcher(final URLStreamStrategy strategy, final PageBudget budget) {
+        return new PageSearcher(outputQueue, strategy, (input, outcome) -> outcomes.add(outcome), budget,
+                RetryHandler.NONE, CHARSETS, pool);
+    }
+
+    @After
+    public void tearDown() {
+        if (pool != null) {
+            pool.close();
+        }
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testThrowsOnZeroThreads() {
+        pool(0, 1, WebsiteSearcherListener.NONE);
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testThrowsOnZeroQueueCapacity() {
+        pool(1, 0, WebsiteSearcherListener.NONE);
+    }
+
+    @Test
+    public void testFetchedPagesAreSearchedByThePool() throws Exception {
+        pool(2, 4, (input, outcome) -> outcomes.add(outcome));
+        final PageSearcher fetcher = fetcher(
+                url -> new ByteArrayInputStream((url.getHost() + "\n").getBytes(StandardCharsets.US_ASCII)),
+                PageBudget.UNLIMITED);
+
+        fetcher.search(input("http://zzz.com"));
+        fetcher.search(input("http://aaa.com"));
+
+        final SearchOutcome first = outcomes.poll(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        final SearchOutcome second = outcomes.poll(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        assertTrue(Arrays.asList(first, second).containsAll(
+                Arrays.asList(SearchOutcome.MATCHED, SearchOutcome.NOT_MATCHED)));
+        assertEquals("http://zzz.com", outputQueue.take().getUrl().toString());
+        assertTrue(outputQueue.isEmpty());
+        assertEquals(2, pool.getPagesSearched());
+    }
+
+    @Test
+    public void testPageSpanningManyBuffersIsSearchedInFull() throws Exception {
+        pool(1, 1, (input, outcome) -> outcomes.add(outcome));
+        final byte[] content = new byte[MatchingPool.BUFFER_SIZE * 3 + 10];
+        Arrays.fill(content, (byte) 'a');
+        content[content.length - 2] = 'z';
+        content[content.length - 1] = '\n';
+        fetcher(url -> new ByteArrayInputStream(content), PageBudget.UNLIMITED).search(input("http://site.com"));
+
+        assertEquals(SearchOutcome.MATCHED, outcomes.poll(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testPageOverBudgetIsReportedAsSuch() throws Exception {
+        pool(1, 1, (input, outcome) -> outcomes.add(outcome));
+        final byte[] content = new byte[MatchingPool.BUFFER_SIZE * 2];
+        Arrays.fill(content, (byte) 'a');
+        fetcher(url -> new ByteArrayInputStream(content), new PageBudget(100, Collections.emptyMap()))
+                .search(input("http://site.com"));
+
+        assertEquals(SearchOutcome.NO_MATCH_WITHIN_BUDGET, outcomes.poll(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testFailedFetchIsReportedByTheFetcher() throws Exception {
+        pool(1, 1, WebsiteSearcherListener.NONE);
+        fetcher(url -> {
+            throw new IOException("refused");
+        }, PageBudget.UNLIMITED).search(input("http://site.com"));
+
+        assertEquals(SearchOutcome.FAILED, outcomes.poll(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        assertEquals(0, pool.getPagesSearched());
+    }
+
+    @Test
+    public void testFullQueueHoldsBackFetchers() throws Exception {
+        final CountDownLatch matching = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        pool(1, 1, (input, outcome) -> {
+            matching.countDown();
+            try {
+                release.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        final PageSearcher fetcher = fetcher(
+                url -> (InputStream) new ByteArrayInputStream("zzz\n".getBytes(StandardCharsets.US_ASCII)),
+                PageBudget.UNLIMITED);
+
+        fetcher.search(input("http://site1.com"));
+        assertTrue(matching.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        fetcher.search(input("http://site2.com")); // fills the queue while the only thread is busy
+
+        final Thread blocked = new Thread(() -> {
+            try {
+                fetcher(url -> new ByteArrayInputStream("zzz\n".getBytes(StandardCharsets.US_ASCII)),
+                        PageBudget.UNLIMITED).search(input("http://site3.com"));
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        blocked.start();
+        blocked.join(200);
+        assertTrue(blocked.isAlive());
+        assertEquals(1, pool.getQueued());
+
+        release.countDown();
+        blocked.join(TIMEOUT_MILLIS);
+        assertFalse(blocked.isAlive());
+        for (int i = 0; i < 3; i++) {
+            assertNotNull(outputQueue.poll(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        }
+        // a page is counted just after its URL is sent
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MILLIS);
+        while (pool.getPagesSearched() < 3 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+
+        pool.close();
+        assertEquals(1, statistics.get(MatchingPool.HANDOFF_BLOCKS));
+        assertTrue(statistics.get(MatchingPool.HANDOFF_BLOCKED_MILLIS) >= 100);
+        assertEquals(3, statistics.get(MatchingPool.PAGES));
+    }
+
+    @Test
+    public void testThreadOutlivesAnErrorInSearch() throws Exception {
+        pool(1, 1, (input, outcome) -> outcomes.add(outcome));
+        final byte[] line = new byte[20001];
+        Arrays.fill(line, (byte) 'a');
+        line[line.length - 1] = '\n';
+        final PageSearcher fetcher = fetcher(
+                url -> new ByteArrayInputStream(url.getHost().equals("long.com") ? line : "zzz\n".getBytes()),
+                PageBudget.UNLIMITED);
+
+        // the backtracking regex overflows the stack on a long line
+        fetcher.search(new WebsiteSearcherInput(Pattern.compile("(a|b)*c"), URI.create("http://long.com").toURL()));
+        assertEquals(SearchOutcome.FAILED, outcomes.poll(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+
+        fetcher.search(input("http://site.com"));
+        assertEquals(SearchOutcome.MATCHED, outcomes.poll(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testPagesDroppedOnCloseAreReportedAsFailed() throws Exception {
+        final CountDownLatch matching = new CountDownLatch(1);
+        pool(1, 1, (input, outcome) -> {
+            if (matching.getCount() > 0) {
+                matching.countDown();
+                try {
+                    Thread.sleep(TIMEOUT_MILLIS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            outcomes.add(outcome);
+        });
+        final PageSearcher fetcher = fetcher(
+                url -> new ByteArrayInputStream("zzz\n".getBytes(StandardCharsets.US_ASCII)), PageBudget.UNLIMITED);
+
+        fetcher.search(input("http://site1.com"));
+        assertTrue(matching.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        fetcher.search(input("http://site2.com")); // waits in the queue
+        final Thread blocked = new Thread(() -> {
+            try {
+                fetcher.search(input("http://site3.com"));
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        blocked.start();
+        blocked.join(200);
+        assertTrue(blocked.isAlive());
+
+        pool.close(); // also interrupts the page being searched out of its wait
+        blocked.join(TIMEOUT_MILLIS);
+        assertFalse(blocked.isAlive());
+        final List<SearchOutcome> finished = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            finished.add(outcomes.poll(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        }
+        assertEquals(2, Collections.frequency(finished, SearchOutcome.FAILED));
+        assertTrue(finished.contains(SearchOutcome.MATCHED));
+        assertEquals(0, pool.getQueued());
+    }
+
+    @Test
+    public void testInterruptedHandoffIsReportedAsFailed() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        pool(1, 1, (input, outcome) -> {
+            try {
+                release.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            outcomes.add(outcome);
+        });
+        final PageSearcher fetcher = fetcher(
+                url -> new ByteArrayInputStream("zzz\n".getBytes(StandardCharsets.US_ASCII)), PageBudget.UNLIMITED);
+        fetcher.search(input("http://site1.com"));
+        fetcher.search(input("http://site2.com"));
+        final Thread blocked = new Thread(() -> {
+            try {
+                fetcher.search(input("http://site3.com"));
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        blocked.start();
+        blocked.join(200);
+        assertTrue(blocked.isAlive());
+
+        blocked.interrupt();
+        assertEquals(SearchOutcome.FAILED, outcomes.poll(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        release.countDown();
+    }
+
+    @Test
+    public void testUtilizationIsMostlyIdleWithNothingToSearch() throws Exception {
+        pool(1, 1, WebsiteSearcherListener.NONE);
+        Thread.sleep(1200); // past the first idle poll
+        assertEquals(0.0, pool.getMatchUtilization(), 0.01);
+        pool.close();
+        assertEquals(0, statistics.get(MatchingPool.MATCH_UTILIZATION_PERCENT));
+        assertTrue(statistics.get(MatchingPool.MATCH_IDLE_MILLIS) >= 1000);
+    }
+}
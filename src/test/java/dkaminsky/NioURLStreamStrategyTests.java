@@ -0,0 +1,251 @@
+package dkaminsky;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.*;
+
+public class NioURLStreamStrategyTests {
+    private static final long TIMEOUT_MILLIS = 10000L;
+
+    private HttpServer server;
+    private NioURLStreamStrategy underTest;
+    private String baseUrl;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        serve("/fixed", 200, "hello\nworld\n", false);
+        serve("/chunked", 200, "a\nb\nzzz\n", true);
+        serve("/missing", 404, "not here", false);
+        server.createContext("/gzipped", exchange -> {
+            final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+                gzip.write("compressed\ncontent\n".getBytes(StandardCharsets.UTF_8));
+            }
+            exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+            exchange.sendResponseHeaders(200, compressed.size());
+            try (OutputStream out = exchange.getResponseBody()) {
+                compressed.writeTo(out);
+            }
+        });
+        server.createContext("/moved", exchange -> {
+            exchange.getResponseHeaders().add("Location", "/fixed");
+            exchange.sendResponseHeaders(302, -1);
+            exchange.close();
+        });
+        server.start();
+        baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+
+        underTest = new NioURLStreamStrategy(2, new SearchStatistics());
+    }
+
+    @After
+    public void tearDown() {
+        underTest.close();
+        server.stop(0);
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testThrowsOnZeroIoThreads() throws IOException {
+        new NioURLStreamStrategy(0, new SearchStatistics());
+    }
+
+    @Test
+    public void testFixedLengthResponse() throws Exception {
+        final CollectingListener listener = fetch("/fixed");
+
+        assertNull(listener.failure);
+        assertEquals(200, listener.head.getStatusCode());
+        assertEquals("hello\nworld\n", listener.content());
+    }
+
+    @Test
+    public void testChunkedResponse() throws Exception {
+        final CollectingListener listener = fetch("/chunked");
+
+        assertNull(listener.failure);
+        assertEquals("a\nb\nzzz\n", listener.content());
+    }
+
+    @Test
+    public void testGzipResponseIsDecoded() throws Exception {
+        final CollectingListener listener = fetch("/gzipped");
+
+        assertNull(listener.failure);
+        assertEquals("compressed\ncontent\n", listener.content());
+    }
+
+    @Test
+    public void testRedirectIsFollowed() throws Exception {
+        final CollectingListener listener = fetch("/moved");
+
+        assertNull(listener.failure);
+        assertEquals("hello\nworld\n", listener.content());
+    }
+
+    @Test
+    public void testErrorStatusIsFailure() throws Exception {
+        final CollectingListener listener = fetch("/missing");
+
+        assertNotNull(listener.failure);
+        assertNull(listener.head);
+    }
+
+    @Test
+    public void testConnectionRefusedIsFailure() throws Exception {
+        final int port = server.getAddress().getPort();
+        server.stop(0);
+
+        final CollectingListener listener = new CollectingListener();
+        underTest.fetch(URI.create("http://127.0.0.1:" + port + "/fixed").toURL(), listener);
+
+        assertTrue(listener.done.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        assertNotNull(listener.failure);
+    }
+
+    @Test
+    public void testHostThatNeverResolvesTimesOut() throws Exception {
+        try (NioURLStreamStrategy strategy = new NioURLStreamStrategy(1, new SearchStatistics(),
+                new FetchTimeouts(200, 1000, 5000, Long.MAX_VALUE), host -> new CompletableFuture<>())) {
+            final CollectingListener listener = new CollectingListener();
+            strategy.fetch(URI.create("http://never.resolves/").toURL(), listener);
+
+            assertTrue(listener.done.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+            assertTrue(listener.failure instanceof SocketTimeoutException);
+        }
+    }
+
+    @Test
+    public void testErrorInListenerFailsOnlyThatFetch() throws Exception {
+        try (NioURLStreamStrategy strategy = new NioURLStreamStrategy(1, new SearchStatistics())) {
+            final CollectingListener throwing = new CollectingListener() {
+                @Override
+                public void onResponse(HttpResponseHead head) {
+                    throw new StackOverflowError();
+                }
+            };
+            strategy.fetch(URI.create(baseUrl + "/fixed").toURL(), throwing);
+            assertTrue(throwing.done.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+            assertNotNull(throwing.failure);
+
+            // the only loop lives on
+            final CollectingListener listener = new CollectingListener();
+            strategy.fetch(URI.create(baseUrl + "/fixed").toURL(), listener);
+            assertTrue(listener.done.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+            assertEquals("hello\nworld\n", listener.content());
+        }
+    }
+
+    @Test
+    public void testManyConcurrentFetches() throws Exception {
+        final int count = 200;
+        final CollectingListener[] listeners = new CollectingListener[count];
+        for (int i = 0; i < count; i++) {
+            listeners[i] = new CollectingListener();
+            underTest.fetch(URI.create(baseUrl + (i % 2 == 0 ? "/fixed" : "/chunked")).toURL(), listeners[i]);
+        }
+
+        for (CollectingListener listener : listeners) {
+            assertTrue(listener.done.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+            assertNull(listener.failure);
+        }
+    }
+
+    @Test
+    public void testAsyncWorkerMatchesPages() throws Exception {
+        final BlockingQueue<WebsiteSearcherInput> inputQueue = new LinkedBlockingQueue<>();
+        final BlockingQueue<SearchResult> outputQueue = new LinkedBlockingQueue<>();
+        final AsyncWebsiteSearcherWorker worker = new AsyncWebsiteSearcherWorker(inputQueue, outputQueue,
+                underTest, 4, WebsiteSearcherListener.NONE, PageBudget.UNLIMITED, RetryHandler.NONE,
+                new CharsetDetector(StandardCharsets.UTF_8, new SearchStatistics()));
+        final Pattern pattern = Pattern.compile("z+");
+
+        worker.start();
+        try {
+            inputQueue.add(new WebsiteSearcherInput(pattern, URI.create(baseUrl + "/fixed").toURL()));
+            inputQueue.add(new WebsiteSearcherInput(pattern, URI.create(baseUrl + "/chunked").toURL()));
+            inputQueue.add(new WebsiteSearcherInput(pattern, URI.create(baseUrl + "/missing").toURL()));
+
+            assertEquals(baseUrl + "/chunked",
+                    outputQueue.poll(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS).toString());
+            assertNull(outputQueue.poll(500, TimeUnit.MILLISECONDS));
+        } finally {
+            worker.shutdown();
+        }
+    }
+
+    private CollectingListener fetch(String path) throws Exception {
+        final CollectingListener listener = new CollectingListener();
+        underTest.fetch(URI.create(baseUrl + path).toURL(), listener);
+        assertTrue(listener.done.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        return listener;
+    }
+
+    private void serve(String path, int status, String body, boolean chunked) {
+        server.createContext(path, exchange -> {
+            final byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(status, chunked ? 0 : bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        });
+    }
+
+    static class CollectingListener implements AsyncFetchListener {
+        final CountDownLatch done = new CountDownLatch(1);
+        volatile HttpResponseHead head;
+        volatile IOException failure;
+        private final ByteArrayOutputStream content = new ByteArrayOutputStream();
+
+        @Override
+        public void onResponse(HttpResponseHead head) {
+            this.head = head;
+        }
+
+        @Override
+        public boolean onData(ByteBuffer data) {
+            synchronized (content) {
+                while (data.hasRemaining()) {
+                    content.write(data.get());
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public void onComplete() {
+            done.countDown();
+        }
+
+        @Override
+        public void onFailure(IOException e) {
+            failure = e;
+            done.countDown();
+        }
+
+        String content() {
+            synchronized (content) {
+                return new String(content.toByteArray(), StandardCharsets.UTF_8);
+            }
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package dkaminsky;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+public class PageBudgetTests {
+    private static final long TIMEOUT_MILLIS = 10000L;
+    private static final String PAGE = "aaaaaaaaa\nbbbbbbbbb\nccccccccc\nzzzzzzzzz\n";
+    private static final CharsetDetector CHARSETS = new CharsetDetector(StandardCharsets.UTF_8, new SearchStatistics());
+
+    private BlockingQueue<WebsiteSearcherInput> inputQueue;
+    private BlockingQueue<SearchResult> outputQueue;
+    private BlockingQueue<SearchOutcome> outcomes;
+
+    @Before
+    public void setUp() {
+        inputQueue = new LinkedBlockingQueue<>();
+        outputQueue = new LinkedBlockingQueue<>();
+        outcomes = new LinkedBlockingQueue<>();
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testThrowsOnNonPositiveLimit() {
+        new PageBudget(0, Collections.emptyMap());
+    }
+
+    @Test
+    public void testLimitsByContentType() {
+        final Map<String, Long> limits = new HashMap<>();
+        limits.put("text/html", 100L);
+        limits.put("Text/*", 200L);
+        final PageBudget budget = new PageBudget(50, limits);
+
+        assertEquals(100L, budget.getLimit("text/html"));
+        assertEquals(100L, budget.getLimit("TEXT/HTML; charset=UTF-8"));
+        assertEquals(200L, budget.getLimit("text/plain"));
+        assertEquals(50L, budget.getLimit("application/pdf"));
+        assertEquals(50L, budget.getLimit(null));
+    }
+
+    @Test
+    public void testSettingsReadLimitsByContentType() {
+        final Properties properties = new Properties();
+        properties.setProperty(WebsiteSearcherSettings.MAX_BYTES_PER_PAGE, "1000");
+        properties.setProperty(WebsiteSearcherSettings.MAX_BYTES_PER_PAGE + ".text/html", "5000");
+        final PageBudget budget = new WebsiteSearcherSettings(properties).getPageBudget();
+
+        assertEquals(5000L, budget.getLimit("text/html"));
+        assertEquals(1000L, budget.getLimit("image/png"));
+    }
+
+    @Test
+    public void testLimitedStreamOnlyReportsLimitWhenContentRemains() throws IOException {
+        final byte[] content = "0123456789".getBytes(StandardCharsets.US_ASCII);
+
+        final LimitedInputStream exact = new LimitedInputStream(new ByteArrayInputStream(content), 10);
+        assertEquals(10, exact.read(new byte[20], 0, 20));
+        assertEquals(-1, exact.read());
+        assertFalse(exact.isLimitReached());
+
+        final LimitedInputStream cut = new LimitedInputStream(new ByteArrayInputStream(content), 4);
+        assertEquals(4, cut.read(new byte[20], 0, 20));
+        assertEquals(-1, cut.read());
+        assertTrue(cut.isLimitReached());
+    }
+
+    @Test
+    public void testWorkerGivesUpAtBudgetAndAbortsFetch() throws Exception {
+        final AtomicInteger aborts = new AtomicInteger();
+        final URLStreamStrategy strategy = new URLStreamStrategy() {
+            @Override
+            public InputStream openStream(URL url) {
+                return new ByteArrayInputStream(PAGE.getBytes(StandardCharsets.US_ASCII));
+            }
+
+            @Override
+            public FetchResponse fetch(URL url) {
+                return new FetchResponse(openStream(url), "text/plain", aborts::incrementAndGet);
+            }
+        };
+        final WebsiteSearcherWorker worker = new WebsiteSearcherWorker(inputQueue, outputQueue, strategy,
+                (input, outcome) -> outcomes.add(outcome), budgetFor("text/plain", 20), RetryHandler.NONE, CHARSETS);
+
+        worker.start();
+        try {
+            inputQueue.add(new WebsiteSearcherInput(Pattern.compile("z+"), URI.create("http://fakesite.com").toURL()));
+
+            assertEquals(SearchOutcome.NO_MATCH_WITHIN_BUDGET, outcomes.poll(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+            assertEquals(1, aborts.get());
+            assertTrue(outputQueue.isEmpty());
+        } finally {
+            worker.shutdown();
+            worker.interrupt();
+        }
+    }
+
+    @Test
+    public void testWorkerMatchesWithinBudget() throws Exception {
+        final WebsiteSearcherWorker worker = new WebsiteSearcherWorker(inputQueue, outputQueue,
+                url -> new ByteArrayInputStream(PAGE.getBytes(StandardCharsets.US_ASCII)),
+                (input, outcome) -> outcomes.add(outcome), new PageBudget(PAGE.length(), Collections.emptyMap()),
+                RetryHandler.NONE, CHARSETS);
+
+        worker.start();
+        try {
+            inputQueue.add(new WebsiteSearcherInput(Pattern.compile("z+"), URI.create("http://fakesite.com").toURL()));
+
+            assertEquals(SearchOutcome.MATCHED, outcomes.poll(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+            assertEquals("http://fakesite.com", outputQueue.poll().toString());
+        } finally {
+            worker.shutdown();
+            worker.interrupt();
+        }
+    }
+
+    @Test
+    public void testAsyncWorkerStopsFetchAtBudget() throws Exception {
+        final AtomicInteger delivered = new AtomicInteger();
+        final AsyncURLStreamStrategy strategy = (url, listener) -> {
+            listener.onResponse(new HttpResponseHead("HTTP/1.1", 200, "OK",
+                    Collections.singletonMap("Content-Type", Collections.singletonList("text/html"))));
+            final byte[] page = PAGE.getBytes(StandardCharsets.US_ASCII);
+            for (int i = 0; i < page.length; i += 10) {
+                final ByteBuffer chunk = ByteBuffer.wrap(page, i, Math.min(10, page.length - i));
+                final int before = chunk.remaining();
+                final boolean more = listener.onData(chunk);
+                delivered.addAndGet(before - chunk.remaining());
+                if (!more) {
+                    break;
+                }
+            }
+            listener.onComplete();
+            return () -> { };
+        };
+        final AsyncWebsiteSearcherWorker worker = new AsyncWebsiteSearcherWorker(inputQueue, outputQueue, strategy,
+                4, (input, outcome) -> outcomes.add(outcome), budgetFor("text/html", 25), RetryHandler.NONE,
+                CHARSETS);
+
+        worker.start();
+        try {
+            inputQueue.add(new WebsiteSearcherInput(Pattern.compile("z+"), URI.create("http://fakesite.com").toURL()));
+
+            assertEquals(SearchOutcome.NO_MATCH_WITHIN_BUDGET, outcomes.poll(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+            assertEquals(25, delivered.get());
+            assertTrue(outputQueue.isEmpty());
+        } finally {
+            worker.shutdown();
+            worker.interrupt();
+        }
+    }
+
+    @Test
+    public void testOutcomesAreCountedSeparately() {
+        final SearchStatistics statistics = new SearchStatistics();
+        final WebsiteSearcherListener listener = new OutcomeCounter(statistics);
+
+        listener.onFinished(null, SearchOutcome.NOT_MATCHED);
+        listener.onFinished(null, SearchOutcome.NO_MATCH_WITHIN_BUDGET);
+        listener.onFinished(null, SearchOutcome.NO_MATCH_WITHIN_BUDGET);
+
+        assertEquals(1L, statistics.get(OutcomeCounter.NOT_MATCHED));
+        assertEquals(2L, statistics.get(OutcomeCounter.NO_MATCH_WITHIN_BUDGET));
+        assertEquals(0L, statistics.get(OutcomeCounter.MATCHED));
+    }
+
+    private static PageBudget budgetFor(String contentType, long limit) {
+        return new PageBudget(Long.MAX_VALUE, Collections.singletonMap(contentType, limit));
+    }
+}
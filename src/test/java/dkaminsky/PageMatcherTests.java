@@ -0,0 +1,87 @@
+package dkaminsky;
+
+import org.junit.Test;
+
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+public class PageMatcherTests {
+    private final BlockingQueue<SearchResult> outputQueue = new LinkedBlockingQueue<>();
+    private final PageMatcher matcher = new PageMatcher(outputQueue,
+            new CharsetDetector(StandardCharsets.UTF_8, new SearchStatistics()));
+
+    /**
+     * Content from the given chunks, remembering whether it was aborted.
+     */
+    private static final class Chunks implements PageMatcher.Content {
+        private final Deque<ByteBuffer> chunks = new ArrayDeque<>();
+        private final boolean limitReached;
+        private boolean aborted;
+
+        Chunks(final boolean limitReached, final String... chunks) {
+            this.limitReached = limitReached;
+            for (String chunk : chunks) {
+                this.chunks.add(ByteBuffer.wrap(chunk.getBytes(StandardCharsets.US_ASCII)));
+            }
+        }
+
+        @Override
+        public ByteBuffer next() {
+            return chunks.poll();
+        }
+
+        @Override
+        public boolean isLimitReached() {
+            return limitReached;
+        }
+
+        @Override
+        public void abort() {
+            aborted = true;
+        }
+    }
+
+    private SearchOutcome search(final Pattern pattern, final Chunks content) throws Exception {
+        return matcher.search(new WebsiteSearcherInput(pattern, URI.create("http://site.com").toURL()), "text/plain",
+                content.next(), content);
+    }
+
+    @Test
+    public void testMatchEndsTheSearchEarly() throws Exception {
+        final Chunks content = new Chunks(false, "zzz\n", "more\n", "and more\n");
+        assertEquals(SearchOutcome.MATCHED, search(Pattern.compile("z+"), content));
+        assertTrue(content.aborted);
+        assertEquals(2, content.chunks.size());
+        assertEquals("http://site.com", outputQueue.take().getUrl().toString());
+    }
+
+    @Test
+    public void testContentCutShortIsNoMatchWithinBudget() throws Exception {
+        final Chunks content = new Chunks(true, "aaa\n", "bbb\n");
+        assertEquals(SearchOutcome.NO_MATCH_WITHIN_BUDGET, search(Pattern.compile("z+"), content));
+        assertTrue(content.aborted);
+        assertTrue(outputQueue.isEmpty());
+    }
+
+    @Test
+    public void testErrorInSearchFailsThePage() throws Exception {
+        final char[] line = new char[200000];
+        Arrays.fill(line, 'a');
+        final Chunks content = new Chunks(false, new String(line) + "\n", "zzz\n");
+        // the backtracking regex overflows the stack on the long line
+        assertEquals(SearchOutcome.FAILED, search(Pattern.compile("(a|b)*c"), content));
+        assertTrue(content.aborted);
+        assertTrue(outputQueue.isEmpty());
+
+        assertEquals(SearchOutcome.MATCHED, search(Pattern.compile("z+"), new Chunks(false, "zzz\n")));
+    }
+}
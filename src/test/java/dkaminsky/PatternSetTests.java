@@ -0,0 +1,186 @@
+package dkaminsky;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+public class PatternSetTests {
+    private static final Pattern LITERAL = Pattern.compile("quick brown");
+    private static final Pattern FOLDED_LITERAL = Pattern.compile("LAZY", Pattern.CASE_INSENSITIVE);
+    private static final Pattern REGEX = Pattern.compile("j[a-z]+s");
+
+    private final PatternSet underTest = new PatternSet(Arrays.asList(LITERAL, FOLDED_LITERAL, REGEX));
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testThrowsOnNoPatterns() {
+        new PatternSet(Collections.emptyList());
+    }
+
+    @Test
+    public void testFindsLiteralsOfPlainPatterns() {
+        assertEquals("quick brown", PatternSet.literalOf(LITERAL));
+        assertEquals("a.b", PatternSet.literalOf(Pattern.compile("a.b", Pattern.LITERAL)));
+        assertNull(PatternSet.literalOf(REGEX));
+        assertNull(PatternSet.literalOf(Pattern.compile("")));
+        assertNull(PatternSet.literalOf(Pattern.compile("lazy", Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE)));
+    }
+
+    @Test
+    public void testMatchesEveryPatternAcrossLines() {
+        final PatternSet.Scan scan = underTest.newScan();
+
+        assertFalse(scan.test("The quick brown fox"));
+        assertEquals(Collections.singletonList(LITERAL), scan.getMatched());
+        assertFalse(scan.test("jumps over"));
+        assertTrue(scan.test("the lazy dog"));
+        assertEquals(Arrays.asList(LITERAL, FOLDED_LITERAL, REGEX), scan.getMatched());
+    }
+
+    @Test
+    public void testRespectsCaseOfLiterals() {
+        final PatternSet.Scan scan = underTest.newScan();
+
+        scan.test("THE QUICK BROWN FOX and the LaZy dog");
+        assertEquals(Collections.singletonList(FOLDED_LITERAL), scan.getMatched());
+    }
+
+    @Test
+    public void testFindsOverlappingLiterals() {
+        final Pattern he = Pattern.compile("he");
+        final Pattern she = Pattern.compile("she");
+        final Pattern hers = Pattern.compile("hers");
+        final PatternSet.Scan scan = new PatternSet(Arrays.asList(he, she, hers)).newScan();
+
+        assertFalse(scan.test("ushe"));
+        assertEquals(Arrays.asList(he, she), scan.getMatched());
+        assertTrue(scan.test("ahersb"));
+    }
+
+    @Test
+    public void testSearchesBytesOfAsciiLiterals() {
+        final PatternSet literals = new PatternSet(Arrays.asList(LITERAL, FOLDED_LITERAL));
+
+        assertFalse(literals.newMatcher(StandardCharsets.UTF_8) instanceof LineMatcher);
+        assertFalse(literals.newMatcher(StandardCharsets.ISO_8859_1) instanceof LineMatcher);
+        // whose line breaks can't be found before decoding
+        assertTrue(literals.newMatcher(StandardCharsets.UTF_16) instanceof WindowMatcher);
+        assertTrue(underTest.newMatcher(StandardCharsets.UTF_8) instanceof LineMatcher);
+        assertTrue(new PatternSet(Collections.singletonList(Pattern.compile("caf\u00e9")))
+                .newMatcher(StandardCharsets.UTF_8) instanceof LineMatcher);
+    }
+
+    @Test
+    public void testByteSearchConfirmsCaseAcrossPieces() {
+        final ContentMatcher matcher = new PatternSet(Arrays.asList(LITERAL, FOLDED_LITERAL))
+                .newMatcher(StandardCharsets.UTF_8);
+
+        assertFalse(matcher.feed(bytes("the QUICK BROWN fox, the qui")));
+        assertFalse(matcher.feed(bytes("ck br")));
+        assertEquals(Collections.emptyList(), matcher.getMatched());
+        assertFalse(matcher.feed(bytes("own fox and the La")));
+        assertEquals(Collections.singletonList(LITERAL), matcher.getMatched());
+
+        final ByteBuffer rest = bytes("Zy dog sleeps");
+        assertTrue(matcher.feed(rest));
+        assertEquals(2, rest.position());
+        assertEquals(Arrays.asList(LITERAL, FOLDED_LITERAL), matcher.getMatched());
+    }
+
+    @Test
+    public void testByteAndLineSearchAgree() {
+        final List<Pattern> patterns = Arrays.asList(Pattern.compile("and"), Pattern.compile(" AND ",
+                Pattern.CASE_INSENSITIVE), Pattern.compile("\u00e9"));
+        final String content = "Sand\r\nthis\rthat AnD then\n caf\u00e9\nmore";
+        for (int piece = 1; piece <= content.length(); piece++) {
+            final ContentMatcher bytes = new PatternSet(patterns.subList(0, 2)).newMatcher(StandardCharsets.UTF_8);
+            final ContentMatcher lines = new PatternSet(patterns).newMatcher(StandardCharsets.UTF_8);
+            final byte[] encoded = content.getBytes(StandardCharsets.UTF_8);
+            for (int i = 0; i < encoded.length; i += piece) {
+                bytes.feed(ByteBuffer.wrap(encoded, i, Math.min(piece, encoded.length - i)));
+                lines.feed(ByteBuffer.wrap(encoded, i, Math.min(piece, encoded.length - i)));
+            }
+            bytes.finish();
+            lines.finish();
+            assertEquals(patterns.subList(0, 2), bytes.getMatched());
+            assertEquals(patterns, lines.getMatched());
+        }
+    }
+
+    @Test
+    public void testAgreesWithRegexEngine() {
+        final List<Pattern> patterns = new ArrayList<>();
+        for (String literal : new String[] {"and", "an", "nd ", "Sand", " and ", "dna"}) {
+            patterns.add(Pattern.compile(literal));
+            patterns.add(Pattern.compile(literal, Pattern.CASE_INSENSITIVE));
+        }
+        final PatternSet set = new PatternSet(patterns);
+        for (String line : new String[] {"", "and", "SAND and", "sandy", "d n a", "dnAnd", "an ND"}) {
+            final List<Pattern> expected = new ArrayList<>();
+            for (Pattern pattern : patterns) {
+                if (pattern.matcher(line).find()) {
+                    expected.add(pattern);
+                }
+            }
+            final PatternSet.Scan scan = set.newScan();
+            scan.test(line);
+            assertEquals(line, expected, scan.getMatched());
+
+            final ContentMatcher matcher = set.newMatcher(Charset.forName("windows-1252"));
+            matcher.feed(bytes(line));
+            matcher.finish();
+            assertEquals(line, expected, matcher.getMatched());
+        }
+    }
+
+    @Test
+    public void testRunsRegexOnlyOnLinesWithItsLiteral() {
+        final SearchStatistics statistics = new SearchStatistics();
+        final Pattern and = Pattern.compile(".*\\sand\\s.*", Pattern.CASE_INSENSITIVE);
+        final LineMatcher matcher = (LineMatcher) new PatternSet(Collections.singletonList(and), statistics)
+                .newMatcher(StandardCharsets.UTF_8);
+
+        assertFalse(matcher.feed(bytes("nothing here\nsandwiches\nor there\n")));
+        assertTrue(matcher.feed(bytes("this AND that\n")));
+        matcher.finish();
+
+        assertEquals(Collections.singletonList(and), matcher.getMatched());
+        assertEquals(2L, statistics.get(PatternSet.REGEX_RUNS));
+        assertEquals(2L, statistics.get(PatternSet.REGEX_SKIPS));
+    }
+
+    @Test
+    public void testPrefilteredRegexesAgreeWithRegexEngine() {
+        final List<Pattern> patterns = new ArrayList<>();
+        for (String regex : new String[] {".*\\sand\\s.*", "(cat|dog)s?", "an+d", "x{2,}y|zz", "\\bo?n\\b"}) {
+            patterns.add(Pattern.compile(regex));
+            patterns.add(Pattern.compile(regex, Pattern.CASE_INSENSITIVE));
+        }
+        final PatternSet set = new PatternSet(patterns);
+        final String[] lines = {"", "and", "this and that", "THIS AND THAT", "hot dogs", "CATS", "annnd", "ad",
+                "xxy", "xy zz", "on", "an n", "o n"};
+        for (String line : lines) {
+            final List<Pattern> expected = new ArrayList<>();
+            for (Pattern pattern : patterns) {
+                if (pattern.matcher(line).find()) {
+                    expected.add(pattern);
+                }
+            }
+            final PatternSet.Scan scan = set.newScan();
+            scan.test(line);
+            assertEquals(line, expected, scan.getMatched());
+        }
+    }
+
+    private static ByteBuffer bytes(final String text) {
+        return ByteBuffer.wrap(text.getBytes(StandardCharsets.US_ASCII));
+    }
+}
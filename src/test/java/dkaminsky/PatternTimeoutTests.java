@@ -0,0 +1,130 @@
+package dkaminsky;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+public class PatternTimeoutTests {
+    private static final long TIMEOUT_MILLIS = 10000L;
+    /** Takes time exponential in the run of a's before the b, which is far beyond any test's patience at 40. */
+    private static final Pattern CATASTROPHIC = Pattern.compile("((a+)+)+$");
+    private static final String LINE = "aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaab";
+    private static final MatchOptions TIMED = new MatchOptions(MatchOptions.Mode.LINE,
+            MatchOptions.DEFAULT_WINDOW_CHARS, MatchOptions.DEFAULT_LOOKBACK_CHARS, MatchOptions.Engine.JDK, false,
+            100);
+
+    private static PatternSet patternsOf(final List<Pattern> patterns, final MatchOptions options) {
+        return new PatternSet(patterns, new SearchStatistics(), options);
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testThrowsOnNegativeTimeout() {
+        new MatchOptions(MatchOptions.Mode.LINE, MatchOptions.DEFAULT_WINDOW_CHARS,
+                MatchOptions.DEFAULT_LOOKBACK_CHARS, MatchOptions.Engine.JDK, false, -1);
+    }
+
+    @Test
+    public void testScanGivesUpOnCatastrophicBacktracking() {
+        final Pattern literal = Pattern.compile("zebra");
+        final PatternSet.Scan scan = patternsOf(Arrays.asList(literal, CATASTROPHIC), TIMED).newScan();
+        assertFalse(scan.test("zebras"));
+
+        final long start = System.nanoTime();
+        try {
+            scan.test(LINE);
+            fail("Expected the pattern to time out");
+        } catch (PatternTimeoutException e) {
+            assertSame(CATASTROPHIC, e.getPattern());
+        }
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MILLIS));
+        assertEquals(Collections.singletonList(literal), scan.getMatched());
+
+        // a new page has a new budget
+        scan.reset();
+        assertFalse(scan.test("aaa"));
+        assertEquals(Collections.singletonList(CATASTROPHIC), scan.getMatched());
+    }
+
+    @Test
+    public void testUntimedScanIsUnaffected() {
+        final PatternSet.Scan scan = patternsOf(Collections.singletonList(CATASTROPHIC), MatchOptions.DEFAULT)
+                .newScan();
+        assertTrue(scan.test("aaaa"));
+    }
+
+    @Test
+    public void testInterruptedThreadGivesUp() {
+        final InterruptibleCharSequence text = new InterruptibleCharSequence();
+        text.reset(LINE, CATASTROPHIC, System.nanoTime() + TimeUnit.HOURS.toNanos(1));
+        Thread.currentThread().interrupt();
+        try {
+            CATASTROPHIC.matcher(text).find();
+            fail("Expected the pattern to give up");
+        } catch (PatternTimeoutException e) {
+            assertSame(CATASTROPHIC, e.getPattern());
+        } finally {
+            Thread.interrupted();
+        }
+    }
+
+    @Test
+    public void testSettingsReadTimeout() {
+        assertEquals(MatchOptions.DEFAULT_PATTERN_TIMEOUT_MILLIS,
+                new WebsiteSearcherSettings(new Properties()).getMatchOptions().getPatternTimeoutMillis());
+        final Properties properties = new Properties();
+        properties.setProperty(WebsiteSearcherSettings.MATCH_PATTERN_TIMEOUT_MILLIS, "250");
+        assertEquals(250L, new WebsiteSearcherSettings(properties).getMatchOptions().getPatternTimeoutMillis());
+    }
+
+    @Test
+    public void testWorkerReportsTimeoutAndWhatMatchedBefore() throws Exception {
+        final byte[] page = ("zebras\n" + LINE + "\nmore\n").getBytes(StandardCharsets.US_ASCII);
+        final AtomicInteger aborts = new AtomicInteger();
+        final URLStreamStrategy strategy = new URLStreamStrategy() {
+            @Override
+            public InputStream openStream(URL url) {
+                return new ByteArrayInputStream(page);
+            }
+
+            @Override
+            public FetchResponse fetch(URL url) {
+                return new FetchResponse(openStream(url), "text/plain", aborts::incrementAndGet);
+            }
+        };
+        final BlockingQueue<WebsiteSearcherInput> inputQueue = new LinkedBlockingQueue<>();
+        final BlockingQueue<SearchResult> outputQueue = new LinkedBlockingQueue<>();
+        final BlockingQueue<SearchOutcome> outcomes = new LinkedBlockingQueue<>();
+        final WebsiteSearcherWorker worker = new WebsiteSearcherWorker(inputQueue, outputQueue, strategy,
+                (input, outcome) -> outcomes.add(outcome), new PageBudget(Long.MAX_VALUE, Collections.emptyMap()),
+                RetryHandler.NONE, new CharsetDetector(StandardCharsets.UTF_8, new SearchStatistics()));
+        final Pattern literal = Pattern.compile("zebra");
+
+        worker.start();
+        try {
+            inputQueue.add(new WebsiteSearcherInput(patternsOf(Arrays.asList(literal, CATASTROPHIC), TIMED),
+                    URI.create("http://fakesite.com").toURL()));
+
+            assertEquals(SearchOutcome.PATTERN_TIMEOUT, outcomes.poll(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+            assertEquals(1, aborts.get());
+            assertEquals(Collections.singletonList(literal), outputQueue.take().getMatchedPatterns());
+        } finally {
+            worker.shutdown();
+            worker.interrupt();
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package dkaminsky;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class ResponseCacheTests {
+    private static final String PAGE = "first line\nsecond line\nthird line\n";
+
+    private HttpServer server;
+    private Path directory;
+    private SearchStatistics statistics;
+    private CachingURLStreamStrategy underTest;
+    private final AtomicInteger fullResponses = new AtomicInteger();
+    private volatile String etag = "\"v1\"";
+    private volatile String content = PAGE;
+    private String baseUrl;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/page", exchange -> {
+            if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                exchange.sendResponseHeaders(304, -1);
+                exchange.close();
+                return;
+            }
+            fullResponses.incrementAndGet();
+            final byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("ETag", etag);
+            exchange.getResponseHeaders().add("Content-Type", "text/plain");
+            exchange.sendResponseHeaders(200, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        });
+        server.createContext("/unvalidated", exchange -> {
+            fullResponses.incrementAndGet();
+            final byte[] bytes = PAGE.getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        });
+        server.start();
+        baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+
+        directory = Files.createTempDirectory("response-cache");
+        statistics = new SearchStatistics();
+        underTest = new CachingURLStreamStrategy(new OpenStreamURLStreamStrategy(statistics),
+                new ResponseCache(directory, 1024L), statistics);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.stop(0);
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testThrowsOnNullCache() {
+        new CachingURLStreamStrategy(new OpenStreamURLStreamStrategy(), null, statistics);
+    }
+
+    @Test
+    public void testServesUnchangedContentFromCache() throws IOException {
+        assertEquals(PAGE, readAll(URI.create(baseUrl + "/page").toURL(), Integer.MAX_VALUE));
+        assertEquals(PAGE, readAll(URI.create(baseUrl + "/page").toURL(), Integer.MAX_VALUE));
+
+        final FetchResponse response = underTest.fetch(URI.create(baseUrl + "/page").toURL());
+        response.close();
+        assertEquals("text/plain", response.getContentType());
+        assertEquals(1, fullResponses.get());
+        assertEquals(1L, statistics.get(CachingURLStreamStrategy.MISSES));
+        assertEquals(2L, statistics.get(CachingURLStreamStrategy.HITS));
+    }
+
+    @Test
+    public void testRefetchesChangedContent() throws IOException {
+        readAll(URI.create(baseUrl + "/page").toURL(), Integer.MAX_VALUE);
+        etag = "\"v2\"";
+        content = "new content\n";
+
+        assertEquals("new content\n", readAll(URI.create(baseUrl + "/page").toURL(), Integer.MAX_VALUE));
+        assertEquals("new content\n", readAll(URI.create(baseUrl + "/page").toURL(), Integer.MAX_VALUE));
+        assertEquals(2, fullResponses.get());
+        assertEquals(1L, statistics.get(CachingURLStreamStrategy.CHANGED));
+    }
+
+    @Test
+    public void testContinuesPastStoredPrefix() throws IOException {
+        assertEquals("first", readAll(URI.create(baseUrl + "/page").toURL(), 5));
+        assertEquals("first", readAll(URI.create(baseUrl + "/page").toURL(), 5));
+        assertEquals(1, fullResponses.get());
+
+        assertEquals(PAGE, readAll(URI.create(baseUrl + "/page").toURL(), Integer.MAX_VALUE));
+        assertEquals(2, fullResponses.get());
+        assertEquals(1L, statistics.get(CachingURLStreamStrategy.REFETCHES));
+
+        // the whole page was read the second time round, so it is stored in full now
+        assertEquals(PAGE, readAll(URI.create(baseUrl + "/page").toURL(), Integer.MAX_VALUE));
+        assertEquals(2, fullResponses.get());
+    }
+
+    @Test
+    public void testStoresOnlyUpToLimit() throws IOException {
+        final CachingURLStreamStrategy small = new CachingURLStreamStrategy(new OpenStreamURLStreamStrategy(statistics),
+                new ResponseCache(directory, 4L), statistics);
+        final URL url = URI.create(baseUrl + "/page").toURL();
+
+        assertEquals(PAGE, read(small.fetch(url), Integer.MAX_VALUE));
+        assertEquals(PAGE, read(small.fetch(url), Integer.MAX_VALUE));
+        assertEquals(2, fullResponses.get());
+        assertEquals(1L, statistics.get(CachingURLStreamStrategy.REFETCHES));
+    }
+
+    @Test
+    public void testDoesNotStoreContentWithoutValidators() throws IOException {
+        readAll(URI.create(baseUrl + "/unvalidated").toURL(), Integer.MAX_VALUE);
+        readAll(URI.create(baseUrl + "/unvalidated").toURL(), Integer.MAX_VALUE);
+
+        assertEquals(2, fullResponses.get());
+        assertEquals(2L, statistics.get(CachingURLStreamStrategy.MISSES));
+    }
+
+    @Test
+    public void testPooledStrategySendsValidators() throws IOException {
+        try (ConnectionPool<HttpConnection> pool = new ConnectionPool<>(2, 60000L, HttpConnection::open, statistics)) {
+            final CachingURLStreamStrategy pooled = new CachingURLStreamStrategy(
+                    new PooledURLStreamStrategy(pool, statistics), new ResponseCache(directory, 1024L), statistics);
+            final URL url = URI.create(baseUrl + "/page").toURL();
+
+            assertEquals(PAGE, read(pooled.fetch(url), Integer.MAX_VALUE));
+            assertEquals(PAGE, read(pooled.fetch(url), Integer.MAX_VALUE));
+            assertEquals(1, fullResponses.get());
+        }
+    }
+
+    private String readAll(final URL url, final int limit) throws IOException {
+        return read(underTest.fetch(url), limit);
+    }
+
+    private static String read(final FetchResponse response, final int limit) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = response.getContent()) {
+            final byte[] buffer = new byte[4];
+            int count;
+            while (out.size() < limit
+                    && (count = in.read(buffer, 0, Math.min(buffer.length, limit - out.size()))) >= 0) {
+                out.write(buffer, 0, count);
+            }
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,136 @@
+package dkaminsky;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.nio.charset.Charset;
+import java.net.URI;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+public class RetrySchedulerTests {
+    private static final long TIMEOUT_MILLIS = 10000L;
+
+    private BlockingQueue<WebsiteSearcherInput> inputQueue;
+    private SearchStatistics statistics;
+    private RetryScheduler underTest;
+    private WebsiteSearcherInput input;
+
+    @Before
+    public void setUp() throws Exception {
+        inputQueue = new LinkedBlockingQueue<>();
+        statistics = new SearchStatistics();
+        underTest = new RetryScheduler(inputQueue, 3, 1L, 10L, statistics);
+        underTest.start();
+        input = new WebsiteSearcherInput(Pattern.compile("z+"), URI.create("http://fakesite.com").toURL());
+    }
+
+    @After
+    public void tearDown() {
+        underTest.close();
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testThrowsOnZeroAttempts() {
+        new RetryScheduler(inputQueue, 0, 1L, 10L, statistics);
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testThrowsOnMaxDelayBelowBase() {
+        new RetryScheduler(inputQueue, 3, 10L, 1L, statistics);
+    }
+
+    @Test
+    public void testClassifiesFailures() throws Exception {
+        final URL url = URI.create("http://fakesite.com").toURL();
+        assertEquals(RetryScheduler.FailureKind.TIMEOUT, RetryScheduler.classify(new SocketTimeoutException()));
+        assertEquals(RetryScheduler.FailureKind.RESET, RetryScheduler.classify(new IOException("Connection reset")));
+        assertEquals(RetryScheduler.FailureKind.RESET, RetryScheduler.classify(new EOFException()));
+        assertEquals(RetryScheduler.FailureKind.SERVER_ERROR,
+                RetryScheduler.classify(new HttpStatusException(503, null, url)));
+        assertEquals(RetryScheduler.FailureKind.RATE_LIMITED,
+                RetryScheduler.classify(new HttpStatusException(429, null, url)));
+        assertEquals(RetryScheduler.FailureKind.PERMANENT,
+                RetryScheduler.classify(new HttpStatusException(404, null, url)));
+        assertEquals(RetryScheduler.FailureKind.PERMANENT, RetryScheduler.classify(new UnknownHostException()));
+    }
+
+    @Test
+    public void testParsesRetryAfter() {
+        assertEquals(0L, RetryScheduler.parseRetryAfter(null, 0L));
+        assertEquals(0L, RetryScheduler.parseRetryAfter("soon", 0L));
+        assertEquals(120000L, RetryScheduler.parseRetryAfter("120", 0L));
+        assertEquals(2000L, RetryScheduler.parseRetryAfter("Thu, 01 Jan 1970 00:00:02 GMT", 0L));
+        assertEquals(0L, RetryScheduler.parseRetryAfter("Thu, 01 Jan 1970 00:00:02 GMT", 5000L));
+    }
+
+    @Test
+    public void testRequeuesTransientFailure() throws Exception {
+        assertTrue(underTest.retry(input, new SocketTimeoutException()));
+
+        assertSame(input, inputQueue.poll(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        assertEquals(1L, statistics.get(RetryScheduler.SCHEDULED));
+        assertEquals(1L, statistics.get("retry.timeout"));
+    }
+
+    @Test
+    public void testGivesUpOnPermanentFailure() throws Exception {
+        assertFalse(underTest.retry(input, new UnknownHostException("fakesite.com")));
+
+        assertEquals(0, underTest.getPendingCount());
+        assertEquals(0L, statistics.get(RetryScheduler.SCHEDULED));
+    }
+
+    @Test
+    public void testGivesUpAfterMaxAttempts() throws Exception {
+        assertTrue(underTest.retry(input, new SocketTimeoutException()));
+        assertTrue(underTest.retry(input, new SocketTimeoutException()));
+        assertFalse(underTest.retry(input, new SocketTimeoutException()));
+
+        assertEquals(2L, statistics.get(RetryScheduler.SCHEDULED));
+        assertEquals(1L, statistics.get(RetryScheduler.EXHAUSTED));
+    }
+
+    @Test
+    public void testForgetsAttemptsOnceFinished() throws Exception {
+        assertTrue(underTest.retry(input, new SocketTimeoutException()));
+        assertTrue(underTest.retry(input, new SocketTimeoutException()));
+        underTest.onFinished(input, SearchOutcome.RETRYING);
+        underTest.onFinished(input, SearchOutcome.MATCHED);
+
+        assertTrue(underTest.retry(input, new SocketTimeoutException()));
+    }
+
+    @Test
+    public void testWorkerReportsRetrying() throws Exception {
+        final BlockingQueue<SearchOutcome> outcomes = new LinkedBlockingQueue<>();
+        final WebsiteSearcherWorker worker = new WebsiteSearcherWorker(inputQueue, new LinkedBlockingQueue<>(),
+                url -> {
+                    throw new SocketTimeoutException("Read timed out");
+                },
+                (finished, outcome) -> outcomes.add(outcome), PageBudget.UNLIMITED, underTest,
+                new CharsetDetector(Charset.defaultCharset(), new SearchStatistics()));
+
+        worker.start();
+        try {
+            inputQueue.add(input);
+
+            assertEquals(SearchOutcome.RETRYING, outcomes.poll(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+            assertEquals(SearchOutcome.RETRYING, outcomes.poll(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+            assertEquals(SearchOutcome.FAILED, outcomes.poll(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        } finally {
+            worker.shutdown();
+            worker.interrupt();
+        }
+    }
+}
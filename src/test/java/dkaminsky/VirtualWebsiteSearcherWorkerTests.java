@@ -0,0 +1,140 @@
+package dkaminsky;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+public class VirtualWebsiteSearcherWorkerTests {
+    private static final long TIMEOUT_MILLIS = 10000L;
+    private static final CharsetDetector CHARSETS = new CharsetDetector(StandardCharsets.UTF_8, new SearchStatistics());
+    private static final Pattern SEARCH_PATTERN = Pattern.compile("z+");
+
+    private final BlockingQueue<WebsiteSearcherInput> inputQueue = new LinkedBlockingQueue<>();
+    private final BlockingQueue<SearchResult> outputQueue = new LinkedBlockingQueue<>();
+    private final BlockingQueue<SearchOutcome> outcomes = new LinkedBlockingQueue<>();
+
+    /**
+     * Blocks every fetch until the given number of fetches are blocked at once.
+     */
+    private static URLStreamStrategy blockingUntil(final CountDownLatch fetching, final AtomicInteger mostInFlight) {
+        final AtomicInteger inFlight = new AtomicInteger();
+        return url -> {
+            mostInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            fetching.countDown();
+            try {
+                if (!fetching.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                    throw new IOException("Fewer fetches in flight than expected");
+                }
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            } finally {
+                inFlight.decrementAndGet();
+            }
+            return new ByteArrayInputStream("zzz\n".getBytes(StandardCharsets.US_ASCII));
+        };
+    }
+
+    private VirtualWebsiteSearcherWorker worker(final URLStreamStrategy strategy, final int maxInFlight) {
+        return new VirtualWebsiteSearcherWorker(inputQueue, outputQueue, strategy, maxInFlight,
+                (input, outcome) -> outcomes.add(outcome), PageBudget.UNLIMITED, RetryHandler.NONE, CHARSETS);
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testThrowsOnNullOutputQueue() {
+        new VirtualWebsiteSearcherWorker(inputQueue, null, url -> (InputStream) null, 1,
+                WebsiteSearcherListener.NONE, PageBudget.UNLIMITED, RetryHandler.NONE, CHARSETS);
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testThrowsOnZeroInFlight() {
+        worker(url -> (InputStream) null, 0);
+    }
+
+    @Test
+    public void testThousandsOfBlockingFetchesAreInFlightAtOnce() throws Exception {
+        final int fetches = 2000;
+        final AtomicInteger mostInFlight = new AtomicInteger();
+        final VirtualWebsiteSearcherWorker worker = worker(blockingUntil(new CountDownLatch(fetches), mostInFlight),
+                fetches);
+        worker.start();
+        try {
+            for (int i = 0; i < fetches; i++) {
+                inputQueue.add(new WebsiteSearcherInput(SEARCH_PATTERN,
+                        URI.create("http://site" + i + ".com").toURL()));
+            }
+            for (int i = 0; i < fetches; i++) {
+                assertEquals(SearchOutcome.MATCHED, outcomes.poll(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+            }
+            assertEquals(fetches, mostInFlight.get());
+            assertEquals(fetches, outputQueue.size());
+            assertEquals(Collections.singletonList(SEARCH_PATTERN), outputQueue.take().getMatchedPatterns());
+        } finally {
+            worker.shutdown();
+            worker.interrupt();
+        }
+    }
+
+    @Test
+    public void testFetchesInFlightAreBounded() throws Exception {
+        final AtomicInteger mostInFlight = new AtomicInteger();
+        final VirtualWebsiteSearcherWorker worker = worker(blockingUntil(new CountDownLatch(2), mostInFlight), 2);
+        worker.start();
+        try {
+            for (int i = 0; i < 10; i++) {
+                inputQueue.add(new WebsiteSearcherInput(SEARCH_PATTERN,
+                        URI.create("http://site" + i + ".com").toURL()));
+            }
+            for (int i = 0; i < 10; i++) {
+                assertEquals(SearchOutcome.MATCHED, outcomes.poll(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+                assertTrue(worker.getInFlight() <= 2);
+            }
+            assertEquals(2, mostInFlight.get());
+        } finally {
+            worker.shutdown();
+            worker.interrupt();
+        }
+    }
+
+    @Test
+    public void testDfaStatesAreReusedAcrossPages() throws Exception {
+        final SearchStatistics statistics = new SearchStatistics();
+        final MatchOptions options = new MatchOptions(MatchOptions.Mode.LINE, MatchOptions.DEFAULT_WINDOW_CHARS,
+                MatchOptions.DEFAULT_LOOKBACK_CHARS, MatchOptions.Engine.DFA);
+        final PatternSet patterns = new PatternSet(
+                Collections.singletonList(Pattern.compile("qu[a-z]+k", Pattern.CASE_INSENSITIVE)), statistics, options);
+        final VirtualWebsiteSearcherWorker worker = worker(url -> new ByteArrayInputStream(
+                "the quick brown fox\nquack\n".getBytes(StandardCharsets.US_ASCII)), 1);
+        worker.start();
+        try {
+            // each page runs on a virtual thread of its own
+            inputQueue.add(new WebsiteSearcherInput(patterns, URI.create("http://site0.com").toURL()));
+            assertEquals(SearchOutcome.MATCHED, outcomes.poll(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+            final long built = statistics.get(PatternSet.DFA_STATES_BUILT);
+            assertTrue(built > 0);
+
+            for (int i = 1; i < 20; i++) {
+                inputQueue.add(new WebsiteSearcherInput(patterns, URI.create("http://site" + i + ".com").toURL()));
+            }
+            for (int i = 1; i < 20; i++) {
+                assertEquals(SearchOutcome.MATCHED, outcomes.poll(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+            }
+            assertEquals(built, statistics.get(PatternSet.DFA_STATES_BUILT));
+        } finally {
+            worker.shutdown();
+            worker.interrupt();
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package dkaminsky;
+
+import org.junit.Test;
+
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class WebsiteSearcherSettingsTests {
+    private static WebsiteSearcherSettings settings(final String key, final String value) {
+        final Properties properties = new Properties();
+        properties.setProperty(key, value);
+        return new WebsiteSearcherSettings(properties);
+    }
+
+    @Test
+    public void testJobTimeoutDefaultsToNoLimit() {
+        assertEquals(0L, new WebsiteSearcherSettings(new Properties()).getJobTimeoutMillis());
+    }
+
+    @Test
+    public void testJobTimeoutOfZeroMeansNoLimit() {
+        final WebsiteSearcherSettings settings = settings(WebsiteSearcherSettings.JOB_TIMEOUT_MILLIS, "0");
+        assertEquals(0L, settings.getJobTimeoutMillis());
+        final long started = System.nanoTime();
+        assertEquals(started + TimeUnit.MILLISECONDS.toNanos(FetchTimeouts.DEFAULT_TOTAL_MILLIS),
+                settings.getFetchTimeouts(started).getDeadline(started));
+    }
+
+    @Test
+    public void testJobTimeoutIsRead() {
+        assertEquals(60000L, settings(WebsiteSearcherSettings.JOB_TIMEOUT_MILLIS, "60000").getJobTimeoutMillis());
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testThrowsOnNegativeJobTimeout() {
+        settings(WebsiteSearcherSettings.JOB_TIMEOUT_MILLIS, "-1").getJobTimeoutMillis();
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testThrowsOnZeroForPositiveSetting() {
+        settings(WebsiteSearcherSettings.MATCH_THREADS, "0").getMatchThreads();
+    }
+}
@@ -6,8 +6,11 @@ import org.junit.Test;
 
 import java.io.*;
 import java.net.MalformedURLException;
+import java.net.URI;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.StringJoiner;
 import java.util.concurrent.BlockingQueue;
@@ -33,7 +36,7 @@ public class WebsiteSearcherTests {
     private StringWriter outputWriter;
     private Pattern searchPattern;
     private BlockingQueue<WebsiteSearcherInput> inputQueue;
-    private BlockingQueue<URL> outputQueue;
+    private BlockingQueue<SearchResult> outputQueue;
 
     @Before
     public void setUp() {
@@ -117,8 +120,8 @@ public class WebsiteSearcherTests {
             underTest.shutdown();
             throw t;
         }
-        outputQueue.add(new URL(SITE_2));
-        outputQueue.add(new URL(SITE_3));
+        outputQueue.add(new SearchResult(URI.create(SITE_2).toURL(), Collections.singletonList(searchPattern)));
+        outputQueue.add(new SearchResult(URI.create(SITE_3).toURL(), Collections.singletonList(searchPattern)));
 
         // in a production application we might instrument the WebsiteSearcher with a listener callback
         // to verify this is completed, but for our purposes now we will just wait a bit
@@ -133,6 +136,101 @@ public class WebsiteSearcherTests {
                         .add(SITE_3).toString(), outputWriter.getBuffer().toString());
     }
 
+    @Test
+    public void testWriteMatchedPatternsToOutput() throws MalformedURLException, InterruptedException {
+        final Pattern otherPattern = Pattern.compile("other");
+        final WebsiteSearcher searcher = new WebsiteSearcher(inputReader, outputWriter,
+                new PatternSet(Arrays.asList(searchPattern, otherPattern)), inputQueue, outputQueue,
+                HostResolver.SYSTEM);
+        try {
+            initSearcher(searcher, NUM_SITES);
+            outputQueue.add(new SearchResult(URI.create(SITE_2).toURL(), Arrays.asList(searchPattern, otherPattern)));
+            outputQueue.add(new SearchResult(URI.create(SITE_3).toURL(), Collections.singletonList(otherPattern)));
+
+            Thread.sleep(1000);
+        } finally {
+            searcher.shutdown();
+        }
+
+        assertEquals(new StringJoiner(LINE_SEPARATOR, "", LINE_SEPARATOR).add(SITE_2 + "\tanything\tother")
+                        .add(SITE_3 + "\tother").toString(), outputWriter.getBuffer().toString());
+    }
+
+    @Test
+    public void testBoundedInputQueueHoldsBackReadingAndWritesResultsMeanwhile() throws Exception {
+        final BlockingQueue<WebsiteSearcherInput> boundedQueue = new LinkedBlockingQueue<>(1);
+        final SearchStatistics statistics = new SearchStatistics();
+        final WebsiteSearcher searcher = new WebsiteSearcher(inputReader, outputWriter, PatternSet.of(searchPattern),
+                boundedQueue, outputQueue, HostResolver.SYSTEM, statistics);
+        try {
+            searcher.start();
+            outputQueue.add(new SearchResult(URI.create(SITE_3).toURL(), Collections.singletonList(searchPattern)));
+
+            assertFalse(searcher.getInputProcessed().await(200, TimeUnit.MILLISECONDS));
+            assertEquals(SITE_3 + LINE_SEPARATOR, outputWriter.getBuffer().toString());
+
+            assertEquals(SITE_1, boundedQueue.take().getUrl().toString());
+            // let the last URL find the queue full again before making room for it
+            final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(INPUT_READ_TIMEOUT_MILLIS);
+            while (statistics.get(WebsiteSearcher.PRODUCER_BLOCKS) < 2 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(SITE_2, boundedQueue.take().getUrl().toString());
+            assertTrue(searcher.getInputProcessed().await(INPUT_READ_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+            assertEquals(SITE_3, boundedQueue.take().getUrl().toString());
+        } finally {
+            searcher.shutdown();
+        }
+
+        assertEquals(2, statistics.get(WebsiteSearcher.PRODUCER_BLOCKS));
+        assertTrue(statistics.get(WebsiteSearcher.PRODUCER_BLOCKED_MILLIS) >= 100);
+    }
+
+    @Test
+    public void testTrackedJobStopsOnceEveryUrlIsFinished() throws Exception {
+        final JobTracker job = new JobTracker();
+        final WebsiteSearcher searcher = new WebsiteSearcher(inputReader, outputWriter, PatternSet.of(searchPattern),
+                inputQueue, outputQueue, HostResolver.SYSTEM, new SearchStatistics(), job);
+        try {
+            initSearcher(searcher, NUM_SITES);
+            assertEquals(NUM_SITES, job.getEnqueued());
+
+            final WebsiteSearcherInput first = inputQueue.take();
+            job.onFinished(first, SearchOutcome.RETRYING);
+            job.onFinished(first, SearchOutcome.FAILED);
+            job.onFinished(inputQueue.take(), SearchOutcome.NOT_MATCHED);
+            final WebsiteSearcherInput last = inputQueue.take();
+            outputQueue.add(new SearchResult(last.getUrl(), Collections.singletonList(searchPattern)));
+            job.onFinished(last, SearchOutcome.MATCHED);
+
+            searcher.join(INPUT_READ_TIMEOUT_MILLIS);
+            assertFalse(searcher.isAlive());
+            assertFalse(searcher.isRunning());
+        } finally {
+            searcher.shutdown();
+        }
+
+        assertEquals(SITE_3 + LINE_SEPARATOR, outputWriter.getBuffer().toString());
+        assertTrue(job.isComplete());
+    }
+
+    @Test
+    public void testTrackedJobKeepsRunningWhileUrlsArePending() throws Exception {
+        final JobTracker job = new JobTracker();
+        final WebsiteSearcher searcher = new WebsiteSearcher(inputReader, outputWriter, PatternSet.of(searchPattern),
+                inputQueue, outputQueue, HostResolver.SYSTEM, new SearchStatistics(), job);
+        try {
+            initSearcher(searcher, NUM_SITES);
+            job.onFinished(inputQueue.take(), SearchOutcome.MATCHED);
+
+            searcher.join(300);
+            assertTrue(searcher.isAlive());
+            assertEquals(2, job.getPending());
+        } finally {
+            searcher.shutdown();
+        }
+    }
+
     private void initSearcher(WebsiteSearcher searcher, int numInputs) {
         searcher.start();
 
@@ -6,11 +6,15 @@ import org.junit.Test;
 
 import java.io.*;
 import java.net.MalformedURLException;
+import java.net.URI;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
 
 import static org.junit.Assert.*;
@@ -24,7 +28,7 @@ public class WebsiteSearcherWorkerTests {
     private WebsiteSearcherWorker underTest;
     private Pattern searchPattern;
     private BlockingQueue<WebsiteSearcherInput> inputQueue;
-    private BlockingQueue<URL> outputQueue;
+    private BlockingQueue<SearchResult> outputQueue;
 
     static {
         websites.put(SITE_1, "hello world\nI am a website\n");
@@ -176,9 +180,33 @@ public class WebsiteSearcherWorkerTests {
         }
     }
 
+    @Test
+    public void testWorkerOutlivesAnErrorInSearch() throws InterruptedException {
+        final BlockingQueue<SearchOutcome> outcomes = new LinkedBlockingQueue<>();
+        final byte[] longLine = new byte[200001];
+        Arrays.fill(longLine, (byte) 'a');
+        longLine[longLine.length - 1] = '\n';
+        underTest = new WebsiteSearcherWorker(inputQueue, outputQueue, url -> new ByteArrayInputStream(
+                url.toString().equals(SITE_1) ? longLine : websites.get(url.toString()).getBytes()),
+                (input, outcome) -> outcomes.add(outcome), PageBudget.UNLIMITED, RetryHandler.NONE,
+                new CharsetDetector(StandardCharsets.UTF_8, new SearchStatistics()));
+        underTest.start();
+
+        // the backtracking regex overflows the stack on the long line
+        searchPattern = Pattern.compile("(a|b)*c");
+        addSite(SITE_1);
+        assertEquals(SearchOutcome.FAILED, outcomes.poll(10, TimeUnit.SECONDS));
+        assertTrue(underTest.isAlive());
+
+        searchPattern = Pattern.compile("z+");
+        addSite(SITE_2);
+        assertEquals(SearchOutcome.MATCHED, outcomes.poll(10, TimeUnit.SECONDS));
+        assertEquals(SITE_2, outputQueue.take().toString());
+    }
+
     private void addSite(String site) {
         try {
-            inputQueue.offer(new WebsiteSearcherInput(searchPattern, new URL(site)));
+            inputQueue.offer(new WebsiteSearcherInput(searchPattern, URI.create(site).toURL()));
         } catch (MalformedURLException e) {
             throw new IllegalStateException("malformed constant in test: " + site);
         }
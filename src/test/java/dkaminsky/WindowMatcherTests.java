@@ -0,0 +1,93 @@
+package dkaminsky;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+public class WindowMatcherTests {
+    private static final MatchOptions SMALL_WINDOW = new MatchOptions(MatchOptions.Mode.WINDOW, 64, 16);
+
+    private static ContentMatcher matcherFor(final MatchOptions options, final Pattern... patterns) {
+        return new PatternSet(Arrays.asList(patterns), new SearchStatistics(), options)
+                .newMatcher(StandardCharsets.UTF_8);
+    }
+
+    private static boolean matches(final ContentMatcher matcher, final String content, final int pieceSize) {
+        final byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < bytes.length; i += pieceSize) {
+            if (matcher.feed(ByteBuffer.wrap(bytes, i, Math.min(pieceSize, bytes.length - i)))) {
+                return true;
+            }
+        }
+        return matcher.finish();
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testThrowsOnLookbackAsLargeAsWindow() {
+        new MatchOptions(MatchOptions.Mode.WINDOW, 16, 16);
+    }
+
+    @Test
+    public void testFindsMatchAcrossLines() {
+        final Pattern phrase = Pattern.compile("quick\\s+brown");
+        final String content = "the quick\r\nbrown fox";
+
+        assertTrue(matches(matcherFor(SMALL_WINDOW, phrase), content, 3));
+        assertFalse(matches(matcherFor(MatchOptions.DEFAULT, phrase), content, 3));
+    }
+
+    @Test
+    public void testFindsMatchStraddlingWindows() {
+        final StringBuilder content = new StringBuilder();
+        while (content.length() < 60) {
+            content.append('x');
+        }
+        content.append("ne+dle");
+        while (content.length() < 1000) {
+            content.append('y');
+        }
+        final Pattern needle = Pattern.compile("ne\\+dle");
+
+        for (int pieceSize = 1; pieceSize <= 100; pieceSize += 33) {
+            final ContentMatcher matcher = matcherFor(SMALL_WINDOW, needle);
+            assertTrue(matches(matcher, content.toString(), pieceSize));
+            assertEquals(Collections.singletonList(needle), matcher.getMatched());
+        }
+        assertFalse(matches(matcherFor(SMALL_WINDOW, needle), content.toString().replace("+", ""), 7));
+    }
+
+    @Test
+    public void testSearchesOneHugeLine() {
+        final StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 100000; i++) {
+            content.append("word ");
+        }
+        content.append("and more");
+        final Pattern and = Pattern.compile(".*\\sand\\s.*", Pattern.CASE_INSENSITIVE);
+
+        assertTrue(matches(matcherFor(SMALL_WINDOW, and), content.toString(), 8192));
+    }
+
+    @Test
+    public void testDecodesCharactersSplitAcrossPieces() {
+        final Pattern phrase = Pattern.compile("caf\u00e9\\s+br\u00fbl\u00e9e");
+
+        assertTrue(matches(matcherFor(SMALL_WINDOW, phrase), "un caf\u00e9\nbr\u00fbl\u00e9e", 1));
+    }
+
+    @Test
+    public void testReportsRegexRuns() {
+        final SearchStatistics statistics = new SearchStatistics();
+        final ContentMatcher matcher = new PatternSet(Collections.singletonList(Pattern.compile("a\\d")), statistics,
+                SMALL_WINDOW).newMatcher(StandardCharsets.UTF_8);
+
+        assertFalse(matches(matcher, "no digits here", 4));
+        assertEquals(1L, statistics.get(PatternSet.REGEX_RUNS));
+    }
+}